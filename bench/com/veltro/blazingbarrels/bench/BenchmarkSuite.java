@@ -0,0 +1,46 @@
+package com.veltro.blazingbarrels.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this package as one suite, with the GC profiler attached so that the allocation rate
+ * (gc.alloc.rate.norm, in bytes per operation) is reported next to the throughput and average time of every
+ * benchmark. The results are also written to a JSON file, to be kept as the baseline that codec and networking changes
+ * are compared against.<p>
+ *
+ * Usage: BenchmarkSuite [regular expression of the benchmarks to run] [result file] (by default, every benchmark in
+ * the package, written to bench-results.json)
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public final class BenchmarkSuite {
+
+	/**
+	 * Static utility class - not instantiable
+	 */
+	private BenchmarkSuite() { }
+
+	/**
+	 * Runs the suite
+	 *
+	 * @param args The benchmarks to include and the result file (both optional)
+	 * @throws RunnerException If JMH failed to run the benchmarks
+	 */
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : BenchmarkSuite.class.getPackage().getName() + ".*Benchmark";
+		String resultFile = args.length > 1 ? args[1] : "bench-results.json";
+		Options options = new OptionsBuilder()
+				.include(include)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,502 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Random;
+
+import com.veltro.blazingbarrels.engine.connect.Connection;
+import com.veltro.blazingbarrels.engine.connect.NetworkEngine;
+import com.veltro.blazingbarrels.engine.connect.NetworkMetrics;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet11SnapshotAck;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet20PlayerJoin;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet22PlayerDisconnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet40WeaponFire;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketPool;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+import com.veltro.blazingbarrels.engine.connect.packet.WeaponType;
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * One simulated player of the {@link LoadGenerator}: a headless client session with a {@link NetworkEngine} (and so a
+ * port) of its own, which authenticates, joins the game, and then flies a {@link #randomPath random or scripted} path
+ * while reporting its movement and firing, as a real client would. Snapshots are reconstructed and acknowledged, so
+ * that the server sends the same deltas it would to a real client.<p>
+ *
+ * The session measures the server's responses: the time from the authentication request to its response, from the
+ * join request to the server announcing the player, and from each movement update being sent to the server
+ * confirming its input sequence number (which the server does once per tick, so this includes up to a tick of
+ * waiting). Snapshots that never arrive are counted from the gaps in the snapshot tick numbers.<p>
+ *
+ * Sessions are not thread-safe: every method but the engine's own is called from the load generator's thread.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class BotSession {
+
+	/**
+	 * Session state: waiting for the response to the authentication request
+	 */
+	public static final int AUTHENTICATING = 0;
+
+	/**
+	 * Session state: authenticated, waiting for the server to announce the player
+	 */
+	public static final int JOINING = 1;
+
+	/**
+	 * Session state: in the game, moving and firing
+	 */
+	public static final int PLAYING = 2;
+
+	/**
+	 * Session state: turned away by the server (full, username taken or wrong password)
+	 */
+	public static final int REJECTED = 3;
+
+	/**
+	 * The speed, in pixels per second, at which bots fly
+	 */
+	private static final float SPEED = 256;
+
+	/**
+	 * The horizontal distance, in pixels, from the world's center within which bots fly
+	 */
+	private static final float FLIGHT_RADIUS = 1500;
+
+	/**
+	 * The authorization verdict of a successful authentication
+	 */
+	private static final int AUTHORIZED = 3;
+
+	/**
+	 * The number of movement updates whose send times are remembered (a power of two)
+	 */
+	private static final int SEND_TIME_CAPACITY = 1024;
+
+	/**
+	 * The hitscan weapons bots fire, in turn
+	 */
+	private static final WeaponType[] WEAPONS = {WeaponType.LASER_CANNON, WeaponType.MINI_GUN, WeaponType.RAIL_GUN};
+
+	/**
+	 * The bot's username
+	 */
+	private final String username;
+
+	/**
+	 * The ID the server assigned to the bot's player ({@link PacketCodec#NO_PLAYER} until the bot is authorized)
+	 */
+	private int playerID = PacketCodec.NO_PLAYER;
+
+	/**
+	 * The password sent with the authentication request (null if the server has none)
+	 */
+	private final String password;
+
+	/**
+	 * The IP address of the server
+	 */
+	private final InetAddress serverAddress;
+
+	/**
+	 * The port on the above address
+	 */
+	private final int serverPort;
+
+	/**
+	 * Whether the bot flies between random waypoints rather than around a scripted circle
+	 */
+	private final boolean randomPath;
+
+	/**
+	 * Whether the bot offers to receive compressed packets when authenticating
+	 */
+	private final boolean compression;
+
+	/**
+	 * Chooses the bot's path (seeded, so that a run can be repeated)
+	 */
+	private final Random random;
+
+	/**
+	 * The networking engine over which the bot talks to the server
+	 */
+	private final NetworkEngine engine;
+
+	/**
+	 * Reconstructs the received snapshots from their deltas
+	 */
+	private final SnapshotHistory snapshots = new SnapshotHistory();
+
+	/**
+	 * The latencies of the responses to authentication requests, to join requests and to movement updates
+	 */
+	private final LatencyHistogram authLatencies, joinLatencies, inputLatencies;
+
+	/**
+	 * The bot's current location
+	 */
+	private final Location3D location = new Location3D();
+
+	/**
+	 * The point the bot is flying towards (random path) or around (scripted path)
+	 */
+	private final Location3D target = new Location3D();
+
+	/**
+	 * The radius, in pixels, of the scripted circle
+	 */
+	private final float circleRadius;
+
+	/**
+	 * The angle, in radians, of the bot's position on the scripted circle
+	 */
+	private float circleAngle;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which each movement update was sent, indexed by input sequence
+	 * number modulo the {@link #SEND_TIME_CAPACITY}
+	 */
+	private final long[] sendTimes = new long[SEND_TIME_CAPACITY];
+
+	/**
+	 * The session's state (eg. {@link #PLAYING})
+	 */
+	private int state = AUTHENTICATING;
+
+	/**
+	 * The verdict of the authentication response (-1 until it is received)
+	 */
+	private int verdict = -1;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the pending request (authentication or join) was sent
+	 */
+	private long requestTime;
+
+	/**
+	 * The sequence number of the last movement update sent
+	 */
+	private int inputSequence = -1;
+
+	/**
+	 * The highest input sequence number confirmed by the server
+	 */
+	private int confirmedSequence = -1;
+
+	/**
+	 * The number of shots the bot may fire, accumulated at the fire rate (fractions are carried over)
+	 */
+	private float shotCredit;
+
+	/**
+	 * The number of shots fired
+	 */
+	private int shotCount;
+
+	/**
+	 * The newest snapshot tick received (-1 if none has been)
+	 */
+	private int newestTick = -1;
+
+	/**
+	 * The number of snapshots received newer than the ones before them, and the number skipped over between them
+	 */
+	private long snapshotsReceived, snapshotsMissed;
+
+	/**
+	 * Records the bot's traffic into a demo file (null if it is not being recorded)
+	 */
+	private DemoRecorder recorder;
+
+	/**
+	 * Constructor - binds the bot's networking engine to an ephemeral port
+	 *
+	 * @param username The bot's {@link #username}
+	 * @param password The {@link #password} (null if the server has none)
+	 * @param serverAddress The {@link #serverAddress}
+	 * @param serverPort The {@link #serverPort}
+	 * @param randomPath Whether the bot flies a {@link #randomPath random} path
+	 * @param compression Whether the bot accepts {@link #compression compressed} packets
+	 * @param seed The seed of the bot's {@link #random} path
+	 * @param authLatencies The histogram in which to record the latencies of authentication responses
+	 * @param joinLatencies The histogram in which to record the latencies of join responses
+	 * @param inputLatencies The histogram in which to record the latencies of movement confirmations
+	 * @throws IOException If the engine could not be bound
+	 */
+	public BotSession(String username, String password, InetAddress serverAddress, int serverPort, boolean randomPath,
+			boolean compression, long seed, LatencyHistogram authLatencies, LatencyHistogram joinLatencies,
+			LatencyHistogram inputLatencies) throws IOException {
+		this.username = username;
+		this.password = password;
+		this.serverAddress = serverAddress;
+		this.serverPort = serverPort;
+		this.randomPath = randomPath;
+		this.compression = compression;
+		this.authLatencies = authLatencies;
+		this.joinLatencies = joinLatencies;
+		this.inputLatencies = inputLatencies;
+		random = new Random(seed);
+		circleRadius = 100 + random.nextFloat() * 400;
+		circleAngle = random.nextFloat() * (float) (2 * Math.PI);
+		engine = new NetworkEngine(null, PacketRegistry.createClientRegistry());
+	}
+
+	/**
+	 * Starts the bot's networking engine and sends the authentication request
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public void connect(long now) {
+		engine.start();
+		requestTime = now;
+		engine.sendPacket(new Packet00AuthRequest(username, password, compression, serverAddress, serverPort));
+	}
+
+	/**
+	 * Handles every packet the bot has received: moves the session along as the server responds, reconstructs and
+	 * acknowledges snapshots, and records the latency of each response
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public void receive(long now) {
+		BBPacket packet;
+		while ((packet = engine.incomingPacketQueue.poll()) != null) {
+			switch (packet.getID()) {
+				case 1:
+					authenticated((Packet01AuthResponse) packet, now);
+					break;
+				case 10:
+					receiveSnapshot((Packet10ServerSnapshot) packet, now);
+					break;
+				case 21:
+					joined((Packet21PlayerConnect) packet, now);
+					break;
+				case 30:
+					Packet30PlayerUpdate update = (Packet30PlayerUpdate) packet;
+					int sequence = update.getInputSequence();
+					if (update.getPlayerID() == playerID && sequence > confirmedSequence &&
+							sequence <= inputSequence && inputSequence - sequence < SEND_TIME_CAPACITY) {
+						inputLatencies.record(now - sendTimes[sequence & (SEND_TIME_CAPACITY - 1)]);
+						confirmedSequence = sequence;
+					}
+					break;
+			}
+			PacketPool.release(packet);
+		}
+	}
+
+	/**
+	 * Moves the bot along its path and sends the server its new location, then fires the shots due at the fire rate
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param seconds The time, in seconds, since the last update
+	 * @param fireRate The number of shots to fire per second
+	 */
+	public void update(long now, float seconds, float fireRate) {
+		if (state != PLAYING)
+			return;
+		fly(seconds);
+		Packet30PlayerUpdate update = new Packet30PlayerUpdate(playerID, location.clone(), -1, false, false, false,
+				false, serverAddress, serverPort);
+		update.setInputSequence(++inputSequence);
+		sendTimes[inputSequence & (SEND_TIME_CAPACITY - 1)] = now;
+		engine.sendPacket(update);
+
+		shotCredit = Math.min(shotCredit + fireRate * seconds, 1 + fireRate);
+		for (; shotCredit >= 1; shotCredit--)
+			engine.sendPacket(new Packet40WeaponFire(playerID, location.clone(), WEAPONS[shotCount++ % WEAPONS.length],
+					serverAddress, serverPort));
+	}
+
+	/**
+	 * Tells the server the bot is leaving, if it joined. The engine should be given a moment to send the (reliable)
+	 * packet before being {@link #terminate() terminated}.
+	 */
+	public void disconnect() {
+		if (state == PLAYING || state == JOINING)
+			engine.sendPacket(new Packet22PlayerDisconnect(playerID, 0, serverAddress, serverPort));
+	}
+
+	/**
+	 * Records the bot's traffic into a demo file from now on, supplying a keyframe of the bot's snapshot history at
+	 * the recorder's interval
+	 *
+	 * @param recorder The {@link #recorder} (null to stop recording)
+	 */
+	public void setRecorder(DemoRecorder recorder) {
+		this.recorder = recorder;
+		engine.getConnectionTable().setRecorder(recorder);
+	}
+
+	/**
+	 * Stops the bot's networking engine
+	 */
+	public void terminate() {
+		engine.terminate();
+	}
+
+	/**
+	 * Handles the response to the authentication request: joins the game if the bot was authorized
+	 *
+	 * @param response The response
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void authenticated(Packet01AuthResponse response, long now) {
+		if (state != AUTHENTICATING)
+			return;
+		authLatencies.record(now - requestTime);
+		verdict = response.getAuthorizationVerdictID();
+		if (verdict != AUTHORIZED) {
+			state = REJECTED;
+			return;
+		}
+		playerID = response.getPlayerID();
+		getConnection().setCompressionEnabled(response.isCompressionEnabled());
+		state = JOINING;
+		requestTime = now;
+		engine.sendPacket(new Packet20PlayerJoin(playerID, false, serverAddress, serverPort));
+	}
+
+	/**
+	 * Handles the server announcing a player: if it is the bot, the bot has joined and starts flying from its spawn
+	 * location
+	 *
+	 * @param announcement The announcement
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void joined(Packet21PlayerConnect announcement, long now) {
+		if (state != JOINING || announcement.getPlayerID() != playerID)
+			return;
+		joinLatencies.record(now - requestTime);
+		Location3D spawn = announcement.getSpawnLocation();
+		location.setCoordinates(spawn.getX(), spawn.getY(), spawn.getZ());
+		chooseTarget();
+		state = PLAYING;
+	}
+
+	/**
+	 * Reconstructs a snapshot and acknowledges it, counting the snapshots skipped since the newest one before it.
+	 * If the bot is being recorded and a keyframe is due, the snapshot history is supplied as one.
+	 *
+	 * @param packet The snapshot packet
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void receiveSnapshot(Packet10ServerSnapshot packet, long now) {
+		int tick = packet.getTick();
+		if (tick > newestTick) {
+			if (newestTick >= 0)
+				snapshotsMissed += tick - newestTick - 1;
+			snapshotsReceived++;
+			newestTick = tick;
+		}
+		if (snapshots.receive(packet) == null)
+			return;
+		engine.sendPacket(new Packet11SnapshotAck(tick, serverAddress, serverPort));
+		if (recorder != null && recorder.isKeyframeDue(now))
+			recorder.recordKeyframe(snapshots.createKeyframe(serverAddress, serverPort));
+	}
+
+	/**
+	 * Advances the bot along its path
+	 *
+	 * @param seconds The time, in seconds, to fly for
+	 */
+	private void fly(float seconds) {
+		float distance = SPEED * seconds;
+		if (randomPath) {
+			float dx = target.getX() - location.getX(), dy = target.getY() - location.getY();
+			float dz = target.getZ() - location.getZ();
+			float remaining = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			if (remaining <= distance) {
+				location.setCoordinates(target.getX(), target.getY(), target.getZ());
+				chooseTarget();
+			} else {
+				location.translate(dx / remaining * distance, dy / remaining * distance, dz / remaining * distance);
+				location.setRotation((float) Math.toDegrees(Math.atan2(dx, -dz)), (float) Math.toDegrees(
+						Math.asin(dy / remaining)), 0);
+			}
+		} else {
+			circleAngle += distance / circleRadius;
+			location.setCoordinates(target.getX() + circleRadius * (float) Math.cos(circleAngle),
+					target.getY() + 50 * (float) Math.sin(circleAngle * 3),
+					target.getZ() + circleRadius * (float) Math.sin(circleAngle));
+			location.setRotation((float) Math.toDegrees(circleAngle) % 360, 0, 0);
+		}
+	}
+
+	/**
+	 * Chooses the next random waypoint, or the center of the scripted circle
+	 */
+	private void chooseTarget() {
+		double angle = random.nextDouble() * 2 * Math.PI, radius = Math.sqrt(random.nextDouble()) * FLIGHT_RADIUS;
+		target.setCoordinates((float) (radius * Math.cos(angle)), 20 + random.nextFloat() * 300,
+				(float) (radius * Math.sin(angle)));
+	}
+
+	/**
+	 * @return The bot's username
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return The session's state (eg. {@link #PLAYING})
+	 */
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * @return The verdict of the authentication response (-1 until it is received)
+	 */
+	public int getVerdict() {
+		return verdict;
+	}
+
+	/**
+	 * @return The number of snapshots received in order
+	 */
+	public long getSnapshotsReceived() {
+		return snapshotsReceived;
+	}
+
+	/**
+	 * @return The number of snapshots that never arrived (or arrived after a newer one)
+	 */
+	public long getSnapshotsMissed() {
+		return snapshotsMissed;
+	}
+
+	/**
+	 * @return The number of shots fired
+	 */
+	public int getShotCount() {
+		return shotCount;
+	}
+
+	/**
+	 * @return The counters of the traffic through the bot's socket
+	 */
+	public NetworkMetrics getMetrics() {
+		return engine.getConnectionTable().getMetrics();
+	}
+
+	/**
+	 * @return The bot's connection to the server, which counts the datagrams expected from and received from it
+	 */
+	public Connection getConnection() {
+		return engine.getConnectionTable().get(serverAddress, serverPort);
+	}
+}
@@ -0,0 +1,98 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.veltro.blazingbarrels.engine.connect.packet.EncodedPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+
+/**
+ * Measures the cost of sending one packet to many clients: constructing and encoding a packet per recipient, against
+ * encoding the packet once into an {@link EncodedPacket} and encoding a copy of it per recipient. Each operation
+ * covers every recipient, as in one broadcast from a full server.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastEncodeBenchmark {
+
+	/**
+	 * The ID of the packet type being broadcast
+	 */
+	@Param({"21", "22", "30", "40"})
+	public int id;
+
+	/**
+	 * The number of clients the packet is sent to
+	 */
+	@Param({"31"})
+	public int recipients;
+
+	/**
+	 * The address of the clients
+	 */
+	private InetAddress address;
+
+	/**
+	 * The buffer into which each packet is encoded, as the batcher does
+	 */
+	private ByteBuffer frame;
+
+	/**
+	 * Allocates the buffer
+	 */
+	@Setup
+	public void setup() {
+		address = InetAddress.getLoopbackAddress();
+		frame = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+	}
+
+	/**
+	 * Constructs and encodes a packet for every recipient
+	 *
+	 * @return The buffer holding the last frame
+	 */
+	@Benchmark
+	public ByteBuffer encodePerRecipient() {
+		for (int i = 0; i < recipients; i++) {
+			frame.clear();
+			PacketCodec.encode(SamplePackets.create(id, address, 25565 + i), frame);
+		}
+		return frame;
+	}
+
+	/**
+	 * Constructs and encodes the packet once, then encodes a copy for every recipient
+	 *
+	 * @return The buffer holding the last frame
+	 */
+	@Benchmark
+	public ByteBuffer encodeOnce() {
+		EncodedPacket encoded = EncodedPacket.encode(SamplePackets.create(id, address, 25565));
+		for (int i = 0; i < recipients; i++) {
+			frame.clear();
+			EncodedPacket copy = encoded.addressedTo(address, 25565 + i);
+			PacketCodec.encode(copy, frame);
+		}
+		return frame;
+	}
+}
@@ -0,0 +1,251 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.veltro.blazingbarrels.engine.connect.demo.DemoPlayer;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet22PlayerDisconnect;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketHandler;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+import com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot;
+
+/**
+ * A console player for demo files, recorded by a client (such as a {@link LoadGenerator} bot) or by the server. The
+ * demo is played through a {@link DemoPlayer} into a packet queue, which is consumed by a client packet registry with
+ * {@link PacketRegistry#handleAll(Queue)} exactly as a client consumes its network engine's queue: snapshots are
+ * reconstructed from their deltas, and the state of the world is printed every second of the recording, along with
+ * every player joining and leaving. Players are named after the introductions played, kept in an array indexed by
+ * player ID; a player introduced before the point the demo was seeked to is shown by ID alone.<p>
+ *
+ * A client demo plays the packets the client received. A server demo plays the packets the server sent to one client,
+ * chosen with -peer, and seeks to the keyframe views the server took for that client.<p>
+ *
+ * Usage: DemoPlayback &lt;demo file&gt; [-seek &lt;seconds&gt;] [-speed &lt;factor&gt;] [-peer &lt;host:port&gt;]
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class DemoPlayback {
+
+	/**
+	 * The time between checks for the records due, which bounds how late a packet is played
+	 */
+	private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * The interval, in nanoseconds of the recording, at which the state of the world is printed
+	 */
+	private static final long SUMMARY_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Plays the demo file
+	 */
+	private final DemoPlayer player;
+
+	/**
+	 * Dispatches the packets played to the handlers below
+	 */
+	private final PacketRegistry registry = PacketRegistry.createClientRegistry();
+
+	/**
+	 * The packets played, until the registry handles them
+	 */
+	private final Queue<BBPacket> queue = new ArrayDeque<BBPacket>();
+
+	/**
+	 * Reconstructs the played snapshots from their deltas (replaced on every seek)
+	 */
+	private SnapshotHistory snapshots = new SnapshotHistory();
+
+	/**
+	 * The newest snapshot reconstructed (null if none has been since the last seek)
+	 */
+	private WorldSnapshot world;
+
+	/**
+	 * The time of the recording being played, in nanoseconds since its start
+	 */
+	private long time;
+
+	/**
+	 * The names of the players introduced so far, indexed by player ID (null where no player has been introduced)
+	 */
+	private final String[] names = new String[PacketCodec.MAX_PLAYERS];
+
+	/**
+	 * The number of shots played since the last summary
+	 */
+	private int shots;
+
+	/**
+	 * Constructor - opens the demo file and registers the handlers of the packets it plays
+	 *
+	 * @param file The demo file
+	 * @param peer The IP address of the client whose packets to play from a server demo (null to play a client demo)
+	 * @param port The port on the above address
+	 * @throws IOException If the file could not be read, or is not a demo file
+	 */
+	public DemoPlayback(File file, InetAddress peer, int port) throws IOException {
+		player = new DemoPlayer(file, registry);
+		if (peer != null)
+			player.setSource(DemoRecorder.SENT, peer, port);
+		registry.setHandler(10, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				WorldSnapshot received = snapshots.receive((Packet10ServerSnapshot) packet);
+				if (received != null && (world == null || received.getTick() > world.getTick()))
+					world = received;
+			}
+		});
+		registry.setHandler(21, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				Packet21PlayerConnect connect = (Packet21PlayerConnect) packet;
+				names[connect.getPlayerID()] = connect.getUsername();
+				System.out.println(String.format("[%.2f s] %s joined at %s", time / 1e9,
+						getName(connect.getPlayerID()), connect.getSpawnLocation()));
+			}
+		});
+		registry.setHandler(22, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				int playerID = ((Packet22PlayerDisconnect) packet).getPlayerID();
+				if (playerID == PacketCodec.NO_PLAYER)
+					return;
+				System.out.println(String.format("[%.2f s] %s left", time / 1e9, getName(playerID)));
+				names[playerID] = null;
+			}
+		});
+		registry.setHandler(40, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				shots++;
+			}
+		});
+	}
+
+	/**
+	 * Plays the demo from the provided time to its end, printing the state of the world every
+	 * {@link #SUMMARY_INTERVAL}
+	 *
+	 * @param from The time from which to play, in nanoseconds since the start of the recording
+	 * @param speed The speed of playback (1 for real time)
+	 */
+	public void play(long from, double speed) {
+		player.seek(from);
+		snapshots = new SnapshotHistory();
+		world = null;
+		time = from;
+		player.advance(from, queue); // Catch up to the starting point without printing the world along the way
+		registry.handleAll(queue);
+		shots = 0;
+		long start = System.nanoTime(), nextSummary = from;
+		while (!player.isFinished()) {
+			time = from + (long) ((System.nanoTime() - start) * speed);
+			player.advance(time, queue);
+			registry.handleAll(queue);
+			if (time - nextSummary >= 0) {
+				System.out.println(createSummary());
+				nextSummary += SUMMARY_INTERVAL;
+			}
+			LockSupport.parkNanos(POLL_INTERVAL);
+		}
+		System.out.println(createSummary());
+		player.close();
+	}
+
+	/**
+	 * Summarizes the newest snapshot and the shots played since the last summary
+	 *
+	 * @return The summary
+	 */
+	private String createSummary() {
+		StringBuilder summary = new StringBuilder(String.format("[%.2f s] ", time / 1e9));
+		if (world == null)
+			summary.append("no snapshot yet");
+		else {
+			int health = 0;
+			for (int i = 0; i < world.getPlayerCount(); i++)
+				health += world.getPlayer(i).getHealth();
+			summary.append(String.format("tick %d: %d players", world.getTick(), world.getPlayerCount()));
+			if (world.getPlayerCount() > 0)
+				summary.append(String.format(", average health %.0f/%d", (double) health / world.getPlayerCount(),
+						world.getHealthCap()));
+		}
+		summary.append(String.format(", %d shots", shots));
+		shots = 0;
+		return summary.toString();
+	}
+
+	/**
+	 * @param playerID A player ID
+	 * @return The player's name and ID, or the ID alone if the player's introduction has not been played
+	 */
+	private String getName(int playerID) {
+		return names[playerID] == null ? "#" + playerID : names[playerID] + " (#" + playerID + ")";
+	}
+
+	/**
+	 * Launch point for the demo player. See the class description for the arguments.
+	 *
+	 * @param args The command line arguments
+	 */
+	public static void main(String[] args) {
+		double seek = 0, speed = 1;
+		InetAddress peer = null;
+		int port = 0;
+		try {
+			if (args.length == 0)
+				throw new IllegalArgumentException("Missing demo file");
+			for (int i = 1; i < args.length; i++) {
+				String option = args[i].toLowerCase();
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				String value = args[++i];
+				if (option.equals("-seek"))
+					seek = Double.parseDouble(value);
+				else if (option.equals("-speed"))
+					speed = Double.parseDouble(value);
+				else if (option.equals("-peer")) {
+					int separator = value.lastIndexOf(':');
+					if (separator < 0)
+						throw new IllegalArgumentException("The peer must be given as <host>:<port>");
+					peer = InetAddress.getByName(value.substring(0, separator));
+					port = Integer.parseInt(value.substring(separator + 1));
+				} else
+					throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+			}
+			if (seek < 0 || speed <= 0)
+				throw new IllegalArgumentException("The seek time cannot be negative, and the speed must be positive");
+		} catch (IllegalArgumentException e) { // Includes NumberFormatException
+			System.err.println(e.getMessage());
+			System.err.println("Usage: DemoPlayback <demo file> [-seek <seconds>] [-speed <factor>] " +
+					"[-peer <host:port>]");
+			System.exit(1);
+			return;
+		} catch (IOException e) { // Includes UnknownHostException
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		DemoPlayback playback;
+		try {
+			playback = new DemoPlayback(new File(args[0]), peer, port);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+		System.out.println(String.format("Playing %s (%.1f s, %d keyframes) from %.1f s at %.1fx", args[0],
+				playback.player.getDuration() / 1e9, playback.player.getKeyframeCount(), seek, speed));
+		playback.play((long) (seek * 1e9), speed);
+	}
+}
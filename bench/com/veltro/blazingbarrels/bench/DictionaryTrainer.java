@@ -0,0 +1,254 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import com.veltro.blazingbarrels.engine.connect.demo.DemoPlayer;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCompressor;
+
+/**
+ * Trains a preset dictionary for the {@link PacketCompressor} from captured traffic: the frames of the
+ * {@link PacketCodec#isCompressible(int) compressible} packets (snapshots and player introductions) a server sent, as
+ * recorded in its demo files (see the -record option of the server). The dictionary is made of whole frames taken at
+ * even intervals across the captures, so that it holds the field layouts, usernames and values the server actually
+ * sends, in the proportions it sends them, up to the requested size.<p>
+ *
+ * The compressed size of the frames of a test capture is then measured three ways - without a dictionary, with the
+ * compressor's current dictionary, and with the trained one - counting, as the sender does, a frame that compression
+ * would not shrink at its original size. The test capture should not be one of the training captures, so that the
+ * ratios show how the dictionary does on traffic it has not seen. Finally the trained dictionary is printed as a
+ * hexadecimal literal, ready to replace {@link PacketCompressor}'s (along with a new version).<p>
+ *
+ * Usage: DictionaryTrainer [-size &lt;bytes&gt;] [-test &lt;demo file&gt;] &lt;demo file&gt;...
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class DictionaryTrainer {
+
+	/**
+	 * The default size of the trained dictionary, in bytes: larger dictionaries save a little more, but priming the
+	 * compressor with one costs time on every frame
+	 */
+	public static final int DEFAULT_SIZE = 4096;
+
+	/**
+	 * The number of hexadecimal digits printed per line of the literal
+	 */
+	private static final int HEX_LINE_LENGTH = 96;
+
+	/**
+	 * Static utility class - not instantiable
+	 */
+	private DictionaryTrainer() {
+	}
+
+	/**
+	 * Reads the frames of the compressible packets a server sent from one of its demo files. The frames are read as
+	 * recorded, following the layout described by the {@link DemoRecorder}: a {@link DemoPlayer} would decode them,
+	 * and a decoded snapshot cannot be encoded again (only the sending side holds the snapshots its delta is made of).
+	 *
+	 * @param file The demo file
+	 * @return The frames, in the order they were sent
+	 * @throws IOException If the file could not be read, or is not a demo file
+	 */
+	public static List<byte[]> readFrames(File file) throws IOException {
+		RandomAccessFile demo = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = demo.getChannel();
+			long length = channel.size();
+			if (length < DemoRecorder.HEADER_SIZE)
+				throw new IOException(file + " is not a demo file");
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, DemoRecorder.HEADER_SIZE);
+			if (header.getInt() != DemoRecorder.MAGIC || header.getShort() != DemoRecorder.VERSION)
+				throw new IOException(file + " is not a demo file, or was recorded by another version");
+			header.getShort();
+			int segmentSize = header.getInt();
+			List<byte[]> frames = new ArrayList<byte[]>();
+			for (long offset = 0; offset < length; offset += segmentSize) {
+				ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+						Math.min(segmentSize, length - offset));
+				if (offset == 0)
+					segment.position(DemoRecorder.HEADER_SIZE);
+				while (segment.remaining() >= DemoRecorder.RECORD_HEADER_SIZE) {
+					int start = segment.position();
+					int kind = segment.get(start);
+					if (kind == 0) // The end of the recording
+						return frames;
+					if (kind == DemoRecorder.SEGMENT_END)
+						break;
+					int dataStart = start + DemoRecorder.RECORD_HEADER_SIZE + (segment.get(start + 1) & 0xFF);
+					int dataEnd = dataStart + segment.getInt(start + 4);
+					if (dataEnd > segment.limit()) // A record cut short by a crash
+						return frames;
+					if (kind == DemoRecorder.SENT && PacketCodec.isCompressible(segment.get(dataStart) & 0xFF)) {
+						byte[] frame = new byte[dataEnd - dataStart];
+						segment.position(dataStart);
+						segment.get(frame);
+						frames.add(frame);
+					}
+					segment.position(dataEnd);
+				}
+			}
+			return frames;
+		} finally {
+			demo.close();
+		}
+	}
+
+	/**
+	 * Builds a dictionary from whole frames taken at even intervals across the provided ones, as many as the average
+	 * frame size says will fill it
+	 *
+	 * @param frames The training frames
+	 * @param size The size of the dictionary, in bytes (the last frame taken is cut short to fit)
+	 * @return The dictionary
+	 */
+	public static byte[] train(List<byte[]> frames, int size) {
+		long total = 0;
+		for (byte[] frame : frames)
+			total += frame.length;
+		int count = (int) Math.min(frames.size(), size * (long) frames.size() / Math.max(1, total) + 1);
+		ByteBuffer dictionary = ByteBuffer.allocate(size);
+		for (int i = 0; i < count && dictionary.hasRemaining(); i++) {
+			byte[] frame = frames.get((int) ((long) i * frames.size() / count));
+			dictionary.put(frame, 0, Math.min(frame.length, dictionary.remaining()));
+		}
+		byte[] result = new byte[dictionary.position()];
+		System.arraycopy(dictionary.array(), 0, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * Measures the size of frames once compressed with a dictionary, as sent: a frame that compression would not
+	 * shrink by a byte is counted at its original size
+	 *
+	 * @param frames The frames to compress
+	 * @param dictionary The preset dictionary (null for none)
+	 * @return The compressed size of the frames as a share of their original size
+	 */
+	public static double measure(List<byte[]> frames, byte[] dictionary) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		byte[] output = new byte[PacketCodec.MAX_PACKET_SIZE * 2];
+		long original = 0, compressed = 0;
+		for (byte[] frame : frames) {
+			deflater.reset();
+			if (dictionary != null)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(frame);
+			deflater.finish();
+			int size = PacketCodec.COMPRESSED_HEADER_SIZE;
+			while (!deflater.finished())
+				size += deflater.deflate(output);
+			original += frame.length;
+			compressed += Math.min(size, frame.length);
+		}
+		deflater.end();
+		return original == 0 ? 1 : (double) compressed / original;
+	}
+
+	/**
+	 * Measures the size of frames once compressed by a {@link PacketCompressor}, with its current dictionary
+	 *
+	 * @param frames The frames to compress
+	 * @return The compressed size of the frames as a share of their original size
+	 */
+	public static double measureCurrent(List<byte[]> frames) {
+		PacketCompressor compressor = new PacketCompressor();
+		ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+		long original = 0, compressed = 0;
+		for (byte[] frame : frames) {
+			buffer.clear();
+			buffer.put(frame);
+			compressor.compress(buffer, 0);
+			original += frame.length;
+			compressed += buffer.position();
+		}
+		return original == 0 ? 1 : (double) compressed / original;
+	}
+
+	/**
+	 * Formats a dictionary as a Java string literal of hexadecimal digits, split into concatenated lines
+	 *
+	 * @param dictionary The dictionary
+	 * @return The literal
+	 */
+	public static String toLiteral(byte[] dictionary) {
+		StringBuilder hex = new StringBuilder(dictionary.length * 2);
+		for (byte b : dictionary)
+			hex.append(String.format("%02x", b & 0xFF));
+		StringBuilder literal = new StringBuilder();
+		for (int i = 0; i < hex.length(); i += HEX_LINE_LENGTH) {
+			if (i > 0)
+				literal.append(" +\n");
+			literal.append("\t\t\t\"").append(hex, i, Math.min(i + HEX_LINE_LENGTH, hex.length())).append('"');
+		}
+		return literal.append(';').toString();
+	}
+
+	/**
+	 * Launch point for the trainer. See the class description for the arguments.
+	 *
+	 * @param args The command line arguments
+	 */
+	public static void main(String[] args) {
+		int size = DEFAULT_SIZE;
+		File test = null;
+		List<File> training = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i].toLowerCase();
+				if (!option.startsWith("-")) {
+					training.add(new File(args[i]));
+					continue;
+				}
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				String value = args[++i];
+				if (option.equals("-size"))
+					size = Integer.parseInt(value);
+				else if (option.equals("-test"))
+					test = new File(value);
+				else
+					throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+			}
+			if (training.isEmpty())
+				throw new IllegalArgumentException("Missing demo file");
+			if (size <= 0)
+				throw new IllegalArgumentException("The size must be positive");
+		} catch (IllegalArgumentException e) { // Includes NumberFormatException
+			System.err.println(e.getMessage());
+			System.err.println("Usage: DictionaryTrainer [-size <bytes>] [-test <demo file>] <demo file>...");
+			System.exit(1);
+			return;
+		}
+
+		try {
+			List<byte[]> frames = new ArrayList<byte[]>();
+			for (File file : training)
+				frames.addAll(readFrames(file));
+			byte[] dictionary = train(frames, size);
+			System.out.println(String.format("Trained a %d-byte dictionary from %d frames", dictionary.length,
+					frames.size()));
+			if (test != null) {
+				List<byte[]> testFrames = readFrames(test);
+				System.out.println(String.format("Compressed size of the %d frames of %s: %.1f%% without a " +
+						"dictionary, %.1f%% with the current dictionary (version %d), %.1f%% with the trained one",
+						testFrames.size(), test, measure(testFrames, null) * 100, measureCurrent(testFrames) * 100,
+						PacketCompressor.DICTIONARY_VERSION, measure(testFrames, dictionary) * 100));
+			}
+			System.out.println(toLiteral(dictionary));
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.veltro.blazingbarrels.bench;
+
+/**
+ * A fixed-size histogram of latencies, from which percentiles can be read without keeping every sample, so that a
+ * soak test can run for hours in constant memory. Latencies are recorded in microseconds, exactly below 64 us and in
+ * 32 logarithmic sub-buckets per power of two above, so a reported percentile is within about 3% of the true value.
+ * Not thread-safe.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of sub-buckets per power of two, above the exact range
+	 */
+	private static final int SUB_BUCKETS = 32;
+
+	/**
+	 * The latencies, in microseconds, below which every bucket holds a single value
+	 */
+	private static final int EXACT_RANGE = SUB_BUCKETS * 2;
+
+	/**
+	 * The number of buckets: enough for latencies of up to 2^40 us (about 12 days)
+	 */
+	private static final int BUCKETS = EXACT_RANGE + (40 - 6) * SUB_BUCKETS;
+
+	/**
+	 * The number of latencies recorded in each bucket
+	 */
+	private final long[] counts = new long[BUCKETS];
+
+	/**
+	 * The number of latencies recorded
+	 */
+	private long count;
+
+	/**
+	 * The sum of the latencies recorded, in microseconds
+	 */
+	private long total;
+
+	/**
+	 * The largest latency recorded, in microseconds
+	 */
+	private long max;
+
+	/**
+	 * Records a latency
+	 *
+	 * @param nanos The latency, in nanoseconds (negative values are recorded as 0)
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(nanos / 1000, 0);
+		counts[bucket(micros)]++;
+		count++;
+		total += micros;
+		max = Math.max(max, micros);
+	}
+
+	/**
+	 * Adds every latency recorded by another histogram to this one
+	 *
+	 * @param other The other histogram
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		total += other.total;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Forgets every latency recorded
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts[i] = 0;
+		count = total = max = 0;
+	}
+
+	/**
+	 * @return The number of latencies recorded
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @param fraction The fraction (0 to 1) of latencies at or below the percentile (eg. 0.99 for the 99th)
+	 * @return The percentile, in milliseconds (0 if nothing has been recorded)
+	 */
+	public double getPercentile(double fraction) {
+		long rank = Math.max((long) Math.ceil(fraction * count), 1), seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			if ((seen += counts[i]) >= rank)
+				return Math.min(lowerBound(i), max) / 1e3;
+		return max / 1e3;
+	}
+
+	/**
+	 * @return A summary of the latencies, in milliseconds
+	 */
+	@Override
+	public String toString() {
+		if (count == 0)
+			return "n/a";
+		return String.format("avg %.1f ms, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms", total / 1e3 / count,
+				getPercentile(0.5), getPercentile(0.9), getPercentile(0.99), max / 1e3);
+	}
+
+	/**
+	 * @param micros A latency, in microseconds
+	 * @return The index of the bucket counting the latency
+	 */
+	private static int bucket(long micros) {
+		if (micros < EXACT_RANGE)
+			return (int) micros;
+		int exponent = 63 - Long.numberOfLeadingZeros(micros); // At least 6
+		int index = EXACT_RANGE + (exponent - 6) * SUB_BUCKETS + (int) (micros >>> (exponent - 5)) - SUB_BUCKETS;
+		return Math.min(index, BUCKETS - 1);
+	}
+
+	/**
+	 * @param bucket The index of a bucket
+	 * @return The smallest latency, in microseconds, counted by the bucket
+	 */
+	private static long lowerBound(int bucket) {
+		if (bucket < EXACT_RANGE)
+			return bucket;
+		int exponent = (bucket - EXACT_RANGE) / SUB_BUCKETS + 6;
+		return (long) (SUB_BUCKETS + (bucket - EXACT_RANGE) % SUB_BUCKETS) << (exponent - 5);
+	}
+}
@@ -0,0 +1,368 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.veltro.blazingbarrels.engine.connect.Connection;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.server.BBServer;
+
+/**
+ * A soak-testing tool that loads a running server with simulated players, to find the player count at which the
+ * server (or the machine it runs on) can no longer keep up. One JVM runs any number of {@link BotSession bot
+ * sessions}, each with a socket of its own, started one after another at the ramp interval. Every session
+ * authenticates, joins the game, and then sends its movement at the update rate and fires at the fire rate, flying
+ * either random or scripted paths.<p>
+ *
+ * Every {@link #REPORT_INTERVAL} seconds, and for the whole run at the end, the generator reports how many sessions
+ * are playing, the latency percentiles of the server's responses (to authentication requests, join requests and
+ * movement updates), the rate of snapshots each bot received, the share of snapshots that never arrived, and the
+ * datagram loss measured by the bots' connections. A server that is falling behind shows up as climbing movement
+ * latency and snapshot loss well before it fails outright. When the bots accept compression, the report also gives
+ * the size of the compressed frames they received as a share of their uncompressed size.<p>
+ *
+ * The server limits the rate and the connections of each host, and all the bots of a generator share its host, so the
+ * server under test should be started with -ratelimit 0 -maxperhost 0.<p>
+ *
+ * The traffic of the first bot can be recorded into a demo file, to be watched with {@link DemoPlayback}.<p>
+ *
+ * All sessions are driven from one thread; each also has the thread of its own networking engine, so a run of
+ * several hundred bots may need its thread limits raised.<p>
+ *
+ * Usage: LoadGenerator [-host &lt;host&gt;] [-port &lt;port&gt;] [-bots &lt;count&gt;] [-updaterate &lt;updates per
+ * second&gt;] [-firerate &lt;shots per second&gt;] [-path random|scripted] [-ramp &lt;milliseconds between
+ * sessions&gt;] [-seconds &lt;duration&gt;] [-password &lt;password&gt;] [-name &lt;username prefix&gt;]
+ * [-compression on|off] [-record &lt;demo file&gt;]
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class LoadGenerator {
+
+	/**
+	 * The interval, in seconds, at which the statistics are reported
+	 */
+	public static final int REPORT_INTERVAL = 5;
+
+	/**
+	 * The time given to the engines to send the bots' disconnect packets before they are terminated
+	 */
+	private static final long DISCONNECT_TIME = TimeUnit.MILLISECONDS.toNanos(500);
+
+	/**
+	 * The time between checks for responses while waiting for the next update, which bounds the error of the
+	 * measured latencies
+	 */
+	private static final long POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * The sessions, in the order they are started
+	 */
+	private final BotSession[] bots;
+
+	/**
+	 * The number of movement updates each bot sends per second
+	 */
+	private final int updateRate;
+
+	/**
+	 * The number of shots each bot fires per second
+	 */
+	private final float fireRate;
+
+	/**
+	 * The time, in nanoseconds, between the starts of consecutive sessions
+	 */
+	private final long rampInterval;
+
+	/**
+	 * The latencies of the responses since the last report
+	 */
+	private final LatencyHistogram authLatencies = new LatencyHistogram(), joinLatencies = new LatencyHistogram(),
+			inputLatencies = new LatencyHistogram();
+
+	/**
+	 * The latencies of the responses since the start of the run
+	 */
+	private final LatencyHistogram totalAuthLatencies = new LatencyHistogram(),
+			totalJoinLatencies = new LatencyHistogram(), totalInputLatencies = new LatencyHistogram();
+
+	/**
+	 * The snapshot, datagram and compression counts at the last report: snapshots received and missed, datagrams
+	 * expected and received, bytes of compressed frames received and the bytes they held uncompressed
+	 */
+	private long lastReceived, lastMissed, lastExpected, lastDatagrams, lastCompressed, lastUncompressed;
+
+	/**
+	 * Status flag for the update loop. If set to false, causes the {@link #run(int)} method to disconnect the bots and
+	 * return.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Records the first bot's traffic (null if it is not being recorded)
+	 */
+	private DemoRecorder recorder;
+
+	/**
+	 * Constructor - creates every session (binding each one's socket), without connecting any
+	 *
+	 * @param server The server's IP address
+	 * @param port The server's port
+	 * @param botCount The number of sessions
+	 * @param updateRate The {@link #updateRate}
+	 * @param fireRate The {@link #fireRate}
+	 * @param randomPaths Whether the bots fly random paths rather than scripted ones
+	 * @param compression Whether the bots accept compressed packets
+	 * @param rampInterval The time, in milliseconds, between the starts of consecutive sessions
+	 * @param password The server's password (null if it has none)
+	 * @param namePrefix The prefix of the bots' usernames, which are numbered from 1
+	 * @throws IOException If a session's socket could not be bound
+	 */
+	public LoadGenerator(InetAddress server, int port, int botCount, int updateRate, float fireRate,
+			boolean randomPaths, boolean compression, int rampInterval, String password, String namePrefix)
+			throws IOException {
+		if (botCount < 1)
+			throw new IllegalArgumentException("There must be at least one bot");
+		if (updateRate < 1 || updateRate > BBServer.MAX_TICK_RATE)
+			throw new IllegalArgumentException("The update rate must be between 1 and " + BBServer.MAX_TICK_RATE);
+		if (fireRate < 0 || rampInterval < 0)
+			throw new IllegalArgumentException("The fire rate and ramp interval cannot be negative");
+		this.updateRate = updateRate;
+		this.fireRate = fireRate;
+		this.rampInterval = TimeUnit.MILLISECONDS.toNanos(rampInterval);
+		bots = new BotSession[botCount];
+		for (int i = 0; i < botCount; i++)
+			bots[i] = new BotSession(namePrefix + (i + 1), password, server, port, randomPaths, compression, i,
+					authLatencies, joinLatencies, inputLatencies);
+	}
+
+	/**
+	 * Records the first bot's traffic into a demo file, which is closed at the end of the {@link #run(int) run}
+	 *
+	 * @param recorder The {@link #recorder}
+	 */
+	public void setRecorder(DemoRecorder recorder) {
+		this.recorder = recorder;
+		bots[0].setRecorder(recorder);
+	}
+
+	/**
+	 * Runs the load: starts the sessions at the ramp interval, updates every session at the update rate (and checks
+	 * for responses every {@link #POLL_INTERVAL} in between), and reports the statistics every
+	 * {@link #REPORT_INTERVAL} seconds, until the duration has passed or {@link #shutdown()} is called. The bots then
+	 * disconnect and the statistics of the whole run are reported.
+	 *
+	 * @param seconds The duration of the run, in seconds (0 to run until shut down)
+	 */
+	public void run(int seconds) {
+		running = true;
+		long updatePeriod = TimeUnit.SECONDS.toNanos(1) / updateRate;
+		long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long nextUpdate = start, nextReport = start + TimeUnit.SECONDS.toNanos(REPORT_INTERVAL), lastUpdate = start;
+		int started = 0;
+		while (running && (seconds == 0 || System.nanoTime() - end < 0)) {
+			long now = System.nanoTime();
+			for (; started < bots.length && now - (start + started * rampInterval) >= 0; started++)
+				bots[started].connect(now);
+			float elapsed = (now - lastUpdate) / 1e9f;
+			lastUpdate = now;
+			for (int i = 0; i < started; i++) {
+				bots[i].receive(now);
+				bots[i].update(now, elapsed, fireRate);
+			}
+			if (now - nextReport >= 0) {
+				System.out.println(createReport(now - start, started, false));
+				nextReport += TimeUnit.SECONDS.toNanos(REPORT_INTERVAL);
+			}
+
+			nextUpdate += updatePeriod;
+			if (System.nanoTime() - nextUpdate > updatePeriod) // Fell behind - skip the missed updates
+				nextUpdate = System.nanoTime();
+			long wait;
+			while (running && (wait = nextUpdate - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(Math.min(wait, POLL_INTERVAL));
+				now = System.nanoTime();
+				for (int i = 0; i < started; i++)
+					bots[i].receive(now);
+			}
+		}
+
+		for (int i = 0; i < started; i++)
+			bots[i].disconnect();
+		LockSupport.parkNanos(DISCONNECT_TIME);
+		for (int i = 0; i < bots.length; i++)
+			bots[i].terminate();
+		System.out.println(createReport(System.nanoTime() - start, started, true));
+		if (recorder != null) {
+			recorder.close();
+			System.out.println(String.format("Recorded %d packets of %s (%d bytes, %d dropped)",
+					recorder.getRecordCount(), bots[0].getUsername(), recorder.getBytesWritten(),
+					recorder.getDroppedCount()));
+		}
+	}
+
+	/**
+	 * Causes the update loop to exit, disconnecting the bots. May be called from any thread.
+	 */
+	public void shutdown() {
+		running = false;
+	}
+
+	/**
+	 * Summarizes the state of the sessions and the statistics since the last report (or since the start of the run)
+	 *
+	 * @param elapsed The time, in nanoseconds, since the start of the run
+	 * @param started The number of sessions started
+	 * @param total Whether to summarize the whole run rather than the time since the last report
+	 * @return The report
+	 */
+	private String createReport(long elapsed, int started, boolean total) {
+		int playing = 0, pending = 0, rejected = 0, shots = 0;
+		long received = 0, missed = 0, expected = 0, datagrams = 0, compressed = 0, uncompressed = 0;
+		for (int i = 0; i < started; i++) {
+			BotSession bot = bots[i];
+			if (bot.getState() == BotSession.PLAYING)
+				playing++;
+			else if (bot.getState() == BotSession.REJECTED)
+				rejected++;
+			else
+				pending++;
+			shots += bot.getShotCount();
+			received += bot.getSnapshotsReceived();
+			missed += bot.getSnapshotsMissed();
+			Connection connection = bot.getConnection();
+			expected += connection.getDatagramsExpected();
+			datagrams += connection.getDatagramsReceived();
+			compressed += bot.getMetrics().getCompressedBytes(true);
+			uncompressed += bot.getMetrics().getUncompressedBytes(true);
+		}
+		totalAuthLatencies.add(authLatencies);
+		totalJoinLatencies.add(joinLatencies);
+		totalInputLatencies.add(inputLatencies);
+		LatencyHistogram auth = total ? totalAuthLatencies : authLatencies;
+		LatencyHistogram join = total ? totalJoinLatencies : joinLatencies;
+		LatencyHistogram input = total ? totalInputLatencies : inputLatencies;
+		double seconds = total ? elapsed / 1e9 : REPORT_INTERVAL;
+		long receivedDelta = total ? received : received - lastReceived;
+		long missedDelta = total ? missed : missed - lastMissed;
+		long expectedDelta = total ? expected : expected - lastExpected;
+		long datagramDelta = total ? datagrams : datagrams - lastDatagrams;
+		long compressedDelta = total ? compressed : compressed - lastCompressed;
+		long uncompressedDelta = total ? uncompressed : uncompressed - lastUncompressed;
+
+		StringBuilder report = new StringBuilder(String.format("[%s %.0f s] %d/%d bots playing, %d connecting, " +
+				"%d rejected, %d shots fired%n", total ? "run" : "at", elapsed / 1e9, playing, bots.length, pending,
+				rejected, shots));
+		report.append("  auth responses:   ").append(auth).append(String.format("%n"));
+		report.append("  join responses:   ").append(join).append(String.format("%n"));
+		report.append("  input responses:  ").append(input).append(String.format("%n"));
+		report.append(String.format("  snapshots: %.1f per bot per second, %.2f%% missed; datagram loss %.2f%%",
+				playing == 0 ? 0 : receivedDelta / seconds / playing,
+				receivedDelta + missedDelta == 0 ? 0 : 100.0 * missedDelta / (receivedDelta + missedDelta),
+				expectedDelta == 0 ? 0 : 100.0 * Math.max(expectedDelta - datagramDelta, 0) / expectedDelta));
+		if (uncompressedDelta > 0)
+			report.append(String.format("; compressed frames %.1f%% of their size", 100.0 * compressedDelta /
+					uncompressedDelta));
+		authLatencies.reset();
+		joinLatencies.reset();
+		inputLatencies.reset();
+		lastReceived = received;
+		lastMissed = missed;
+		lastExpected = expected;
+		lastDatagrams = datagrams;
+		lastCompressed = compressed;
+		lastUncompressed = uncompressed;
+		return report.toString();
+	}
+
+	/**
+	 * Launch point for the load generator. See the class description for the arguments, all of which are optional.
+	 *
+	 * @param args The command line arguments
+	 */
+	public static void main(String[] args) {
+		String host = "localhost", password = null, namePrefix = "bot", demoFile = null;
+		int port = BBServer.DEFAULT_PORT, botCount = 16, updateRate = BBServer.DEFAULT_TICK_RATE, rampInterval = 100;
+		int seconds = 60;
+		float fireRate = 2;
+		boolean randomPaths = true, compression = true;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i].toLowerCase();
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				String value = args[++i];
+				if (option.equals("-host"))
+					host = value;
+				else if (option.equals("-port"))
+					port = Integer.parseInt(value);
+				else if (option.equals("-bots"))
+					botCount = Integer.parseInt(value);
+				else if (option.equals("-updaterate"))
+					updateRate = Integer.parseInt(value);
+				else if (option.equals("-firerate"))
+					fireRate = Float.parseFloat(value);
+				else if (option.equals("-path")) {
+					if (!value.equalsIgnoreCase("random") && !value.equalsIgnoreCase("scripted"))
+						throw new IllegalArgumentException("Unknown path " + value);
+					randomPaths = value.equalsIgnoreCase("random");
+				} else if (option.equals("-ramp"))
+					rampInterval = Integer.parseInt(value);
+				else if (option.equals("-seconds"))
+					seconds = Integer.parseInt(value);
+				else if (option.equals("-password"))
+					password = value;
+				else if (option.equals("-name"))
+					namePrefix = value;
+				else if (option.equals("-compression")) {
+					if (!value.equalsIgnoreCase("on") && !value.equalsIgnoreCase("off"))
+						throw new IllegalArgumentException("The compression must be on or off");
+					compression = value.equalsIgnoreCase("on");
+				} else if (option.equals("-record"))
+					demoFile = value;
+				else
+					throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+			}
+		} catch (IllegalArgumentException e) { // Includes NumberFormatException
+			System.err.println(e.getMessage());
+			System.err.println("Usage: LoadGenerator [-host <host>] [-port <port>] [-bots <count>] " +
+					"[-updaterate <updates per second>] [-firerate <shots per second>] [-path random|scripted] " +
+					"[-ramp <milliseconds>] [-seconds <duration>] [-password <password>] [-name <prefix>] " +
+					"[-compression on|off] [-record <demo file>]");
+			System.exit(1);
+		}
+
+		final LoadGenerator generator;
+		try {
+			generator = new LoadGenerator(InetAddress.getByName(host), port, botCount, updateRate, fireRate,
+					randomPaths, compression, rampInterval, password, namePrefix);
+			if (demoFile != null)
+				generator.setRecorder(new DemoRecorder(new File(demoFile)));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+		final Thread mainThread = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				generator.shutdown();
+				try {
+					mainThread.join(TimeUnit.NANOSECONDS.toMillis(DISCONNECT_TIME) * 4);
+				} catch (InterruptedException e) { }
+			}
+		});
+		System.out.println("Loading " + host + ":" + port + " with " + botCount + " bots (" + updateRate +
+				" updates and " + fireRate + " shots per second each, " + (randomPaths ? "random" : "scripted") +
+				" paths)");
+		generator.run(seconds);
+	}
+}
@@ -0,0 +1,114 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * Compares the text form of a {@link Location3D} ({@link Location3D#toString()}, and parsing that string back) with
+ * the binary form the {@link PacketCodec} sends (quantized, written and read straight from a buffer). The text form is
+ * what locations were sent as before the binary codec, and is still what logs and debug output use.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationFormatBenchmark {
+
+	/**
+	 * The location being formatted
+	 */
+	private Location3D location;
+
+	/**
+	 * The text form of the {@link #location}
+	 */
+	private String text;
+
+	/**
+	 * The buffer holding the binary form of the {@link #location}
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * The location into which the binary form is read back
+	 */
+	private Location3D decoded;
+
+	/**
+	 * Builds the location and its text and binary forms
+	 */
+	@Setup
+	public void setup() {
+		location = new Location3D(1204.5f, 87.25f, -633.75f, 271.5f, 12.25f, 0);
+		text = location.toString();
+		buffer = ByteBuffer.allocate(64);
+		PacketCodec.writeLocation(buffer, location);
+		decoded = new Location3D();
+	}
+
+	/**
+	 * @return The text form of the location
+	 */
+	@Benchmark
+	public String formatText() {
+		return location.toString();
+	}
+
+	/**
+	 * @return The location parsed from its text form
+	 */
+	@Benchmark
+	public Location3D parseText() {
+		return parse(text);
+	}
+
+	/**
+	 * @return The buffer holding the binary form of the location
+	 */
+	@Benchmark
+	public ByteBuffer writeBinary() {
+		buffer.clear();
+		PacketCodec.writeLocation(buffer, location);
+		return buffer;
+	}
+
+	/**
+	 * @return The location read back from its binary form
+	 */
+	@Benchmark
+	public Location3D readBinary() {
+		buffer.rewind();
+		return PacketCodec.readLocation(buffer, decoded);
+	}
+
+	/**
+	 * Parses the text form of a location, "Position: (x, y, z), yaw: yaw, pitch: pitch, roll: roll"
+	 *
+	 * @param text The output of {@link Location3D#toString()}
+	 * @return The location
+	 */
+	static Location3D parse(String text) {
+		String[] parts = text.replaceAll("[^0-9.,E-]", "").split(",");
+		return new Location3D(Float.parseFloat(parts[0]), Float.parseFloat(parts[1]), Float.parseFloat(parts[2]),
+				Float.parseFloat(parts[3]), Float.parseFloat(parts[4]), Float.parseFloat(parts[5]));
+	}
+}
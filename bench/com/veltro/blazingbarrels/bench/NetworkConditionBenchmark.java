@@ -0,0 +1,188 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.veltro.blazingbarrels.engine.connect.NetworkConditions;
+import com.veltro.blazingbarrels.engine.connect.NetworkEngine;
+import com.veltro.blazingbarrels.engine.connect.NetworkSimulator;
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketPool;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * A scripted end-to-end benchmark of the networking layer under each {@link NetworkConditions} profile. For each
+ * profile, a server and a client {@link NetworkEngine} are run in the same process over localhost, each sending
+ * through a {@link NetworkSimulator}. The server sends a {@link Packet30PlayerUpdate} for each of a number of players
+ * every tick, and one reliable packet per tick, and the client records when each arrives. Reported per profile:<ul>
+ * <li>the effective update rate: the number of updates per player per second that arrived newer than the last one
+ * seen (a client discards the rest)</li>
+ * <li>the end-to-end latency of those updates, from being queued on the server to being dequeued on the client</li>
+ * <li>the share and latency of the reliable packets delivered (latency includes retransmissions and the wait for
+ * earlier messages)</li></ul>
+ *
+ * Usage: NetworkConditionBenchmark [seconds per profile] [profile names...] (by default, every profile for 5 seconds)
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public final class NetworkConditionBenchmark {
+
+	/**
+	 * The number of ticks per second at which the server sends updates
+	 */
+	private static final int TICK_RATE = 30;
+
+	/**
+	 * The number of players the server sends updates about every tick
+	 */
+	private static final int PLAYERS = 8;
+
+	/**
+	 * The time the client keeps receiving after the server has stopped sending, so that delayed and retransmitted
+	 * packets can arrive
+	 */
+	private static final long DRAIN_TIME = TimeUnit.SECONDS.toNanos(2);
+
+	/**
+	 * The time the client waits between checks of its incoming queue
+	 */
+	private static final long POLL_INTERVAL = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 * Static utility class - not instantiable
+	 */
+	private NetworkConditionBenchmark() { }
+
+	/**
+	 * Runs the benchmark
+	 *
+	 * @param args The number of seconds to run each profile for, followed by the names of the profiles to run
+	 * @throws IOException If an engine could not be bound
+	 */
+	public static void main(String[] args) throws IOException {
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		NetworkConditions[] profiles = NetworkConditions.PROFILES;
+		if (args.length > 1) {
+			profiles = new NetworkConditions[args.length - 1];
+			for (int i = 1; i < args.length; i++)
+				if ((profiles[i - 1] = NetworkConditions.getProfile(args[i])) == null)
+					throw new IllegalArgumentException("Unknown profile " + args[i]);
+		}
+		System.out.println(TICK_RATE + " ticks per second, " + PLAYERS + " players, " + seconds +
+				" seconds per profile");
+		for (NetworkConditions profile : profiles)
+			run(profile, seconds);
+	}
+
+	/**
+	 * Runs the benchmark under one profile and prints the results
+	 *
+	 * @param conditions The profile
+	 * @param seconds The number of seconds for which the server sends
+	 * @throws IOException If an engine could not be bound
+	 */
+	private static void run(NetworkConditions conditions, int seconds) throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		NetworkEngine server = new NetworkEngine(new InetSocketAddress(loopback, 0),
+				PacketRegistry.createServerRegistry());
+		NetworkEngine client = new NetworkEngine(new InetSocketAddress(loopback, 0),
+				PacketRegistry.createClientRegistry());
+		NetworkSimulator serverLink = new NetworkSimulator(server.getSocketOutput(), conditions, 1);
+		NetworkSimulator clientLink = new NetworkSimulator(client.getSocketOutput(), conditions, 2);
+		server.setTransport(serverLink);
+		client.setTransport(clientLink);
+		serverLink.start();
+		clientLink.start();
+		server.start();
+		client.start();
+
+		int ticks = Math.min(seconds * TICK_RATE, 0xFFFF);
+		long tickPeriod = TimeUnit.SECONDS.toNanos(1) / TICK_RATE;
+		long[] sendTimes = new long[ticks];
+		int[] lastSequence = new int[PLAYERS];
+		Arrays.fill(lastSequence, -1);
+		long[] updateLatencies = new long[ticks * PLAYERS];
+		long[] reliableLatencies = new long[ticks];
+		int updateCount = 0, reliableCount = 0, staleCount = 0;
+		int clientPort = client.getLocalPort();
+
+		long start = System.nanoTime(), nextTick = start, end = start + ticks * tickPeriod + DRAIN_TIME;
+		int tick = 0;
+		while (System.nanoTime() - end < 0) {
+			if (tick < ticks && System.nanoTime() - nextTick >= 0) {
+				sendTimes[tick] = System.nanoTime();
+				for (int i = 0; i < PLAYERS; i++) {
+					Packet30PlayerUpdate update = new Packet30PlayerUpdate(i, new Location3D(tick, 1, i),
+							-1, false, false, false, false, loopback, clientPort);
+					update.setInputSequence(tick);
+					server.sendPacket(update);
+				}
+				server.sendPacket(new Packet21PlayerConnect(0, Integer.toString(tick), null, 0, false, false, false,
+						loopback, clientPort)); // The username carries the tick, which outgrows a player ID
+				tick++;
+				nextTick += tickPeriod;
+			}
+
+			BBPacket packet;
+			while ((packet = client.incomingPacketQueue.poll()) != null) {
+				long now = System.nanoTime();
+				if (packet instanceof Packet30PlayerUpdate) {
+					Packet30PlayerUpdate update = (Packet30PlayerUpdate) packet;
+					int player = update.getPlayerID();
+					int sequence = update.getInputSequence();
+					if (sequence > lastSequence[player]) {
+						lastSequence[player] = sequence;
+						updateLatencies[updateCount++] = now - sendTimes[sequence];
+					} else
+						staleCount++;
+				} else if (packet instanceof Packet21PlayerConnect)
+					reliableLatencies[reliableCount++] = now -
+							sendTimes[Integer.parseInt(((Packet21PlayerConnect) packet).getUsername())];
+				PacketPool.release(packet);
+			}
+			LockSupport.parkNanos(POLL_INTERVAL);
+		}
+
+		server.terminate();
+		client.terminate();
+		serverLink.terminate();
+		clientLink.terminate();
+
+		System.out.println(conditions);
+		System.out.println(String.format("  updates:  %.1f / %d per player per second, %.1f%% arrived in order, " +
+				"%d stale or duplicate", (double) updateCount / PLAYERS / ticks * TICK_RATE, TICK_RATE,
+				100.0 * updateCount / (ticks * PLAYERS), staleCount));
+		System.out.println("  latency:  " + describe(updateLatencies, updateCount));
+		System.out.println(String.format("  reliable: %.1f%% delivered, latency %s", 100.0 * reliableCount / ticks,
+				describe(reliableLatencies, reliableCount)));
+		System.out.println(String.format("  datagrams: %d sent, %d lost, %d duplicated, %d reordered",
+				serverLink.getSentCount() + clientLink.getSentCount(),
+				serverLink.getLostCount() + clientLink.getLostCount(),
+				serverLink.getDuplicatedCount() + clientLink.getDuplicatedCount(),
+				serverLink.getReorderedCount() + clientLink.getReorderedCount()));
+	}
+
+	/**
+	 * @param latencies An array of latencies, in nanoseconds (sorted by this method)
+	 * @param count The number of latencies in the array
+	 * @return A summary of the latencies, in milliseconds
+	 */
+	private static String describe(long[] latencies, int count) {
+		if (count == 0)
+			return "n/a";
+		Arrays.sort(latencies, 0, count);
+		long total = 0;
+		for (int i = 0; i < count; i++)
+			total += latencies[i];
+		return String.format("avg %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms", total / count / 1e6,
+				latencies[count / 2] / 1e6, latencies[(int) (count * 0.99)] / 1e6, latencies[count - 1] / 1e6);
+	}
+}
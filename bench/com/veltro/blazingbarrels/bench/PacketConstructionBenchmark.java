@@ -0,0 +1,64 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+
+/**
+ * Measures the cost of constructing a packet of each type with realistic field values, as game code does for every
+ * packet it sends. For the snapshot packet this includes building the 32-player snapshot it carries, so it is an upper
+ * bound on what the server pays per snapshot.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketConstructionBenchmark {
+
+	/**
+	 * The ID of the packet type being constructed
+	 */
+	@Param({"0", "1", "2", "10", "11", "20", "21", "22", "30", "40"})
+	public int id;
+
+	/**
+	 * The destination address of the packets
+	 */
+	private InetAddress address;
+
+	/**
+	 * Looks up the destination address
+	 */
+	@Setup
+	public void setup() {
+		address = InetAddress.getLoopbackAddress();
+	}
+
+	/**
+	 * Constructs a packet
+	 *
+	 * @return The packet
+	 */
+	@Benchmark
+	public BBPacket construct() {
+		return SamplePackets.create(id, address, 25565);
+	}
+}
@@ -0,0 +1,85 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketPool;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+
+/**
+ * Measures the per-packet cost of decoding a received packet frame through the {@link PacketRegistry}, for every
+ * packet ID. Each invocation decodes one frame into a pooled packet and releases it again, which is exactly the work
+ * the receive path does per packet.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketDecodeBenchmark {
+
+	/**
+	 * The ID of the packet type being decoded
+	 */
+	@Param({"0", "1", "2", "10", "11", "20", "21", "22", "30", "40"})
+	public int id;
+
+	/**
+	 * The registry containing every packet type
+	 */
+	private PacketRegistry registry;
+
+	/**
+	 * A buffer containing one encoded frame of the packet type being decoded
+	 */
+	private ByteBuffer frame;
+
+	/**
+	 * The address the frame was "received" from
+	 */
+	private InetAddress address;
+
+	/**
+	 * Encodes the sample packet for the {@link #id} being benchmarked
+	 */
+	@Setup
+	public void setup() {
+		registry = PacketRegistry.createDefaultRegistry();
+		address = InetAddress.getLoopbackAddress();
+		frame = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+		PacketCodec.encode(SamplePackets.create(id, address, 25565), frame);
+		frame.flip();
+	}
+
+	/**
+	 * Decodes the frame and returns the packet to its pool
+	 *
+	 * @return The decoded packet
+	 */
+	@Benchmark
+	public BBPacket decode() {
+		frame.rewind();
+		BBPacket packet = PacketCodec.decode(frame, address, 25565, registry);
+		PacketPool.release(packet);
+		return packet;
+	}
+}
@@ -0,0 +1,74 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+
+/**
+ * Measures the per-packet cost of encoding a packet into its frame with the {@link PacketCodec} (which replaced the
+ * packets' own string generation), for every packet ID. Each invocation encodes the same sample packet into a reused
+ * buffer, which is exactly the work the send path does per packet.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketEncodeBenchmark {
+
+	/**
+	 * The ID of the packet type being encoded
+	 */
+	@Param({"0", "1", "2", "10", "11", "20", "21", "22", "30", "40"})
+	public int id;
+
+	/**
+	 * The sample packet of the type being encoded
+	 */
+	private BBPacket packet;
+
+	/**
+	 * The buffer into which the packet is encoded
+	 */
+	private ByteBuffer frame;
+
+	/**
+	 * Builds the sample packet for the {@link #id} being benchmarked
+	 */
+	@Setup
+	public void setup() {
+		packet = SamplePackets.create(id, InetAddress.getLoopbackAddress(), 25565);
+		frame = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+	}
+
+	/**
+	 * Encodes the packet
+	 *
+	 * @return The buffer holding the encoded frame
+	 */
+	@Benchmark
+	public ByteBuffer encode() {
+		frame.clear();
+		PacketCodec.encode(packet, frame);
+		return frame;
+	}
+}
@@ -0,0 +1,102 @@
+package com.veltro.blazingbarrels.bench;
+
+import java.net.InetAddress;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet02DeauthWarning;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet11SnapshotAck;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet20PlayerJoin;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet22PlayerDisconnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet40WeaponFire;
+import com.veltro.blazingbarrels.engine.connect.packet.WeaponType;
+import com.veltro.blazingbarrels.engine.connect.snapshot.PlayerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * Builds a representative instance of every packet type, with realistic field values, for the benchmarks to construct,
+ * encode and decode. The snapshot packet carries a full {@link #SNAPSHOT_PLAYERS}-player server.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public final class SamplePackets {
+
+	/**
+	 * The IDs of every packet type, in ascending order
+	 */
+	public static final int[] IDS = {0, 1, 2, 10, 11, 20, 21, 22, 30, 40};
+
+	/**
+	 * Static utility class - not instantiable
+	 */
+	private SamplePackets() { }
+
+	/**
+	 * Constructs a sample packet
+	 *
+	 * @param id The ID of the packet type
+	 * @param address The packet's destination address
+	 * @param port The port on the above address
+	 * @return The sample packet
+	 */
+	public static BBPacket create(int id, InetAddress address, int port) {
+		Location3D location = new Location3D(1204.5f, 87.25f, -633.75f, 271.5f, 12.25f, 0);
+		switch (id) {
+			case 0:
+				return new Packet00AuthRequest("LinearLogic", "hunter2", address, port);
+			case 1:
+				return new Packet01AuthResponse("LinearLogic", 3, 7, false, address, port);
+			case 2:
+				return new Packet02DeauthWarning(7, address, port);
+			case 10:
+				return new Packet10ServerSnapshot(createSnapshot(location), null, address, port);
+			case 11:
+				return new Packet11SnapshotAck(4096, address, port);
+			case 20:
+				return new Packet20PlayerJoin(7, false, address, port);
+			case 21:
+				return new Packet21PlayerConnect(7, "LinearLogic", location, 100, false, false, false, address, port);
+			case 22:
+				return new Packet22PlayerDisconnect(7, 0, address, port);
+			case 30:
+				return new Packet30PlayerUpdate(7, location, 87, false, false, false, false, address, port);
+			case 40:
+				return new Packet40WeaponFire(7, location, WeaponType.RAIL_GUN, address, port);
+			default:
+				throw new IllegalArgumentException("No packet type has the ID " + id);
+		}
+	}
+
+	/**
+	 * The number of players in the sample snapshot (a full server)
+	 */
+	public static final int SNAPSHOT_PLAYERS = 32;
+
+	/**
+	 * Builds a full world snapshot of a full game, with the players spread out around a location and their states
+	 * varied as they would be in play
+	 *
+	 * @param location The location around which the players are placed
+	 * @return The sample snapshot
+	 */
+	private static WorldSnapshot createSnapshot(Location3D location) {
+		WorldSnapshot snapshot = new WorldSnapshot();
+		snapshot.reset(4096, 2000, 100);
+		for (int i = 0; i < SNAPSHOT_PLAYERS; i++) {
+			PlayerSnapshot player = snapshot.addPlayer(i);
+			player.setLocation(location);
+			player.getLocation().translate((i % 8) * 90.5f, (i % 3) * 20.25f, (i / 8) * -95.75f);
+			player.getLocation().rotate(i * 11.25f, (i % 5) * 4.5f - 9, 0);
+			player.setHealth(100 - i * 3);
+			player.setAdmin(i == 0);
+			player.setGodMode(i == 1);
+		}
+		return snapshot;
+	}
+}
@@ -2,6 +2,9 @@ package com.veltro.blazingbarrels;
 
 import static org.lwjgl.opengl.GL11.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.Scanner;
 
 import org.lwjgl.LWJGLException;
@@ -10,6 +13,7 @@ import org.lwjgl.input.Keyboard;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 
+import com.veltro.blazingbarrels.client.ClientSession;
 import com.veltro.blazingbarrels.game.state.ConnectState;
 import com.veltro.blazingbarrels.game.state.GameState;
 import com.veltro.blazingbarrels.game.state.IntroState;
@@ -74,6 +78,12 @@ public class BlazingBarrels {
 	 */
 	private static State[] states;
 
+	/**
+	 * The session connected to the server, or playing back the demo, given on the command line (null if neither was
+	 * given)
+	 */
+	private static ClientSession session;
+
 	/**
 	 * Constructor - creates a game window with the specified dimensions,
 	 * sets up the game, and runs the main logic/rendering loop.
@@ -97,7 +107,7 @@ public class BlazingBarrels {
 		glEnable(GL_BLEND);
 		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 
-		setCurrentState(StateType.INTRO, true);
+		setCurrentState(session != null ? StateType.GAME : StateType.INTRO, true);
 		while(running) {
 			glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT); // Reset 2D and 3D
 			glLoadIdentity();
@@ -123,6 +133,8 @@ public class BlazingBarrels {
 		if (debugModeEnabled)
 			System.out.println("Destroying the openGL context and closing the game window.");
 		Display.destroy();
+		if (session != null && !reload)
+			session.close();
 		if (reload) {
 			if (debugModeEnabled)
 				System.out.println("Reloading the game...");
@@ -149,6 +161,14 @@ public class BlazingBarrels {
 		}
 	}
 
+	/**
+	 * @return The {@link ClientSession} connected to the server, or playing back the demo, given on the command line
+	 * (null if neither was given)
+	 */
+	public static ClientSession getSession() {
+		return session;
+	}
+
 	/**
 	 * @return The current game state (a {@link State} subclass object)
 	 */
@@ -244,10 +264,61 @@ public class BlazingBarrels {
 
 	/**
 	 * This is where it all starts... determines whether to run the program in
-	 * DEBUG mode, and constructs the game object
-	 * @param args
+	 * DEBUG mode, and constructs the game object. Arguments (all optional): -connect &lt;host:port&gt; joins the game
+	 * on a server, as -name &lt;username&gt; (with -password &lt;password&gt; if the server has one), instead of
+	 * starting at the intro; -demo &lt;demo file&gt; plays back a demo instead, and -peer &lt;host:port&gt; chooses the
+	 * client whose view to play from a demo recorded by the server.
+	 * @param args The command line arguments
 	 */
 	public static void main(String[] args) {
+		String demoFile = null, username = null, password = null;
+		InetAddress peer = null, server = null;
+		int port = 0, serverPort = 0;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i].toLowerCase();
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				String value = args[++i];
+				if (option.equals("-demo"))
+					demoFile = value;
+				else if (option.equals("-name"))
+					username = value;
+				else if (option.equals("-password"))
+					password = value;
+				else if (option.equals("-peer") || option.equals("-connect")) {
+					int separator = value.lastIndexOf(':');
+					if (separator < 0)
+						throw new IllegalArgumentException("The address must be given as <host>:<port>");
+					InetAddress address = InetAddress.getByName(value.substring(0, separator));
+					int addressPort = Integer.parseInt(value.substring(separator + 1));
+					if (option.equals("-peer")) {
+						peer = address;
+						port = addressPort;
+					} else {
+						server = address;
+						serverPort = addressPort;
+					}
+				} else
+					throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+			}
+			if (server != null && demoFile != null)
+				throw new IllegalArgumentException("Either connect to a server or play back a demo, not both");
+			if (server != null && username == null)
+				throw new IllegalArgumentException("Missing -name to play as");
+			if (demoFile != null)
+				session = ClientSession.openDemo(new File(demoFile), peer, port);
+			else if (server != null)
+				session = ClientSession.connect(server, serverPort, username, password);
+		} catch (IllegalArgumentException e) { // Includes NumberFormatException
+			System.err.println(e.getMessage());
+			System.err.println("Usage: BlazingBarrels [-connect <host:port> -name <username> [-password <password>]] " +
+					"[-demo <demo file> [-peer <host:port>]]");
+			System.exit(1);
+		} catch (IOException e) { // Includes UnknownHostException
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
 //		System.err.println("Game is not in a stable state. Cancelling launch...");
 //		System.out.println("Welcome to BlazingBarrels! Run in DEBUG mode? (Y/N)");
 //		Scanner sc = new Scanner(System.in);
@@ -0,0 +1,556 @@
+package com.veltro.blazingbarrels.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.veltro.blazingbarrels.engine.connect.NetworkEngine;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoPlayer;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet11SnapshotAck;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet20PlayerJoin;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet22PlayerDisconnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketHandler;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+import com.veltro.blazingbarrels.engine.connect.snapshot.PlayerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+import com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot;
+import com.veltro.blazingbarrels.game.location.InputCommand;
+import com.veltro.blazingbarrels.game.location.InterpolationBuffer;
+import com.veltro.blazingbarrels.game.location.Location3D;
+import com.veltro.blazingbarrels.game.location.MovementPredictor;
+import com.veltro.blazingbarrels.server.BBServer;
+
+/**
+ * The game client's view of a match: the packets from the server are handled by the client's {@link PacketRegistry},
+ * whose handlers reconstruct the server's snapshots from their deltas and keep track of the players introduced, so
+ * that the game state can draw the world as of the newest snapshot.<p>
+ *
+ * A live session is {@link #connect(InetAddress, int, String, String) connected} to a server through a
+ * {@link NetworkEngine}: it authenticates, joins the game once authorized, and acknowledges every snapshot it
+ * reconstructs. The client's own player is moved by a {@link MovementPredictor}, installed on the camera, which applies
+ * the player's input at once; every frame's input is {@link #sendMovement(InputCommand, int) sent} to the server,
+ * which simulates it and confirms the location it arrives at with the sequence number of the last input it processed.
+ * The session then {@link MovementPredictor#reconcile(int, Location3D, Location3D) reconciles} the prediction with
+ * the confirmed location, so that where the player is comes from the server, not the client.<p>
+ *
+ * The other players are not drawn where the newest snapshot puts them: every snapshot feeds each player's location
+ * into an {@link InterpolationBuffer}, from which the player's {@link #getDisplayLocation(int, Location3D) display
+ * location} is interpolated a short delay in the past, so that their motion stays smooth between snapshots and
+ * across late or lost ones. A player outside the server's interest radius is only refreshed every few ticks, and in
+ * between is repeated as it was, so a far player's repeated state is not taken as a sample (it would otherwise be
+ * drawn stopping and jumping).<p>
+ *
+ * A session may instead be opened on a {@link #openDemo(File, InetAddress, int) demo file}, which a {@link DemoPlayer}
+ * plays back at the pace of the recording: every {@link #update(long) update} plays the records due into a queue,
+ * which the registry consumes with {@link PacketRegistry#handleAll(Queue)} exactly as it does the network engine's
+ * incoming packet queue, so a demo goes through the same handlers as a live match. A client demo plays the packets
+ * the client received; a server demo plays the packets the server sent to one client, from that client's point of
+ * view. {@link #seek(long) Seeking} starts from the last keyframe before the target time and discards the state built
+ * so far. The recorded player is interpolated too (see {@link #getDisplayLocation(int, Location3D)}), on the clock of
+ * the recording, so that pausing playback freezes every player.<p>
+ *
+ * A session is not thread-safe: it is used by the game loop alone.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class ClientSession {
+
+	/**
+	 * The longest time, in milliseconds, a single {@link #update(long) update} plays, so that a stalled frame does not
+	 * skip a large part of the demo in one go
+	 */
+	private static final long MAX_UPDATE_TIME = 250;
+
+	/**
+	 * The authorization verdict of a successful authentication
+	 */
+	private static final int AUTHORIZED = 3;
+
+	/**
+	 * The time given to the network engine to send the disconnect packet before it is terminated
+	 */
+	private static final long DISCONNECT_TIME = TimeUnit.MILLISECONDS.toNanos(500);
+
+	/**
+	 * The number of ticks per second the server runs at, on which the interpolation buffers place the snapshots (the
+	 * server's default, as the server does not announce its rate)
+	 */
+	private static final int TICK_RATE = BBServer.DEFAULT_TICK_RATE;
+
+	/**
+	 * The distance, in pixels, from the client's own player beyond which the server only refreshes players every few
+	 * ticks (the server's default)
+	 */
+	private static final float INTEREST_RADIUS = BBServer.DEFAULT_INTEREST_RADIUS;
+
+	/**
+	 * Dispatches the packets from the server to the session's handlers
+	 */
+	private final PacketRegistry registry = PacketRegistry.createClientRegistry();
+
+	/**
+	 * Plays the demo the session was opened on (null for a live session)
+	 */
+	private final DemoPlayer demo;
+
+	/**
+	 * The networking engine over which a live session talks to the server (null for a demo)
+	 */
+	private final NetworkEngine engine;
+
+	/**
+	 * The IP address of the server (null for a demo)
+	 */
+	private final InetAddress serverAddress;
+
+	/**
+	 * The port on the above address
+	 */
+	private final int serverPort;
+
+	/**
+	 * Predicts the movement of the client's own player, and reconciles it with the server
+	 */
+	private final MovementPredictor predictor = new MovementPredictor();
+
+	/**
+	 * The client's own player's location, as predicted (moved by the camera through the {@link #predictor})
+	 */
+	private final Location3D location = new Location3D(0, 1, 0);
+
+	/**
+	 * The sequence number of the newest input the server has confirmed (-1 if none has been)
+	 */
+	private int acknowledgedSequence = -1;
+
+	/**
+	 * Whether the server has announced the client's own player, which may then move
+	 */
+	private boolean joined;
+
+	/**
+	 * Whether the server refused the client's authentication request
+	 */
+	private boolean rejected;
+
+	/**
+	 * The packets played from the {@link #demo}, until the registry handles them
+	 */
+	private final Queue<BBPacket> queue = new ArrayDeque<BBPacket>();
+
+	/**
+	 * Reconstructs the received snapshots from their deltas (replaced on every seek)
+	 */
+	private SnapshotHistory snapshots = new SnapshotHistory();
+
+	/**
+	 * The newest snapshot reconstructed (null if none has been since the session started or last seeked)
+	 */
+	private WorldSnapshot world;
+
+	/**
+	 * The names of the players introduced, indexed by player ID (null where no player has been introduced)
+	 */
+	private final String[] names = new String[PacketCodec.MAX_PLAYERS];
+
+	/**
+	 * The interpolation buffer of each player, indexed by player ID (null where none has been needed yet)
+	 */
+	private final InterpolationBuffer[] buffers = new InterpolationBuffer[PacketCodec.MAX_PLAYERS];
+
+	/**
+	 * The ID of the client's own player ({@link PacketCodec#NO_PLAYER} until it is known)
+	 */
+	private int playerID = PacketCodec.NO_PLAYER;
+
+	/**
+	 * The time of the recording being played, in nanoseconds since its start
+	 */
+	private long demoTime;
+
+	/**
+	 * The speed of playback (1 for real time, 0 when paused)
+	 */
+	private double speed = 1;
+
+	/**
+	 * The time, in milliseconds, of the last {@link #update(long) update} (-1 before the first)
+	 */
+	private long lastUpdateTime = -1;
+
+	/**
+	 * Demo constructor - registers the session's packet handlers and opens the demo file
+	 *
+	 * @param file The demo file
+	 * @param peer The IP address of the client whose view to play from a server demo (null to play a client demo)
+	 * @param port The port on the above address
+	 * @throws IOException If the file could not be read, or is not a demo file
+	 */
+	private ClientSession(File file, InetAddress peer, int port) throws IOException {
+		registerHandlers();
+		demo = new DemoPlayer(file, registry);
+		if (peer != null)
+			demo.setSource(DemoRecorder.SENT, peer, port);
+		engine = null;
+		serverAddress = null;
+		serverPort = 0;
+	}
+
+	/**
+	 * Live constructor - registers the session's packet handlers and binds its networking engine to an ephemeral port
+	 *
+	 * @param serverAddress The {@link #serverAddress}
+	 * @param serverPort The {@link #serverPort}
+	 * @throws IOException If the engine could not be bound
+	 */
+	private ClientSession(InetAddress serverAddress, int serverPort) throws IOException {
+		registerHandlers();
+		demo = null;
+		engine = new NetworkEngine(null, registry);
+		this.serverAddress = serverAddress;
+		this.serverPort = serverPort;
+	}
+
+	/**
+	 * Opens a live session: starts the session's networking engine and sends the server an authentication request
+	 *
+	 * @param serverAddress The IP address of the server
+	 * @param serverPort The port on the above address
+	 * @param username The username to play as
+	 * @param password The server's password (null if it has none)
+	 * @return The session, which joins the game once the server has authorized it
+	 * @throws IOException If the engine could not be bound
+	 */
+	public static ClientSession connect(InetAddress serverAddress, int serverPort, String username, String password)
+			throws IOException {
+		ClientSession session = new ClientSession(serverAddress, serverPort);
+		session.engine.start();
+		session.engine.sendPacket(new Packet00AuthRequest(username, password, true, serverAddress, serverPort));
+		return session;
+	}
+
+	/**
+	 * Opens a session that plays back a demo file
+	 *
+	 * @param file The demo file
+	 * @param peer The IP address of the client whose view to play from a server demo (null to play a client demo)
+	 * @param port The port on the above address
+	 * @return The session, which starts playing from the start of the demo on its first {@link #update(long) update}
+	 * @throws IOException If the file could not be read, or is not a demo file
+	 */
+	public static ClientSession openDemo(File file, InetAddress peer, int port) throws IOException {
+		return new ClientSession(file, peer, port);
+	}
+
+	/**
+	 * Handles the packets received since the last update: those the networking engine has received in a live
+	 * session, or the records of the demo up to the time the recording has reached, at the playback {@link #speed}
+	 *
+	 * @param now The current time, in milliseconds
+	 */
+	public void update(long now) {
+		if (engine != null) {
+			lastUpdateTime = now;
+			registry.handleAll(engine.incomingPacketQueue);
+			return;
+		}
+		long elapsed = lastUpdateTime < 0 ? 0 : Math.min(now - lastUpdateTime, MAX_UPDATE_TIME);
+		lastUpdateTime = now;
+		demoTime += (long) (TimeUnit.MILLISECONDS.toNanos(Math.max(elapsed, 0)) * speed);
+		demo.advance(demoTime, queue);
+		registry.handleAll(queue);
+	}
+
+	/**
+	 * Moves playback to the provided time of the demo, discarding the state built so far. The packets of the keyframe
+	 * before the time, and of the records between the keyframe and the time, are handled at once.
+	 *
+	 * @param time The time to seek to, in nanoseconds since the start of the recording (clamped to the demo's
+	 * duration)
+	 */
+	public void seek(long time) {
+		if (demo == null)
+			throw new IllegalStateException("Only a demo can be seeked through");
+		demoTime = Math.max(0, Math.min(time, demo.getDuration()));
+		demo.seek(demoTime);
+		snapshots = new SnapshotHistory();
+		world = null;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = null;
+			if (buffers[i] != null)
+				buffers[i].clear();
+		}
+		playerID = PacketCodec.NO_PLAYER;
+		demo.advance(demoTime, queue);
+		registry.handleAll(queue);
+	}
+
+	/**
+	 * Sends the server the movement input the client's own player was moved by this frame, along with the resulting
+	 * location (of which the server only takes the rotation). Does nothing until the player has joined.
+	 *
+	 * @param input The input (copied, so it may be reused by the caller)
+	 * @param sequence The sequence number the {@link #predictor} gave to the input
+	 */
+	public void sendMovement(InputCommand input, int sequence) {
+		if (engine == null || !joined || sequence < 0)
+			return;
+		InputCommand sent = new InputCommand();
+		sent.copy(input);
+		Packet30PlayerUpdate update = new Packet30PlayerUpdate(playerID, location.clone(), -1, false, false, false,
+				false, serverAddress, serverPort);
+		update.setInputSequence(sequence);
+		update.setInput(sent);
+		engine.sendPacket(update);
+	}
+
+	/**
+	 * Ends the session: leaves the game and stops the networking engine in a live session, or closes the demo file
+	 */
+	public void close() {
+		if (demo != null) {
+			demo.close();
+			return;
+		}
+		if (playerID != PacketCodec.NO_PLAYER) {
+			engine.sendPacket(new Packet22PlayerDisconnect(playerID, 0, serverAddress, serverPort));
+			LockSupport.parkNanos(DISCONNECT_TIME);
+		}
+		engine.terminate();
+	}
+
+	/**
+	 * @return Whether the session plays back a demo (rather than being connected to a server)
+	 */
+	public boolean isDemo() {
+		return demo != null;
+	}
+
+	/**
+	 * @return The client's own player's predicted {@link #location}, which the camera should move through the
+	 * {@link #getPredictor() predictor}
+	 */
+	public Location3D getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return The {@link MovementPredictor} to install on the camera, which the session reconciles with the server
+	 */
+	public MovementPredictor getPredictor() {
+		return predictor;
+	}
+
+	/**
+	 * @return Whether the server has announced the client's own player, which may then move
+	 */
+	public boolean hasJoined() {
+		return joined;
+	}
+
+	/**
+	 * @return Whether the server refused the client's authentication request
+	 */
+	public boolean isRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return The newest snapshot of the world (null if none has been received since the session started or last
+	 * seeked). It is reused as later snapshots arrive, so it should not be kept across updates.
+	 */
+	public WorldSnapshot getWorld() {
+		return world;
+	}
+
+	/**
+	 * Works out where to draw a player: interpolated between the snapshots received around a short delay before the
+	 * session's current time (the time of the recording, when playing back a demo). The client's own player is not
+	 * interpolated in a live session, as its location is {@link #getLocation() predicted}.
+	 *
+	 * @param playerID The player's ID
+	 * @param result The location into which to write the result
+	 * @return Whether the player has appeared in any snapshot since it was introduced (if not, the result is left
+	 * untouched)
+	 */
+	public boolean getDisplayLocation(int playerID, Location3D result) {
+		InterpolationBuffer buffer = buffers[playerID];
+		return buffer != null && buffer.getLocation(getClock(), result);
+	}
+
+	/**
+	 * @return The time, in milliseconds, on which the interpolation buffers place the received snapshots: the time of
+	 * the last update in a live session, or the time of the recording being played
+	 */
+	private long getClock() {
+		return demo == null ? lastUpdateTime : TimeUnit.NANOSECONDS.toMillis(demoTime);
+	}
+
+	/**
+	 * @param playerID A player ID
+	 * @return The name of the player, or null if the player's introduction has not been received
+	 */
+	public String getName(int playerID) {
+		return names[playerID];
+	}
+
+	/**
+	 * @return The ID of the client's own player ({@link PacketCodec#NO_PLAYER} until it is known)
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * @return The time of the recording being played, in nanoseconds since its start (0 for a live session)
+	 */
+	public long getDemoTime() {
+		return demoTime;
+	}
+
+	/**
+	 * @return The duration of the demo, in nanoseconds (0 for a live session)
+	 */
+	public long getDemoDuration() {
+		return demo == null ? 0 : demo.getDuration();
+	}
+
+	/**
+	 * @return Whether the whole demo has been played (false for a live session)
+	 */
+	public boolean isDemoFinished() {
+		return demo != null && demo.isFinished();
+	}
+
+	/**
+	 * @return The {@link #speed} of playback (1 for real time, 0 when paused)
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * Changes the {@link #speed} of playback
+	 *
+	 * @param speed The new speed (1 for real time, 0 to pause)
+	 */
+	public void setSpeed(double speed) {
+		if (speed < 0)
+			throw new IllegalArgumentException("The playback speed cannot be negative");
+		this.speed = speed;
+	}
+
+	/**
+	 * @param viewer The location of the client's own player
+	 * @param location The location of another player
+	 * @return Whether the other player is outside the {@link #INTEREST_RADIUS} of the client's own player
+	 */
+	private static boolean isOutOfInterest(Location3D viewer, Location3D location) {
+		float dx = location.getX() - viewer.getX(), dy = location.getY() - viewer.getY();
+		float dz = location.getZ() - viewer.getZ();
+		return dx * dx + dy * dy + dz * dz > INTEREST_RADIUS * INTEREST_RADIUS;
+	}
+
+	/**
+	 * Replaces the default handlers of the packet types the session acts on with its own (the others are left to their
+	 * default handlers)
+	 */
+	private void registerHandlers() {
+		registry.setHandler(1, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				Packet01AuthResponse response = (Packet01AuthResponse) packet;
+				if (engine == null) {
+					playerID = response.getPlayerID();
+					return;
+				}
+				if (playerID != PacketCodec.NO_PLAYER || rejected)
+					return;
+				if (response.getAuthorizationVerdictID() != AUTHORIZED) {
+					System.err.println("The server refused to let " + response.getUsername() + " in (verdict " +
+							response.getAuthorizationVerdictID() + ")");
+					rejected = true;
+					return;
+				}
+				playerID = response.getPlayerID();
+				engine.getConnectionTable().get(serverAddress, serverPort).setCompressionEnabled(
+						response.isCompressionEnabled());
+				engine.sendPacket(new Packet20PlayerJoin(playerID, false, serverAddress, serverPort));
+			}
+		});
+		registry.setHandler(10, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				Packet10ServerSnapshot snapshot = (Packet10ServerSnapshot) packet;
+				WorldSnapshot received = snapshots.receive(snapshot);
+				if (received == null)
+					return;
+				if (world == null || received.getTick() > world.getTick())
+					world = received;
+				long now = getClock();
+				PlayerSnapshot own = received.findPlayer(playerID);
+				Location3D viewer = engine != null ? location : own == null ? null : own.getLocation();
+				for (int i = 0; i < received.getPlayerCount(); i++) {
+					PlayerSnapshot player = received.getPlayer(i);
+					int id = player.getPlayerID();
+					if (engine != null && id == playerID)
+						continue; // Predicted instead
+					if (buffers[id] == null)
+						buffers[id] = new InterpolationBuffer(TICK_RATE);
+					else if (viewer != null && buffers[id].isNewest(player.getLocation()) &&
+							isOutOfInterest(viewer, player.getLocation()))
+						continue; // Left as it was between refreshes
+					buffers[id].addSample(received.getTick(), now, player.getLocation());
+				}
+				if (engine != null)
+					engine.sendPacket(new Packet11SnapshotAck(snapshot.getTick(), serverAddress, serverPort));
+			}
+		});
+		registry.setHandler(21, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				Packet21PlayerConnect connect = (Packet21PlayerConnect) packet;
+				names[connect.getPlayerID()] = connect.getUsername();
+				if (buffers[connect.getPlayerID()] != null) // Not to be interpolated from where the ID's last holder was
+					buffers[connect.getPlayerID()].clear();
+				if (engine != null && connect.getPlayerID() == playerID && !joined) {
+					Location3D spawn = connect.getSpawnLocation();
+					location.setCoordinates(spawn.getX(), spawn.getY(), spawn.getZ());
+					predictor.clear();
+					joined = true;
+				}
+			}
+		});
+		registry.setHandler(22, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				int id = ((Packet22PlayerDisconnect) packet).getPlayerID();
+				if (id != PacketCodec.NO_PLAYER) {
+					names[id] = null;
+					if (buffers[id] != null)
+						buffers[id].clear();
+				}
+			}
+		});
+		registry.setHandler(30, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				Packet30PlayerUpdate update = (Packet30PlayerUpdate) packet;
+				int sequence = update.getInputSequence();
+				if (engine == null || !joined || update.getPlayerID() != playerID || update.getLocation() == null ||
+						sequence < 0 || acknowledgedSequence >= 0 && (short) (sequence - acknowledgedSequence) <= 0)
+					return; // Not a confirmation of the own player's movement, or an outdated one
+				acknowledgedSequence = sequence;
+				predictor.reconcile(sequence, update.getLocation(), location);
+			}
+		});
+	}
+}
@@ -0,0 +1,686 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.OutgoingPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketPool;
+
+/**
+ * The reliability state shared by this end of the link and one remote peer. Every datagram exchanged with the peer
+ * starts with a {@link #HEADER_SIZE}-byte header: the datagram's sequence number (unsigned short), the sequence number
+ * of the newest datagram received from the peer (unsigned short), and a bitfield acknowledging the 32 datagrams
+ * received before that one (int). Acknowledgments are thus piggybacked on regular traffic, and each is repeated in
+ * up to 32 later datagrams, so a single lost datagram does not lose an ack.<p>
+ *
+ * {@link PacketCodec#isReliable(int) Reliable} packets are additionally numbered with a message sequence number. The
+ * datagrams that carry each message are recorded, and once any of them is acknowledged the message is delivered; if
+ * none is acknowledged within the retransmission timeout (derived from the measured round trip time, as in TCP) the
+ * message is sent again. The receiving side holds back messages that arrive early and hands them to the incoming
+ * packet queue strictly in order. Unreliable packets share the datagrams but are neither retransmitted nor ordered.<p>
+ *
+ * The connection also counts the datagrams and bytes exchanged with the peer, from which the loss rate and throughput
+ * of each peer are reported by the {@link NetworkMonitor}, along with the datagrams of the peer that a
+ * {@link ReceiveLimiter} dropped for exceeding its host's receive budget. A connection is used by both the receiving
+ * and the sending network thread, so all of its methods that touch mutable state are synchronized (or, for the
+ * compression flag, volatile).
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class Connection {
+
+	/**
+	 * The size, in bytes, of the header that starts every datagram
+	 */
+	public static final int HEADER_SIZE = 8;
+
+	/**
+	 * The largest number of reliable messages that can be carried in one datagram
+	 */
+	public static final int MAX_MESSAGES_PER_DATAGRAM = 32;
+
+	/**
+	 * The number of reliable messages that can be in flight (sent but not acknowledged) at once. Further messages wait
+	 * in a backlog until the oldest ones have been acknowledged; the receiver holds back at most this many messages.
+	 */
+	public static final int MESSAGE_WINDOW = 256;
+
+	/**
+	 * The number of sent datagrams remembered, so that their acknowledgments can be matched to the messages they
+	 * carried (a power of two). This covers several seconds of traffic at any sensible send rate, and so any
+	 * acknowledgment that arrives before the {@link #MAX_TIMEOUT}; a datagram whose acknowledgment arrives after it
+	 * has been forgotten merely has its messages retransmitted.
+	 */
+	private static final int DATAGRAM_HISTORY = 256;
+
+	/**
+	 * The number of message sequence numbers held by the {@link #messageLog} (a power of two): enough for every
+	 * message in the {@link #MESSAGE_WINDOW} to be sent several times over before its first sending is forgotten
+	 */
+	private static final int MESSAGE_LOG_SIZE = 4 * MESSAGE_WINDOW;
+
+	/**
+	 * The retransmission timeout, in nanoseconds, used until the round trip time has been measured
+	 */
+	private static final long INITIAL_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(250);
+
+	/**
+	 * The shortest retransmission timeout, in nanoseconds
+	 */
+	private static final long MIN_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/**
+	 * The longest retransmission timeout, in nanoseconds, including backoff
+	 */
+	private static final long MAX_TIMEOUT = TimeUnit.SECONDS.toNanos(2);
+
+	/**
+	 * The IP address of the peer
+	 */
+	private final InetAddress address;
+
+	/**
+	 * The port on the peer's {@link #address}
+	 */
+	private final int port;
+
+	/**
+	 * The peer's {@link #address} and {@link #port}, created once so that each datagram sent to the peer does not
+	 * allocate one
+	 */
+	private final InetSocketAddress socketAddress;
+
+	/**
+	 * The sequence number of the next datagram sent to the peer
+	 */
+	private int nextSequence;
+
+	/**
+	 * The sequence numbers of the remembered sent datagrams, indexed by sequence number modulo the history size (-1
+	 * for unused entries)
+	 */
+	private final int[] sentSequences = new int[DATAGRAM_HISTORY];
+
+	/**
+	 * The times, as given by System.nanoTime(), at which the remembered datagrams were sent
+	 */
+	private final long[] sentTimes = new long[DATAGRAM_HISTORY];
+
+	/**
+	 * Whether each remembered datagram has been acknowledged
+	 */
+	private final boolean[] sentAcknowledged = new boolean[DATAGRAM_HISTORY];
+
+	/**
+	 * A ring of the sequence numbers of the messages carried by the sent datagrams, each datagram's messages following
+	 * those of the datagram before it
+	 */
+	private final int[] messageLog = new int[MESSAGE_LOG_SIZE];
+
+	/**
+	 * The number of message sequence numbers ever written to the {@link #messageLog} (wrapping around), whose
+	 * remainder modulo the log size is where the next is written
+	 */
+	private int messageLogEnd;
+
+	/**
+	 * The position in the {@link #messageLog}, as a count of the entries written before it, of the messages carried
+	 * by each remembered datagram
+	 */
+	private final int[] sentMessageStarts = new int[DATAGRAM_HISTORY];
+
+	/**
+	 * The number of messages carried by each remembered datagram
+	 */
+	private final int[] sentMessageCounts = new int[DATAGRAM_HISTORY];
+
+	/**
+	 * The sequence number of the newest datagram received from the peer (-1 if none has been)
+	 */
+	private int remoteSequence = -1;
+
+	/**
+	 * Bit n is set if the datagram n + 1 before the {@link #remoteSequence} has been received
+	 */
+	private int receivedBits;
+
+	/**
+	 * Set when a reliable message has been received and not yet acknowledged
+	 */
+	private boolean ackPending;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the last datagram was received from the peer
+	 */
+	private long lastReceiveTime = System.nanoTime();
+
+	/**
+	 * The smoothed round trip time, in nanoseconds (-1 until it has been measured)
+	 */
+	private long smoothedRTT = -1;
+
+	/**
+	 * The mean deviation of the round trip time, in nanoseconds
+	 */
+	private long rttVariation;
+
+	/**
+	 * The current retransmission timeout, in nanoseconds
+	 */
+	private long retransmitTimeout = INITIAL_TIMEOUT;
+
+	/**
+	 * The sequence number given to the next reliable message
+	 */
+	private int nextMessage;
+
+	/**
+	 * The sequence number of the oldest reliable message that has not been acknowledged (equal to {@link #nextMessage}
+	 * if there is none)
+	 */
+	private int oldestUnacknowledged;
+
+	/**
+	 * The unacknowledged reliable messages, indexed by message sequence number modulo the window size (null once
+	 * acknowledged)
+	 */
+	private final OutgoingPacket[] sendWindow = new OutgoingPacket[MESSAGE_WINDOW];
+
+	/**
+	 * The times, as given by System.nanoTime(), at which each unacknowledged message is due to be sent again
+	 */
+	private final long[] resendTimes = new long[MESSAGE_WINDOW];
+
+	/**
+	 * The number of times each unacknowledged message has been sent
+	 */
+	private final int[] sendCounts = new int[MESSAGE_WINDOW];
+
+	/**
+	 * Reliable messages waiting for room in the {@link #sendWindow}
+	 */
+	private final ArrayDeque<OutgoingPacket> backlog = new ArrayDeque<OutgoingPacket>();
+
+	/**
+	 * The sequence number of the next reliable message to be delivered to the incoming packet queue
+	 */
+	private int expectedMessage;
+
+	/**
+	 * Whether each message in the receive window has arrived, indexed by sequence number modulo the window size
+	 */
+	private final boolean[] received = new boolean[MESSAGE_WINDOW];
+
+	/**
+	 * The messages that have arrived ahead of the {@link #expectedMessage} (null for messages that could not be
+	 * decoded, which are skipped)
+	 */
+	private final BBPacket[] receiveWindow = new BBPacket[MESSAGE_WINDOW];
+
+	/**
+	 * The number of datagrams received from the peer (duplicates excluded)
+	 */
+	private long datagramsReceived;
+
+	/**
+	 * The number of bytes of datagrams received from the peer (duplicates excluded)
+	 */
+	private long bytesReceived;
+
+	/**
+	 * The number of datagrams the peer is known to have sent, judging by the sequence numbers received: the span from
+	 * the first datagram received to the newest. Less the {@link #datagramsReceived}, this is the number lost (or yet
+	 * to arrive out of order).
+	 */
+	private long datagramsExpected;
+
+	/**
+	 * The number of datagrams sent to the peer
+	 */
+	private long datagramsSent;
+
+	/**
+	 * The number of bytes of datagrams sent to the peer
+	 */
+	private long bytesSent;
+
+	/**
+	 * The number of times reliable messages have been retransmitted to the peer
+	 */
+	private long retransmissions;
+
+	/**
+	 * Whether the peer has agreed to receive {@link PacketCodec#isCompressible(int) compressible} packets compressed
+	 * (set once the connection is authenticated, and read by the sending network thread)
+	 */
+	private volatile boolean compressionEnabled;
+
+	/**
+	 * The number of datagrams from the peer dropped for exceeding its host's receive budget
+	 */
+	private long rateLimitedDatagrams;
+
+	/**
+	 * The number of times the peer's host has started exceeding its receive budget (after its bucket had filled up
+	 * again) with a datagram from the peer
+	 */
+	private long rateLimitOffences;
+
+	/**
+	 * Constructor
+	 *
+	 * @param address The peer's IP {@link #address}
+	 * @param port The {@link #port} on the above address
+	 */
+	public Connection(InetAddress address, int port) {
+		this.address = address;
+		this.port = port;
+		socketAddress = new InetSocketAddress(address, port);
+		for (int i = 0; i < DATAGRAM_HISTORY; i++)
+			sentSequences[i] = -1;
+	}
+
+	/**
+	 * Reads the header of a datagram received from the peer, processing the acknowledgments it carries
+	 *
+	 * @param datagram The received datagram, positioned at its header (the position is advanced past the header)
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return False if the datagram has already been received, or is too old to tell, and should be discarded
+	 */
+	public synchronized boolean readHeader(ByteBuffer datagram, long now) {
+		int size = datagram.remaining();
+		int sequence = datagram.getShort() & 0xFFFF;
+		int ack = datagram.getShort() & 0xFFFF;
+		int ackBits = datagram.getInt();
+
+		if (remoteSequence < 0) {
+			remoteSequence = sequence;
+			receivedBits = 0;
+			datagramsExpected = 1;
+		} else {
+			int distance = sequenceDistance(sequence, remoteSequence);
+			if (distance > 0) {
+				receivedBits = distance > 32 ? 0 : (receivedBits << 1 | 1) << (distance - 1);
+				remoteSequence = sequence;
+				datagramsExpected += distance;
+			} else if (distance == 0 || distance < -32 || (receivedBits & 1 << (-distance - 1)) != 0)
+				return false;
+			else
+				receivedBits |= 1 << (-distance - 1);
+		}
+		lastReceiveTime = now;
+		datagramsReceived++;
+		bytesReceived += size;
+
+		acknowledgeDatagram(ack, now, true);
+		for (int i = 0; i < 32; i++)
+			if ((ackBits & 1 << i) != 0)
+				acknowledgeDatagram((ack - i - 1) & 0xFFFF, now, false);
+		return true;
+	}
+
+	/**
+	 * Counts a datagram received from the peer that its host's receive budget had no room for (see
+	 * {@link ReceiveLimiter})
+	 *
+	 * @param offence Whether the datagram is the first over the budget since the host's bucket was last full
+	 */
+	public synchronized void recordRateLimited(boolean offence) {
+		rateLimitedDatagrams++;
+		if (offence)
+			rateLimitOffences++;
+	}
+
+	/**
+	 * Writes the header of a datagram about to be sent to the peer, and records the reliable messages it carries
+	 *
+	 * @param datagram The datagram, whose first {@link #HEADER_SIZE} bytes are overwritten (its limit must be its
+	 * size)
+	 * @param messages An array containing the sequence numbers of the messages in the datagram
+	 * @param offset The index of the first message sequence number in the array
+	 * @param count The number of messages in the datagram
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public synchronized void writeHeader(ByteBuffer datagram, int[] messages, int offset, int count, long now) {
+		int sequence = nextSequence;
+		nextSequence = (nextSequence + 1) & 0xFFFF;
+		int index = sequence % DATAGRAM_HISTORY;
+		sentSequences[index] = sequence;
+		sentTimes[index] = now;
+		sentAcknowledged[index] = false;
+		sentMessageStarts[index] = messageLogEnd;
+		sentMessageCounts[index] = count;
+		for (int i = 0; i < count; i++)
+			messageLog[messageLogEnd++ & (MESSAGE_LOG_SIZE - 1)] = messages[offset + i];
+
+		datagram.putShort(0, (short) sequence);
+		datagram.putShort(2, (short) (remoteSequence < 0 ? 0xFFFF : remoteSequence));
+		datagram.putInt(4, remoteSequence < 0 ? 0 : receivedBits);
+		ackPending = false;
+		datagramsSent++;
+		bytesSent += datagram.limit();
+	}
+
+	/**
+	 * Assigns a message sequence number to a reliable packet about to be sent, and keeps the packet until it has been
+	 * acknowledged. If the window of unacknowledged messages is full, the packet is added to the backlog instead, and
+	 * is returned by {@link #collectDueMessages(long, int[], OutgoingPacket[])} once there is room for it.
+	 *
+	 * @param packet The reliable packet
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The packet's message sequence number, or -1 if it has been added to the backlog
+	 */
+	public synchronized int reserveMessage(OutgoingPacket packet, long now) {
+		if (!backlog.isEmpty() || windowSize() == MESSAGE_WINDOW) {
+			backlog.addLast(packet);
+			return -1;
+		}
+		return addToWindow(packet, now);
+	}
+
+	/**
+	 * Collects the reliable messages whose retransmission timeout has run out (or that have left the backlog) and
+	 * schedules their next retransmission, backing off exponentially
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param sequences The array into which to write the messages' sequence numbers
+	 * @param packets The array into which to write the messages
+	 * @return The number of messages collected (at most the length of the arrays)
+	 */
+	public synchronized int collectDueMessages(long now, int[] sequences, OutgoingPacket[] packets) {
+		int count = 0;
+		for (int sequence = oldestUnacknowledged; sequence != nextMessage && count < sequences.length;
+				sequence = (sequence + 1) & 0xFFFF) {
+			int index = sequence % MESSAGE_WINDOW;
+			if (sendWindow[index] == null || resendTimes[index] - now > 0)
+				continue;
+			long backoff = retransmitTimeout << Math.min(sendCounts[index], 5);
+			resendTimes[index] = now + Math.min(backoff, MAX_TIMEOUT);
+			sendCounts[index]++;
+			retransmissions++;
+			sequences[count] = sequence;
+			packets[count++] = sendWindow[index];
+		}
+		while (count < sequences.length && !backlog.isEmpty() && windowSize() < MESSAGE_WINDOW) {
+			OutgoingPacket packet = backlog.pollFirst();
+			sequences[count] = addToWindow(packet, now);
+			packets[count++] = packet;
+		}
+		return count;
+	}
+
+	/**
+	 * Records that a reliable message has arrived, so that the datagram carrying it is acknowledged even if the message
+	 * is a duplicate (which means that the previous acknowledgment was lost)
+	 *
+	 * @param sequence The message's sequence number, read from a received datagram
+	 * @return Whether the message has yet to be received (if not, it need not be decoded)
+	 */
+	public synchronized boolean acceptMessage(int sequence) {
+		ackPending = true;
+		return isNewMessage(sequence);
+	}
+
+	/**
+	 * Stores a new reliable message received from the peer (see {@link #acceptMessage(int)}), and adds every message
+	 * that is now in order to the incoming packet queue
+	 *
+	 * @param sequence The message's sequence number
+	 * @param packet The decoded message (null if it could not be decoded, in which case it is skipped)
+	 * @param incomingPacketQueue The queue to which to add the messages that are in order
+	 */
+	public synchronized void receiveMessage(int sequence, BBPacket packet, Queue<BBPacket> incomingPacketQueue) {
+		if (!isNewMessage(sequence)) {
+			if (packet != null)
+				PacketPool.release(packet);
+			return;
+		}
+		int index = sequence % MESSAGE_WINDOW;
+		received[index] = true;
+		receiveWindow[index] = packet;
+		while (received[index = expectedMessage % MESSAGE_WINDOW]) {
+			if (receiveWindow[index] != null)
+				incomingPacketQueue.add(receiveWindow[index]);
+			received[index] = false;
+			receiveWindow[index] = null;
+			expectedMessage = (expectedMessage + 1) & 0xFFFF;
+		}
+	}
+
+	/**
+	 * @return Whether a reliable message has been received from the peer since the last header was written, so that
+	 * an acknowledgment should be sent even if there is nothing else to send
+	 */
+	public synchronized boolean isAckPending() {
+		return ackPending;
+	}
+
+	/**
+	 * @return The smoothed round trip time to the peer, in nanoseconds (-1 if it has not been measured)
+	 */
+	public synchronized long getRoundTripTime() {
+		return smoothedRTT;
+	}
+
+	/**
+	 * @return The number of reliable messages sent or waiting to be sent that the peer has not yet acknowledged
+	 */
+	public synchronized int getUnacknowledgedMessageCount() {
+		int count = backlog.size();
+		for (int sequence = oldestUnacknowledged; sequence != nextMessage; sequence = (sequence + 1) & 0xFFFF)
+			if (sendWindow[sequence % MESSAGE_WINDOW] != null)
+				count++;
+		return count;
+	}
+
+	/**
+	 * @return The mean deviation of the round trip time to the peer, in nanoseconds
+	 */
+	public synchronized long getRoundTripTimeVariation() {
+		return rttVariation;
+	}
+
+	/**
+	 * @return The number of datagrams received from the peer (duplicates excluded)
+	 */
+	public synchronized long getDatagramsReceived() {
+		return datagramsReceived;
+	}
+
+	/**
+	 * @return The number of bytes of datagrams received from the peer (duplicates excluded)
+	 */
+	public synchronized long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * @return The number of datagrams the peer is known to have sent, judging by the sequence numbers received
+	 */
+	public synchronized long getDatagramsExpected() {
+		return datagramsExpected;
+	}
+
+	/**
+	 * @return The share (0 to 1) of the datagrams sent by the peer that have not arrived, over the lifetime of the
+	 * connection
+	 */
+	public synchronized double getLossRate() {
+		return datagramsExpected == 0 ? 0 : Math.max(datagramsExpected - datagramsReceived, 0) /
+				(double) datagramsExpected;
+	}
+
+	/**
+	 * @return The number of datagrams sent to the peer
+	 */
+	public synchronized long getDatagramsSent() {
+		return datagramsSent;
+	}
+
+	/**
+	 * @return The number of bytes of datagrams sent to the peer
+	 */
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * @return The number of times reliable messages have been retransmitted to the peer
+	 */
+	public synchronized long getRetransmissions() {
+		return retransmissions;
+	}
+
+	/**
+	 * @return The time, as given by System.nanoTime(), at which the last datagram was received from the peer
+	 */
+	public synchronized long getLastReceiveTime() {
+		return lastReceiveTime;
+	}
+
+	/**
+	 * @return The number of datagrams from the peer dropped for exceeding its host's receive budget
+	 */
+	public synchronized long getRateLimitedDatagrams() {
+		return rateLimitedDatagrams;
+	}
+
+	/**
+	 * @return The number of times the peer's host has started exceeding its receive budget with a datagram from the
+	 * peer
+	 */
+	public synchronized long getRateLimitOffences() {
+		return rateLimitOffences;
+	}
+
+	/**
+	 * @return Whether {@link #compressionEnabled compression is enabled} for packets sent to the peer
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * @param compressionEnabled Whether to compress the compressible packets sent to the peer (see
+	 * {@link #compressionEnabled})
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * @return The peer's IP {@link #address}
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return The {@link #port} on the peer's address
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return The peer's {@link #socketAddress}
+	 */
+	public InetSocketAddress getSocketAddress() {
+		return socketAddress;
+	}
+
+	/**
+	 * @param sequence A reliable message sequence number
+	 * @return Whether the message is within the receive window and has yet to be received
+	 */
+	private boolean isNewMessage(int sequence) {
+		int distance = (sequence - expectedMessage) & 0xFFFF;
+		return distance < MESSAGE_WINDOW && !received[sequence % MESSAGE_WINDOW];
+	}
+
+	/**
+	 * Marks a sent datagram as acknowledged, acknowledging the messages it carried
+	 *
+	 * @param sequence The datagram's sequence number
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param latest Whether the datagram is the latest one the peer has received, in which case the time since it was
+	 * sent is taken as a round trip time sample if it carried reliable messages (which the peer acknowledges without
+	 * delay)
+	 */
+	private void acknowledgeDatagram(int sequence, long now, boolean latest) {
+		int index = sequence % DATAGRAM_HISTORY;
+		if (sentSequences[index] != sequence || sentAcknowledged[index])
+			return;
+		sentAcknowledged[index] = true;
+		if (latest && sentMessageCounts[index] > 0)
+			updateRoundTripTime(now - sentTimes[index]);
+		int start = sentMessageStarts[index];
+		if (messageLogEnd - start > MESSAGE_LOG_SIZE) // The messages have been overwritten, and will be retransmitted
+			return;
+		for (int i = 0; i < sentMessageCounts[index]; i++) {
+			int message = messageLog[(start + i) & (MESSAGE_LOG_SIZE - 1)];
+			int messageIndex = message % MESSAGE_WINDOW;
+			if (sendWindow[messageIndex] != null && ((message - oldestUnacknowledged) & 0xFFFF) < windowSize())
+				sendWindow[messageIndex] = null;
+		}
+		while (oldestUnacknowledged != nextMessage && sendWindow[oldestUnacknowledged % MESSAGE_WINDOW] == null)
+			oldestUnacknowledged = (oldestUnacknowledged + 1) & 0xFFFF;
+	}
+
+	/**
+	 * Folds a round trip time sample into the smoothed round trip time and its variation, and recomputes the
+	 * retransmission timeout from them (RFC 6298)
+	 *
+	 * @param sample The measured round trip time, in nanoseconds
+	 */
+	private void updateRoundTripTime(long sample) {
+		if (smoothedRTT < 0) {
+			smoothedRTT = sample;
+			rttVariation = sample / 2;
+		} else {
+			rttVariation = (3 * rttVariation + Math.abs(smoothedRTT - sample)) / 4;
+			smoothedRTT = (7 * smoothedRTT + sample) / 8;
+		}
+		retransmitTimeout = Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, smoothedRTT + 4 * rttVariation));
+	}
+
+	/**
+	 * Adds a message to the {@link #sendWindow}, which must have room for it
+	 *
+	 * @param packet The reliable packet
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The message's sequence number
+	 */
+	private int addToWindow(OutgoingPacket packet, long now) {
+		int sequence = nextMessage;
+		nextMessage = (nextMessage + 1) & 0xFFFF;
+		int index = sequence % MESSAGE_WINDOW;
+		sendWindow[index] = packet;
+		resendTimes[index] = now + retransmitTimeout;
+		sendCounts[index] = 1;
+		return sequence;
+	}
+
+	/**
+	 * @return The number of message sequence numbers between the oldest unacknowledged message and the next message
+	 */
+	private int windowSize() {
+		return (nextMessage - oldestUnacknowledged) & 0xFFFF;
+	}
+
+	/**
+	 * @param a A datagram sequence number
+	 * @param b Another datagram sequence number
+	 * @return The number of datagrams by which a is newer than b (negative if it is older), accounting for wrap-around
+	 */
+	private static int sequenceDistance(int a, int b) {
+		return (short) (a - b);
+	}
+}
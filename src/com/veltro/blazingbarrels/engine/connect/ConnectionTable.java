@@ -0,0 +1,218 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+
+/**
+ * The {@link Connection connections} to every peer a network thread exchanges datagrams with, by address and port. A
+ * connection is created the first time a datagram is sent to or received from a peer, and is forgotten when it is
+ * {@link #remove(InetAddress, int) removed} or {@link #evictIdle(long, long) evicted} after the peer has been silent
+ * for too long. The table is shared by the sending side ({@link DatagramBatcher}) and the receiving side
+ * ({@link DatagramUnpacker}) of a socket, which may run on different threads. For the same reason, the table also
+ * holds the {@link NetworkMetrics} of the socket, and the {@link DemoRecorder} that records its packets, if any.<p>
+ *
+ * The connection of every received datagram is looked up in the table, so the connections are kept in an
+ * {@link EndpointMap}, which finds them without allocating. The map is guarded by the table's lock, which is only
+ * ever held for a lookup or a copy of the connections; the connections are visited through such a copy (see
+ * {@link #toArray(Connection[])}). The table also counts the connections of each host (IP address), so that the
+ * receiving side can refuse to {@link #open(InetAddress, int, int) open} more than a few for any one host.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class ConnectionTable {
+
+	/**
+	 * The connections, by the address and port of their peer (guarded by the table's lock)
+	 */
+	private final EndpointMap<Connection> connections = new EndpointMap<Connection>();
+
+	/**
+	 * The number of connections of each host that has any (guarded by the table's lock)
+	 */
+	private final HashMap<InetAddress, Integer> hostConnectionCounts = new HashMap<InetAddress, Integer>();
+
+	/**
+	 * The counters of the traffic through the socket
+	 */
+	private final NetworkMetrics metrics = new NetworkMetrics();
+
+	/**
+	 * Records every packet sent and received through the socket (null if the socket is not being recorded)
+	 */
+	private volatile DemoRecorder recorder;
+
+	/**
+	 * Finds the connection to a peer, creating it if there is none
+	 *
+	 * @param address The peer's IP address
+	 * @param port The port on the above address
+	 * @return The connection
+	 */
+	public synchronized Connection get(InetAddress address, int port) {
+		Connection connection = connections.get(address, port);
+		if (connection == null)
+			connection = add(address, port);
+		return connection;
+	}
+
+	/**
+	 * Finds the connection to a peer, creating it if there is none and the peer's host has fewer than a number of
+	 * connections
+	 *
+	 * @param address The peer's IP address
+	 * @param port The port on the above address
+	 * @param maxPerHost The number of connections the host may hold (0 for no limit)
+	 * @return The connection, or null if there was none and the host already holds maxPerHost connections
+	 */
+	public synchronized Connection open(InetAddress address, int port, int maxPerHost) {
+		Connection connection = connections.get(address, port);
+		if (connection == null) {
+			if (maxPerHost > 0 && getConnectionCount(address) >= maxPerHost)
+				return null;
+			connection = add(address, port);
+		}
+		return connection;
+	}
+
+	/**
+	 * Finds the connection to a peer, without creating it if there is none
+	 *
+	 * @param address The peer's IP address
+	 * @param port The port on the above address
+	 * @return The connection, or null if there is none (the peer has not exchanged datagrams with the socket since
+	 * it was last removed or evicted)
+	 */
+	public synchronized Connection find(InetAddress address, int port) {
+		return connections.get(address, port);
+	}
+
+	/**
+	 * Forgets the connection to a peer (eg. once it has disconnected), discarding any unacknowledged reliable messages
+	 *
+	 * @param address The peer's IP address
+	 * @param port The port on the above address
+	 */
+	public synchronized void remove(InetAddress address, int port) {
+		if (connections.remove(address, port) != null)
+			countRemoval(address);
+	}
+
+	/**
+	 * Forgets the connections to the peers from which nothing has been received for longer than a timeout
+	 *
+	 * @param timeout The timeout, in nanoseconds
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The number of connections evicted
+	 */
+	public synchronized int evictIdle(long timeout, long now) {
+		int evicted = 0;
+		for (int slot = 0; slot < connections.getCapacity(); slot++) {
+			Connection connection = connections.getValue(slot);
+			if (connection != null && now - connection.getLastReceiveTime() > timeout) {
+				connections.removeValue(slot);
+				countRemoval(connection.getAddress());
+				evicted++;
+				slot--; // Another connection may have been moved into the slot
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Creates the connection to a peer, which must not have one yet, and counts it against its host (called with the
+	 * table's lock held)
+	 *
+	 * @param address The peer's IP address
+	 * @param port The port on the above address
+	 * @return The new connection
+	 */
+	private Connection add(InetAddress address, int port) {
+		Connection connection = new Connection(address, port);
+		connections.put(address, port, connection);
+		hostConnectionCounts.put(address, getConnectionCount(address) + 1);
+		return connection;
+	}
+
+	/**
+	 * Counts the removal of one of a host's connections (called with the table's lock held)
+	 *
+	 * @param address The host's IP address
+	 */
+	private void countRemoval(InetAddress address) {
+		int count = getConnectionCount(address);
+		if (count > 1)
+			hostConnectionCounts.put(address, count - 1);
+		else
+			hostConnectionCounts.remove(address);
+	}
+
+	/**
+	 * @param address A host's IP address
+	 * @return The number of connections in the table to peers on the host
+	 */
+	public synchronized int getConnectionCount(InetAddress address) {
+		Integer count = hostConnectionCounts.get(address);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Copies every connection in the table into an array, following the contract of Collection.toArray(Object[]): if
+	 * the connections fit, they are copied into the provided array and followed by null (if there is room), which
+	 * also replaces any connections left over from a previous copy; otherwise a new array of exactly the right size is
+	 * returned. Passing the returned array back in on the next call thus copies the connections without allocating
+	 * once the array has grown to fit.
+	 *
+	 * @param array The array to copy the connections into, if it is large enough
+	 * @return The array holding the connections
+	 */
+	public synchronized Connection[] toArray(Connection[] array) {
+		int size = connections.size();
+		if (array.length < size)
+			array = new Connection[size];
+		int count = 0;
+		for (int slot = 0; slot < connections.getCapacity(); slot++) {
+			Connection connection = connections.getValue(slot);
+			if (connection != null)
+				array[count++] = connection;
+		}
+		if (count < array.length)
+			Arrays.fill(array, count, array.length, null);
+		return array;
+	}
+
+	/**
+	 * @return The number of connections in the table
+	 */
+	public synchronized int size() {
+		return connections.size();
+	}
+
+	/**
+	 * @return The {@link #metrics} of the socket
+	 */
+	public NetworkMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The {@link #recorder} of the socket's packets (null if it is not being recorded)
+	 */
+	public DemoRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Starts or stops recording the socket's packets. May be called from any thread; the recorder must not be set on
+	 * the tables of two threads at once (see {@link DemoRecorder}).
+	 *
+	 * @param recorder The new {@link #recorder} (null to stop recording, in which case the previous recorder is left
+	 * open)
+	 */
+	public void setRecorder(DemoRecorder recorder) {
+		this.recorder = recorder;
+	}
+}
@@ -0,0 +1,442 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.EncodedPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.OutgoingPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCompressor;
+
+/**
+ * Packs outgoing {@link OutgoingPacket packets} bound for the same address and port into shared datagrams. Packets
+ * are {@link #append(OutgoingPacket) appended} one at a time, and each is added to the open datagram for its
+ * destination until the next packet would push that datagram past the {@link #maxDatagramSize}, at which point the
+ * datagram is sent and a new one is started. Calling {@link #flush()} sends every open datagram.<p>
+ *
+ * A packet too large to fit in a datagram of its own (such as the full {@link
+ * com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot snapshot} sent when a player joins) is split
+ * into numbered fragments of up to {@link #maxDatagramSize} bytes, which the receiver's {@link FragmentAssembler} puts
+ * back together. The sender and the receiver must therefore agree on the maximum datagram size.<p>
+ *
+ * Every datagram starts with the {@link Connection} header of its destination, which acknowledges the datagrams
+ * received from it. {@link PacketCodec#isReliable(int) Reliable} packets are numbered by the connection and wrapped in
+ * reliable frames; {@link #flush()} retransmits those whose acknowledgment is overdue, and sends a datagram consisting
+ * of just the header to each peer whose reliable messages have not yet been acknowledged otherwise.<p>
+ *
+ * {@link PacketCodec#isCompressible(int) Compressible} packets bound for a connection that has {@link
+ * Connection#isCompressionEnabled() compression enabled} are compressed by a {@link PacketCompressor} before being
+ * batched (and thus before being fragmented or wrapped in a reliable frame), whenever that makes their frame smaller.
+ * If the socket is being recorded, each packet's frame is passed to the {@link DemoRecorder} as encoded, before
+ * compression.<p>
+ *
+ * The receiving side unpacks the datagrams with a {@link DatagramUnpacker}, which decodes packets until no bytes
+ * remain. All buffers are allocated up front, so batching allocates nothing. Every packet and datagram sent is counted
+ * in the socket's {@link NetworkMetrics}.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class DatagramBatcher {
+
+	/**
+	 * The default {@link #maxDatagramSize}, chosen to stay below the MTU of typical links once IP and UDP headers are
+	 * added
+	 */
+	public static final int DEFAULT_MAX_DATAGRAM_SIZE = 1200;
+
+	/**
+	 * The smallest allowed {@link #maxDatagramSize}: enough for the largest reliable packet (see
+	 * {@link PacketCodec#MAX_RELIABLE_PACKET_SIZE}) to be sent in a single datagram, which also keeps the number of
+	 * fragments a packet of up to {@link PacketCodec#MAX_PACKET_SIZE} bytes is split into within the 255 a fragment
+	 * frame can number
+	 */
+	public static final int MIN_DATAGRAM_SIZE = Connection.HEADER_SIZE + PacketCodec.RELIABLE_HEADER_SIZE +
+			PacketCodec.MAX_RELIABLE_PACKET_SIZE;
+
+	/**
+	 * The number of destinations that can have an open datagram at once. Appending a packet for another destination
+	 * flushes all open datagrams.
+	 */
+	private static final int MAX_OPEN_DATAGRAMS = 8;
+
+	/**
+	 * The output over which assembled datagrams are sent
+	 */
+	private final DatagramOutput output;
+
+	/**
+	 * The connections to the destinations, shared with the receiving side of the socket
+	 */
+	private final ConnectionTable connectionTable;
+
+	/**
+	 * The counters of the traffic through the socket, taken from the {@link #connectionTable}
+	 */
+	private final NetworkMetrics metrics;
+
+	/**
+	 * The maximum size, in bytes, of a datagram assembled by this batcher
+	 */
+	private final int maxDatagramSize;
+
+	/**
+	 * The buffer into which each packet is encoded before being copied into the open datagram for its destination
+	 */
+	private final ByteBuffer frame;
+
+	/**
+	 * Compresses the frames of the compressible packets bound for connections that have compression enabled
+	 */
+	private final PacketCompressor compressor = new PacketCompressor();
+
+	/**
+	 * The buffers of the open datagrams
+	 */
+	private final ByteBuffer[] datagrams = new ByteBuffer[MAX_OPEN_DATAGRAMS];
+
+	/**
+	 * The destination addresses of the open datagrams
+	 */
+	private final InetAddress[] addresses = new InetAddress[MAX_OPEN_DATAGRAMS];
+
+	/**
+	 * The destination ports of the open datagrams
+	 */
+	private final int[] ports = new int[MAX_OPEN_DATAGRAMS];
+
+	/**
+	 * The connections to the destinations of the open datagrams
+	 */
+	private final Connection[] connections = new Connection[MAX_OPEN_DATAGRAMS];
+
+	/**
+	 * The sequence numbers of the reliable messages in each open datagram
+	 * ({@link Connection#MAX_MESSAGES_PER_DATAGRAM} entries per datagram)
+	 */
+	private final int[] messages = new int[MAX_OPEN_DATAGRAMS * Connection.MAX_MESSAGES_PER_DATAGRAM];
+
+	/**
+	 * The number of reliable messages in each open datagram
+	 */
+	private final int[] messageCounts = new int[MAX_OPEN_DATAGRAMS];
+
+	/**
+	 * The buffer from which datagrams holding nothing but a header (to acknowledge reliable messages) are sent
+	 */
+	private final ByteBuffer ackDatagram;
+
+	/**
+	 * The connections visited by each {@link #flush()}, copied from the {@link #connectionTable} (reused by every
+	 * flush, null after the last connection)
+	 */
+	private Connection[] peers = new Connection[16];
+
+	/**
+	 * The sequence numbers of the reliable messages due for retransmission to one connection
+	 */
+	private final int[] dueSequences = new int[Connection.MAX_MESSAGES_PER_DATAGRAM];
+
+	/**
+	 * The reliable messages due for retransmission to one connection
+	 */
+	private final OutgoingPacket[] duePackets = new OutgoingPacket[Connection.MAX_MESSAGES_PER_DATAGRAM];
+
+	/**
+	 * The number of datagrams currently open (the first openCount entries of the above arrays are in use)
+	 */
+	private int openCount;
+
+	/**
+	 * The message ID given to the fragments of the next fragmented packet (wraps around at 65536)
+	 */
+	private int nextMessageID;
+
+	/**
+	 * Simplified constructor - calls the {@link #DatagramBatcher(DatagramOutput, int, boolean, ConnectionTable)
+	 * complete constructor}, allocating the datagram buffers on the heap
+	 *
+	 * @param output The {@link #output} over which to send datagrams
+	 * @param maxDatagramSize The {@link #maxDatagramSize} (at least {@link #MIN_DATAGRAM_SIZE})
+	 * @param connectionTable The {@link #connectionTable} shared with the receiving side of the socket
+	 */
+	public DatagramBatcher(DatagramOutput output, int maxDatagramSize, ConnectionTable connectionTable) {
+		this(output, maxDatagramSize, false, connectionTable);
+	}
+
+	/**
+	 * Complete constructor - allocates the buffers for the open datagrams
+	 *
+	 * @param output The {@link #output} over which to send datagrams
+	 * @param maxDatagramSize The {@link #maxDatagramSize} (at least {@link #MIN_DATAGRAM_SIZE})
+	 * @param direct Whether to allocate the datagram buffers as direct buffers (which NIO channels can send without
+	 * copying) rather than heap buffers (which are backed by an array, as needed by a {@link SenderThread})
+	 * @param connectionTable The {@link #connectionTable} shared with the receiving side of the socket
+	 */
+	public DatagramBatcher(DatagramOutput output, int maxDatagramSize, boolean direct,
+			ConnectionTable connectionTable) {
+		if (maxDatagramSize < MIN_DATAGRAM_SIZE)
+			throw new IllegalArgumentException("The maximum datagram size must be at least " + MIN_DATAGRAM_SIZE +
+					" bytes");
+		this.output = output;
+		this.maxDatagramSize = maxDatagramSize;
+		this.connectionTable = connectionTable;
+		metrics = connectionTable.getMetrics();
+		frame = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+		for (int i = 0; i < MAX_OPEN_DATAGRAMS; i++)
+			datagrams[i] = direct ? ByteBuffer.allocateDirect(maxDatagramSize) : ByteBuffer.allocate(maxDatagramSize);
+		ackDatagram = direct ? ByteBuffer.allocateDirect(Connection.HEADER_SIZE) :
+				ByteBuffer.allocate(Connection.HEADER_SIZE);
+	}
+
+	/**
+	 * Encodes the packet and adds it to the open datagram for its destination, sending that datagram first if the
+	 * packet does not fit in it. Packets larger than a datagram are fragmented, unless they are reliable.
+	 *
+	 * @param packet The packet to send
+	 * @return The size, in bytes, of the packet's encoded frame (0 if it is reliable and has been put in its
+	 * connection's backlog, to be sent by a later {@link #flush()})
+	 * @throws IOException If a datagram could not be sent
+	 * @throws IllegalArgumentException If the packet is reliable and does not fit in a single datagram
+	 */
+	public int append(OutgoingPacket packet) throws IOException {
+		int slot = openDatagram(packet.getAddress(), packet.getPort());
+		frame.clear();
+		if (!PacketCodec.isReliable(packet.getID())) {
+			PacketCodec.encode(packet, frame);
+			record(packet, 0);
+			compress(slot, packet, 0, true);
+			frame.flip();
+			int size = frame.remaining();
+			metrics.recordSent(packet.getID(), size);
+			if (size > maxDatagramSize - Connection.HEADER_SIZE)
+				appendFragments(slot);
+			else
+				appendFrame(slot, -1);
+			return size;
+		}
+
+		PacketCodec.encodeReliable(packet, 0, frame);
+		record(packet, PacketCodec.RELIABLE_HEADER_SIZE);
+		compress(slot, packet, PacketCodec.RELIABLE_HEADER_SIZE, true);
+		frame.flip();
+		if (frame.remaining() > maxDatagramSize - Connection.HEADER_SIZE)
+			throw new IllegalArgumentException("Reliable packets must fit in a single datagram");
+		metrics.recordSent(packet.getID(), frame.remaining());
+		int sequence = connections[slot].reserveMessage(packet, System.nanoTime());
+		if (sequence < 0)
+			return 0;
+		frame.putShort(PacketCodec.FRAME_HEADER_SIZE, (short) sequence);
+		int size = frame.remaining();
+		appendFrame(slot, sequence);
+		return size;
+	}
+
+	/**
+	 * Retransmits the reliable messages whose acknowledgment is overdue, sends all open datagrams, and then sends a
+	 * bare header to every peer that is still owed an acknowledgment
+	 *
+	 * @throws IOException If a datagram could not be sent (the remaining datagrams are discarded)
+	 */
+	public void flush() throws IOException {
+		long now = System.nanoTime();
+		peers = connectionTable.toArray(peers);
+		try {
+			for (int p = 0; p < peers.length && peers[p] != null; p++) {
+				Connection connection = peers[p];
+				int count = connection.collectDueMessages(now, dueSequences, duePackets);
+				if (count == 0)
+					continue;
+				int slot = openDatagram(connection.getAddress(), connection.getPort());
+				for (int i = 0; i < count; i++) {
+					frame.clear();
+					PacketCodec.encodeReliable(duePackets[i], dueSequences[i], frame);
+					compress(slot, duePackets[i], PacketCodec.RELIABLE_HEADER_SIZE, false);
+					frame.flip();
+					appendFrame(slot, dueSequences[i]);
+					duePackets[i] = null;
+				}
+			}
+			sendAll();
+		} finally {
+			closeAll();
+		}
+
+		for (int p = 0; p < peers.length && peers[p] != null; p++) {
+			Connection connection = peers[p];
+			if (!connection.isAckPending())
+				continue;
+			ackDatagram.clear();
+			connection.writeHeader(ackDatagram, messages, 0, 0, now);
+			output.send(ackDatagram, connection.getSocketAddress());
+			metrics.recordDatagramSent(Connection.HEADER_SIZE);
+		}
+	}
+
+	/**
+	 * @return The {@link #metrics} of the socket the batcher sends over
+	 */
+	public NetworkMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return The {@link #maxDatagramSize}
+	 */
+	public int getMaxDatagramSize() {
+		return maxDatagramSize;
+	}
+
+	/**
+	 * Finds the open datagram bound for the provided destination, opening one if there is none
+	 *
+	 * @param address The destination's IP address
+	 * @param port The port on the above address
+	 * @return The index of the datagram
+	 * @throws IOException If the open datagrams had to be sent to make room, and one could not be sent
+	 */
+	private int openDatagram(InetAddress address, int port) throws IOException {
+		for (int i = 0; i < openCount; i++)
+			if (ports[i] == port && addresses[i].equals(address))
+				return i;
+		if (openCount == MAX_OPEN_DATAGRAMS) {
+			try {
+				sendAll();
+			} finally {
+				closeAll();
+			}
+		}
+		int slot = openCount++;
+		addresses[slot] = address;
+		ports[slot] = port;
+		connections[slot] = connectionTable.get(address, port);
+		datagrams[slot].position(Connection.HEADER_SIZE);
+		return slot;
+	}
+
+	/**
+	 * Passes the packet frame just encoded into the {@link #frame} buffer to the socket's {@link DemoRecorder}, if it
+	 * is being recorded
+	 *
+	 * @param packet The packet
+	 * @param start The index at which the packet frame starts
+	 */
+	private void record(OutgoingPacket packet, int start) {
+		DemoRecorder recorder = connectionTable.getRecorder();
+		if (recorder != null)
+			recorder.recordSent(frame, start, frame.position(), packet.getAddress(), packet.getPort());
+	}
+
+	/**
+	 * Compresses the packet frame just encoded into the {@link #frame} buffer, if its type is compressible and its
+	 * destination accepts compression, and if compressing it saves bytes. A reliable frame wrapping the packet frame
+	 * has its length adjusted. The copies of an {@link EncodedPacket} share the outcome, so a packet broadcast to many
+	 * destinations is only compressed once.
+	 *
+	 * @param slot The index of the open datagram for the packet's destination
+	 * @param packet The packet
+	 * @param start The index at which the packet frame starts ({@link PacketCodec#RELIABLE_HEADER_SIZE} if it is
+	 * wrapped in a reliable frame, or 0)
+	 * @param record Whether to record the outcome in the {@link #metrics} (not done for retransmissions)
+	 */
+	private void compress(int slot, OutgoingPacket packet, int start, boolean record) {
+		if (!PacketCodec.isCompressible(packet.getID()) || !connections[slot].isCompressionEnabled())
+			return;
+		int originalSize = frame.position() - start;
+		boolean compressed = packet instanceof EncodedPacket ?
+				compressor.compress(frame, start, (EncodedPacket) packet) : compressor.compress(frame, start);
+		if (compressed && start > 0)
+			frame.putShort(1, (short) (frame.position() - PacketCodec.FRAME_HEADER_SIZE));
+		if (record)
+			metrics.recordCompressionSent(originalSize, frame.position() - start);
+	}
+
+	/**
+	 * Copies the encoded frame in the {@link #frame} buffer into an open datagram, sending the datagram first if the
+	 * frame does not fit in it
+	 *
+	 * @param slot The index of the datagram
+	 * @param messageSequence The message sequence number of the frame if it is reliable, or -1
+	 * @throws IOException If the datagram could not be sent
+	 */
+	private void appendFrame(int slot, int messageSequence) throws IOException {
+		boolean reliable = messageSequence >= 0;
+		if (frame.remaining() > datagrams[slot].remaining() ||
+				(reliable && messageCounts[slot] == Connection.MAX_MESSAGES_PER_DATAGRAM))
+			send(slot);
+		datagrams[slot].put(frame);
+		if (reliable)
+			messages[slot * Connection.MAX_MESSAGES_PER_DATAGRAM + messageCounts[slot]++] = messageSequence;
+	}
+
+	/**
+	 * Splits the packet in the {@link #frame} buffer into fragments, adding each to the provided datagram and sending
+	 * the datagram whenever it fills up. The last fragment is left in the open datagram, where later packets can join
+	 * it.
+	 *
+	 * @param slot The index of the open datagram for the packet's destination
+	 * @throws IOException If a datagram could not be sent
+	 */
+	private void appendFragments(int slot) throws IOException {
+		int sliceSize = maxDatagramSize - Connection.HEADER_SIZE - PacketCodec.FRAGMENT_HEADER_SIZE;
+		int count = (frame.remaining() + sliceSize - 1) / sliceSize;
+		int messageID = nextMessageID;
+		nextMessageID = (nextMessageID + 1) & 0xFFFF;
+		for (int i = 0; i < count; i++) {
+			int length = Math.min(sliceSize, frame.remaining());
+			if (PacketCodec.FRAGMENT_HEADER_SIZE + length > datagrams[slot].remaining())
+				send(slot);
+			PacketCodec.encodeFragment(frame, messageID, i, count, length, datagrams[slot]);
+		}
+	}
+
+	/**
+	 * Sends every open datagram
+	 *
+	 * @throws IOException If a datagram could not be sent
+	 */
+	private void sendAll() throws IOException {
+		for (int i = 0; i < openCount; i++)
+			send(i);
+	}
+
+	/**
+	 * Discards every open datagram
+	 */
+	private void closeAll() {
+		for (int i = 0; i < openCount; i++) {
+			datagrams[i].clear();
+			addresses[i] = null;
+			connections[i] = null;
+			messageCounts[i] = 0;
+		}
+		openCount = 0;
+	}
+
+	/**
+	 * Writes the connection header of an open datagram and sends it, then empties it so that it can be refilled for
+	 * the same destination
+	 *
+	 * @param slot The index of the datagram
+	 * @throws IOException If the datagram could not be sent
+	 */
+	private void send(int slot) throws IOException {
+		ByteBuffer datagram = datagrams[slot];
+		if (datagram.position() == Connection.HEADER_SIZE)
+			return;
+		datagram.flip();
+		connections[slot].writeHeader(datagram, messages, slot * Connection.MAX_MESSAGES_PER_DATAGRAM,
+				messageCounts[slot], System.nanoTime());
+		try {
+			int size = datagram.remaining();
+			output.send(datagram, connections[slot].getSocketAddress());
+			metrics.recordDatagramSent(size);
+		} finally {
+			datagram.clear();
+			datagram.position(Connection.HEADER_SIZE);
+			messageCounts[slot] = 0;
+		}
+	}
+}
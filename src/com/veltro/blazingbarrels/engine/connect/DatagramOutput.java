@@ -0,0 +1,26 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Something that can send the contents of a buffer as a single datagram, such as a {@link SenderThread}'s socket.
+ * Used by the {@link DatagramBatcher} to hand off the datagrams it assembles.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public interface DatagramOutput {
+
+	/**
+	 * Sends the bytes between the buffer's position and its limit as one datagram. The buffer is only valid for the
+	 * duration of the call and may be reused by the caller afterwards.
+	 *
+	 * @param datagram The datagram's contents
+	 * @param destination The datagram's destination (the {@link Connection#getSocketAddress() socket address} of the
+	 * connection to it, so that sending allocates nothing)
+	 * @throws IOException If the datagram could not be sent
+	 */
+	public void send(ByteBuffer datagram, InetSocketAddress destination) throws IOException;
+}
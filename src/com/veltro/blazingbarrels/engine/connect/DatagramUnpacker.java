@@ -0,0 +1,207 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCompressor;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+
+/**
+ * The receiving counterpart of the {@link DatagramBatcher}: decodes every packet in a received datagram and adds the
+ * resulting {@link BBPacket} objects to an incoming packet queue. Shared by the {@link ReceiverThread} and the
+ * {@link NetworkEngine} so that both receive paths handle datagrams identically. Each datagram is first charged to the
+ * budget of its sender's host by a {@link ReceiveLimiter}, and dropped undecoded if it exceeds it. A {@link Connection}
+ * is only created for a sender that has none once one of its datagrams has been admitted and holds a whole header, and
+ * only if its host holds fewer connections than the limiter allows; otherwise the datagram is dropped. The header is
+ * then passed to the sender's connection, which discards duplicate datagrams; reliable frames are handed to the
+ * connection to be delivered in order, and fragment frames to a {@link FragmentAssembler}, each packet it completes
+ * being decoded like any other. Compressed frames, wherever they appear, are inflated by a {@link PacketCompressor}
+ * just before decoding. Every datagram and packet received, and every one discarded, is counted in the socket's
+ * {@link NetworkMetrics}, and if the socket is being recorded, the frame of every packet decoded is passed to its
+ * {@link DemoRecorder}.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class DatagramUnpacker {
+
+	/**
+	 * The queue to which decoded packets are added
+	 */
+	private final Queue<BBPacket> incomingPacketQueue;
+
+	/**
+	 * The registry of the packet types that are accepted, and their decoders
+	 */
+	private final PacketRegistry registry;
+
+	/**
+	 * The connections to the peers, shared with the sending side of the socket
+	 */
+	private final ConnectionTable connectionTable;
+
+	/**
+	 * Reassembles the packets that were sent in fragments
+	 */
+	private final FragmentAssembler assembler = new FragmentAssembler();
+
+	/**
+	 * Decompresses the packets that were sent compressed
+	 */
+	private final PacketCompressor compressor = new PacketCompressor();
+
+	/**
+	 * Drops the datagrams of the hosts that exceed their receive budget, and caps their connections
+	 */
+	private final ReceiveLimiter limiter = new ReceiveLimiter();
+
+	/**
+	 * The counters of the traffic through the socket, taken from the {@link #connectionTable}
+	 */
+	private final NetworkMetrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param incomingPacketQueue The {@link #incomingPacketQueue}
+	 * @param registry The {@link #registry} of accepted packet types
+	 * @param connectionTable The {@link #connectionTable} shared with the sending side of the socket
+	 */
+	public DatagramUnpacker(Queue<BBPacket> incomingPacketQueue, PacketRegistry registry,
+			ConnectionTable connectionTable) {
+		this.incomingPacketQueue = incomingPacketQueue;
+		this.registry = registry;
+		this.connectionTable = connectionTable;
+		metrics = connectionTable.getMetrics();
+	}
+
+	/**
+	 * Decodes the packets between the buffer's position and its limit. Datagrams over their host's budget, and those
+	 * of new senders on a host at its connection limit, are discarded whole; packets that are malformed or whose type
+	 * is not in the {@link #registry} are discarded.
+	 *
+	 * @param datagram The received datagram
+	 * @param address The IP address from which the datagram was received
+	 * @param port The port on the above address
+	 */
+	public void unpack(ByteBuffer datagram, InetAddress address, int port) {
+		metrics.recordDatagramReceived(datagram.remaining());
+		long now = System.nanoTime();
+		Connection connection = connectionTable.find(address, port);
+		if (!limiter.admit(address, connection, datagram.remaining(), now)) {
+			metrics.recordDiscard(NetworkMetrics.RATE_LIMITED);
+			return;
+		}
+		if (datagram.remaining() < Connection.HEADER_SIZE) {
+			metrics.recordDiscard(NetworkMetrics.SHORT_DATAGRAM);
+			return;
+		}
+		if (connection == null) {
+			connection = connectionTable.open(address, port, limiter.getMaxConnectionsPerHost());
+			if (connection == null) {
+				metrics.recordDiscard(NetworkMetrics.HOST_CONNECTION_LIMIT);
+				return;
+			}
+		}
+		if (!connection.readHeader(datagram, now)) {
+			metrics.recordDiscard(NetworkMetrics.DUPLICATE_DATAGRAM);
+			return;
+		}
+		while (datagram.hasRemaining()) {
+			BBPacket received;
+			int id = datagram.get(datagram.position()) & 0xFF;
+			if (id == PacketCodec.RELIABLE_ID) {
+				unpackReliable(datagram, address, port, connection);
+				continue;
+			} else if (id == PacketCodec.FRAGMENT_ID) {
+				ByteBuffer frame = assembler.add(datagram, address, port);
+				if (frame == null)
+					continue;
+				received = decode(frame, address, port);
+			} else
+				received = decode(datagram, address, port);
+			if (received != null)
+				incomingPacketQueue.add(received);
+		}
+	}
+
+	/**
+	 * @return The {@link #limiter} of the senders' receive budgets
+	 */
+	public ReceiveLimiter getLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Decodes the packet frame (or compressed frame) at the buffer's position, counting it in the {@link #metrics}
+	 * with the size it had in the datagram
+	 *
+	 * @param buffer The buffer, positioned at a packet frame (the position is advanced past the frame)
+	 * @param address The IP address from which the packet was received
+	 * @param port The port on the above address
+	 * @return The decoded packet, or null if it could not be decoded
+	 */
+	private BBPacket decode(ByteBuffer buffer, InetAddress address, int port) {
+		int start = buffer.position();
+		ByteBuffer frame = buffer;
+		if ((buffer.get(start) & 0xFF) == PacketCodec.COMPRESSED_ID) {
+			frame = compressor.decompress(buffer);
+			if (frame == null) {
+				metrics.recordDiscard(NetworkMetrics.MALFORMED_FRAME);
+				return null;
+			}
+			metrics.recordCompressionReceived(frame.remaining(), buffer.position() - start);
+		}
+		int frameStart = frame.position();
+		int id = frame.get(frameStart) & 0xFF;
+		BBPacket packet = PacketCodec.decode(frame, address, port, registry);
+		if (packet == null) {
+			metrics.recordDecodeFailure(id);
+			return null;
+		}
+		metrics.recordReceived(id, buffer.position() - start);
+		DemoRecorder recorder = connectionTable.getRecorder();
+		if (recorder != null)
+			recorder.recordReceived(frame, frameStart, frame.position(), address, port);
+		return packet;
+	}
+
+	/**
+	 * Reads a reliable frame, decoding the packet it wraps unless it has been received before, and passes it to the
+	 * connection to be delivered in order. The buffer is left positioned at the start of the next frame.
+	 *
+	 * @param datagram The received datagram, positioned at the reliable frame
+	 * @param address The IP address from which the datagram was received
+	 * @param port The port on the above address
+	 * @param connection The connection to the sender
+	 */
+	private void unpackReliable(ByteBuffer datagram, InetAddress address, int port, Connection connection) {
+		if (datagram.remaining() < PacketCodec.RELIABLE_HEADER_SIZE) {
+			metrics.recordDiscard(NetworkMetrics.MALFORMED_FRAME);
+			datagram.position(datagram.limit());
+			return;
+		}
+		datagram.get(); // Reliable frame ID
+		int length = datagram.getShort() & 0xFFFF;
+		if (length > datagram.remaining() || length < PacketCodec.RELIABLE_HEADER_SIZE - PacketCodec.FRAME_HEADER_SIZE) {
+			metrics.recordDiscard(NetworkMetrics.MALFORMED_FRAME);
+			datagram.position(datagram.limit());
+			return;
+		}
+		int end = datagram.position() + length;
+		int sequence = datagram.getShort() & 0xFFFF;
+		if (connection.acceptMessage(sequence)) {
+			int limit = datagram.limit();
+			datagram.limit(end);
+			BBPacket received = datagram.hasRemaining() ? decode(datagram, address, port) : null;
+			datagram.limit(limit);
+			connection.receiveMessage(sequence, received, incomingPacketQueue);
+		} else
+			metrics.recordDiscard(NetworkMetrics.DUPLICATE_MESSAGE);
+		datagram.position(end);
+	}
+}
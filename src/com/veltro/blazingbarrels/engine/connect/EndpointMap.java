@@ -0,0 +1,248 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.net.InetAddress;
+
+/**
+ * A hash map from network endpoints (an IP address and a port) to values, which finds the value of a received
+ * datagram's source without allocating. A map keyed by InetSocketAddress would need a new key object for every lookup,
+ * as received datagrams come with a fresh InetAddress; this map instead packs the address and port into a primitive
+ * long key - the port in the low 16 bits, and above it the 32-bit IPv4 address (which Inet4Address returns as its hash
+ * code) or, for an IPv6 address, its hash code - and keeps the keys in an array probed by open addressing with linear
+ * probing. As an IPv6 hash code does not identify the address, a key match is confirmed by comparing the addresses
+ * themselves, which is also allocation-free.<p>
+ *
+ * The table is kept at most half full, doubling when it fills beyond that, and removals shift the entries after the
+ * removed one back into place rather than leaving tombstones, so probe sequences stay short however many endpoints
+ * come and go. Values are visited by slot with {@link #getCapacity()} and {@link #getValue(int)}.<p>
+ *
+ * The map is not thread-safe.
+ *
+ * @param <V> The type of the values
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class EndpointMap<V> {
+
+	/**
+	 * The number of slots a new map has (a power of two)
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The packed key of the endpoint in each slot (see {@link #pack(InetAddress, int)})
+	 */
+	private long[] keys;
+
+	/**
+	 * The address of the endpoint in each slot, against which key matches are confirmed (null for empty slots)
+	 */
+	private InetAddress[] addresses;
+
+	/**
+	 * The value in each slot (null for empty slots)
+	 */
+	private Object[] values;
+
+	/**
+	 * The number of slots minus one, with which hashes are reduced to slot indices
+	 */
+	private int mask;
+
+	/**
+	 * The number of entries in the map
+	 */
+	private int size;
+
+	/**
+	 * Constructor - creates an empty map of {@link #INITIAL_CAPACITY} slots
+	 */
+	public EndpointMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Finds the value mapped to an endpoint
+	 *
+	 * @param address The IP address of the endpoint
+	 * @param port The port on the above address
+	 * @return The value, or null if the endpoint has none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(InetAddress address, int port) {
+		int slot = find(address, pack(address, port));
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Maps an endpoint to a value, replacing its previous value if it had one
+	 *
+	 * @param address The IP address of the endpoint
+	 * @param port The port on the above address
+	 * @param value The value (not null)
+	 * @return The previous value, or null if the endpoint had none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(InetAddress address, int port, V value) {
+		if (value == null)
+			throw new IllegalArgumentException("Endpoints cannot be mapped to null");
+		long key = pack(address, port);
+		int slot = find(address, key);
+		if (slot >= 0) {
+			V previous = (V) values[slot];
+			values[slot] = value;
+			return previous;
+		}
+		if ((size + 1) * 2 > values.length)
+			resize(values.length * 2);
+		insert(key, address, value);
+		size++;
+		return null;
+	}
+
+	/**
+	 * Removes the value mapped to an endpoint
+	 *
+	 * @param address The IP address of the endpoint
+	 * @param port The port on the above address
+	 * @return The removed value, or null if the endpoint had none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(InetAddress address, int port) {
+		int slot = find(address, pack(address, port));
+		if (slot < 0)
+			return null;
+		V removed = (V) values[slot];
+		removeValue(slot);
+		return removed;
+	}
+
+	/**
+	 * Removes the entry in a slot. An entry from a later slot may be moved into it, so a caller visiting every slot
+	 * should visit the same slot again after removing its entry (at worst, an entry that wrapped around to the start
+	 * of the table is then visited twice, but none is skipped).
+	 *
+	 * @param slot A slot holding an entry
+	 */
+	public void removeValue(int slot) {
+		if (values[slot] == null)
+			throw new IllegalArgumentException("Slot " + slot + " is empty");
+		size--;
+		int hole = slot;
+		for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+			int home = hash(keys[next]);
+			if (((next - home) & mask) >= ((next - hole) & mask)) { // The entry may move back to the hole
+				keys[hole] = keys[next];
+				addresses[hole] = addresses[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		addresses[hole] = null;
+		values[hole] = null;
+	}
+
+	/**
+	 * @return The number of slots, over which the values can be visited with {@link #getValue(int)}
+	 */
+	public int getCapacity() {
+		return values.length;
+	}
+
+	/**
+	 * @param slot A slot index, less than the {@link #getCapacity() capacity}
+	 * @return The value in the slot, or null if the slot is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public V getValue(int slot) {
+		return (V) values[slot];
+	}
+
+	/**
+	 * @return The number of entries in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Packs an endpoint into a key: the port in the low 16 bits, and the address's hash code (the address itself, for
+	 * IPv4) in the 32 bits above
+	 *
+	 * @param address An IP address
+	 * @param port The port on the above address
+	 * @return The key
+	 */
+	private static long pack(InetAddress address, int port) {
+		return (address.hashCode() & 0xFFFFFFFFL) << 16 | (port & 0xFFFF);
+	}
+
+	/**
+	 * Mixes every bit of a key into the index of the slot where probing for it starts
+	 *
+	 * @param key A packed key
+	 * @return The slot index
+	 */
+	private int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ key >>> 32) & mask;
+	}
+
+	/**
+	 * Probes for the slot of an endpoint
+	 *
+	 * @param address The IP address of the endpoint
+	 * @param key The endpoint's packed key
+	 * @return The slot index, or -1 if the endpoint is not in the map
+	 */
+	private int find(InetAddress address, long key) {
+		for (int slot = hash(key); values[slot] != null; slot = (slot + 1) & mask)
+			if (keys[slot] == key && addresses[slot].equals(address))
+				return slot;
+		return -1;
+	}
+
+	/**
+	 * Places an entry in the first empty slot of its probe sequence (there must be room, and the endpoint must not be
+	 * in the map already)
+	 *
+	 * @param key The endpoint's packed key
+	 * @param address The IP address of the endpoint
+	 * @param value The value
+	 */
+	private void insert(long key, InetAddress address, Object value) {
+		int slot = hash(key);
+		while (values[slot] != null)
+			slot = (slot + 1) & mask;
+		keys[slot] = key;
+		addresses[slot] = address;
+		values[slot] = value;
+	}
+
+	/**
+	 * Moves every entry into a table of a new size
+	 *
+	 * @param capacity The new number of slots (a power of two)
+	 */
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		InetAddress[] oldAddresses = addresses;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++)
+			if (oldValues[i] != null)
+				insert(oldKeys[i], oldAddresses[i], oldValues[i]);
+	}
+
+	/**
+	 * Replaces the table with an empty one
+	 *
+	 * @param capacity The number of slots (a power of two)
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		addresses = new InetAddress[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+}
@@ -0,0 +1,287 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+
+/**
+ * Reassembles packets that the sender's {@link DatagramBatcher} split into fragments. Fragments are collected per
+ * sender and message ID in a fixed number of reassembly slots, each with a buffer of
+ * {@link PacketCodec#MAX_PACKET_SIZE} bytes allocated up front, so the memory held by incomplete packets is bounded no
+ * matter what arrives.<p>
+ *
+ * A packet whose fragments have not all arrived within the timeout is dropped. The slots are shared by every peer, so
+ * that no peer can take them all, each host (IP address, whatever the port) may only hold
+ * {@link #maxPendingPerHost} of them: a host starting another packet drops its own oldest incomplete packet. When a
+ * fragment of a new packet arrives while every slot is in use, the oldest incomplete packet of the host holding the
+ * most slots is dropped, so a host sending the first fragments of many packets only ever evicts its own. Duplicate
+ * fragments are ignored.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class FragmentAssembler {
+
+	/**
+	 * The default number of packets that can be reassembled at once
+	 */
+	public static final int DEFAULT_MAX_PENDING = 16;
+
+	/**
+	 * The default number of packets from a single host that can be reassembled at once
+	 */
+	public static final int DEFAULT_MAX_PENDING_PER_HOST = 4;
+
+	/**
+	 * The default time, in milliseconds, after which an incomplete packet is dropped
+	 */
+	public static final long DEFAULT_TIMEOUT = 1000;
+
+	/**
+	 * The number of longs in the bitmap of received fragments of each slot (enough for 256 fragments)
+	 */
+	private static final int BITMAP_LENGTH = 4;
+
+	/**
+	 * The time, in nanoseconds, after which an incomplete packet is dropped
+	 */
+	private final long timeout;
+
+	/**
+	 * The number of slots the packets of a single host (IP address) may hold at once
+	 */
+	private final int maxPendingPerHost;
+
+	/**
+	 * The buffers into which the fragments of each slot's packet are copied
+	 */
+	private final ByteBuffer[] buffers;
+
+	/**
+	 * The source addresses of the packets being reassembled (null for free slots)
+	 */
+	private final InetAddress[] addresses;
+
+	/**
+	 * The source ports of the packets being reassembled
+	 */
+	private final int[] ports;
+
+	/**
+	 * The message IDs of the packets being reassembled
+	 */
+	private final int[] messageIDs;
+
+	/**
+	 * The number of fragments each packet was split into
+	 */
+	private final int[] fragmentCounts;
+
+	/**
+	 * The number of distinct fragments received for each packet
+	 */
+	private final int[] receivedCounts;
+
+	/**
+	 * The length, in bytes, of each packet's frame as far as it has been received
+	 */
+	private final int[] lengths;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the first fragment of each packet arrived
+	 */
+	private final long[] startTimes;
+
+	/**
+	 * The bitmaps of the fragments received for each packet ({@link #BITMAP_LENGTH} longs per slot)
+	 */
+	private final long[] receivedFragments;
+
+	/**
+	 * Simplified constructor - calls the {@link #FragmentAssembler(int, int, long) complete constructor} passing the
+	 * {@link #DEFAULT_MAX_PENDING}, the {@link #DEFAULT_MAX_PENDING_PER_HOST} and the {@link #DEFAULT_TIMEOUT}
+	 */
+	public FragmentAssembler() {
+		this(DEFAULT_MAX_PENDING, DEFAULT_MAX_PENDING_PER_HOST, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Complete constructor - allocates the reassembly slots
+	 *
+	 * @param maxPending The number of packets that can be reassembled at once
+	 * @param maxPendingPerHost The {@link #maxPendingPerHost} (at most maxPending)
+	 * @param timeout The time, in milliseconds, after which an incomplete packet is dropped
+	 */
+	public FragmentAssembler(int maxPending, int maxPendingPerHost, long timeout) {
+		if (maxPendingPerHost < 1 || maxPendingPerHost > maxPending)
+			throw new IllegalArgumentException("Each host must be able to reassemble between one packet and " +
+					"maxPending packets at once");
+		this.timeout = timeout * 1000000L;
+		this.maxPendingPerHost = maxPendingPerHost;
+		buffers = new ByteBuffer[maxPending];
+		for (int i = 0; i < maxPending; i++)
+			buffers[i] = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+		addresses = new InetAddress[maxPending];
+		ports = new int[maxPending];
+		messageIDs = new int[maxPending];
+		fragmentCounts = new int[maxPending];
+		receivedCounts = new int[maxPending];
+		lengths = new int[maxPending];
+		startTimes = new long[maxPending];
+		receivedFragments = new long[maxPending * BITMAP_LENGTH];
+	}
+
+	/**
+	 * Reads a fragment frame from the buffer, starting at its current position, and adds its data to the packet it
+	 * belongs to. Unless the frame header itself is truncated, the buffer is left positioned at the start of the next
+	 * frame.
+	 *
+	 * @param datagram The buffer containing the fragment frame
+	 * @param address The IP address from which the fragment was received
+	 * @param port The port on the above address
+	 * @return A buffer containing the complete frame of the packet, if this was its last missing fragment (only valid
+	 * until the next call to this method), or null otherwise
+	 */
+	public ByteBuffer add(ByteBuffer datagram, InetAddress address, int port) {
+		if (datagram.remaining() < PacketCodec.FRAME_HEADER_SIZE) { // Truncated header - discard the rest
+			datagram.position(datagram.limit());
+			return null;
+		}
+		datagram.get(); // Fragment ID
+		int length = datagram.getShort() & 0xFFFF;
+		if (length > datagram.remaining()
+				|| length < PacketCodec.FRAGMENT_HEADER_SIZE - PacketCodec.FRAME_HEADER_SIZE) {
+			datagram.position(datagram.limit());
+			return null;
+		}
+		int end = datagram.position() + length;
+		int messageID = datagram.getShort() & 0xFFFF;
+		int index = datagram.get() & 0xFF;
+		int count = datagram.get() & 0xFF;
+		int offset = datagram.getShort() & 0xFFFF;
+		if (index >= count || offset + end - datagram.position() > PacketCodec.MAX_PACKET_SIZE) { // Malformed
+			datagram.position(end);
+			return null;
+		}
+
+		long now = System.nanoTime();
+		expire(now);
+		int slot = find(address, port, messageID);
+		if (slot < 0)
+			slot = open(address, port, messageID, count, now);
+		else if (fragmentCounts[slot] != count) { // Does not belong with the fragments already received
+			datagram.position(end);
+			return null;
+		}
+		int word = slot * BITMAP_LENGTH + (index >> 6);
+		long bit = 1L << (index & 63);
+		if ((receivedFragments[word] & bit) != 0) { // Duplicate
+			datagram.position(end);
+			return null;
+		}
+		receivedFragments[word] |= bit;
+		receivedCounts[slot]++;
+
+		ByteBuffer buffer = buffers[slot];
+		buffer.clear();
+		buffer.position(offset);
+		int limit = datagram.limit();
+		datagram.limit(end);
+		buffer.put(datagram);
+		datagram.limit(limit);
+		lengths[slot] = Math.max(lengths[slot], buffer.position());
+
+		if (receivedCounts[slot] < count)
+			return null;
+		buffer.position(0);
+		buffer.limit(lengths[slot]);
+		addresses[slot] = null; // Free the slot; its buffer is not overwritten until the next fragment arrives
+		return buffer;
+	}
+
+	/**
+	 * Drops every incomplete packet whose first fragment arrived more than the {@link #timeout} ago
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void expire(long now) {
+		for (int i = 0; i < addresses.length; i++)
+			if (addresses[i] != null && now - startTimes[i] > timeout)
+				addresses[i] = null;
+	}
+
+	/**
+	 * Finds the slot in which a packet is being reassembled
+	 *
+	 * @param address The IP address of the packet's sender
+	 * @param port The port on the above address
+	 * @param messageID The message ID of the packet
+	 * @return The index of the slot, or -1 if no fragment of the packet has been received
+	 */
+	private int find(InetAddress address, int port, int messageID) {
+		for (int i = 0; i < addresses.length; i++)
+			if (addresses[i] != null && messageIDs[i] == messageID && ports[i] == port && addresses[i].equals(address))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Claims a slot for a new packet. If the sender's host already holds its {@link #maxPendingPerHost share} of the
+	 * slots, the host's oldest incomplete packet is dropped; otherwise a free slot is used if there is one, and if not,
+	 * the oldest incomplete packet of the host holding the most slots is dropped.
+	 *
+	 * @param address The IP address of the packet's sender
+	 * @param port The port on the above address
+	 * @param messageID The message ID of the packet
+	 * @param count The number of fragments the packet was split into
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The index of the slot
+	 */
+	private int open(InetAddress address, int port, int messageID, int count, long now) {
+		int slot = -1;
+		if (countSlots(address) < maxPendingPerHost) {
+			for (int i = 0; i < addresses.length && slot < 0; i++)
+				if (addresses[i] == null)
+					slot = i;
+		}
+		if (slot < 0) {
+			InetAddress victim = address;
+			if (countSlots(address) < maxPendingPerHost) { // Every slot is in use: evict from the greediest host
+				int most = 0;
+				for (int i = 0; i < addresses.length; i++) {
+					int slots = countSlots(addresses[i]);
+					if (slots > most) {
+						most = slots;
+						victim = addresses[i];
+					}
+				}
+			}
+			for (int i = 0; i < addresses.length; i++)
+				if (victim.equals(addresses[i]) && (slot < 0 || startTimes[i] - startTimes[slot] < 0))
+					slot = i;
+		}
+		addresses[slot] = address;
+		ports[slot] = port;
+		messageIDs[slot] = messageID;
+		fragmentCounts[slot] = count;
+		receivedCounts[slot] = 0;
+		lengths[slot] = 0;
+		startTimes[slot] = now;
+		for (int i = 0; i < BITMAP_LENGTH; i++)
+			receivedFragments[slot * BITMAP_LENGTH + i] = 0;
+		return slot;
+	}
+
+	/**
+	 * @param address An IP address
+	 * @return The number of slots holding incomplete packets from the host at that address (whatever the port)
+	 */
+	private int countSlots(InetAddress address) {
+		int count = 0;
+		for (int i = 0; i < addresses.length; i++)
+			if (addresses[i] != null && addresses[i].equals(address))
+				count++;
+		return count;
+	}
+}
@@ -0,0 +1,170 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+/**
+ * A description of the conditions of one direction of a network path, as reproduced by a {@link NetworkSimulator}:
+ * the latency every datagram suffers, the random jitter added to it, and the chances of a datagram being lost,
+ * duplicated, or held back long enough to arrive after datagrams sent later. A few typical profiles are provided as
+ * constants. Instances are immutable.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class NetworkConditions {
+
+	/**
+	 * A perfect network: no latency, loss, duplication or reordering
+	 */
+	public static final NetworkConditions PERFECT = new NetworkConditions("perfect", 0, 0, 0, 0, 0);
+
+	/**
+	 * A local area network
+	 */
+	public static final NetworkConditions LAN = new NetworkConditions("lan", 1, 1, 0, 0, 0);
+
+	/**
+	 * A good wired broadband connection
+	 */
+	public static final NetworkConditions BROADBAND = new NetworkConditions("broadband", 20, 5, 0.005, 0, 0.001);
+
+	/**
+	 * A congested wireless connection
+	 */
+	public static final NetworkConditions WIFI = new NetworkConditions("wifi", 35, 20, 0.02, 0.005, 0.01);
+
+	/**
+	 * A mobile data connection
+	 */
+	public static final NetworkConditions MOBILE = new NetworkConditions("mobile", 70, 40, 0.05, 0.01, 0.03);
+
+	/**
+	 * A connection across continents on a bad day
+	 */
+	public static final NetworkConditions INTERCONTINENTAL = new NetworkConditions("intercontinental", 150, 30, 0.1,
+			0.02, 0.05);
+
+	/**
+	 * Every profile above, from best to worst
+	 */
+	public static final NetworkConditions[] PROFILES = {PERFECT, LAN, BROADBAND, WIFI, MOBILE, INTERCONTINENTAL};
+
+	/**
+	 * The name of the profile
+	 */
+	private final String name;
+
+	/**
+	 * The one-way delay, in milliseconds, every datagram suffers
+	 */
+	private final int latency;
+
+	/**
+	 * The largest random delay, in milliseconds, added to the {@link #latency} of a datagram
+	 */
+	private final int jitter;
+
+	/**
+	 * The chance (0 to 1) that a datagram is lost
+	 */
+	private final double lossChance;
+
+	/**
+	 * The chance (0 to 1) that a datagram is delivered twice
+	 */
+	private final double duplicateChance;
+
+	/**
+	 * The chance (0 to 1) that a datagram is held back long enough to be overtaken by the datagrams sent after it
+	 */
+	private final double reorderChance;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name The {@link #name} of the profile
+	 * @param latency The {@link #latency}, in milliseconds
+	 * @param jitter The {@link #jitter}, in milliseconds
+	 * @param lossChance The {@link #lossChance}
+	 * @param duplicateChance The {@link #duplicateChance}
+	 * @param reorderChance The {@link #reorderChance}
+	 */
+	public NetworkConditions(String name, int latency, int jitter, double lossChance, double duplicateChance,
+			double reorderChance) {
+		if (latency < 0 || jitter < 0)
+			throw new IllegalArgumentException("The latency and jitter cannot be negative");
+		if (!isChance(lossChance) || !isChance(duplicateChance) || !isChance(reorderChance))
+			throw new IllegalArgumentException("Chances must be between 0 and 1");
+		this.name = name;
+		this.latency = latency;
+		this.jitter = jitter;
+		this.lossChance = lossChance;
+		this.duplicateChance = duplicateChance;
+		this.reorderChance = reorderChance;
+	}
+
+	/**
+	 * @param value A number
+	 * @return Whether the number is a valid chance (0 to 1)
+	 */
+	private static boolean isChance(double value) {
+		return value >= 0 && value <= 1;
+	}
+
+	/**
+	 * @param name The name of a profile (case insensitive)
+	 * @return The profile among the {@link #PROFILES} with the name, or null if there is none
+	 */
+	public static NetworkConditions getProfile(String name) {
+		for (NetworkConditions profile : PROFILES)
+			if (profile.name.equalsIgnoreCase(name))
+				return profile;
+		return null;
+	}
+
+	/**
+	 * @return The {@link #name} of the profile
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The {@link #latency}, in milliseconds
+	 */
+	public int getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return The {@link #jitter}, in milliseconds
+	 */
+	public int getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @return The {@link #lossChance}
+	 */
+	public double getLossChance() {
+		return lossChance;
+	}
+
+	/**
+	 * @return The {@link #duplicateChance}
+	 */
+	public double getDuplicateChance() {
+		return duplicateChance;
+	}
+
+	/**
+	 * @return The {@link #reorderChance}
+	 */
+	public double getReorderChance() {
+		return reorderChance;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (%d ms +%d ms jitter, %.1f%% loss, %.1f%% duplication, %.1f%% reordering)", name,
+				latency, jitter, lossChance * 100, duplicateChance * 100, reorderChance * 100);
+	}
+}
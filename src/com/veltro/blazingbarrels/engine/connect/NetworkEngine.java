@@ -0,0 +1,378 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.OutgoingPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+
+/**
+ * A single-threaded, non-blocking alternative to the {@link ReceiverThread}/{@link SenderThread} pair. The engine owns
+ * one non-blocking DatagramChannel, registered with a Selector, and serves both directions for every peer from one
+ * event loop: received datagrams are decoded into the {@link #incomingPacketQueue}, and packets added to the
+ * {@link #outgoingPacketQueue} are scheduled, batched and sent. Datagrams are received into and sent from direct
+ * buffers, so the channel does not copy them to and from the heap. The {@link Connection} to each peer provides
+ * acknowledgments and retransmission for reliable packets.<p>
+ *
+ * As with the thread pair, other threads interact with the engine purely through the two queues; packets should be
+ * queued via {@link #sendPacket(OutgoingPacket)}, which wakes the event loop up.<p>
+ *
+ * Outgoing datagrams pass through a pluggable {@link #setTransport(DatagramOutput) transport} on their way to the
+ * channel; by default it is the channel itself, and for testing it can be a {@link NetworkSimulator} that imposes the
+ * conditions of a real network. Traffic through the engine is counted in the {@link NetworkMetrics} of its connection
+ * table, which the engine's {@link NetworkMonitor} exposes through JMX and a log line. A
+ * {@link #getReceiveLimiter() receive limiter} can cap the rate at which each peer may send to the engine.<p>
+ *
+ * Once an {@link #setIdleTimeout(long) idle timeout} is set, the engine evicts the connections of the peers that have
+ * been silent for longer than it, along with their send queues, so that the state of peers that left without a word
+ * (or of spoofed sources) does not pile up. Eviction is off by default.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class NetworkEngine extends Thread implements DatagramOutput {
+
+	/**
+	 * The longest time, in milliseconds, that the event loop blocks in a select while there is nothing to do. This
+	 * bounds the delay before packets held back by the {@link #scheduler} are sent, and is a safety net for packets
+	 * added directly to the {@link #outgoingPacketQueue}.
+	 */
+	private static final long MAX_SELECT_TIME = 10;
+
+	/**
+	 * The maximum number of datagrams received per select before the engine turns to sending, so that a flood of
+	 * incoming traffic cannot starve the outgoing queue
+	 */
+	private static final int MAX_RECEIVE_BURST = 256;
+
+	/**
+	 * The interval, in nanoseconds, at which silent peers are evicted
+	 */
+	private static final long EVICTION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * The time, in nanoseconds, after which a silent peer's connection is evicted (0 to never evict connections)
+	 */
+	private volatile long idleTimeout;
+
+	/**
+	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
+	 */
+	private volatile boolean running = false;
+
+	/**
+	 * The non-blocking channel over which all packets are sent and received
+	 */
+	private final DatagramChannel channel;
+
+	/**
+	 * The selector notifying the event loop of incoming datagrams
+	 */
+	private final Selector selector;
+
+	/**
+	 * A queue (first in - first out list) of the packets that have been received and are awaiting handling
+	 */
+	public final ConcurrentLinkedQueue<BBPacket> incomingPacketQueue = new ConcurrentLinkedQueue<BBPacket>();
+
+	/**
+	 * A queue (first in - first out list) of the packets to be sent over the internet
+	 */
+	public final ConcurrentLinkedQueue<OutgoingPacket> outgoingPacketQueue =
+			new ConcurrentLinkedQueue<OutgoingPacket>();
+
+	/**
+	 * The direct buffer into which datagrams are received, reused for every datagram
+	 */
+	private final ByteBuffer receiveBuffer;
+
+	/**
+	 * The reliability state of the connection to each peer
+	 */
+	private final ConnectionTable connectionTable = new ConnectionTable();
+
+	/**
+	 * Decodes the packets in each received datagram into the {@link #incomingPacketQueue}
+	 */
+	private final DatagramUnpacker unpacker;
+
+	/**
+	 * Schedules the packets taken from the {@link #outgoingPacketQueue} and packs them into datagrams
+	 */
+	private final SendScheduler scheduler;
+
+	/**
+	 * Set when a thread has queued a packet and woken the selector, so that further packets queued before the event
+	 * loop gets around to sending do not wake it again
+	 */
+	private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+	/**
+	 * Sends datagrams straight over the {@link #channel}, counting those the channel drops or fails to send
+	 */
+	private final DatagramOutput socketOutput = new DatagramOutput() {
+		public void send(ByteBuffer datagram, InetSocketAddress destination) throws IOException {
+			try {
+				if (channel.send(datagram, destination) == 0)
+					connectionTable.getMetrics().recordDiscard(NetworkMetrics.SEND_BUFFER_FULL);
+			} catch (IOException e) {
+				connectionTable.getMetrics().recordDiscard(NetworkMetrics.SEND_ERROR);
+				throw e;
+			}
+		}
+	};
+
+	/**
+	 * Exposes the engine's traffic counters and connections through JMX and a log line
+	 */
+	private final NetworkMonitor monitor;
+
+	/**
+	 * The transport through which the datagrams assembled by the {@link #scheduler} are sent (the
+	 * {@link #socketOutput} unless another has been plugged in)
+	 */
+	private volatile DatagramOutput transport = socketOutput;
+
+	/**
+	 * Simplified constructor - calls the {@link #NetworkEngine(InetSocketAddress, int, PacketRegistry) complete
+	 * constructor} passing the {@link DatagramBatcher#DEFAULT_MAX_DATAGRAM_SIZE default} maximum datagram size
+	 *
+	 * @param localAddress The local address and port to bind to (null for an ephemeral port, as used by clients)
+	 * @param registry The registry of the packet types to accept (packets of any other type are discarded)
+	 * @throws IOException If the channel could not be opened or bound
+	 */
+	public NetworkEngine(InetSocketAddress localAddress, PacketRegistry registry) throws IOException {
+		this(localAddress, DatagramBatcher.DEFAULT_MAX_DATAGRAM_SIZE, registry);
+	}
+
+	/**
+	 * Complete constructor - opens and binds the channel and registers it with the selector
+	 *
+	 * @param localAddress The local address and port to bind to (null for an ephemeral port, as used by clients)
+	 * @param maxDatagramSize The maximum size, in bytes, of a datagram sent or received by the engine (at least
+	 * {@link DatagramBatcher#MIN_DATAGRAM_SIZE}, so that the largest reliable packet fits in one)
+	 * @param registry The registry of the packet types to accept (packets of any other type are discarded)
+	 * @throws IOException If the channel could not be opened or bound
+	 */
+	public NetworkEngine(InetSocketAddress localAddress, int maxDatagramSize, PacketRegistry registry)
+			throws IOException {
+		super("BB Network Engine");
+		if (maxDatagramSize < DatagramBatcher.MIN_DATAGRAM_SIZE) // Checked before the channel is opened
+			throw new IllegalArgumentException("The maximum datagram size must be at least " +
+					DatagramBatcher.MIN_DATAGRAM_SIZE + " bytes");
+		unpacker = new DatagramUnpacker(incomingPacketQueue, registry, connectionTable);
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.socket().bind(localAddress);
+		selector = Selector.open();
+		channel.register(selector, SelectionKey.OP_READ);
+		receiveBuffer = ByteBuffer.allocateDirect(maxDatagramSize);
+		scheduler = new SendScheduler(new DatagramBatcher(this, maxDatagramSize, true, connectionTable));
+		monitor = new NetworkMonitor(this);
+		running = true;
+	}
+
+	/**
+	 * The event loop - waits for datagrams to arrive or packets to be queued, receives everything that is available,
+	 * and then sends everything that has been queued
+	 */
+	public void run() {
+		long nextEviction = System.nanoTime() + EVICTION_INTERVAL;
+		while (running) {
+			try {
+				if (outgoingPacketQueue.isEmpty())
+					selector.select(MAX_SELECT_TIME);
+				else
+					selector.selectNow();
+				wakeupPending.set(false);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isReadable())
+						receive();
+				}
+				send();
+				long now = System.nanoTime();
+				if (now - nextEviction >= 0) {
+					evict(now);
+					nextEviction = now + EVICTION_INTERVAL;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (RuntimeException e) { // A bug must not silently take the whole socket down
+				e.printStackTrace();
+			}
+		}
+		try {
+			selector.close();
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Receives and unpacks datagrams until the channel has none left (or the {@link #MAX_RECEIVE_BURST} is reached)
+	 *
+	 * @throws IOException If the channel could not be read
+	 */
+	private void receive() throws IOException {
+		for (int i = 0; i < MAX_RECEIVE_BURST; i++) {
+			receiveBuffer.clear();
+			SocketAddress source;
+			try {
+				source = channel.receive(receiveBuffer);
+			} catch (IOException e) {
+				connectionTable.getMetrics().recordDiscard(NetworkMetrics.RECEIVE_ERROR);
+				throw e;
+			}
+			if (source == null) // No more datagrams waiting
+				return;
+			receiveBuffer.flip();
+			InetSocketAddress sender = (InetSocketAddress) source;
+			unpacker.unpack(receiveBuffer, sender.getAddress(), sender.getPort());
+		}
+	}
+
+	/**
+	 * Drains the {@link #outgoingPacketQueue} into the {@link #scheduler} and sends whatever the scheduler allows
+	 *
+	 * @throws IOException If a datagram could not be sent
+	 */
+	private void send() throws IOException {
+		OutgoingPacket packet;
+		while ((packet = outgoingPacketQueue.poll()) != null)
+			scheduler.enqueue(packet);
+		scheduler.send();
+	}
+
+	/**
+	 * Evicts the connections of the peers that have been silent for longer than the {@link #idleTimeout}, if one is
+	 * set, and then the send queues of the peers that no longer have a connection
+	 *
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	private void evict(long now) {
+		long timeout = idleTimeout;
+		if (timeout > 0)
+			connectionTable.evictIdle(timeout, now);
+		scheduler.removeDisconnectedClients(connectionTable);
+	}
+
+	/**
+	 * Sends a datagram assembled by the {@link #scheduler}'s batcher through the {@link #transport}. If the socket's
+	 * send buffer is full, the datagram is dropped, exactly as it would be had it been lost in transit.
+	 */
+	public void send(ByteBuffer datagram, InetSocketAddress destination) throws IOException {
+		transport.send(datagram, destination);
+	}
+
+	/**
+	 * Adds a packet to the {@link #outgoingPacketQueue} and wakes the event loop up if it is waiting in a select
+	 *
+	 * @param packet The packet to send
+	 */
+	public void sendPacket(OutgoingPacket packet) {
+		outgoingPacketQueue.add(packet);
+		if (wakeupPending.compareAndSet(false, true))
+			selector.wakeup();
+	}
+
+	/**
+	 * @return The {@link #connectionTable} holding the reliability state of the connection to each peer
+	 */
+	public ConnectionTable getConnectionTable() {
+		return connectionTable;
+	}
+
+	/**
+	 * @return The {@link #monitor} exposing the engine's traffic counters and connections
+	 */
+	public NetworkMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * @return The {@link #scheduler} deciding the order and rate at which packets are sent
+	 */
+	public SendScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return The limiter that drops the datagrams of the hosts exceeding their receive budget (off until a budget is
+	 * set), and caps the connections of each host (off until a cap is set)
+	 */
+	public ReceiveLimiter getReceiveLimiter() {
+		return unpacker.getLimiter();
+	}
+
+	/**
+	 * @return The {@link #idleTimeout} after which silent peers are evicted, in nanoseconds (0 if they never are)
+	 */
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * Changes the time after which the connections of silent peers are evicted. May be called from any thread.
+	 *
+	 * @param idleTimeout The new {@link #idleTimeout}, in nanoseconds (0 to never evict connections)
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		if (idleTimeout < 0)
+			throw new IllegalArgumentException("The idle timeout cannot be negative");
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return The {@link #transport} through which outgoing datagrams are sent
+	 */
+	public DatagramOutput getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Plugs a transport in between the engine and its channel, such as a {@link NetworkSimulator} wrapping the
+	 * {@link #getSocketOutput() socket output}. May be called from any thread.
+	 *
+	 * @param transport The new {@link #transport} (null to send straight over the channel again)
+	 */
+	public void setTransport(DatagramOutput transport) {
+		this.transport = transport == null ? socketOutput : transport;
+	}
+
+	/**
+	 * @return The {@link #socketOutput}, which sends datagrams straight over the engine's channel
+	 */
+	public DatagramOutput getSocketOutput() {
+		return socketOutput;
+	}
+
+	/**
+	 * @return The local port to which the engine's channel is bound
+	 */
+	public int getLocalPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	/**
+	 * Causes the event loop in the {@link #run()} method to exit; as a result, the thread completes its execution and
+	 * closes the channel
+	 */
+	public void terminate() {
+		running = false;
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,508 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the traffic through one socket, kept per packet ID: the packets and bytes received and sent, the
+ * packets that could not be decoded, and a histogram of packet sizes in each direction. Datagrams are counted as a
+ * whole too, along with every datagram or packet discarded on the way and why. Per-peer figures (round trip time,
+ * loss, datagrams and bytes per peer) are kept by each {@link Connection}, and the depth of the packet queues is
+ * published here by the network thread. The savings of {@link
+ * com.veltro.blazingbarrels.engine.connect.packet.PacketCompressor compression} are counted in each direction too.<p>
+ *
+ * Every counter is an atomic, so recording takes no locks and the counters can be read from any thread while the
+ * network threads update them. The metrics of a socket are owned by its {@link ConnectionTable}, so that the sending
+ * and receiving sides share them, and are exposed through JMX and a log line by a {@link NetworkMonitor}.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class NetworkMetrics {
+
+	/**
+	 * Discard reason: the socket failed to receive a datagram
+	 */
+	public static final int RECEIVE_ERROR = 0;
+
+	/**
+	 * Discard reason: a datagram was too short to hold a connection header
+	 */
+	public static final int SHORT_DATAGRAM = 1;
+
+	/**
+	 * Discard reason: a datagram had already been received (or was too old to tell)
+	 */
+	public static final int DUPLICATE_DATAGRAM = 2;
+
+	/**
+	 * Discard reason: a reliable message had already been received, or was outside the receive window
+	 */
+	public static final int DUPLICATE_MESSAGE = 3;
+
+	/**
+	 * Discard reason: a reliable frame was truncated or malformed
+	 */
+	public static final int MALFORMED_FRAME = 4;
+
+	/**
+	 * Discard reason: a packet was dropped from a full send queue
+	 */
+	public static final int QUEUE_OVERFLOW = 5;
+
+	/**
+	 * Discard reason: the socket's send buffer was full, so a datagram was dropped
+	 */
+	public static final int SEND_BUFFER_FULL = 6;
+
+	/**
+	 * Discard reason: the socket failed to send a datagram, or a packet could not be encoded into one (see
+	 * {@link SendScheduler#send()})
+	 */
+	public static final int SEND_ERROR = 7;
+
+	/**
+	 * Discard reason: a datagram exceeded its sender's receive budget (see {@link ReceiveLimiter})
+	 */
+	public static final int RATE_LIMITED = 8;
+
+	/**
+	 * Discard reason: a snapshot waiting in a send queue was replaced by a newer one for the same client
+	 */
+	public static final int SUPERSEDED_SNAPSHOT = 9;
+
+	/**
+	 * Discard reason: a datagram came from a new endpoint on a host that already held as many connections as it may
+	 * (see {@link ReceiveLimiter#getMaxConnectionsPerHost()})
+	 */
+	public static final int HOST_CONNECTION_LIMIT = 10;
+
+	/**
+	 * The names of the discard reasons, indexed by reason
+	 */
+	private static final String[] DISCARD_REASON_NAMES = {"receive error", "short datagram", "duplicate datagram",
+			"duplicate message", "malformed frame", "queue overflow", "send buffer full", "send error", "rate limited",
+			"superseded snapshot", "host connection limit"};
+
+	/**
+	 * The number of discard reasons
+	 */
+	public static final int DISCARD_REASONS = DISCARD_REASON_NAMES.length;
+
+	/**
+	 * The number of buckets in each packet size histogram. Bucket n counts the packets of 2^(n-1) to 2^n - 1 bytes, so
+	 * the last bucket holds packets of up to
+	 * {@link com.veltro.blazingbarrels.engine.connect.packet.PacketCodec#MAX_PACKET_SIZE} bytes and beyond.
+	 */
+	public static final int SIZE_BUCKETS = 16;
+
+	/**
+	 * The number of packet IDs
+	 */
+	private static final int IDS = 256;
+
+	/**
+	 * The number of packets received, by ID
+	 */
+	private final AtomicLongArray packetsReceived = new AtomicLongArray(IDS);
+
+	/**
+	 * The number of bytes of packets received (frame headers included), by ID
+	 */
+	private final AtomicLongArray bytesReceived = new AtomicLongArray(IDS);
+
+	/**
+	 * The number of packets sent (not counting retransmissions), by ID
+	 */
+	private final AtomicLongArray packetsSent = new AtomicLongArray(IDS);
+
+	/**
+	 * The number of bytes of packets sent (frame headers included), by ID
+	 */
+	private final AtomicLongArray bytesSent = new AtomicLongArray(IDS);
+
+	/**
+	 * The number of packets received that could not be decoded (unknown, unaccepted, truncated or malformed), by ID
+	 */
+	private final AtomicLongArray decodeFailures = new AtomicLongArray(IDS);
+
+	/**
+	 * The size histograms of the packets received, {@link #SIZE_BUCKETS} entries per ID
+	 */
+	private final AtomicLongArray receivedSizes = new AtomicLongArray(IDS * SIZE_BUCKETS);
+
+	/**
+	 * The size histograms of the packets sent, {@link #SIZE_BUCKETS} entries per ID
+	 */
+	private final AtomicLongArray sentSizes = new AtomicLongArray(IDS * SIZE_BUCKETS);
+
+	/**
+	 * The number of datagrams and packets discarded, by reason
+	 */
+	private final AtomicLongArray discards = new AtomicLongArray(DISCARD_REASONS);
+
+	/**
+	 * The number of datagrams received (duplicates included)
+	 */
+	private final AtomicLong datagramsReceived = new AtomicLong();
+
+	/**
+	 * The number of bytes of datagrams received
+	 */
+	private final AtomicLong datagramBytesReceived = new AtomicLong();
+
+	/**
+	 * The number of datagrams sent
+	 */
+	private final AtomicLong datagramsSent = new AtomicLong();
+
+	/**
+	 * The number of bytes of datagrams sent
+	 */
+	private final AtomicLong datagramBytesSent = new AtomicLong();
+
+	/**
+	 * The number of compressible packets sent to peers that accept compression (whether or not compressing them saved
+	 * any bytes)
+	 */
+	private final AtomicLong compressionAttempts = new AtomicLong();
+
+	/**
+	 * The number of packets sent compressed
+	 */
+	private final AtomicLong compressedPacketsSent = new AtomicLong();
+
+	/**
+	 * The number of bytes the frames of the packets sent compressed held before compression
+	 */
+	private final AtomicLong uncompressedBytesSent = new AtomicLong();
+
+	/**
+	 * The number of bytes of the compressed frames sent
+	 */
+	private final AtomicLong compressedBytesSent = new AtomicLong();
+
+	/**
+	 * The number of packets received compressed
+	 */
+	private final AtomicLong compressedPacketsReceived = new AtomicLong();
+
+	/**
+	 * The number of bytes the frames of the packets received compressed held once decompressed
+	 */
+	private final AtomicLong uncompressedBytesReceived = new AtomicLong();
+
+	/**
+	 * The number of bytes of the compressed frames received
+	 */
+	private final AtomicLong compressedBytesReceived = new AtomicLong();
+
+	/**
+	 * The number of packets waiting in the send scheduler, as last published by the network thread
+	 */
+	private volatile int scheduledPacketCount;
+
+	/**
+	 * Records a packet received and decoded
+	 *
+	 * @param id The packet's ID
+	 * @param size The size, in bytes, of the packet's frame
+	 */
+	public void recordReceived(int id, int size) {
+		packetsReceived.incrementAndGet(id);
+		bytesReceived.addAndGet(id, size);
+		receivedSizes.incrementAndGet(id * SIZE_BUCKETS + bucket(size));
+	}
+
+	/**
+	 * Records a packet sent for the first time
+	 *
+	 * @param id The packet's ID
+	 * @param size The size, in bytes, of the packet's frame
+	 */
+	public void recordSent(int id, int size) {
+		packetsSent.incrementAndGet(id);
+		bytesSent.addAndGet(id, size);
+		sentSizes.incrementAndGet(id * SIZE_BUCKETS + bucket(size));
+	}
+
+	/**
+	 * Records a packet received that could not be decoded
+	 *
+	 * @param id The ID in the packet's frame header
+	 */
+	public void recordDecodeFailure(int id) {
+		decodeFailures.incrementAndGet(id);
+	}
+
+	/**
+	 * Records a datagram or packet discarded
+	 *
+	 * @param reason The discard reason (eg. {@link #DUPLICATE_DATAGRAM})
+	 */
+	public void recordDiscard(int reason) {
+		discards.incrementAndGet(reason);
+	}
+
+	/**
+	 * Records a datagram received
+	 *
+	 * @param size The size of the datagram, in bytes
+	 */
+	public void recordDatagramReceived(int size) {
+		datagramsReceived.incrementAndGet();
+		datagramBytesReceived.addAndGet(size);
+	}
+
+	/**
+	 * Records a datagram sent
+	 *
+	 * @param size The size of the datagram, in bytes
+	 */
+	public void recordDatagramSent(int size) {
+		datagramsSent.incrementAndGet();
+		datagramBytesSent.addAndGet(size);
+	}
+
+	/**
+	 * Records an attempt to compress a packet sent for the first time
+	 *
+	 * @param originalSize The size, in bytes, of the packet's frame
+	 * @param size The size, in bytes, of the frame actually sent (the original frame if compression saved nothing)
+	 */
+	public void recordCompressionSent(int originalSize, int size) {
+		compressionAttempts.incrementAndGet();
+		if (size >= originalSize)
+			return;
+		compressedPacketsSent.incrementAndGet();
+		uncompressedBytesSent.addAndGet(originalSize);
+		compressedBytesSent.addAndGet(size);
+	}
+
+	/**
+	 * Records a compressed packet received and decompressed
+	 *
+	 * @param originalSize The size, in bytes, of the decompressed frame
+	 * @param size The size, in bytes, of the compressed frame
+	 */
+	public void recordCompressionReceived(int originalSize, int size) {
+		compressedPacketsReceived.incrementAndGet();
+		uncompressedBytesReceived.addAndGet(originalSize);
+		compressedBytesReceived.addAndGet(size);
+	}
+
+	/**
+	 * Publishes the number of packets waiting in the send scheduler (which only the network thread may count)
+	 *
+	 * @param count The number of packets
+	 */
+	public void setScheduledPacketCount(int count) {
+		scheduledPacketCount = count;
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return The number of packets of the ID received
+	 */
+	public long getPacketsReceived(int id) {
+		return packetsReceived.get(id);
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return The number of bytes of packets of the ID received
+	 */
+	public long getBytesReceived(int id) {
+		return bytesReceived.get(id);
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return The number of packets of the ID sent (not counting retransmissions)
+	 */
+	public long getPacketsSent(int id) {
+		return packetsSent.get(id);
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return The number of bytes of packets of the ID sent
+	 */
+	public long getBytesSent(int id) {
+		return bytesSent.get(id);
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return The number of packets of the ID received that could not be decoded
+	 */
+	public long getDecodeFailures(int id) {
+		return decodeFailures.get(id);
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @param received Whether to read the histogram of the packets received rather than sent
+	 * @return A copy of the packet size histogram of the ID ({@link #SIZE_BUCKETS} entries)
+	 */
+	public long[] getSizeHistogram(int id, boolean received) {
+		AtomicLongArray sizes = received ? receivedSizes : sentSizes;
+		long[] histogram = new long[SIZE_BUCKETS];
+		for (int i = 0; i < SIZE_BUCKETS; i++)
+			histogram[i] = sizes.get(id * SIZE_BUCKETS + i);
+		return histogram;
+	}
+
+	/**
+	 * @param reason A discard reason (eg. {@link #DUPLICATE_DATAGRAM})
+	 * @return The number of datagrams or packets discarded for the reason
+	 */
+	public long getDiscards(int reason) {
+		return discards.get(reason);
+	}
+
+	/**
+	 * @return The total number of packets received
+	 */
+	public long getTotalPacketsReceived() {
+		return sum(packetsReceived);
+	}
+
+	/**
+	 * @return The total number of bytes of packets received
+	 */
+	public long getTotalBytesReceived() {
+		return sum(bytesReceived);
+	}
+
+	/**
+	 * @return The total number of packets sent
+	 */
+	public long getTotalPacketsSent() {
+		return sum(packetsSent);
+	}
+
+	/**
+	 * @return The total number of bytes of packets sent
+	 */
+	public long getTotalBytesSent() {
+		return sum(bytesSent);
+	}
+
+	/**
+	 * @return The total number of packets received that could not be decoded
+	 */
+	public long getTotalDecodeFailures() {
+		return sum(decodeFailures);
+	}
+
+	/**
+	 * @return The total number of datagrams and packets discarded
+	 */
+	public long getTotalDiscards() {
+		return sum(discards);
+	}
+
+	/**
+	 * @return The number of datagrams received
+	 */
+	public long getDatagramsReceived() {
+		return datagramsReceived.get();
+	}
+
+	/**
+	 * @return The number of bytes of datagrams received
+	 */
+	public long getDatagramBytesReceived() {
+		return datagramBytesReceived.get();
+	}
+
+	/**
+	 * @return The number of datagrams sent
+	 */
+	public long getDatagramsSent() {
+		return datagramsSent.get();
+	}
+
+	/**
+	 * @return The number of bytes of datagrams sent
+	 */
+	public long getDatagramBytesSent() {
+		return datagramBytesSent.get();
+	}
+
+	/**
+	 * @return The number of compressible packets sent to peers that accept compression
+	 */
+	public long getCompressionAttempts() {
+		return compressionAttempts.get();
+	}
+
+	/**
+	 * @param received Whether to count the packets received rather than sent
+	 * @return The number of packets sent or received compressed
+	 */
+	public long getCompressedPackets(boolean received) {
+		return (received ? compressedPacketsReceived : compressedPacketsSent).get();
+	}
+
+	/**
+	 * @param received Whether to count the packets received rather than sent
+	 * @return The number of bytes of the compressed frames sent or received
+	 */
+	public long getCompressedBytes(boolean received) {
+		return (received ? compressedBytesReceived : compressedBytesSent).get();
+	}
+
+	/**
+	 * @param received Whether to count the packets received rather than sent
+	 * @return The number of bytes the compressed frames sent or received held uncompressed
+	 */
+	public long getUncompressedBytes(boolean received) {
+		return (received ? uncompressedBytesReceived : uncompressedBytesSent).get();
+	}
+
+	/**
+	 * @param received Whether to measure the packets received rather than sent
+	 * @return The size of the compressed frames sent or received as a fraction of their uncompressed size (1 if none
+	 * were compressed)
+	 */
+	public double getCompressionRatio(boolean received) {
+		long uncompressed = getUncompressedBytes(received);
+		return uncompressed == 0 ? 1 : (double) getCompressedBytes(received) / uncompressed;
+	}
+
+	/**
+	 * @return The number of packets waiting in the send scheduler, as last published by the network thread
+	 */
+	public int getScheduledPacketCount() {
+		return scheduledPacketCount;
+	}
+
+	/**
+	 * @param reason A discard reason (eg. {@link #DUPLICATE_DATAGRAM})
+	 * @return The name of the reason
+	 */
+	public static String getDiscardReasonName(int reason) {
+		return DISCARD_REASON_NAMES[reason];
+	}
+
+	/**
+	 * @param size A packet size, in bytes
+	 * @return The index of the histogram bucket counting packets of the size
+	 */
+	private static int bucket(int size) {
+		return Math.min(32 - Integer.numberOfLeadingZeros(size), SIZE_BUCKETS - 1);
+	}
+
+	/**
+	 * @param array An array of counters
+	 * @return The sum of the counters
+	 */
+	private static long sum(AtomicLongArray array) {
+		long sum = 0;
+		for (int i = 0; i < array.length(); i++)
+			sum += array.get(i);
+		return sum;
+	}
+}
@@ -0,0 +1,324 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Reports what a {@link NetworkEngine} is doing, from the {@link NetworkMetrics} of its socket, the state of its
+ * {@link Connection connections} and the depth of its packet queues. The figures can be watched through JMX once the
+ * monitor has been {@link #register() registered}, and summarized in a {@link #createLogLine() log line} giving the
+ * rates since the previous one, so that a stuttering server can be told apart from a struggling network.<p>
+ *
+ * Reading the figures takes no locks the network threads depend on, apart from each connection's own, which is held
+ * only long enough to copy a counter.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class NetworkMonitor implements NetworkMonitorMBean {
+
+	/**
+	 * The JMX domain under which monitors are registered
+	 */
+	public static final String DOMAIN = "com.veltro.blazingbarrels";
+
+	/**
+	 * The engine being monitored
+	 */
+	private final NetworkEngine engine;
+
+	/**
+	 * The counters of the engine's socket
+	 */
+	private final NetworkMetrics metrics;
+
+	/**
+	 * The name under which the monitor is registered with the platform MBean server (null if it is not registered)
+	 */
+	private ObjectName name;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the last log line was created
+	 */
+	private long lastLogTime = System.nanoTime();
+
+	/**
+	 * The counters at the time the last log line was created: packets and bytes received and sent, decode failures,
+	 * discards (and those of them rate limited), and the datagrams expected from and received from the peers
+	 */
+	private long lastPacketsIn, lastBytesIn, lastPacketsOut, lastBytesOut, lastFailures, lastDiscards, lastRateLimited,
+			lastExpected, lastReceived;
+
+	/**
+	 * Constructor
+	 *
+	 * @param engine The {@link #engine} to monitor
+	 */
+	public NetworkMonitor(NetworkEngine engine) {
+		this.engine = engine;
+		metrics = engine.getConnectionTable().getMetrics();
+	}
+
+	/**
+	 * Registers the monitor with the platform MBean server, under the {@link #DOMAIN} and the engine's local port
+	 *
+	 * @return The name under which the monitor was registered
+	 * @throws JMException If the monitor could not be registered (eg. another monitor has the same name)
+	 */
+	public synchronized ObjectName register() throws JMException {
+		if (name == null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=NetworkEngine,port=" + engine.getLocalPort());
+			server.registerMBean(this, objectName);
+			name = objectName;
+		}
+		return name;
+	}
+
+	/**
+	 * Removes the monitor from the platform MBean server, if it is registered
+	 */
+	public synchronized void unregister() {
+		if (name == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		name = null;
+	}
+
+	/**
+	 * Summarizes the traffic since the previous call (or since the monitor was created) in one line: packet and byte
+	 * rates in each direction, decode failures, discards (and how many of them were rate limited), queue depths, peer
+	 * round trip times and the loss rate
+	 *
+	 * @return The log line
+	 */
+	public synchronized String createLogLine() {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - lastLogTime, 1) / 1e9;
+		long packetsIn = metrics.getTotalPacketsReceived(), bytesIn = metrics.getTotalBytesReceived();
+		long packetsOut = metrics.getTotalPacketsSent(), bytesOut = metrics.getTotalBytesSent();
+		long failures = metrics.getTotalDecodeFailures(), discards = metrics.getTotalDiscards();
+		long rateLimited = metrics.getDiscards(NetworkMetrics.RATE_LIMITED);
+		long expected = 0, received = 0;
+		long totalRTT = 0, maxRTT = 0;
+		int measured = 0, peers = 0;
+		for (Connection connection : engine.getConnectionTable().toArray(new Connection[0])) {
+			peers++;
+			expected += connection.getDatagramsExpected();
+			received += connection.getDatagramsReceived();
+			long rtt = connection.getRoundTripTime();
+			if (rtt >= 0) {
+				measured++;
+				totalRTT += rtt;
+				maxRTT = Math.max(maxRTT, rtt);
+			}
+		}
+		// Connections removed since the last line take their counts with them, so the differences are clamped:
+		long expectedDelta = Math.max(expected - lastExpected, 0);
+		long lostDelta = Math.max(expectedDelta - Math.max(received - lastReceived, 0), 0);
+
+		String line = String.format("network: in %.0f pkt/s %.1f KB/s, out %.0f pkt/s %.1f KB/s, %d decode failures, " +
+				"%d discards (%d rate limited), queues %d in / %d out, %d peers, rtt avg %.1f ms / max %.1f ms, " +
+				"loss %.1f%%",
+				(packetsIn - lastPacketsIn) / seconds, (bytesIn - lastBytesIn) / seconds / 1024,
+				(packetsOut - lastPacketsOut) / seconds, (bytesOut - lastBytesOut) / seconds / 1024,
+				failures - lastFailures, discards - lastDiscards, rateLimited - lastRateLimited,
+				getIncomingQueueDepth(), getOutgoingQueueDepth(), peers, measured == 0 ? 0 : totalRTT / measured / 1e6,
+				maxRTT / 1e6,
+				expectedDelta == 0 ? 0 : 100.0 * lostDelta / expectedDelta);
+		lastLogTime = now;
+		lastPacketsIn = packetsIn;
+		lastBytesIn = bytesIn;
+		lastPacketsOut = packetsOut;
+		lastBytesOut = bytesOut;
+		lastFailures = failures;
+		lastDiscards = discards;
+		lastRateLimited = rateLimited;
+		lastExpected = expected;
+		lastReceived = received;
+		return line;
+	}
+
+	public long getPacketsReceived() {
+		return metrics.getTotalPacketsReceived();
+	}
+
+	public long getBytesReceived() {
+		return metrics.getTotalBytesReceived();
+	}
+
+	public long getPacketsSent() {
+		return metrics.getTotalPacketsSent();
+	}
+
+	public long getBytesSent() {
+		return metrics.getTotalBytesSent();
+	}
+
+	public long getDatagramsReceived() {
+		return metrics.getDatagramsReceived();
+	}
+
+	public long getDatagramsSent() {
+		return metrics.getDatagramsSent();
+	}
+
+	public long getDecodeFailures() {
+		return metrics.getTotalDecodeFailures();
+	}
+
+	public long getDiscards() {
+		return metrics.getTotalDiscards();
+	}
+
+	public int getIncomingQueueDepth() {
+		return engine.incomingPacketQueue.size();
+	}
+
+	public int getOutgoingQueueDepth() {
+		return engine.outgoingPacketQueue.size() + metrics.getScheduledPacketCount();
+	}
+
+	public int getPeerCount() {
+		return engine.getConnectionTable().size();
+	}
+
+	public double getAverageRoundTripTime() {
+		long total = 0;
+		int measured = 0;
+		for (Connection connection : engine.getConnectionTable().toArray(new Connection[0])) {
+			long rtt = connection.getRoundTripTime();
+			if (rtt >= 0) {
+				total += rtt;
+				measured++;
+			}
+		}
+		return measured == 0 ? 0 : total / measured / 1e6;
+	}
+
+	public double getMaxRoundTripTime() {
+		long max = 0;
+		for (Connection connection : engine.getConnectionTable().toArray(new Connection[0]))
+			max = Math.max(max, connection.getRoundTripTime());
+		return max / 1e6;
+	}
+
+	public double getLossRate() {
+		long expected = 0, received = 0;
+		for (Connection connection : engine.getConnectionTable().toArray(new Connection[0])) {
+			expected += connection.getDatagramsExpected();
+			received += connection.getDatagramsReceived();
+		}
+		return expected == 0 ? 0 : 100.0 * Math.max(expected - received, 0) / expected;
+	}
+
+	public String[] getPacketTypeStatistics() {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (int id = 0; id < 256; id++) {
+			long packetsIn = metrics.getPacketsReceived(id), packetsOut = metrics.getPacketsSent(id);
+			long failures = metrics.getDecodeFailures(id);
+			if (packetsIn == 0 && packetsOut == 0 && failures == 0)
+				continue;
+			lines.add(String.format("%3d: in %d (%d bytes, sizes %s), out %d (%d bytes, sizes %s), %d decode failures",
+					id, packetsIn, metrics.getBytesReceived(id), describe(metrics.getSizeHistogram(id, true)),
+					packetsOut, metrics.getBytesSent(id), describe(metrics.getSizeHistogram(id, false)), failures));
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	public String[] getPeerStatistics() {
+		ArrayList<String> lines = new ArrayList<String>();
+		for (Connection connection : engine.getConnectionTable().toArray(new Connection[0])) {
+			long rtt = connection.getRoundTripTime();
+			lines.add(String.format("%s:%d rtt %s, loss %.1f%%, in %d datagrams (%d bytes), out %d datagrams " +
+					"(%d bytes), %d retransmissions, %d unacknowledged, %d rate limited",
+					connection.getAddress().getHostAddress(),
+					connection.getPort(), rtt < 0 ? "unmeasured" : String.format("%.1f ms +/- %.1f ms", rtt / 1e6,
+					connection.getRoundTripTimeVariation() / 1e6), connection.getLossRate() * 100,
+					connection.getDatagramsReceived(), connection.getBytesReceived(), connection.getDatagramsSent(),
+					connection.getBytesSent(), connection.getRetransmissions(),
+					connection.getUnacknowledgedMessageCount(), connection.getRateLimitedDatagrams()));
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	public String[] getRateLimitOffenders() {
+		ArrayList<Connection> offenders = new ArrayList<Connection>();
+		for (Connection connection : engine.getConnectionTable().toArray(new Connection[0])) {
+			if (connection.getRateLimitedDatagrams() > 0)
+				offenders.add(connection);
+		}
+		Collections.sort(offenders, new Comparator<Connection>() {
+			public int compare(Connection a, Connection b) {
+				long difference = b.getRateLimitedDatagrams() - a.getRateLimitedDatagrams();
+				return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+			}
+		});
+		long newcomers = engine.getReceiveLimiter().getRateLimitedNewcomers();
+		String[] lines = new String[offenders.size() + (newcomers > 0 ? 1 : 0)];
+		for (int i = 0; i < offenders.size(); i++) {
+			Connection connection = offenders.get(i);
+			lines[i] = String.format("%s:%d %d datagrams dropped, over budget %d times",
+					connection.getAddress().getHostAddress(), connection.getPort(),
+					connection.getRateLimitedDatagrams(), connection.getRateLimitOffences());
+		}
+		if (newcomers > 0)
+			lines[lines.length - 1] = newcomers + " datagrams dropped from endpoints without a connection";
+		return lines;
+	}
+
+	public String[] getDiscardStatistics() {
+		String[] lines = new String[NetworkMetrics.DISCARD_REASONS];
+		for (int reason = 0; reason < NetworkMetrics.DISCARD_REASONS; reason++)
+			lines[reason] = NetworkMetrics.getDiscardReasonName(reason) + ": " + metrics.getDiscards(reason);
+		return lines;
+	}
+
+	public double getCompressionRatio() {
+		return 100 * metrics.getCompressionRatio(false);
+	}
+
+	public String[] getCompressionStatistics() {
+		long attempts = metrics.getCompressionAttempts();
+		long sent = metrics.getCompressedPackets(false);
+		return new String[] {
+			String.format("out: %d compressed, %d not worth compressing, %d bytes -> %d bytes (%.1f%%)", sent,
+					attempts - sent, metrics.getUncompressedBytes(false), metrics.getCompressedBytes(false),
+					100 * metrics.getCompressionRatio(false)),
+			String.format("in: %d compressed, %d bytes -> %d bytes (%.1f%%)", metrics.getCompressedPackets(true),
+					metrics.getCompressedBytes(true), metrics.getUncompressedBytes(true),
+					100 * metrics.getCompressionRatio(true))
+		};
+	}
+
+	/**
+	 * @param histogram A packet size histogram (see {@link NetworkMetrics#SIZE_BUCKETS})
+	 * @return The non-empty buckets of the histogram, as "[low-high:count ...]"
+	 */
+	private static String describe(long[] histogram) {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] == 0)
+				continue;
+			if (builder.length() > 1)
+				builder.append(' ');
+			builder.append(i == 0 ? 0 : 1 << (i - 1));
+			if (i == histogram.length - 1)
+				builder.append('+');
+			else
+				builder.append('-').append((1 << i) - 1);
+			builder.append(':').append(histogram[i]);
+		}
+		return builder.append(']').toString();
+	}
+}
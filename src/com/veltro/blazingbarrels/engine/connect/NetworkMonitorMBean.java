@@ -0,0 +1,117 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+/**
+ * The JMX management interface of a {@link NetworkMonitor}, through which the traffic of a {@link NetworkEngine} can be
+ * watched from a JMX console (such as jconsole or VisualVM). Counts are totals since the engine was created.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public interface NetworkMonitorMBean {
+
+	/**
+	 * @return The number of packets received
+	 */
+	public long getPacketsReceived();
+
+	/**
+	 * @return The number of bytes of packets received
+	 */
+	public long getBytesReceived();
+
+	/**
+	 * @return The number of packets sent (not counting retransmissions)
+	 */
+	public long getPacketsSent();
+
+	/**
+	 * @return The number of bytes of packets sent
+	 */
+	public long getBytesSent();
+
+	/**
+	 * @return The number of datagrams received
+	 */
+	public long getDatagramsReceived();
+
+	/**
+	 * @return The number of datagrams sent
+	 */
+	public long getDatagramsSent();
+
+	/**
+	 * @return The number of packets received that could not be decoded
+	 */
+	public long getDecodeFailures();
+
+	/**
+	 * @return The number of datagrams and packets discarded, for any reason
+	 */
+	public long getDiscards();
+
+	/**
+	 * @return The number of received packets waiting to be handled
+	 */
+	public int getIncomingQueueDepth();
+
+	/**
+	 * @return The number of packets waiting to be sent
+	 */
+	public int getOutgoingQueueDepth();
+
+	/**
+	 * @return The number of peers the engine has a connection to
+	 */
+	public int getPeerCount();
+
+	/**
+	 * @return The average of the peers' smoothed round trip times, in milliseconds (0 if none has been measured)
+	 */
+	public double getAverageRoundTripTime();
+
+	/**
+	 * @return The highest of the peers' smoothed round trip times, in milliseconds
+	 */
+	public double getMaxRoundTripTime();
+
+	/**
+	 * @return The percentage of the datagrams sent by the current peers that have not arrived
+	 */
+	public double getLossRate();
+
+	/**
+	 * @return One line per packet ID that has been received or sent: the packets and bytes in each direction, the
+	 * decode failures, and the size histograms
+	 */
+	public String[] getPacketTypeStatistics();
+
+	/**
+	 * @return One line per peer: its round trip time, loss rate, traffic in each direction, retransmissions and
+	 * unacknowledged reliable messages
+	 */
+	public String[] getPeerStatistics();
+
+	/**
+	 * @return One line per peer whose datagrams have exceeded its host's receive budget, most datagrams dropped first:
+	 * the datagrams dropped, and the number of times they took the host over the budget. A last line counts the
+	 * datagrams dropped from endpoints that had no connection yet, if there are any.
+	 */
+	public String[] getRateLimitOffenders();
+
+	/**
+	 * @return One line per discard reason: the number of datagrams or packets discarded for it
+	 */
+	public String[] getDiscardStatistics();
+
+	/**
+	 * @return The size of the compressed packet frames sent, as a percentage of their uncompressed size (100 if none
+	 * has been compressed)
+	 */
+	public double getCompressionRatio();
+
+	/**
+	 * @return One line per direction: the packets compressed (and, for those sent, the compressible packets that were
+	 * not worth compressing) and the bytes before and after compression
+	 */
+	public String[] getCompressionStatistics();
+}
@@ -0,0 +1,269 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A transport that reproduces the {@link NetworkConditions conditions} of a real network on top of another transport,
+ * so that the networking layer can be tested and benchmarked on one machine (with a client and a server in the same
+ * process, or over localhost). It is plugged in between a {@link NetworkEngine} and its socket with
+ * {@link NetworkEngine#setTransport(DatagramOutput)}.<p>
+ *
+ * Each datagram sent through the simulator is copied and, unless it is lost, handed to the underlying transport once
+ * its simulated delay (the latency plus a random jitter) has passed; some datagrams are delivered twice, and some are
+ * held back for an extra half the latency plus the jitter, so that later datagrams overtake them. The simulator is a
+ * thread of its own, which sleeps until the next datagram is due, so that delays are not rounded to the sender's
+ * schedule.<p>
+ *
+ * Only the datagrams sent through the simulator are affected, so to simulate both directions of a path, each end
+ * should send through a simulator of its own. The numbers of datagrams delivered, lost, duplicated and reordered are
+ * counted.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class NetworkSimulator extends Thread implements DatagramOutput {
+
+	/**
+	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
+	 */
+	private volatile boolean running = false;
+
+	/**
+	 * The transport to which datagrams are handed once their delay has passed
+	 */
+	private final DatagramOutput output;
+
+	/**
+	 * The conditions being simulated
+	 */
+	private volatile NetworkConditions conditions;
+
+	/**
+	 * Decides the fate of each datagram (seeded, so that a run can be repeated)
+	 */
+	private final Random random;
+
+	/**
+	 * The datagrams waiting for their delay to pass, the next one due first
+	 */
+	private final DelayQueue<Delivery> deliveries = new DelayQueue<Delivery>();
+
+	/**
+	 * The number of datagrams sent through the simulator
+	 */
+	private final AtomicLong sentCount = new AtomicLong();
+
+	/**
+	 * The number of datagrams handed to the {@link #output} (duplicates included)
+	 */
+	private final AtomicLong deliveredCount = new AtomicLong();
+
+	/**
+	 * The number of datagrams lost
+	 */
+	private final AtomicLong lostCount = new AtomicLong();
+
+	/**
+	 * The number of datagrams delivered twice
+	 */
+	private final AtomicLong duplicatedCount = new AtomicLong();
+
+	/**
+	 * The number of datagrams held back to be overtaken
+	 */
+	private final AtomicLong reorderedCount = new AtomicLong();
+
+	/**
+	 * Simplified constructor - calls the {@link #NetworkSimulator(DatagramOutput, NetworkConditions, long) complete
+	 * constructor} with a random seed
+	 *
+	 * @param output The {@link #output} transport (eg. {@link NetworkEngine#getSocketOutput()})
+	 * @param conditions The {@link #conditions} to simulate
+	 */
+	public NetworkSimulator(DatagramOutput output, NetworkConditions conditions) {
+		this(output, conditions, System.nanoTime());
+	}
+
+	/**
+	 * Complete constructor
+	 *
+	 * @param output The {@link #output} transport (eg. {@link NetworkEngine#getSocketOutput()})
+	 * @param conditions The {@link #conditions} to simulate
+	 * @param seed The seed of the {@link #random} fate of each datagram
+	 */
+	public NetworkSimulator(DatagramOutput output, NetworkConditions conditions, long seed) {
+		super("BB Network Simulator");
+		setDaemon(true);
+		this.output = output;
+		this.conditions = conditions;
+		random = new Random(seed);
+		running = true;
+	}
+
+	/**
+	 * Decides the fate of a datagram, and queues it (or its copies) for delivery
+	 */
+	public void send(ByteBuffer datagram, InetSocketAddress destination) throws IOException {
+		sentCount.incrementAndGet();
+		NetworkConditions conditions = this.conditions;
+		long now = System.nanoTime();
+		if (random.nextDouble() < conditions.getLossChance()) {
+			lostCount.incrementAndGet();
+			return;
+		}
+		byte[] data = new byte[datagram.remaining()];
+		datagram.get(data);
+		int copies = 1;
+		if (random.nextDouble() < conditions.getDuplicateChance()) {
+			duplicatedCount.incrementAndGet();
+			copies = 2;
+		}
+		for (int i = 0; i < copies; i++) {
+			long delay = TimeUnit.MILLISECONDS.toNanos(conditions.getLatency()) +
+					(long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(conditions.getJitter()));
+			if (random.nextDouble() < conditions.getReorderChance()) {
+				reorderedCount.incrementAndGet();
+				delay += TimeUnit.MILLISECONDS.toNanos(conditions.getLatency() / 2 + conditions.getJitter() + 1);
+			}
+			deliveries.add(new Delivery(now + delay, data, destination));
+		}
+	}
+
+	/**
+	 * The thread waits for each queued datagram's delay to pass and hands it to the {@link #output}
+	 */
+	public void run() {
+		while (running) {
+			Delivery delivery;
+			try {
+				delivery = deliveries.take();
+			} catch (InterruptedException e) {
+				continue; // Woken up by terminate()
+			}
+			try {
+				output.send(ByteBuffer.wrap(delivery.data), delivery.destination);
+				deliveredCount.incrementAndGet();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return The {@link #conditions} being simulated
+	 */
+	public NetworkConditions getConditions() {
+		return conditions;
+	}
+
+	/**
+	 * Changes the {@link #conditions} being simulated (datagrams already queued keep their fate). May be called from
+	 * any thread.
+	 *
+	 * @param conditions The new conditions
+	 */
+	public void setConditions(NetworkConditions conditions) {
+		this.conditions = conditions;
+	}
+
+	/**
+	 * @return The number of datagrams sent through the simulator
+	 */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * @return The number of datagrams handed to the underlying transport (duplicates included)
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * @return The number of datagrams lost
+	 */
+	public long getLostCount() {
+		return lostCount.get();
+	}
+
+	/**
+	 * @return The number of datagrams delivered twice
+	 */
+	public long getDuplicatedCount() {
+		return duplicatedCount.get();
+	}
+
+	/**
+	 * @return The number of datagrams held back to be overtaken
+	 */
+	public long getReorderedCount() {
+		return reorderedCount.get();
+	}
+
+	/**
+	 * @return The number of datagrams waiting for their delay to pass
+	 */
+	public int getPendingCount() {
+		return deliveries.size();
+	}
+
+	/**
+	 * Causes the main loop in the {@link #run()} method to exit; as a result, the thread completes its execution and
+	 * the datagrams still queued are dropped
+	 */
+	public void terminate() {
+		running = false;
+		interrupt();
+	}
+
+	/**
+	 * A copy of a datagram waiting in the {@link NetworkSimulator#deliveries} queue
+	 */
+	private static class Delivery implements Delayed {
+
+		/**
+		 * The time, as given by System.nanoTime(), at which the datagram is due
+		 */
+		private final long dueTime;
+
+		/**
+		 * The datagram's contents
+		 */
+		private final byte[] data;
+
+		/**
+		 * The datagram's destination
+		 */
+		private final InetSocketAddress destination;
+
+		/**
+		 * Constructor
+		 *
+		 * @param dueTime The {@link #dueTime}
+		 * @param data The datagram's contents
+		 * @param destination The datagram's {@link #destination}
+		 */
+		private Delivery(long dueTime, byte[] data, InetSocketAddress destination) {
+			this.dueTime = dueTime;
+			this.data = data;
+			this.destination = destination;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+
+		public int compareTo(Delayed other) {
+			long difference = dueTime - ((Delivery) other).dueTime;
+			return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+		}
+	}
+}
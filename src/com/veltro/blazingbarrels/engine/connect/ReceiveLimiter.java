@@ -0,0 +1,256 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which each host may send datagrams to a socket, so that a misbehaving or malicious host flooding
+ * it (with movement updates or weapon fire, say) costs little more than the receive itself. Every host (source IP
+ * address) has a budget of bytes per second, enforced by a token bucket; each datagram is charged its size plus the
+ * {@link #DATAGRAM_OVERHEAD} before its header is read or any of its packets decoded, and the datagrams that do not
+ * fit in the budget are dropped there and then. The packets a single host can push into the incoming packet queue per
+ * second, and so the time the game thread spends handling them, are thus bounded.<p>
+ *
+ * The budget belongs to the address, not to the endpoint (address and port): a host that cycled through source ports
+ * would otherwise be granted a fresh budget, and a connection, for every port. The datagrams of all of a host's
+ * endpoints, connected or not, are charged to the same bucket, and the number of connections a host may hold is
+ * capped at {@link #maxConnectionsPerHost} (see {@link ConnectionTable#open(InetAddress, int, int)}). Clients behind
+ * the same NAT share one budget and one cap, which is why the default budget leaves several times what a client
+ * needs.<p>
+ *
+ * The buckets are kept in a small table of {@link #HOST_TABLE_SIZE} slots, probed by open addressing from a hash of
+ * the address, so that no object is created for a datagram before it is admitted. A bucket that has filled up again
+ * holds nothing worth keeping (a new bucket would start full too), so its slot may be taken by another host; a host
+ * only needs a slot while it is sending faster than its rate refills it. If all {@link #MAX_PROBES} slots a host may
+ * use are held by such hosts (a flood from many spoofed addresses), the datagrams of its connected endpoints are
+ * admitted unmetered, as the connection cap bounds them, and the others are charged to one shared overflow bucket.<p>
+ *
+ * Dropped datagrams are counted as {@link NetworkMetrics#RATE_LIMITED} discards, and each connection counts the
+ * datagrams dropped from its endpoint and the times its host went over its budget, which the {@link NetworkMonitor}
+ * reports per offender.<p>
+ *
+ * Limiting is off until a rate is set, as a client has no reason to limit its server. The limiter is used by the
+ * receiving network thread alone (which is why the table needs no lock); its settings may be changed from any thread.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class ReceiveLimiter {
+
+	/**
+	 * The number of bytes each datagram is charged on top of its payload (the size of the IPv4 and UDP headers), so
+	 * that a flood of tiny datagrams is limited too
+	 */
+	public static final int DATAGRAM_OVERHEAD = 28;
+
+	/**
+	 * A suitable budget for the clients of a server: several times what a client sends while moving every tick at
+	 * twice the default tick rate and firing continuously (under 2 KB per second)
+	 */
+	public static final int DEFAULT_BYTES_PER_SECOND = 16 * 1024;
+
+	/**
+	 * The default {@link #burstTime}
+	 */
+	public static final long DEFAULT_BURST_TIME = TimeUnit.MILLISECONDS.toNanos(250);
+
+	/**
+	 * A suitable {@link #maxConnectionsPerHost} for a server: room for a few clients behind the same NAT
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+	/**
+	 * The number of slots in the table of host buckets (a power of two)
+	 */
+	public static final int HOST_TABLE_SIZE = 1024;
+
+	/**
+	 * The number of consecutive slots, from the one its address hashes to, in which a host's bucket may be kept
+	 */
+	public static final int MAX_PROBES = 8;
+
+	/**
+	 * The number of bytes per second each host may send (0 for no limit)
+	 */
+	private volatile int bytesPerSecond;
+
+	/**
+	 * The longest time, in nanoseconds, whose worth of budget a host can save up while it is quiet, which sets the
+	 * largest burst it may send at once (a client catching up after a stall, say)
+	 */
+	private volatile long burstTime = DEFAULT_BURST_TIME;
+
+	/**
+	 * The number of connections each host may hold at once (0 for no limit)
+	 */
+	private volatile int maxConnectionsPerHost;
+
+	/**
+	 * The address of the host whose bucket each slot holds (null for a slot never used)
+	 */
+	private final InetAddress[] hosts = new InetAddress[HOST_TABLE_SIZE];
+
+	/**
+	 * The bucket in each slot, kept as the time, as given by System.nanoTime(), at which it will be full again: each
+	 * datagram admitted pushes it forward by the time the host's rate takes to pay for it
+	 */
+	private final long[] fullTimes = new long[HOST_TABLE_SIZE];
+
+	/**
+	 * Whether the host in each slot has exceeded its budget since its bucket was last full
+	 */
+	private final boolean[] overBudget = new boolean[HOST_TABLE_SIZE];
+
+	/**
+	 * The bucket shared by the hosts for which no slot was free, in the same form as {@link #fullTimes}
+	 */
+	private long overflowFullTime = System.nanoTime();
+
+	/**
+	 * The number of datagrams from endpoints without a connection dropped for exceeding their host's budget
+	 */
+	private long rateLimitedNewcomers;
+
+	/**
+	 * Charges a datagram to the budget of the host that sent it. If it is dropped, the drop is counted on the
+	 * connection of the endpoint that sent it, if it has one; a connection should only be created for the endpoint if
+	 * the datagram is admitted.
+	 *
+	 * @param address The IP address from which the datagram was received
+	 * @param connection The connection to the endpoint that sent it (null if it has none yet)
+	 * @param size The size of the datagram, in bytes
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return Whether the datagram is within its host's budget (always true if limiting is off)
+	 */
+	public boolean admit(InetAddress address, Connection connection, int size, long now) {
+		int rate = bytesPerSecond;
+		if (rate == 0)
+			return true;
+		long cost = (size + DATAGRAM_OVERHEAD) * 1000000000L / rate;
+		int slot = findSlot(address, now);
+		if (slot < 0) { // The table is saturated
+			if (connection != null)
+				return true;
+			long start = overflowFullTime;
+			if (now - start >= 0) // The bucket is full
+				start = now;
+			if (start + cost - now > burstTime) {
+				rateLimitedNewcomers++;
+				return false;
+			}
+			overflowFullTime = start + cost;
+			return true;
+		}
+		long start = fullTimes[slot];
+		if (now - start >= 0) {
+			start = now;
+			overBudget[slot] = false;
+		}
+		if (start + cost - now > burstTime) {
+			boolean offence = !overBudget[slot];
+			overBudget[slot] = true;
+			if (connection != null)
+				connection.recordRateLimited(offence);
+			else
+				rateLimitedNewcomers++;
+			return false;
+		}
+		fullTimes[slot] = start + cost;
+		return true;
+	}
+
+	/**
+	 * Finds the slot holding a host's bucket, claiming a slot whose bucket is full for it if it has none
+	 *
+	 * @param address The host's IP address
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return The slot, or -1 if the host has no slot and none of the slots it may use is free
+	 */
+	private int findSlot(InetAddress address, long now) {
+		int hash = address.hashCode() * 0x9E3779B9; // Spreads addresses that differ in the last octet alone
+		int first = (hash ^ hash >>> 16) & (HOST_TABLE_SIZE - 1);
+		int free = -1;
+		for (int i = 0; i < MAX_PROBES; i++) {
+			int slot = (first + i) & (HOST_TABLE_SIZE - 1);
+			InetAddress host = hosts[slot];
+			if (host == null) {
+				if (free < 0)
+					free = slot;
+				break; // A slot never used ends the probe sequence
+			}
+			if (host.equals(address))
+				return slot;
+			if (free < 0 && now - fullTimes[slot] >= 0)
+				free = slot;
+		}
+		if (free >= 0) {
+			hosts[free] = address;
+			fullTimes[free] = now;
+			overBudget[free] = false;
+		}
+		return free;
+	}
+
+	/**
+	 * @return The number of datagrams from endpoints without a connection dropped for exceeding their host's budget
+	 * (read by the receiving network thread, or as an estimate by any other)
+	 */
+	public long getRateLimitedNewcomers() {
+		return rateLimitedNewcomers;
+	}
+
+	/**
+	 * @return The {@link #bytesPerSecond} budget of each host (0 for no limit)
+	 */
+	public int getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Changes the budget of every host. May be called from any thread.
+	 *
+	 * @param bytesPerSecond The new {@link #bytesPerSecond} budget (0 for no limit)
+	 */
+	public void setBytesPerSecond(int bytesPerSecond) {
+		if (bytesPerSecond < 0)
+			throw new IllegalArgumentException("The budget cannot be negative");
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * @return The {@link #burstTime}, in nanoseconds
+	 */
+	public long getBurstTime() {
+		return burstTime;
+	}
+
+	/**
+	 * Changes the largest burst every host may send at once. May be called from any thread.
+	 *
+	 * @param burstTime The new {@link #burstTime}, in nanoseconds
+	 */
+	public void setBurstTime(long burstTime) {
+		if (burstTime < 0)
+			throw new IllegalArgumentException("The burst time cannot be negative");
+		this.burstTime = burstTime;
+	}
+
+	/**
+	 * @return The {@link #maxConnectionsPerHost} (0 for no limit)
+	 */
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	/**
+	 * Changes the number of connections each host may hold. Connections already open are kept. May be called from any
+	 * thread.
+	 *
+	 * @param maxConnectionsPerHost The new {@link #maxConnectionsPerHost} (0 for no limit)
+	 */
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		if (maxConnectionsPerHost < 0)
+			throw new IllegalArgumentException("The connection limit cannot be negative");
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+}
@@ -3,15 +3,17 @@ package com.veltro.blazingbarrels.engine.connect;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
-import com.veltro.blazingbarrels.engine.connect.packet.Packet01AuthResponse;
-import com.veltro.blazingbarrels.engine.connect.packet.Packet02DeauthWarning;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketPool;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
 
 /**
  * A thread dedicated to receiving Datagram packets over a network socket. While running, this thread receives Datagram
- * packets, constructs BBPackets from them, and adds the resulting objects to the {@link #incomingPacketQueue}
+ * packets, constructs BBPackets from them, and adds the resulting objects to the {@link #incomingPacketQueue}. A single
+ * datagram may contain several packets packed together by a {@link DatagramBatcher}.
  * 
  * @author LinearLogic
  * @since 0.2.3
@@ -21,7 +23,7 @@ public class ReceiverThread extends Thread {
 	/**
 	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * The internet socket over which to send packets in the {@link #packetQueue}
@@ -31,49 +33,100 @@ public class ReceiverThread extends Thread {
 	/**
 	 * A queue (first in - first out list) of the packets to be sent over the internet
 	 */
-	public ConcurrentLinkedQueue<BBPacket> incomingPacketQueue;
+	public ConcurrentLinkedQueue<BBPacket> incomingPacketQueue = new ConcurrentLinkedQueue<BBPacket>();
+
+	/**
+	 * Decodes the packets in each received datagram into the {@link #incomingPacketQueue}
+	 */
+	private final DatagramUnpacker unpacker;
+
+	/**
+	 * The counters of the traffic through the socket, shared with the {@link SenderThread}
+	 */
+	private final NetworkMetrics metrics;
+
+	/**
+	 * The buffer into which datagrams are received, reused for every packet
+	 */
+	private final byte[] buffer;
+
+	/**
+	 * A ByteBuffer view of the {@link #buffer}, from which the {@link #unpacker} decodes packets
+	 */
+	private final ByteBuffer readBuffer;
+
+	/**
+	 * The DatagramPacket into which every datagram is received
+	 */
+	private final DatagramPacket inbound;
+
+	/**
+	 * Simplified constructor - calls the {@link #ReceiverThread(DatagramSocket, int, PacketRegistry, ConnectionTable)
+	 * complete constructor} passing the {@link DatagramBatcher#DEFAULT_MAX_DATAGRAM_SIZE default} maximum datagram size
+	 * and the {@link PacketRegistry#createClientRegistry() client registry}
+	 *
+	 * @param socket The socket over which to receive packets
+	 * @param connectionTable The connections to the peers, shared with the {@link SenderThread} of the same socket
+	 */
+	public ReceiverThread(DatagramSocket socket, ConnectionTable connectionTable) {
+		this(socket, DatagramBatcher.DEFAULT_MAX_DATAGRAM_SIZE, PacketRegistry.createClientRegistry(), connectionTable);
+	}
+
+	/**
+	 * Complete constructor
+	 *
+	 * @param socket The socket over which to receive packets
+	 * @param maxDatagramSize The size, in bytes, of the largest datagram that can be received (must be at least the
+	 * maximum datagram size used by the sender)
+	 * @param registry The registry of the packet types to accept (packets of any other type are discarded)
+	 * @param connectionTable The connections to the peers, shared with the {@link SenderThread} of the same socket
+	 */
+	public ReceiverThread(DatagramSocket socket, int maxDatagramSize, PacketRegistry registry,
+			ConnectionTable connectionTable) {
+		super("BB Receiver");
+		this.socket = socket;
+		unpacker = new DatagramUnpacker(incomingPacketQueue, registry, connectionTable);
+		metrics = connectionTable.getMetrics();
+		buffer = new byte[maxDatagramSize];
+		readBuffer = ByteBuffer.wrap(buffer);
+		inbound = new DatagramPacket(buffer, buffer.length);
+		running = true;
+	}
 
 	/**
 	 * The thread listens for incoming packets arriving over the socket, casts them to BBPacket subclass objects, and
-	 * adds them to the {@link #incomingPacketQueue}
+	 * adds them to the {@link #incomingPacketQueue}. The receive buffer and DatagramPacket are reused for every
+	 * datagram, and the packets are decoded straight from the received bytes into objects taken from the
+	 * {@link PacketPool}, so the loop itself does not allocate. The consumer of the queue returns the packets to the
+	 * pool once they have been handled, via {@link PacketRegistry#handleAll(java.util.Queue)}.
 	 */
 	public void run() {
 		while (running) {
-			byte[] buffer = new byte[256];
-
 			// Receive the packet
-			DatagramPacket inbound = new DatagramPacket(buffer, buffer.length);
+			inbound.setLength(buffer.length); // Receiving shrinks the length to that of the previous datagram
 			try {
 				socket.receive(inbound);
 			} catch (IOException e) {
+				metrics.recordDiscard(NetworkMetrics.RECEIVE_ERROR);
 				continue;
 			}
 			
-			// Unpack the packet's contents
-			String data[] = new String(inbound.getData(), 0, inbound.getLength()).split("\\s+", 2);
-			if (data.length <= 1) // No packet data beyond an ID has been supplied - discard packet
-				continue;
-			int id;
-			try {
-				id = Integer.parseInt(data[0]);
-			} catch (NumberFormatException e) { // Invalid packet format - discard packet
-				continue;
-			}
-			data = data[1].split("\\s+");
-			BBPacket received = null;
-
-			switch(id) { // Only the id values of packets that the client should normally receive are handled
-				// TODO: generate packets from the id value
-				default: // Invalid packet for a client to be receiving - discard packet
-					break;
-			}
-			if (received != null)
-				incomingPacketQueue.add(received);
-			
+			// Unpack the packets in the datagram
+			readBuffer.clear();
+			readBuffer.limit(inbound.getLength());
+			unpacker.unpack(readBuffer, inbound.getAddress(), inbound.getPort());
 		}
 		socket.close();
 	}
 
+	/**
+	 * @return The limiter that drops the datagrams of the peers exceeding their receive budget (off until a budget is
+	 * set)
+	 */
+	public ReceiveLimiter getReceiveLimiter() {
+		return unpacker.getLimiter();
+	}
+
 	/**
 	 * Causes the main loop in the {@link #run()} method to exit; as a result, the thread completes its execution
 	 */
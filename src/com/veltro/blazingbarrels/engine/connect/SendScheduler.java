@@ -0,0 +1,392 @@
+package com.veltro.blazingbarrels.engine.connect;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import com.veltro.blazingbarrels.engine.connect.packet.OutgoingPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+
+/**
+ * Decides which queued packets are sent, and when. Every destination (client) has its own queue, split into one lane
+ * per {@link OutgoingPacket#getPriority() priority class}, and its own budget of bytes per second, enforced by a token
+ * bucket. Each call to {@link #send()} drains every client's lanes in priority order - authentication, then snapshots,
+ * then connection traffic, then player updates, then weapon events - until that client's budget is used up, and hands
+ * the packets to a {@link DatagramBatcher}.<p>
+ *
+ * Packets that do not fit in the budget stay queued. While a {@link Packet30PlayerUpdate} for a player is waiting,
+ * any later update for the same player is {@link Packet30PlayerUpdate#merge(Packet30PlayerUpdate) merged} into it
+ * rather than queued (unless either carries a movement input, which the server must receive one by one), and a
+ * {@link com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot snapshot} replaces the snapshot still
+ * waiting for the same client (if any), so a congested client receives the newest state instead of a growing backlog
+ * of stale ones. If a client's queue nonetheless reaches its limit, the oldest unreliable
+ * {@link PacketCodec#isState(int) state} packet (snapshot or player update) of the lowest priority is dropped, or if
+ * there is none, the oldest unreliable packet of the lowest priority: state is superseded by the next tick anyway,
+ * whereas an event such as a shot is not sent again.<p>
+ *
+ * A scheduler is owned by the network thread that sends its packets, and is not thread-safe (apart from
+ * {@link #setBytesPerSecond(int)}).
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class SendScheduler {
+
+	/**
+	 * The default {@link #bytesPerSecond}
+	 */
+	public static final int DEFAULT_BYTES_PER_SECOND = 64 * 1024;
+
+	/**
+	 * The default {@link #maxQueuedPackets}
+	 */
+	public static final int DEFAULT_MAX_QUEUED_PACKETS = 256;
+
+	/**
+	 * The number of priority classes (packet IDs are at most 255)
+	 */
+	private static final int PRIORITY_CLASSES = 26;
+
+	/**
+	 * The ID of {@link com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot snapshots}, of which at
+	 * most one is queued per client
+	 */
+	private static final int SNAPSHOT_ID = 10;
+
+	/**
+	 * The longest time, in nanoseconds, whose worth of budget a client can save up while it has nothing to send
+	 */
+	private static final long MAX_SAVED_TIME = 100000000L;
+
+	/**
+	 * The batcher to which scheduled packets are appended
+	 */
+	private final DatagramBatcher batcher;
+
+	/**
+	 * The number of bytes per second each client may be sent (0 for no limit)
+	 */
+	private volatile int bytesPerSecond;
+
+	/**
+	 * The number of packets that can be queued for one client before packets are dropped
+	 */
+	private final int maxQueuedPackets;
+
+	/**
+	 * The queues of the known clients, by address and port
+	 */
+	private final EndpointMap<ClientQueue> clients = new EndpointMap<ClientQueue>();
+
+	/**
+	 * The queues of the known clients, in the order they were added
+	 */
+	private final ArrayList<ClientQueue> clientList = new ArrayList<ClientQueue>();
+
+	/**
+	 * Simplified constructor - calls the {@link #SendScheduler(DatagramBatcher, int, int) complete constructor} passing
+	 * the {@link #DEFAULT_BYTES_PER_SECOND} and the {@link #DEFAULT_MAX_QUEUED_PACKETS}
+	 *
+	 * @param batcher The {@link #batcher} to which to append scheduled packets
+	 */
+	public SendScheduler(DatagramBatcher batcher) {
+		this(batcher, DEFAULT_BYTES_PER_SECOND, DEFAULT_MAX_QUEUED_PACKETS);
+	}
+
+	/**
+	 * Complete constructor
+	 *
+	 * @param batcher The {@link #batcher} to which to append scheduled packets
+	 * @param bytesPerSecond The {@link #bytesPerSecond} budget of each client (0 for no limit)
+	 * @param maxQueuedPackets The {@link #maxQueuedPackets} per client
+	 */
+	public SendScheduler(DatagramBatcher batcher, int bytesPerSecond, int maxQueuedPackets) {
+		if (maxQueuedPackets < 1)
+			throw new IllegalArgumentException("At least one packet must be able to be queued per client");
+		this.batcher = batcher;
+		this.maxQueuedPackets = maxQueuedPackets;
+		setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * Adds a packet to the queue of its destination, merging it into a queued update for the same player if it is a
+	 * {@link Packet30PlayerUpdate}, or replacing the client's queued snapshot if it is a snapshot
+	 *
+	 * @param packet The packet to send
+	 */
+	public void enqueue(OutgoingPacket packet) {
+		ClientQueue client = getClient(packet.getAddress(), packet.getPort());
+		if (packet instanceof Packet30PlayerUpdate) {
+			Packet30PlayerUpdate update = (Packet30PlayerUpdate) packet;
+			int playerID = update.getPlayerID();
+			if (playerID != PacketCodec.NO_PLAYER && update.getInput() == null) {
+				Packet30PlayerUpdate queued = client.pendingUpdates[playerID];
+				if (queued != null) {
+					queued.merge(update);
+					return;
+				}
+				client.pendingUpdates[playerID] = update;
+			}
+		} else if (packet.getID() == SNAPSHOT_ID) {
+			OutgoingPacket queued = client.pendingSnapshot;
+			client.pendingSnapshot = packet;
+			if (queued != null) {
+				ArrayDeque<OutgoingPacket> lane = client.lanes[packet.getPriority()];
+				lane.removeFirstOccurrence(queued);
+				lane.addLast(packet);
+				batcher.getMetrics().recordDiscard(NetworkMetrics.SUPERSEDED_SNAPSHOT);
+				return;
+			}
+		}
+		client.lanes[packet.getPriority()].addLast(packet);
+		if (++client.queuedPackets > maxQueuedPackets && client.dropLowestPriority())
+			batcher.getMetrics().recordDiscard(NetworkMetrics.QUEUE_OVERFLOW);
+	}
+
+	/**
+	 * Sends as many queued packets to each client as its budget allows, highest priority first, and flushes the
+	 * {@link #batcher}. The number of packets left queued is then published in the batcher's {@link NetworkMetrics}. A
+	 * packet that cannot be encoded (a reliable packet too large for a datagram, say) is dropped and counted as a
+	 * {@link NetworkMetrics#SEND_ERROR}, so that it does not hold up the packets behind it.
+	 *
+	 * @throws IOException If a datagram could not be sent
+	 */
+	public void send() throws IOException {
+		long now = System.nanoTime();
+		int rate = bytesPerSecond;
+		for (int i = 0; i < clientList.size(); i++) {
+			ClientQueue client = clientList.get(i);
+			if (rate > 0)
+				client.refill(now, rate);
+			for (int priority = 0; priority < PRIORITY_CLASSES && client.queuedPackets > 0; priority++) {
+				ArrayDeque<OutgoingPacket> lane = client.lanes[priority];
+				while (!lane.isEmpty() && (rate == 0 || client.tokens > 0)) {
+					OutgoingPacket packet = client.remove(lane);
+					int size;
+					try {
+						size = batcher.append(packet);
+					} catch (RuntimeException e) { // Includes BufferOverflowException
+						batcher.getMetrics().recordDiscard(NetworkMetrics.SEND_ERROR);
+						System.err.println("Dropped packet " + packet.getID() + " to " + packet.getAddress() + ":" +
+								packet.getPort() + ": " + e);
+						continue;
+					}
+					if (rate > 0)
+						client.tokens -= size;
+				}
+			}
+		}
+		batcher.flush();
+		batcher.getMetrics().setScheduledPacketCount(getQueuedPacketCount());
+	}
+
+	/**
+	 * Forgets a client, discarding any packets queued for it (eg. once it has disconnected)
+	 *
+	 * @param address The client's IP address
+	 * @param port The port on the above address
+	 */
+	public void removeClient(InetAddress address, int port) {
+		ClientQueue client = clients.remove(address, port);
+		if (client != null)
+			clientList.remove(client);
+	}
+
+	/**
+	 * Forgets the clients that have nothing queued and no longer have a connection in the table (their connection was
+	 * removed once they disconnected, or evicted once they went silent), so that the queues of departed clients do not
+	 * pile up
+	 *
+	 * @param connectionTable The connections of the socket the scheduler sends over
+	 */
+	public void removeDisconnectedClients(ConnectionTable connectionTable) {
+		for (int i = clientList.size() - 1; i >= 0; i--) {
+			ClientQueue client = clientList.get(i);
+			if (client.queuedPackets == 0 && connectionTable.find(client.address, client.port) == null) {
+				clients.remove(client.address, client.port);
+				clientList.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of packets waiting to be sent, across all clients
+	 */
+	public int getQueuedPacketCount() {
+		int count = 0;
+		for (int i = 0; i < clientList.size(); i++)
+			count += clientList.get(i).queuedPackets;
+		return count;
+	}
+
+	/**
+	 * @return The {@link #bytesPerSecond} budget of each client (0 for no limit)
+	 */
+	public int getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Changes the budget of every client. May be called from any thread.
+	 *
+	 * @param bytesPerSecond The new {@link #bytesPerSecond} budget (0 for no limit)
+	 */
+	public void setBytesPerSecond(int bytesPerSecond) {
+		if (bytesPerSecond < 0)
+			throw new IllegalArgumentException("The budget cannot be negative");
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Finds the queue of a client, creating it the first time a packet is queued for the client
+	 *
+	 * @param address The client's IP address
+	 * @param port The port on the above address
+	 * @return The client's queue
+	 */
+	private ClientQueue getClient(InetAddress address, int port) {
+		ClientQueue client = clients.get(address, port);
+		if (client == null) {
+			client = new ClientQueue(address, port);
+			clients.put(address, port, client);
+			clientList.add(client);
+		}
+		return client;
+	}
+
+	/**
+	 * The queued packets and the budget of one client
+	 */
+	private static class ClientQueue {
+
+		/**
+		 * The IP address of the client
+		 */
+		final InetAddress address;
+
+		/**
+		 * The port on the above address
+		 */
+		final int port;
+
+		/**
+		 * The queued packets, one first in - first out lane per priority class
+		 */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final ArrayDeque<OutgoingPacket>[] lanes = new ArrayDeque[PRIORITY_CLASSES];
+
+		/**
+		 * The queued player updates, indexed by player ID, for merging later updates into
+		 */
+		final Packet30PlayerUpdate[] pendingUpdates = new Packet30PlayerUpdate[PacketCodec.MAX_PLAYERS];
+
+		/**
+		 * The queued snapshot, which a newer snapshot replaces (null if none is queued)
+		 */
+		OutgoingPacket pendingSnapshot;
+
+		/**
+		 * The total number of packets in the {@link #lanes}
+		 */
+		int queuedPackets;
+
+		/**
+		 * The number of bytes the client may currently be sent (negative if the last packet sent overdrew the budget)
+		 */
+		long tokens;
+
+		/**
+		 * The time, as given by System.nanoTime(), at which the {@link #tokens} were last refilled
+		 */
+		long lastRefill = System.nanoTime();
+
+		/**
+		 * Constructor - creates the lanes
+		 *
+		 * @param address The client's IP address
+		 * @param port The port on the above address
+		 */
+		ClientQueue(InetAddress address, int port) {
+			this.address = address;
+			this.port = port;
+			for (int i = 0; i < PRIORITY_CLASSES; i++)
+				lanes[i] = new ArrayDeque<OutgoingPacket>();
+		}
+
+		/**
+		 * Adds the budget earned since the last refill to the {@link #tokens}, up to {@link #MAX_SAVED_TIME}'s worth
+		 *
+		 * @param now The current time, as given by System.nanoTime()
+		 * @param rate The budget, in bytes per second
+		 */
+		void refill(long now, int rate) {
+			long elapsed = Math.min(now - lastRefill, MAX_SAVED_TIME);
+			lastRefill = now;
+			tokens = Math.min(tokens + elapsed * rate / 1000000000L, MAX_SAVED_TIME * rate / 1000000000L);
+		}
+
+		/**
+		 * Removes the oldest packet from a lane
+		 *
+		 * @param lane One of the {@link #lanes}
+		 * @return The removed packet
+		 */
+		OutgoingPacket remove(ArrayDeque<OutgoingPacket> lane) {
+			OutgoingPacket packet = lane.pollFirst();
+			forget(packet);
+			return packet;
+		}
+
+		/**
+		 * Drops the oldest unreliable {@link PacketCodec#isState(int) state} packet of the lowest priority class that
+		 * has any queued, or if there is none, the oldest unreliable packet of the lowest priority class that has any
+		 * queued, wherever it is in its lane. Reliable packets are never dropped, as they must arrive.
+		 *
+		 * @return Whether a packet was dropped
+		 */
+		boolean dropLowestPriority() {
+			return dropLowestPriority(true) || dropLowestPriority(false);
+		}
+
+		/**
+		 * Drops the oldest unreliable packet of the lowest priority class that has any queued
+		 *
+		 * @param stateOnly Whether to only consider {@link PacketCodec#isState(int) state} packets
+		 * @return Whether a packet was dropped
+		 */
+		boolean dropLowestPriority(boolean stateOnly) {
+			for (int priority = PRIORITY_CLASSES - 1; priority >= 0; priority--) {
+				Iterator<OutgoingPacket> packets = lanes[priority].iterator();
+				while (packets.hasNext()) {
+					OutgoingPacket packet = packets.next();
+					int id = packet.getID();
+					if (!PacketCodec.isReliable(id) && (!stateOnly || PacketCodec.isState(id))) {
+						packets.remove();
+						forget(packet);
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Accounts for a packet having been taken out of its lane
+		 *
+		 * @param packet The packet
+		 */
+		void forget(OutgoingPacket packet) {
+			queuedPackets--;
+			if (packet == pendingSnapshot)
+				pendingSnapshot = null;
+			else if (packet instanceof Packet30PlayerUpdate) {
+				int playerID = ((Packet30PlayerUpdate) packet).getPlayerID();
+				if (playerID != PacketCodec.NO_PLAYER && pendingUpdates[playerID] == packet)
+					pendingUpdates[playerID] = null;
+			}
+		}
+	}
+}
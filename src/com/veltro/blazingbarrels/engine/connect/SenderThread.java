@@ -1,24 +1,39 @@
 package com.veltro.blazingbarrels.engine.connect;
 
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.OutgoingPacket;
 
 /**
- * A thread dedicated to sending Datagram packets to network addresses. While running, this thread waits for 
- * {@link BBPacket packets} to be added to the {@link #outgoingPacketQueue}
- * 
+ * A thread dedicated to sending Datagram packets to network addresses. While running, this thread waits for
+ * {@link OutgoingPacket packets} to be added to the {@link #outgoingPacketQueue}. The thread is parked while the queue
+ * is empty and is woken up by {@link #sendPacket(OutgoingPacket)}; once awake, it drains the queue into a
+ * {@link SendScheduler}, which sends packets in priority order within each destination's budget, packing packets bound
+ * for the same destination into shared datagrams with a {@link DatagramBatcher}.
+ *
  * @author LinearLogic
  * @since 0.2.2
  */
-public class SenderThread extends Thread {
+public class SenderThread extends Thread implements DatagramOutput {
+
+	/**
+	 * The longest time, in nanoseconds, that the thread stays parked while the queue is empty. This bounds the delay
+	 * before packets held back by the {@link #scheduler} are sent, and is a safety net for packets added directly to
+	 * the {@link #outgoingPacketQueue} instead of via {@link #sendPacket(OutgoingPacket)}.
+	 */
+	private static final long MAX_PARK_TIME = TimeUnit.MILLISECONDS.toNanos(10);
 
 	/**
 	 * Status flag for the loop. If set to false, causes the thread to complete its {@link #run()} method and terminate
 	 */
-	private boolean running = false;
+	private volatile boolean running = false;
 
 	/**
 	 * The internet socket over which to send packets in the {@link #packetQueue}
@@ -28,29 +43,107 @@ public class SenderThread extends Thread {
 	/**
 	 * A queue (first in - first out list) of the packets to be sent over the internet
 	 */
-	public ConcurrentLinkedQueue<BBPacket> outgoingPacketQueue;
+	public ConcurrentLinkedQueue<OutgoingPacket> outgoingPacketQueue = new ConcurrentLinkedQueue<OutgoingPacket>();
+
+	/**
+	 * Schedules the packets taken from the {@link #outgoingPacketQueue} and packs them into datagrams
+	 */
+	private final SendScheduler scheduler;
+
+	/**
+	 * The DatagramPacket used to send every datagram assembled by the {@link #scheduler}
+	 */
+	private final DatagramPacket outbound = new DatagramPacket(new byte[0], 0);
 
 	/**
-	 * The thread listens for packets to be added to the {@link #outgoingPacketQueue}, and once they are, it sends them over
-	 * the network to their destinations
+	 * The counters of the traffic through the socket, shared with the {@link ReceiverThread}
+	 */
+	private final NetworkMetrics metrics;
+
+	/**
+	 * Simplified constructor - calls the {@link #SenderThread(DatagramSocket, int, ConnectionTable) complete
+	 * constructor} passing the {@link DatagramBatcher#DEFAULT_MAX_DATAGRAM_SIZE default} maximum datagram size
+	 *
+	 * @param socket The socket over which to send packets
+	 * @param connectionTable The connections to the peers, shared with the {@link ReceiverThread} of the same socket
+	 */
+	public SenderThread(DatagramSocket socket, ConnectionTable connectionTable) {
+		this(socket, DatagramBatcher.DEFAULT_MAX_DATAGRAM_SIZE, connectionTable);
+	}
+
+	/**
+	 * Complete constructor
+	 *
+	 * @param socket The socket over which to send packets
+	 * @param maxDatagramSize The maximum size, in bytes, of a datagram holding several packets
+	 * @param connectionTable The connections to the peers, shared with the {@link ReceiverThread} of the same socket
+	 */
+	public SenderThread(DatagramSocket socket, int maxDatagramSize, ConnectionTable connectionTable) {
+		super("BB Sender");
+		this.socket = socket;
+		scheduler = new SendScheduler(new DatagramBatcher(this, maxDatagramSize, connectionTable));
+		metrics = connectionTable.getMetrics();
+		running = true;
+	}
+
+	/**
+	 * The thread parks until packets are added to the {@link #outgoingPacketQueue}, and once they are, it passes them
+	 * to the {@link #scheduler}, which sends them over the network to their destinations
 	 */
 	public void run() {
 		while (running) {
-			if (!outgoingPacketQueue.isEmpty()) {
-				try {
-					socket.send(outgoingPacketQueue.poll().generatePacket());
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+			try {
+				OutgoingPacket packet;
+				while ((packet = outgoingPacketQueue.poll()) != null)
+					scheduler.enqueue(packet);
+				scheduler.send();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (RuntimeException e) { // A bug must not silently take the whole socket down
+				e.printStackTrace();
 			}
+			if (outgoingPacketQueue.isEmpty())
+				LockSupport.parkNanos(this, MAX_PARK_TIME);
 		}
 		socket.close();
 	}
 
+	/**
+	 * Adds a packet to the {@link #outgoingPacketQueue} and wakes the thread up if it is parked
+	 *
+	 * @param packet The packet to send
+	 */
+	public void sendPacket(OutgoingPacket packet) {
+		outgoingPacketQueue.add(packet);
+		LockSupport.unpark(this);
+	}
+
+	/**
+	 * Sends a datagram assembled by the {@link #scheduler}'s batcher over the {@link #socket}
+	 */
+	public void send(ByteBuffer datagram, InetSocketAddress destination) throws IOException {
+		outbound.setData(datagram.array(), datagram.arrayOffset() + datagram.position(), datagram.remaining());
+		outbound.setSocketAddress(destination);
+		try {
+			socket.send(outbound);
+		} catch (IOException e) {
+			metrics.recordDiscard(NetworkMetrics.SEND_ERROR);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The {@link #scheduler} deciding the order and rate at which packets are sent
+	 */
+	public SendScheduler getScheduler() {
+		return scheduler;
+	}
+
 	/**
 	 * Causes the main loop in the {@link #run()} method to exit; as a result, the thread completes its execution
 	 */
 	public void terminate() {
 		running = false;
+		LockSupport.unpark(this);
 	}
 }
@@ -0,0 +1,449 @@
+package com.veltro.blazingbarrels.engine.connect.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Queue;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+
+/**
+ * Plays back a demo file written by a {@link DemoRecorder}, decoding the recorded packets back into {@link BBPacket}
+ * objects at the pace of the recording. The packets are added to a queue, to be handled exactly like those arriving
+ * from a network engine's incoming packet queue (typically with {@link PacketRegistry#handleAll(Queue)}), so a client
+ * plays a demo back through its normal packet handlers.<p>
+ *
+ * By default the packets the recording side received are played, which is what a client that recorded a match needs
+ * to show it again. The packets a server sent to one of its clients can be played instead (see
+ * {@link #setSource(int, InetAddress, int)}), showing the match from that client's point of view.<p>
+ *
+ * When the demo is opened, its records are scanned for keyframes. {@link #seek(long) Seeking} starts from the last
+ * keyframe before the target time: its packets are played first, restoring the receiver's state, and the records
+ * after it are then played as fast as the caller asks for them. A server takes a keyframe view for each of its
+ * clients, so seeking through a server demo needs the packets sent to one client to be chosen; without a keyframe
+ * that applies, seeking replays the demo from the start. Whatever state the receiver built before a seek must be
+ * discarded by the caller.<p>
+ *
+ * The file is mapped into memory for reading, one segment at a time. A player is not thread-safe.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class DemoPlayer {
+
+	/**
+	 * The file being played
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * The mapped segments of the file
+	 */
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * The size, in bytes, of each segment of the file
+	 */
+	private final int segmentSize;
+
+	/**
+	 * The wall clock time, in milliseconds since the epoch, at which the recording started
+	 */
+	private final long startTime;
+
+	/**
+	 * The registry with which the recorded packets are decoded
+	 */
+	private final PacketRegistry registry;
+
+	/**
+	 * The times at which the keyframes were taken, in nanoseconds since the start of the recording
+	 */
+	private long[] keyframeTimes = new long[16];
+
+	/**
+	 * The file offsets of the keyframe records
+	 */
+	private long[] keyframeOffsets = new long[16];
+
+	/**
+	 * The number of keyframes in the demo
+	 */
+	private int keyframeCount;
+
+	/**
+	 * The time of the last record, in nanoseconds since the start of the recording
+	 */
+	private long duration;
+
+	/**
+	 * The kind of the records played ({@link DemoRecorder#RECEIVED} or {@link DemoRecorder#SENT})
+	 */
+	private int sourceKind = DemoRecorder.RECEIVED;
+
+	/**
+	 * The peer whose records are played (null for every peer)
+	 */
+	private InetAddress sourceAddress;
+
+	/**
+	 * The port on the {@link #sourceAddress}
+	 */
+	private int sourcePort;
+
+	/**
+	 * The index of the segment holding the next record to play
+	 */
+	private int segmentIndex;
+
+	/**
+	 * The keyframe to play before the next record (-1 if none)
+	 */
+	private int pendingKeyframe = -1;
+
+	/**
+	 * Set once the last record has been played
+	 */
+	private boolean finished;
+
+	/**
+	 * The peer of the last record played, and the bytes of its address (so that equal addresses are not allocated again
+	 * for every record)
+	 */
+	private InetAddress lastAddress;
+
+	/**
+	 * The bytes of the {@link #lastAddress}
+	 */
+	private byte[] lastAddressBytes = new byte[0];
+
+	/**
+	 * A buffer for the bytes of the address of the record being played
+	 */
+	private final byte[][] addressBuffers = {new byte[0], new byte[4], new byte[16]};
+
+	/**
+	 * Constructor - maps the file, checks its header, and indexes its keyframes
+	 *
+	 * @param file The demo file
+	 * @param registry The {@link #registry} with which to decode the recorded packets
+	 * @throws IOException If the file could not be read, or is not a demo file
+	 */
+	public DemoPlayer(File file, PacketRegistry registry) throws IOException {
+		this.registry = registry;
+		this.file = new RandomAccessFile(file, "r");
+		FileChannel channel = this.file.getChannel();
+		long length = channel.size();
+		if (length < DemoRecorder.HEADER_SIZE) {
+			this.file.close();
+			throw new IOException(file + " is not a demo file");
+		}
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, DemoRecorder.HEADER_SIZE);
+		if (header.getInt() != DemoRecorder.MAGIC || header.getShort() != DemoRecorder.VERSION) {
+			this.file.close();
+			throw new IOException(file + " is not a demo file, or was recorded by another version");
+		}
+		header.getShort();
+		segmentSize = header.getInt();
+		startTime = header.getLong();
+		segments = new MappedByteBuffer[(int) ((length + segmentSize - 1) / segmentSize)];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, (long) i * segmentSize,
+					Math.min(segmentSize, length - (long) i * segmentSize));
+		index();
+		rewind();
+	}
+
+	/**
+	 * Chooses the records to play: the packets received by the recording side (the default), or the packets it sent
+	 * to one peer. Takes effect from the next record.
+	 *
+	 * @param kind {@link DemoRecorder#RECEIVED} or {@link DemoRecorder#SENT}
+	 * @param address The IP address of the peer whose records are played (null for every peer)
+	 * @param port The port on the above address
+	 */
+	public void setSource(int kind, InetAddress address, int port) {
+		if (kind != DemoRecorder.RECEIVED && kind != DemoRecorder.SENT)
+			throw new IllegalArgumentException("Only the packets sent or received can be played");
+		sourceKind = kind;
+		sourceAddress = address;
+		sourcePort = port;
+	}
+
+	/**
+	 * Moves playback to the last keyframe taken at or before the provided time that applies to the records played, or
+	 * to the start of the demo if there is none. A keyframe taken by a client applies to any records; one of the views
+	 * a server takes for each of its clients only applies to the packets sent to that client (see
+	 * {@link #setSource(int, InetAddress, int)}). The next call to {@link #advance(long, Queue)} plays the keyframe,
+	 * then the records from the point the keyframe was taken up to the time it is given.
+	 *
+	 * @param time The time to seek to, in nanoseconds since the start of the recording
+	 */
+	public void seek(long time) {
+		int keyframe = Arrays.binarySearch(keyframeTimes, 0, keyframeCount, time);
+		if (keyframe < 0)
+			keyframe = -keyframe - 2; // The keyframe before the insertion point
+		else
+			while (keyframe + 1 < keyframeCount && keyframeTimes[keyframe + 1] == time)
+				keyframe++;
+		while (keyframe >= 0 && !applies(keyframe))
+			keyframe--;
+		if (keyframe < 0) {
+			rewind();
+			return;
+		}
+		ByteBuffer record = moveTo(keyframeOffsets[keyframe]);
+		int addressLength = record.get(record.position() + 1) & 0xFF;
+		moveTo(record.getLong(record.position() + DemoRecorder.RECORD_HEADER_SIZE + addressLength));
+		pendingKeyframe = keyframe;
+		finished = false;
+	}
+
+	/**
+	 * Plays every record up to the provided time, decoding the chosen packets (see
+	 * {@link #setSource(int, InetAddress, int)}) into the queue. Records whose packets cannot be decoded with the
+	 * {@link #registry} are skipped.
+	 *
+	 * @param time The time up to which to play, in nanoseconds since the start of the recording
+	 * @param queue The queue to which to add the packets played
+	 * @return The number of packets added to the queue
+	 */
+	public int advance(long time, Queue<BBPacket> queue) {
+		int count = 0;
+		if (pendingKeyframe >= 0) {
+			ByteBuffer record = segments[(int) (keyframeOffsets[pendingKeyframe] / segmentSize)];
+			int start = (int) (keyframeOffsets[pendingKeyframe] % segmentSize);
+			int addressLength = record.get(start + 1) & 0xFF;
+			InetAddress address = readAddress(record, start + DemoRecorder.RECORD_HEADER_SIZE, addressLength);
+			int dataStart = start + DemoRecorder.RECORD_HEADER_SIZE + addressLength;
+			count += decodeAll(record, dataStart + 8, dataStart + record.getInt(start + 4), address,
+					record.getShort(start + 2) & 0xFFFF, queue);
+			pendingKeyframe = -1;
+		}
+		while (!finished) {
+			ByteBuffer segment = segments[segmentIndex];
+			if (segment.remaining() < DemoRecorder.RECORD_HEADER_SIZE ||
+					segment.get(segment.position()) == DemoRecorder.SEGMENT_END) {
+				if (segmentIndex + 1 == segments.length)
+					finished = true;
+				else
+					segments[++segmentIndex].position(0);
+				continue;
+			}
+			int start = segment.position();
+			int kind = segment.get(start);
+			if (kind == 0) { // The end of the recording
+				finished = true;
+				break;
+			}
+			if (segment.getLong(start + 8) > time)
+				break;
+			int addressLength = segment.get(start + 1) & 0xFF;
+			int port = segment.getShort(start + 2) & 0xFFFF;
+			int dataStart = start + DemoRecorder.RECORD_HEADER_SIZE + addressLength;
+			int dataEnd = dataStart + segment.getInt(start + 4);
+			if (dataEnd > segment.limit()) { // A record cut short by a crash
+				finished = true;
+				break;
+			}
+			if (kind == sourceKind) {
+				InetAddress address = readAddress(segment, start + DemoRecorder.RECORD_HEADER_SIZE, addressLength);
+				if (sourceAddress == null || (sourceAddress.equals(address) && sourcePort == port))
+					count += decodeAll(segment, dataStart, dataEnd, address, port, queue);
+			}
+			segment.position(dataEnd);
+		}
+		return count;
+	}
+
+	/**
+	 * Moves playback back to the start of the demo
+	 */
+	public void rewind() {
+		segmentIndex = 0;
+		segments[0].position(DemoRecorder.HEADER_SIZE);
+		pendingKeyframe = -1;
+		finished = false;
+	}
+
+	/**
+	 * Closes the file (its mapped segments are released once the player is garbage collected)
+	 */
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return Whether every record has been played
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * @return The time of the last record, in nanoseconds since the start of the recording
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return The wall clock time, in milliseconds since the epoch, at which the recording started
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return The number of keyframes in the demo
+	 */
+	public int getKeyframeCount() {
+		return keyframeCount;
+	}
+
+	/**
+	 * @param index The index of a keyframe (0 to {@link #getKeyframeCount()} - 1)
+	 * @return The time at which the keyframe was taken, in nanoseconds since the start of the recording
+	 */
+	public long getKeyframeTime(int index) {
+		return keyframeTimes[index];
+	}
+
+	/**
+	 * Scans every record header, noting the keyframes and the time of the last record
+	 */
+	private void index() {
+		rewind();
+		while (true) {
+			ByteBuffer segment = segments[segmentIndex];
+			int start = segment.position();
+			if (segment.remaining() < DemoRecorder.RECORD_HEADER_SIZE ||
+					segment.get(start) == DemoRecorder.SEGMENT_END) {
+				if (segmentIndex + 1 == segments.length)
+					return;
+				segments[++segmentIndex].position(0);
+				continue;
+			}
+			int kind = segment.get(start);
+			int end = start + DemoRecorder.RECORD_HEADER_SIZE + (segment.get(start + 1) & 0xFF) +
+					segment.getInt(start + 4);
+			if (kind == 0 || end > segment.limit()) // The end of the recording (or a record cut short by a crash)
+				return;
+			long time = segment.getLong(start + 8);
+			duration = Math.max(duration, time);
+			if (kind == DemoRecorder.KEYFRAME) {
+				if (keyframeCount == keyframeTimes.length) {
+					keyframeTimes = Arrays.copyOf(keyframeTimes, keyframeCount * 2);
+					keyframeOffsets = Arrays.copyOf(keyframeOffsets, keyframeCount * 2);
+				}
+				keyframeTimes[keyframeCount] = time;
+				keyframeOffsets[keyframeCount++] = (long) segmentIndex * segmentSize + start;
+			}
+			segment.position(end);
+		}
+	}
+
+	/**
+	 * Checks whether a keyframe applies to the records played: a keyframe without a peer applies to any, and one with
+	 * a peer only if the packets sent to that peer are played
+	 *
+	 * @param keyframe The index of the keyframe
+	 * @return Whether playing the keyframe restores the state the records played build on
+	 */
+	private boolean applies(int keyframe) {
+		ByteBuffer record = segments[(int) (keyframeOffsets[keyframe] / segmentSize)];
+		int start = (int) (keyframeOffsets[keyframe] % segmentSize);
+		int addressLength = record.get(start + 1) & 0xFF;
+		if (addressLength == 0)
+			return true;
+		if (sourceKind != DemoRecorder.SENT || sourceAddress == null)
+			return false;
+		return sourceAddress.equals(readAddress(record, start + DemoRecorder.RECORD_HEADER_SIZE, addressLength)) &&
+				sourcePort == (record.getShort(start + 2) & 0xFFFF);
+	}
+
+	/**
+	 * Moves playback to a file offset
+	 *
+	 * @param offset The file offset
+	 * @return The segment holding the offset, positioned at it
+	 */
+	private ByteBuffer moveTo(long offset) {
+		segmentIndex = (int) (offset / segmentSize);
+		if (segmentIndex == segments.length) { // Just past the end of the last segment
+			segmentIndex--;
+			segments[segmentIndex].position(segments[segmentIndex].limit());
+		} else
+			segments[segmentIndex].position((int) (offset % segmentSize));
+		return segments[segmentIndex];
+	}
+
+	/**
+	 * Decodes the packet frames in part of a segment into a queue
+	 *
+	 * @param segment The segment
+	 * @param start The index at which the frames start
+	 * @param end The index at which the frames end
+	 * @param address The IP address of the peer the packets were exchanged with (null if unknown)
+	 * @param port The port on the above address
+	 * @param queue The queue to which to add the decoded packets
+	 * @return The number of packets added to the queue
+	 */
+	private int decodeAll(ByteBuffer segment, int start, int end, InetAddress address, int port,
+			Queue<BBPacket> queue) {
+		int count = 0;
+		int position = segment.position(), limit = segment.limit();
+		segment.limit(end);
+		segment.position(start);
+		while (segment.hasRemaining()) {
+			BBPacket packet = PacketCodec.decode(segment, address, port, registry);
+			if (packet != null) {
+				queue.add(packet);
+				count++;
+			}
+		}
+		segment.limit(limit);
+		segment.position(position);
+		return count;
+	}
+
+	/**
+	 * Reads the address of a record's peer
+	 *
+	 * @param segment The segment holding the record
+	 * @param index The index at which the address starts
+	 * @param length The length of the address (0, 4 or 16)
+	 * @return The address (the same object as for the previous record if the address is the same), or null if the
+	 * record has none or its address is malformed
+	 */
+	private InetAddress readAddress(ByteBuffer segment, int index, int length) {
+		byte[] bytes = addressBuffers[length == 4 ? 1 : length == 16 ? 2 : 0];
+		if (bytes.length != length)
+			return null;
+		for (int i = 0; i < length; i++)
+			bytes[i] = segment.get(index + i);
+		if (length == 0)
+			return null;
+		if (!Arrays.equals(bytes, lastAddressBytes)) {
+			try {
+				lastAddress = InetAddress.getByAddress(bytes);
+				lastAddressBytes = bytes.clone();
+			} catch (UnknownHostException e) {
+				return null;
+			}
+		}
+		return lastAddress;
+	}
+}
@@ -0,0 +1,540 @@
+package com.veltro.blazingbarrels.engine.connect.demo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+
+/**
+ * Records the packets a network thread sends and receives into a demo file, to be watched later with a
+ * {@link DemoPlayer}. Once a recorder is {@link com.veltro.blazingbarrels.engine.connect.ConnectionTable#setRecorder(
+ * DemoRecorder) set} on a socket's connection table, the frame of every packet sent for the first time and of every
+ * packet received and decoded is appended to the file, stamped with the time and the peer.<p>
+ *
+ * The file is written through memory-mapped segments of {@link #segmentSize} bytes, so recording a packet is a copy
+ * into memory and never a system call. The next segment is mapped, and its pages touched, ahead of time by a
+ * background {@link SegmentMapper} thread, so the network thread never waits for the file to grow or for a page
+ * fault: if the next segment is not ready when the current one fills up (or the disk is full), records are dropped and
+ * {@link #getDroppedCount() counted} instead. The file therefore grows in whole segments, and zeros follow the last
+ * record.<p>
+ *
+ * So that playback can seek without replaying from the start, the receiving side periodically supplies a
+ * {@link #recordKeyframe(BBPacket[]) keyframe}: the packets that restore its state from scratch (for a client, its
+ * recent snapshots in full). A server, which keeps a separate state for each client, supplies one
+ * {@link #recordKeyframe(BBPacket[][], InetAddress[], int[]) view} per client instead, each written as a keyframe
+ * record addressed to the client. A keyframe is encoded on the calling thread and handed to the network thread, which
+ * writes it with its next record. It remembers where the file had got to when it was taken, so that playback resumes
+ * from there and misses none of the packets the network thread recorded in between.<p>
+ *
+ * Layout: a {@link #HEADER_SIZE}-byte file header (magic number, version, segment size, wall clock start time),
+ * followed by records. Each record is a {@link #RECORD_HEADER_SIZE}-byte header - kind (unsigned byte:
+ * {@link #SENT}, {@link #RECEIVED}, {@link #KEYFRAME} or {@link #SEGMENT_END}), length of the peer's address (unsigned
+ * byte: 4, 16, or 0 for none), peer's port (unsigned short), data length (int), nanoseconds since the start of the
+ * recording (long) - followed by the peer's address and the data: a packet frame, or for a keyframe the file offset at
+ * which playback resumes (long) followed by packet frames (a keyframe's peer is that of its view, if any). Records
+ * never span segments; a kind of 0 marks the end.<p>
+ *
+ * Records must be appended by a single thread (such as the event loop of a
+ * {@link com.veltro.blazingbarrels.engine.connect.NetworkEngine NetworkEngine}, which both sends and receives);
+ * keyframes may be supplied from any thread.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class DemoRecorder {
+
+	/**
+	 * The number identifying a demo file ("BBDM")
+	 */
+	public static final int MAGIC = 0x4242444D;
+
+	/**
+	 * The version of the file layout
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The size, in bytes, of the file header
+	 */
+	public static final int HEADER_SIZE = 32;
+
+	/**
+	 * The size, in bytes, of a record header
+	 */
+	public static final int RECORD_HEADER_SIZE = 16;
+
+	/**
+	 * Record kind: a packet sent
+	 */
+	public static final int SENT = 1;
+
+	/**
+	 * Record kind: a packet received
+	 */
+	public static final int RECEIVED = 2;
+
+	/**
+	 * Record kind: a keyframe
+	 */
+	public static final int KEYFRAME = 3;
+
+	/**
+	 * Record kind: no more records in this segment (the next one starts at the next segment)
+	 */
+	public static final int SEGMENT_END = 4;
+
+	/**
+	 * The default {@link #segmentSize}
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * The default {@link #keyframeInterval}
+	 */
+	public static final long DEFAULT_KEYFRAME_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * The size, in bytes, of a memory page (the interval at which the {@link SegmentMapper} touches a new segment)
+	 */
+	private static final int PAGE_SIZE = 4096;
+
+	/**
+	 * The file being recorded into
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * The channel through which the file's segments are mapped
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The size, in bytes, of each mapped segment of the file
+	 */
+	private final int segmentSize;
+
+	/**
+	 * The time, in nanoseconds, between the keyframes the receiving side is asked for (see
+	 * {@link #isKeyframeDue(long)})
+	 */
+	private final long keyframeInterval;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the recording started
+	 */
+	private final long startTime;
+
+	/**
+	 * Maps the segments of the file ahead of the network thread
+	 */
+	private final SegmentMapper mapper;
+
+	/**
+	 * The segment being written (owned by the network thread)
+	 */
+	private MappedByteBuffer segment;
+
+	/**
+	 * The index of the {@link #segment} in the file
+	 */
+	private int segmentIndex;
+
+	/**
+	 * The segment following the current one, once the {@link #mapper} has mapped it
+	 */
+	private final AtomicReference<MappedByteBuffer> nextSegment = new AtomicReference<MappedByteBuffer>();
+
+	/**
+	 * The complete records of the latest keyframe supplied, until the network thread writes them
+	 */
+	private final AtomicReference<PendingKeyframe> pendingKeyframe = new AtomicReference<PendingKeyframe>();
+
+	/**
+	 * The file offset just past the last record written
+	 */
+	private final AtomicLong writeOffset = new AtomicLong(HEADER_SIZE);
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the last keyframe was supplied
+	 */
+	private volatile long lastKeyframeTime;
+
+	/**
+	 * The number of records written, and the number dropped for want of space (written by the network thread only)
+	 */
+	private volatile long recordCount, droppedCount;
+
+	/**
+	 * Set once the recorder is closed
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * The address of the peer of the last record, and its bytes (so that they are not fetched again for every record)
+	 */
+	private InetAddress lastAddress;
+
+	/**
+	 * The bytes of the {@link #lastAddress}
+	 */
+	private byte[] lastAddressBytes = new byte[0];
+
+	/**
+	 * Simplified constructor - calls the {@link #DemoRecorder(File, int, long) complete constructor} passing the
+	 * {@link #DEFAULT_SEGMENT_SIZE} and the {@link #DEFAULT_KEYFRAME_INTERVAL}
+	 *
+	 * @param file The file to record into (replaced if it exists)
+	 * @throws IOException If the file could not be created or mapped
+	 */
+	public DemoRecorder(File file) throws IOException {
+		this(file, DEFAULT_SEGMENT_SIZE, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Complete constructor - creates the file, writes its header, and starts mapping the next segment
+	 *
+	 * @param file The file to record into (replaced if it exists)
+	 * @param segmentSize The {@link #segmentSize}, in bytes (at least 64 KB, and a multiple of 4 KB)
+	 * @param keyframeInterval The {@link #keyframeInterval}, in nanoseconds
+	 * @throws IOException If the file could not be created or mapped
+	 */
+	public DemoRecorder(File file, int segmentSize, long keyframeInterval) throws IOException {
+		if (segmentSize < 64 * 1024 || segmentSize % PAGE_SIZE != 0)
+			throw new IllegalArgumentException("The segment size must be a multiple of 4 KB, and at least 64 KB");
+		this.segmentSize = segmentSize;
+		this.keyframeInterval = keyframeInterval;
+		this.file = new RandomAccessFile(file, "rw");
+		this.file.setLength(0);
+		channel = this.file.getChannel();
+		mapper = new SegmentMapper();
+		segment = mapper.map(0);
+		startTime = System.nanoTime();
+		lastKeyframeTime = startTime;
+		segment.putInt(MAGIC);
+		segment.putShort((short) VERSION);
+		segment.putShort((short) 0);
+		segment.putInt(segmentSize);
+		segment.putLong(System.currentTimeMillis());
+		segment.position(HEADER_SIZE);
+		mapper.start();
+	}
+
+	/**
+	 * Records a packet sent (called by the network thread)
+	 *
+	 * @param frame The buffer holding the packet's frame
+	 * @param start The index at which the frame starts
+	 * @param end The index at which the frame ends
+	 * @param address The IP address of the packet's destination
+	 * @param port The port on the above address
+	 */
+	public void recordSent(ByteBuffer frame, int start, int end, InetAddress address, int port) {
+		record(SENT, frame, start, end, address, port);
+	}
+
+	/**
+	 * Records a packet received (called by the network thread)
+	 *
+	 * @param frame The buffer holding the packet's frame
+	 * @param start The index at which the frame starts
+	 * @param end The index at which the frame ends
+	 * @param address The IP address from which the packet was received
+	 * @param port The port on the above address
+	 */
+	public void recordReceived(ByteBuffer frame, int start, int end, InetAddress address, int port) {
+		record(RECEIVED, frame, start, end, address, port);
+	}
+
+	/**
+	 * @param now The current time, as given by System.nanoTime()
+	 * @return Whether the {@link #keyframeInterval} has passed since the last keyframe was supplied
+	 */
+	public boolean isKeyframeDue(long now) {
+		return now - lastKeyframeTime >= keyframeInterval;
+	}
+
+	/**
+	 * Supplies a keyframe, to be written by the network thread with its next record (replacing any keyframe still
+	 * waiting to be written). The packets are encoded right away, so they may be modified once this returns. May be
+	 * called from any thread.
+	 *
+	 * @param packets The packets that, handled in order by a receiver starting from scratch, restore the state of
+	 * the receiving side
+	 * @throws BufferOverflowException If the keyframe does not fit in a segment
+	 */
+	public void recordKeyframe(BBPacket[] packets) {
+		recordKeyframe(new BBPacket[][] {packets}, new InetAddress[1], new int[1]);
+	}
+
+	/**
+	 * Supplies a keyframe made of one view per peer, for a recording side that keeps a separate state for each of its
+	 * peers (a server, whose clients are each sent their own snapshots). Each view is written as a keyframe record of
+	 * its own, addressed to its peer, and all of them share the time and the point at which playback resumes; a
+	 * {@link DemoPlayer} playing the packets sent to one peer seeks to that peer's view. Otherwise as
+	 * {@link #recordKeyframe(BBPacket[])}.
+	 *
+	 * @param views The packets of each view, which restore the state of the receiving side as seen by its peer
+	 * @param addresses The IP address of the peer of each view (null for a view that is not tied to a peer)
+	 * @param ports The port on the address of each view
+	 * @throws BufferOverflowException If the keyframe does not fit in a segment
+	 */
+	public void recordKeyframe(BBPacket[][] views, InetAddress[] addresses, int[] ports) {
+		long now = System.nanoTime();
+		long resumeOffset = writeOffset.get();
+		ByteBuffer buffer = ByteBuffer.allocate(views.length * (RECORD_HEADER_SIZE + 24) + 1024);
+		while (true) {
+			try {
+				buffer.clear();
+				for (int i = 0; i < views.length; i++) {
+					int start = buffer.position();
+					byte[] address = addresses[i] == null ? new byte[0] : addresses[i].getAddress();
+					buffer.put((byte) KEYFRAME);
+					buffer.put((byte) address.length);
+					buffer.putShort((short) ports[i]);
+					buffer.putInt(0); // The data length, filled in below
+					buffer.putLong(now - startTime);
+					buffer.put(address);
+					buffer.putLong(resumeOffset);
+					for (BBPacket packet : views[i])
+						PacketCodec.encode(packet, buffer);
+					buffer.putInt(start + 4, buffer.position() - start - RECORD_HEADER_SIZE - address.length);
+				}
+				break;
+			} catch (BufferOverflowException e) {
+				if (buffer.capacity() >= segmentSize - HEADER_SIZE)
+					throw e;
+				buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, segmentSize - HEADER_SIZE));
+			}
+		}
+		byte[] records = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, records, 0, records.length);
+		pendingKeyframe.set(new PendingKeyframe(records, views.length));
+		lastKeyframeTime = now;
+	}
+
+	/**
+	 * Stops recording, flushes the mapped segments to the file, and closes it. Records appended afterwards are
+	 * ignored.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(mapper);
+		try {
+			mapper.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		mapper.force();
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return The number of records written (keyframes included)
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * @return The number of records dropped because the next segment was not ready, or the file could not grow
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * @return The number of bytes recorded so far (the file offset just past the last record)
+	 */
+	public long getBytesWritten() {
+		return writeOffset.get();
+	}
+
+	/**
+	 * @return The {@link #keyframeInterval}, in nanoseconds
+	 */
+	public long getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * Appends a record of a packet, preceded by the pending keyframe if there is one
+	 *
+	 * @param kind The record kind ({@link #SENT} or {@link #RECEIVED})
+	 * @param frame The buffer holding the packet's frame (its position and limit are left unchanged)
+	 * @param start The index at which the frame starts
+	 * @param end The index at which the frame ends
+	 * @param address The IP address of the peer
+	 * @param port The port on the above address
+	 */
+	private void record(int kind, ByteBuffer frame, int start, int end, InetAddress address, int port) {
+		if (closed)
+			return;
+		if (pendingKeyframe.get() != null) {
+			PendingKeyframe keyframe = pendingKeyframe.getAndSet(null);
+			if (keyframe != null && reserve(keyframe.records.length)) {
+				segment.put(keyframe.records);
+				published(keyframe.count);
+			}
+		}
+		if (!address.equals(lastAddress)) {
+			lastAddress = address;
+			lastAddressBytes = address.getAddress();
+		}
+		if (!reserve(RECORD_HEADER_SIZE + lastAddressBytes.length + end - start))
+			return;
+		segment.put((byte) kind);
+		segment.put((byte) lastAddressBytes.length);
+		segment.putShort((short) port);
+		segment.putInt(end - start);
+		segment.putLong(System.nanoTime() - startTime);
+		segment.put(lastAddressBytes);
+		int position = frame.position(), limit = frame.limit();
+		frame.limit(end);
+		frame.position(start);
+		segment.put(frame);
+		frame.limit(limit);
+		frame.position(position);
+		published(1);
+	}
+
+	/**
+	 * Makes room in the current segment for a record, moving on to the next segment if it does not fit
+	 *
+	 * @param size The size of the record, in bytes
+	 * @return Whether the record fits (if not, it has been counted as dropped)
+	 */
+	private boolean reserve(int size) {
+		if (segment.remaining() >= size)
+			return true;
+		MappedByteBuffer next = size <= segmentSize ? nextSegment.getAndSet(null) : null;
+		if (next == null) { // Not mapped yet (or never will be): drop the record rather than wait
+			droppedCount++;
+			return false;
+		}
+		if (segment.hasRemaining())
+			segment.put((byte) SEGMENT_END);
+		segment = next;
+		segmentIndex++;
+		LockSupport.unpark(mapper);
+		return true;
+	}
+
+	/**
+	 * Counts the records just written and publishes the file offset past them
+	 *
+	 * @param count The number of records written
+	 */
+	private void published(int count) {
+		recordCount += count;
+		writeOffset.lazySet((long) segmentIndex * segmentSize + segment.position());
+	}
+
+	/**
+	 * The records of a keyframe waiting to be written, written one after another in the same segment
+	 */
+	private static class PendingKeyframe {
+
+		/**
+		 * The complete records, headers included
+		 */
+		final byte[] records;
+
+		/**
+		 * The number of records (one per view)
+		 */
+		final int count;
+
+		/**
+		 * Constructor
+		 *
+		 * @param records The complete {@link #records}
+		 * @param count The number of records
+		 */
+		PendingKeyframe(byte[] records, int count) {
+			this.records = records;
+			this.count = count;
+		}
+	}
+
+	/**
+	 * The background thread that maps the segment following the current one as soon as the network thread has moved
+	 * on to the current one, and touches each of its pages so that writing it causes no page faults
+	 */
+	private class SegmentMapper extends Thread {
+
+		/**
+		 * Every segment mapped, to be flushed when the recorder is closed (accessed by the mapper thread, and by the
+		 * closing thread once the mapper has stopped)
+		 */
+		private final ArrayList<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+		/**
+		 * Constructor - names the thread and makes it a daemon, so that it does not keep the VM alive
+		 */
+		SegmentMapper() {
+			super("BB Demo Segment Mapper");
+			setDaemon(true);
+		}
+
+		/**
+		 * Maps the next segment whenever the network thread has taken the previous one, until the recorder is closed
+		 * or a segment cannot be mapped
+		 */
+		public void run() {
+			while (!closed) {
+				if (nextSegment.get() == null) {
+					try {
+						MappedByteBuffer next = map(segments.size());
+						for (int i = 0; i < segmentSize; i += PAGE_SIZE)
+							next.put(i, (byte) 0);
+						nextSegment.set(next);
+					} catch (IOException e) { // Eg. the disk is full - recording stops, and records are dropped
+						e.printStackTrace();
+						return;
+					}
+				}
+				LockSupport.park(this);
+			}
+		}
+
+		/**
+		 * Maps a segment of the file, growing the file to hold it
+		 *
+		 * @param index The index of the segment
+		 * @return The mapped segment
+		 * @throws IOException If the segment could not be mapped
+		 */
+		MappedByteBuffer map(int index) throws IOException {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, (long) index * segmentSize,
+					segmentSize);
+			segments.add(mapped);
+			return mapped;
+		}
+
+		/**
+		 * Flushes every mapped segment to the file
+		 */
+		void force() {
+			for (MappedByteBuffer mapped : segments)
+				mapped.force();
+		}
+	}
+}
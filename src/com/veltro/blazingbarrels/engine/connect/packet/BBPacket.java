@@ -2,14 +2,15 @@ package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
- * The superclass for specifying custom UDP packets
+ * The superclass for specifying custom UDP packets. Every packet can be sent, so it is an {@link OutgoingPacket}.
  * 
  * @author LinearLogic
  * @since 0.0.2
  */
-public abstract class BBPacket implements Comparable<BBPacket> {
+public abstract class BBPacket implements Comparable<BBPacket>, OutgoingPacket {
 
 	/**
 	 * The integer ID corresponding to the type of packet. As well as serving to identify an incoming packet, the ID
@@ -17,11 +18,6 @@ public abstract class BBPacket implements Comparable<BBPacket> {
 	 */
 	protected int ID;
 
-	/**
-	 * The String of data to be broken down into bytes and inserted into a DatagramPacket for transmission
-	 */
-	protected String data;
-
 	/**
 	 * The IP address of the packet's destination
 	 */
@@ -32,31 +28,53 @@ public abstract class BBPacket implements Comparable<BBPacket> {
 	 */
 	protected int port;
 
+	/**
+	 * Whether the packet belongs to the {@link PacketPool} (set for packets constructed by the pool to be decoded into)
+	 */
+	boolean pooled;
+
 	/**
 	 * Constructor - called by the BBPacket subclasses during their construction
 	 * 
 	 * @param packetID The packet's {@link #ID}
-	 * @param data The packet's {@link #data}
 	 * @param address The IP address of the packet's destination
 	 * @param port The port of the packet's destination
 	 */
-	public BBPacket(int packetID, String data, InetAddress address, int port) {
+	public BBPacket(int packetID, InetAddress address, int port) {
 		this.ID = packetID;
-		this.data = data;
 		this.address = address;
 		this.port = port;
 	}
 
 	/**
-	 * Constructs a DatagramPacket based on the BBPacket's attributes.
+	 * Constructs a DatagramPacket based on the BBPacket's attributes. This allocates a new buffer for every call, so
+	 * the network threads encode into their own reusable buffers with
+	 * {@link PacketCodec#encode(OutgoingPacket, ByteBuffer)} instead.
 	 * 
 	 * @return The resulting DatagramPacket
 	 */
 	public DatagramPacket generatePacket() {
-		byte[] buffer = new String(ID + " " + data).getBytes();
-		return new DatagramPacket(buffer, buffer.length, address, port);
+		ByteBuffer buffer = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+		PacketCodec.encode(this, buffer);
+		return new DatagramPacket(buffer.array(), buffer.position(), address, port);
 	}
 
+	/**
+	 * Writes the packet's fields (everything but the {@link #ID}, which is written by the {@link PacketCodec}) into
+	 * the provided buffer, using the fixed binary layout of the packet type.
+	 * 
+	 * @param buffer The buffer to write into, positioned just after the packet's ID
+	 */
+	protected abstract void write(ByteBuffer buffer);
+
+	/**
+	 * Reads the packet's fields from the provided buffer, which must contain data written by {@link #write(ByteBuffer)}
+	 * 
+	 * @param buffer The buffer to read from, positioned just after the packet's ID
+	 * @throws java.nio.BufferUnderflowException If the buffer ends before all of the packet's fields have been read
+	 */
+	protected abstract void read(ByteBuffer buffer);
+
 	/**
 	 * This method, implemented in {@link BBPacket} subclasses, updates the server based on the data in the packet.
 	 * Only packets received by the server are handled.
@@ -73,21 +91,22 @@ public abstract class BBPacket implements Comparable<BBPacket> {
 	 * integer if the other packet has the higher priority, and zero if the packets share the same priority level.
 	 */
 	public int compareTo(BBPacket anotherPacket) {
-		return (ID / 10) - (anotherPacket.ID / 10);
+		return getPriority() - anotherPacket.getPriority();
 	}
 
 	/**
-	 * @return The packet's {@link #ID}
+	 * @return The packet's priority class (the tens digit of its {@link #ID}) - the lower the value, the higher the
+	 * priority
 	 */
-	public int getID() {
-		return ID;
+	public int getPriority() {
+		return ID / 10;
 	}
 
 	/**
-	 * @return The packet's {@link #data}
+	 * @return The packet's {@link #ID}
 	 */
-	public String getData() {
-		return data;
+	public int getID() {
+		return ID;
 	}
 
 	/**
@@ -0,0 +1,190 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.net.InetAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A packet whose payload has already been encoded, for sending the same packet to many destinations. The payload of
+ * the original packet is {@link #encode(BBPacket) encoded} once into a shared array, and each destination is sent a
+ * copy {@link #addressedTo(InetAddress, int) addressed} to it, which carries nothing but the shared payload and its
+ * address. Encoding a copy is a single array copy, however many fields the original packet has.<p>
+ *
+ * An encoded packet is not a {@link BBPacket}: it is only ever sent (the receiver decodes the original packet type),
+ * so it has nothing to read or handle. It is an {@link OutgoingPacket}, and is sent exactly like the original packet
+ * would be: it has the same ID, so it takes the same lane in the
+ * {@link com.veltro.blazingbarrels.engine.connect.SendScheduler SendScheduler} and is just as reliable. Everything
+ * specific to the destination (its connection's datagram sequence and acknowledgments, and the message sequence of a
+ * reliable packet) is written by the {@link com.veltro.blazingbarrels.engine.connect.DatagramBatcher DatagramBatcher}
+ * into the headers in front of the payload. One exception: copies of a {@link Packet30PlayerUpdate} are not merged
+ * with other updates waiting in the scheduler.<p>
+ *
+ * The shared payload is never modified once encoded, so the copies may be sent from any thread. The payload of a
+ * {@link PacketCodec#isCompressible(int) compressible} packet is also compressed only once: the first copy sent to a
+ * destination that accepts compression has its compressed frame {@link PacketCompressor#compress(ByteBuffer, int,
+ * EncodedPacket) cached} alongside the payload, and the other copies reuse it.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class EncodedPacket implements OutgoingPacket {
+
+	/**
+	 * The size, in bytes, of the buffer a payload is first encoded into (doubled until the payload fits)
+	 */
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	/**
+	 * The ID of the original packet
+	 */
+	private final int id;
+
+	/**
+	 * The encoded fields of the original packet, shared by every copy
+	 */
+	private final Payload payload;
+
+	/**
+	 * The IP address of the copy's destination
+	 */
+	private final InetAddress address;
+
+	/**
+	 * The port on the above address
+	 */
+	private final int port;
+
+	/**
+	 * Constructor - used by {@link #encode(BBPacket)} and {@link #addressedTo(InetAddress, int)}
+	 *
+	 * @param id The ID of the original packet
+	 * @param payload The shared {@link #payload}
+	 * @param address The IP address of the packet's destination
+	 * @param port The port on the above address
+	 */
+	private EncodedPacket(int id, Payload payload, InetAddress address, int port) {
+		this.id = id;
+		this.payload = payload;
+		this.address = address;
+		this.port = port;
+	}
+
+	/**
+	 * Encodes the payload of a packet, to be sent to many destinations
+	 *
+	 * @param packet The packet to encode (which may be discarded afterwards)
+	 * @return The encoded packet, addressed to the original packet's destination
+	 * @throws BufferOverflowException If the packet is larger than {@link PacketCodec#MAX_PACKET_SIZE}
+	 */
+	public static EncodedPacket encode(BBPacket packet) {
+		ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		while (true) {
+			try {
+				packet.write(buffer);
+				break;
+			} catch (BufferOverflowException e) {
+				if (buffer.capacity() >= PacketCodec.MAX_PACKET_SIZE)
+					throw e;
+				buffer = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, PacketCodec.MAX_PACKET_SIZE));
+			}
+		}
+		byte[] bytes = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+		return new EncodedPacket(packet.getID(), new Payload(bytes), packet.getAddress(), packet.getPort());
+	}
+
+	/**
+	 * @param address The IP address of a destination
+	 * @param port The port on the above address
+	 * @return A copy of this packet, sharing its payload, addressed to the destination
+	 */
+	public EncodedPacket addressedTo(InetAddress address, int port) {
+		return new EncodedPacket(id, payload, address, port);
+	}
+
+	/**
+	 * Writes the shared payload into a buffer (used by the {@link PacketCodec}). Layout: that of the original packet.
+	 *
+	 * @param buffer The buffer to write into, positioned just after the packet's frame header
+	 */
+	void writePayload(ByteBuffer buffer) {
+		buffer.put(payload.bytes);
+	}
+
+	/**
+	 * @return The shared {@link #payload}, on which the compressed frame is cached (used by the
+	 * {@link PacketCompressor})
+	 */
+	Payload getSharedPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return The ID of the original packet
+	 */
+	public int getID() {
+		return id;
+	}
+
+	/**
+	 * @return The priority class of the original packet
+	 */
+	public int getPriority() {
+		return id / 10;
+	}
+
+	/**
+	 * @return The copy's {@link #address}
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return The copy's {@link #port}
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return A read-only view of the shared {@link #payload}
+	 */
+	public ByteBuffer getPayload() {
+		return ByteBuffer.wrap(payload.bytes).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return The size, in bytes, of the shared {@link #payload}
+	 */
+	public int getPayloadSize() {
+		return payload.bytes.length;
+	}
+
+	/**
+	 * The payload shared by the copies of an encoded packet, and the outcome of compressing it
+	 */
+	static class Payload {
+
+		/**
+		 * The encoded fields of the original packet
+		 */
+		final byte[] bytes;
+
+		/**
+		 * The compressed frame of the packet, or an empty array if compressing it does not save a byte (null until
+		 * the first copy has been compressed). Compression is deterministic, so if two threads race to set it, both
+		 * set the same frame.
+		 */
+		volatile byte[] compressedFrame;
+
+		/**
+		 * Constructor
+		 *
+		 * @param bytes The encoded fields of the original packet
+		 */
+		Payload(byte[] bytes) {
+			this.bytes = bytes;
+		}
+	}
+}
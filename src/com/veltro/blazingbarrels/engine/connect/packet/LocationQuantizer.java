@@ -0,0 +1,290 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.nio.ByteBuffer;
+
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * Encodes {@link Location3D locations} as fixed-point integers packed into as few bits as the configured world bounds
+ * and precision allow. Each coordinate is offset into the range [0, 2 * bound] and divided into steps of the configured
+ * precision, and each angle is divided into 2^angleBits steps of a full turn. The three coordinates are packed into
+ * one group of whole bytes, and the three angles into another.<p>
+ *
+ * With the default settings (a world radius of 4096 pixels, a height of 1024 pixels above and below the origin, a
+ * precision of 1/32 of a pixel and 12-bit angles) a location takes 12 bytes rather than the 24 needed for six floats.
+ * Coordinates outside the world bounds are clamped to the nearest bound.<p>
+ *
+ * The client and the server must use identically configured quantizers (see
+ * {@link PacketCodec#setLocationQuantizer(LocationQuantizer)}).
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class LocationQuantizer {
+
+	/**
+	 * The default {@link #worldRadius}
+	 */
+	public static final float DEFAULT_WORLD_RADIUS = 4096;
+
+	/**
+	 * The default {@link #worldHeight}
+	 */
+	public static final float DEFAULT_WORLD_HEIGHT = 1024;
+
+	/**
+	 * The default {@link #precision}
+	 */
+	public static final float DEFAULT_PRECISION = 1 / 32f;
+
+	/**
+	 * The default {@link #angleBits}
+	 */
+	public static final int DEFAULT_ANGLE_BITS = 12;
+
+	/**
+	 * The smallest allowed {@link #angleBits} (a resolution of about a third of a degree)
+	 */
+	public static final int MIN_ANGLE_BITS = 10;
+
+	/**
+	 * The largest allowed {@link #angleBits}
+	 */
+	public static final int MAX_ANGLE_BITS = 16;
+
+	/**
+	 * The largest absolute value, in pixels, of the x- and z-coordinates that can be encoded
+	 */
+	private final float worldRadius;
+
+	/**
+	 * The largest absolute value, in pixels, of the y-coordinate that can be encoded
+	 */
+	private final float worldHeight;
+
+	/**
+	 * The size, in pixels, of a coordinate step - the largest error introduced by encoding a coordinate is half this
+	 */
+	private final float precision;
+
+	/**
+	 * The number of bits per angle
+	 */
+	private final int angleBits;
+
+	/**
+	 * The number of bits per x- and z-coordinate
+	 */
+	private final int horizontalBits;
+
+	/**
+	 * The number of bits per y-coordinate
+	 */
+	private final int verticalBits;
+
+	/**
+	 * The number of bytes holding the three coordinates
+	 */
+	private final int positionSize;
+
+	/**
+	 * The number of bytes holding the three angles
+	 */
+	private final int rotationSize;
+
+	/**
+	 * Simplified constructor - calls the {@link #LocationQuantizer(float, float, float, int) complete constructor}
+	 * passing the default settings
+	 */
+	public LocationQuantizer() {
+		this(DEFAULT_WORLD_RADIUS, DEFAULT_WORLD_HEIGHT, DEFAULT_PRECISION, DEFAULT_ANGLE_BITS);
+	}
+
+	/**
+	 * Complete constructor - works out the number of bits needed for each value
+	 *
+	 * @param worldRadius The {@link #worldRadius}
+	 * @param worldHeight The {@link #worldHeight}
+	 * @param precision The {@link #precision}
+	 * @param angleBits The {@link #angleBits}, between {@link #MIN_ANGLE_BITS} and {@link #MAX_ANGLE_BITS}
+	 * @throws IllegalArgumentException If the bounds and precision need more than 64 bits for the three coordinates,
+	 * or the number of angle bits is out of range
+	 */
+	public LocationQuantizer(float worldRadius, float worldHeight, float precision, int angleBits) {
+		if (worldRadius <= 0 || worldHeight <= 0 || precision <= 0)
+			throw new IllegalArgumentException("The world bounds and the precision must be positive");
+		if (angleBits < MIN_ANGLE_BITS || angleBits > MAX_ANGLE_BITS)
+			throw new IllegalArgumentException("Angles must be encoded in " + MIN_ANGLE_BITS + " to " +
+					MAX_ANGLE_BITS + " bits");
+		this.worldRadius = worldRadius;
+		this.worldHeight = worldHeight;
+		this.precision = precision;
+		this.angleBits = angleBits;
+		horizontalBits = bitsFor(2 * worldRadius / precision);
+		verticalBits = bitsFor(2 * worldHeight / precision);
+		if (2 * horizontalBits + verticalBits > 64)
+			throw new IllegalArgumentException("The world bounds are too large for the precision");
+		positionSize = (2 * horizontalBits + verticalBits + 7) / 8;
+		rotationSize = (3 * angleBits + 7) / 8;
+	}
+
+	/**
+	 * Writes the position and rotation of a location
+	 *
+	 * @param buffer The buffer to write into
+	 * @param location The location to encode
+	 */
+	public void write(ByteBuffer buffer, Location3D location) {
+		long position = quantize(location.getX(), worldRadius, horizontalBits);
+		position = position << verticalBits | quantize(location.getY(), worldHeight, verticalBits);
+		position = position << horizontalBits | quantize(location.getZ(), worldRadius, horizontalBits);
+		putBytes(buffer, position, positionSize);
+
+		long rotation = quantizeAngle(location.getYaw());
+		rotation = rotation << angleBits | quantizeAngle(location.getPitch());
+		rotation = rotation << angleBits | quantizeAngle(location.getRoll());
+		putBytes(buffer, rotation, rotationSize);
+	}
+
+	/**
+	 * Reads a location written by {@link #write(ByteBuffer, Location3D)} into an existing location object, if one is
+	 * provided. Angles are read into the domain [0, 360).
+	 *
+	 * @param buffer The buffer to read from
+	 * @param location The location to overwrite (null to construct a new one)
+	 * @return The location that was read (the provided one, unless it was null)
+	 */
+	public Location3D read(ByteBuffer buffer, Location3D location) {
+		if (location == null)
+			location = new Location3D();
+		long position = getBytes(buffer, positionSize);
+		location.setZ(dequantize(position, worldRadius, horizontalBits));
+		position >>>= horizontalBits;
+		location.setY(dequantize(position, worldHeight, verticalBits));
+		position >>>= verticalBits;
+		location.setX(dequantize(position, worldRadius, horizontalBits));
+
+		long rotation = getBytes(buffer, rotationSize);
+		float roll = dequantizeAngle(rotation);
+		rotation >>>= angleBits;
+		float pitch = dequantizeAngle(rotation);
+		rotation >>>= angleBits;
+		location.setRotation(dequantizeAngle(rotation), pitch, roll);
+		return location;
+	}
+
+	/**
+	 * @return The number of bytes taken by an encoded location
+	 */
+	public int getEncodedSize() {
+		return positionSize + rotationSize;
+	}
+
+	/**
+	 * @return The {@link #worldRadius}
+	 */
+	public float getWorldRadius() {
+		return worldRadius;
+	}
+
+	/**
+	 * @return The {@link #worldHeight}
+	 */
+	public float getWorldHeight() {
+		return worldHeight;
+	}
+
+	/**
+	 * @return The {@link #precision}
+	 */
+	public float getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return The {@link #angleBits}
+	 */
+	public int getAngleBits() {
+		return angleBits;
+	}
+
+	/**
+	 * Converts a coordinate to a number of steps from the lower bound, clamping it to the bounds
+	 *
+	 * @param value The coordinate
+	 * @param bound The largest absolute value of the coordinate
+	 * @param bits The number of bits the result must fit in
+	 * @return The quantized coordinate
+	 */
+	private long quantize(float value, float bound, int bits) {
+		long max = (1L << bits) - 1;
+		long steps = Math.round(((double) value + bound) / precision);
+		return steps < 0 ? 0 : steps > max ? max : steps;
+	}
+
+	/**
+	 * Converts the low bits of a quantized coordinate back into a coordinate
+	 *
+	 * @param value The packed value, with the quantized coordinate in its lowest bits
+	 * @param bound The largest absolute value of the coordinate
+	 * @param bits The number of bits of the quantized coordinate
+	 * @return The coordinate
+	 */
+	private float dequantize(long value, float bound, int bits) {
+		return (value & ((1L << bits) - 1)) * precision - bound;
+	}
+
+	/**
+	 * Converts an angle, in degrees, to a fraction of a full turn, wrapping angles outside the domain [0, 360)
+	 *
+	 * @param angle The angle, in degrees
+	 * @return The quantized angle
+	 */
+	private long quantizeAngle(float angle) {
+		return Math.round(angle * (1 << angleBits) / 360.0) & ((1 << angleBits) - 1);
+	}
+
+	/**
+	 * Converts the low bits of a quantized angle back into degrees
+	 *
+	 * @param value The packed value, with the quantized angle in its lowest bits
+	 * @return The angle, in degrees, on the domain [0, 360)
+	 */
+	private float dequantizeAngle(long value) {
+		return (value & ((1 << angleBits) - 1)) * 360f / (1 << angleBits);
+	}
+
+	/**
+	 * @param steps The largest value to represent
+	 * @return The number of bits needed to represent every whole number from 0 to the provided value
+	 */
+	private static int bitsFor(float steps) {
+		return 64 - Long.numberOfLeadingZeros((long) Math.ceil(steps));
+	}
+
+	/**
+	 * Writes the low bytes of a value, most significant first
+	 *
+	 * @param buffer The buffer to write into
+	 * @param value The value to write
+	 * @param size The number of bytes to write
+	 */
+	private static void putBytes(ByteBuffer buffer, long value, int size) {
+		for (int shift = (size - 1) * 8; shift >= 0; shift -= 8)
+			buffer.put((byte) (value >>> shift));
+	}
+
+	/**
+	 * Reads a value written by {@link #putBytes(ByteBuffer, long, int)}
+	 *
+	 * @param buffer The buffer to read from
+	 * @param size The number of bytes to read
+	 * @return The value
+	 */
+	private static long getBytes(ByteBuffer buffer, int size) {
+		long value = 0;
+		for (int i = 0; i < size; i++)
+			value = value << 8 | (buffer.get() & 0xFF);
+		return value;
+	}
+}
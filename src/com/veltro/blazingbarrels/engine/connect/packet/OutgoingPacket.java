@@ -0,0 +1,36 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.net.InetAddress;
+
+/**
+ * Something the network engine can queue for sending and encode with the {@link PacketCodec}: either a
+ * {@link BBPacket}, whose fields are written out when it is sent, or an {@link EncodedPacket}, a copy of a packet
+ * whose payload was encoded once for many destinations. The send path (the scheduler, the batcher and the reliability
+ * layer of each connection) only needs what this interface provides; only BBPackets are ever received, read and
+ * handled.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public interface OutgoingPacket {
+
+	/**
+	 * @return The ID of the packet type, which is written at the start of its frame
+	 */
+	public int getID();
+
+	/**
+	 * @return The packet's priority class (the tens digit of its ID) - the lower the value, the higher the priority
+	 */
+	public int getPriority();
+
+	/**
+	 * @return The IP address of the packet's destination
+	 */
+	public InetAddress getAddress();
+
+	/**
+	 * @return The port on the above address
+	 */
+	public int getPort();
+}
@@ -1,12 +1,15 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * The packet sent by the client when attempting to authorize on a server in order to join and play. It contains the
  * username and password entered in the {@link ConnectState}. If the password matches the server's password or if the
  * server does not have a password, the server will send a positive response; otherwise, the client receives a negative
- * one. In both cases, the server sends a {@link Packet01AuthResponse} to the client.
+ * one. In both cases, the server sends a {@link Packet01AuthResponse} to the client. The client also states whether it
+ * accepts {@link PacketCompressor compressed} packets, and with which dictionary, which the server confirms in its
+ * response.
  * <p>
  * This packet is only ever sent by the client.
  * 
@@ -27,8 +30,20 @@ public class Packet00AuthRequest extends BBPacket {
 	private String password;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (0), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Whether the client is able to receive {@link PacketCodec#isCompressible(int) compressible} packets compressed
+	 */
+	private boolean compressionAccepted;
+
+	/**
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet00AuthRequest() {
+		super(0, null, 0);
+	}
+
+	/**
+	 * Simplified constructor - calls the {@link #Packet00AuthRequest(String, String, boolean, InetAddress, int)
+	 * complete constructor}, declining compression
 	 * 
 	 * @param username An account's {@link #username}
 	 * @param password The {@link #password}, which in the event of successful authentication will match the password
@@ -37,9 +52,44 @@ public class Packet00AuthRequest extends BBPacket {
 	 * @param port The port on the above address
 	 */
 	public Packet00AuthRequest(String username, String password, InetAddress address, int port) {
-		super(0, username + (password.equals("") || password == null ? "" : " " + password), address, port);
+		this(username, password, false, address, port);
+	}
+
+	/**
+	 * Complete constructor - constructs the {@link BBPacket} superclass with the ID of this packet (0) and its Internet
+	 * destination address. Initializes all class fields.
+	 * 
+	 * @param username An account's {@link #username}
+	 * @param password The {@link #password}, which in the event of successful authentication will match the password
+	 * of the server
+	 * @param compressionAccepted Whether the client {@link #compressionAccepted accepts compressed packets}
+	 * @param address The IP address of the server the client on which the client is attempting authorization
+	 * @param port The port on the above address
+	 */
+	public Packet00AuthRequest(String username, String password, boolean compressionAccepted, InetAddress address,
+			int port) {
+		super(0, address, port);
 		this.username = username;
-		this.password = password;
+		this.password = password == null ? "" : password;
+		this.compressionAccepted = compressionAccepted;
+	}
+
+	/**
+	 * Layout: username (String), password (String, empty if the player did not supply one), compression (unsigned
+	 * byte: the {@link PacketCompressor#DICTIONARY_VERSION} the client compresses with, or 0 if it declines
+	 * compression). The compression byte is missing from the requests of older clients, which are read as declining
+	 * compression, as are requests naming a different dictionary version.
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writeString(buffer, username);
+		PacketCodec.writeString(buffer, password);
+		buffer.put((byte) (compressionAccepted ? PacketCompressor.DICTIONARY_VERSION : 0));
+	}
+
+	protected void read(ByteBuffer buffer) {
+		username = PacketCodec.readString(buffer, username);
+		password = PacketCodec.readString(buffer, password);
+		compressionAccepted = buffer.hasRemaining() && (buffer.get() & 0xFF) == PacketCompressor.DICTIONARY_VERSION;
 	}
 
 	/**
@@ -60,4 +110,11 @@ public class Packet00AuthRequest extends BBPacket {
 	public String getPassword() {
 		return password;
 	}
+
+	/**
+	 * @return Whether the client {@link #compressionAccepted accepts compressed packets}
+	 */
+	public boolean isCompressionAccepted() {
+		return compressionAccepted;
+	}
 }
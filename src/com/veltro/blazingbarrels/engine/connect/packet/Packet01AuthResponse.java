@@ -1,12 +1,15 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * This packet is sent to a client from a BBServer instance in response to the client's sending a
  * {@link Packet00AuthRequest} to attempt authorization in order to join the server. This packet contains the server's
  * verdict, and if the user was successfully authorized, the server will now wait for the client to send a
- * {@link Packet20PlayerJoin} to begin interaction with the server.<p>
+ * {@link Packet20PlayerJoin} to begin interaction with the server. It also tells the client whether the server will
+ * send it {@link PacketCompressor compressed} packets, as the client offered in its request, and the ID the server
+ * assigned to the player, by which every later packet refers to the player.<p>
  * 
  * This packet is only ever received by the client.
  * 
@@ -28,8 +31,26 @@ public class Packet01AuthResponse extends BBPacket {
 	private int authorized;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (1), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * The ID assigned to the player by the server ({@link PacketCodec#NO_PLAYER} if the user was not authorized)
+	 */
+	private int playerID;
+
+	/**
+	 * Whether the server will send {@link PacketCodec#isCompressible(int) compressible} packets to the client
+	 * compressed (only if the client accepted compression and was authorized)
+	 */
+	private boolean compressionEnabled;
+
+	/**
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet01AuthResponse() {
+		super(1, null, 0);
+	}
+
+	/**
+	 * Simplified constructor - calls the {@link #Packet01AuthResponse(String, int, int, boolean, InetAddress, int)
+	 * complete constructor}, with no player ID and compression disabled (for a rejection)
 	 * 
 	 * @param username An account's {@link #username}
 	 * @param authorizationVerdict The {@link #authorized ID} of the authorization verdict
@@ -37,9 +58,47 @@ public class Packet01AuthResponse extends BBPacket {
 	 * @param port The port on the above address
 	 */
 	public Packet01AuthResponse(String username, int authorizationVerdict, InetAddress address, int port) {
-		super(1, "username " + authorizationVerdict, address, port);
+		this(username, authorizationVerdict, PacketCodec.NO_PLAYER, false, address, port);
+	}
+
+	/**
+	 * Complete constructor - constructs the {@link BBPacket} superclass with the ID of this packet (1) and its
+	 * Internet destination address. Initializes all class fields.
+	 * 
+	 * @param username An account's {@link #username}
+	 * @param authorizationVerdict The {@link #authorized ID} of the authorization verdict
+	 * @param playerID The {@link #playerID} assigned to the player
+	 * @param compressionEnabled Whether {@link #compressionEnabled compression is enabled} for the client
+	 * @param address The IP address of the server that sent this authorization verdict
+	 * @param port The port on the above address
+	 */
+	public Packet01AuthResponse(String username, int authorizationVerdict, int playerID, boolean compressionEnabled,
+			InetAddress address, int port) {
+		super(1, address, port);
 		this.username = username;
 		authorized = authorizationVerdict;
+		this.playerID = playerID;
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * Layout: username (String), verdict (byte), player ID (unsigned byte), compression (unsigned byte: the
+	 * {@link PacketCompressor#DICTIONARY_VERSION} the server compresses with, or 0 if compression is disabled). The
+	 * compression byte is missing from the responses of older servers, which are read as compression being disabled,
+	 * as are responses naming a different dictionary version.
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writeString(buffer, username);
+		buffer.put((byte) authorized);
+		PacketCodec.writePlayerID(buffer, playerID);
+		buffer.put((byte) (compressionEnabled ? PacketCompressor.DICTIONARY_VERSION : 0));
+	}
+
+	protected void read(ByteBuffer buffer) {
+		username = PacketCodec.readString(buffer, username);
+		authorized = buffer.get();
+		playerID = PacketCodec.readPlayerID(buffer);
+		compressionEnabled = buffer.hasRemaining() && (buffer.get() & 0xFF) == PacketCompressor.DICTIONARY_VERSION;
 	}
 
 	public void handle() {
@@ -59,4 +118,18 @@ public class Packet01AuthResponse extends BBPacket {
 	public int getAuthorizationVerdictID() {
 		return authorized;
 	}
+
+	/**
+	 * @return The {@link #playerID} assigned to the player ({@link PacketCodec#NO_PLAYER} if not authorized)
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * @return Whether the server will send the client compressible packets {@link #compressionEnabled compressed}
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
 }
@@ -1,6 +1,7 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * This packet is sent by a BBServer instance to the client if the client's current user account has been successfully
@@ -17,22 +18,40 @@ import java.net.InetAddress;
 public class Packet02DeauthWarning extends BBPacket {
 
 	/**
-	 * The username of the account that will be deauthorized if no response to this packet is received by the server
+	 * The ID of the player that will be deauthorized if no response to this packet is received by the server
 	 */
-	private String username;
+	private int playerID;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (2), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet02DeauthWarning() {
+		super(2, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (2) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
-	 * @param username The username of the player in jeopardy of deauthorization (used by the client to make sure the
-	 * packet isn't meant for someone else)
+	 * @param playerID The ID of the player in jeopardy of deauthorization (used by the client to make sure the packet
+	 * isn't meant for someone else)
 	 * @param address The IP address of the server warning the client of impending deauthorization
 	 * @param port The port on the above address
 	 */
-	public Packet02DeauthWarning(String username, InetAddress address, int port) {
-		super(2, username, address, port);
-		this.username = username;
+	public Packet02DeauthWarning(int playerID, InetAddress address, int port) {
+		super(2, address, port);
+		this.playerID = playerID;
+	}
+
+	/**
+	 * Layout: player ID (unsigned byte)
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writePlayerID(buffer, playerID);
+	}
+
+	protected void read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
 	}
 
 	public void handle() {
@@ -40,9 +59,9 @@ public class Packet02DeauthWarning extends BBPacket {
 	}
 
 	/**
-	 * @return The {@link #username} associated with this deauthorization warning
+	 * @return The {@link #playerID} associated with this deauthorization warning
 	 */
-	public String getUsername() {
-		return username;
+	public int getPlayerID() {
+		return playerID;
 	}
 }
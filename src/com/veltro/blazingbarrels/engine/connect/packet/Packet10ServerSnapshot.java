@@ -1,19 +1,42 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import com.veltro.blazingbarrels.engine.connect.snapshot.PlayerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+import com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot;
 
 /**
  * This packet is sent to a client to provide it with all the information it needs to create a local copy of the game
- * world and all its contents. Due to size limit on the {@link BBPacket} payload, the server will occasionally send
- * multiple instances of this packet in order to provide a complete snapshot.<p>
- * 
+ * world and all its contents. Snapshots are delta-compressed: each one is encoded against the newest snapshot the
+ * client has acknowledged with a {@link Packet11SnapshotAck} (its baseline), and carries only the world settings and
+ * player fields that have changed since then, plus the IDs of the players that have left. A snapshot without a
+ * baseline (the first one sent to a client, or one sent after the baseline has been forgotten) is sent in full, and is
+ * fragmented by the {@link com.veltro.blazingbarrels.engine.connect.DatagramBatcher} if it does not fit in a single
+ * datagram.<p>
+ *
+ * The server builds this packet with {@link SnapshotHistory#createSnapshotPacket(WorldSnapshot, InetAddress, int)}, and
+ * the client turns it back into a complete {@link WorldSnapshot} with {@link SnapshotHistory#receive(
+ * Packet10ServerSnapshot)}.<p>
+ *
  * This packet is only ever received by the client.
- * 
+ *
  * @author LinearLogic
  * @since 0.3.0
  */
 public class Packet10ServerSnapshot extends BBPacket {
 
+	/**
+	 * The server tick at which the snapshot was taken
+	 */
+	private int tick;
+
+	/**
+	 * The tick of the snapshot this packet is a delta against (-1 if this is a full snapshot)
+	 */
+	private int baselineTick;
+
 	/**
 	 * The horizontal radius, in pixels, of the game world (-1 if an updated world radius was not sent in this packet)
 	 */
@@ -25,33 +48,185 @@ public class Packet10ServerSnapshot extends BBPacket {
 	private int healthCap;
 
 	/**
-	 * An Array of strings containing data for each player on the server, used to update the client's copy of each
-	 * player in the game world
+	 * Sending side - the snapshot being sent
+	 */
+	private WorldSnapshot snapshot;
+
+	/**
+	 * Sending side - the snapshot the delta is made against (null for a full snapshot)
+	 */
+	private WorldSnapshot baseline;
+
+	/**
+	 * Receiving side - the changed fields of each player whose state differs from the baseline (the first
+	 * {@link #changeCount} are in use)
+	 */
+	private PlayerSnapshot[] changes = new PlayerSnapshot[0];
+
+	/**
+	 * Receiving side - the field masks of the {@link #changes}
+	 */
+	private int[] changeMasks = new int[0];
+
+	/**
+	 * Receiving side - the number of {@link #changes}
+	 */
+	private int changeCount;
+
+	/**
+	 * Receiving side - the IDs of the players that are in the baseline but have since left (the first
+	 * {@link #removalCount} are in use)
+	 */
+	private int[] removals = new int[0];
+
+	/**
+	 * Receiving side - the number of {@link #removals}
 	 */
-	private String[] playerInfoStrings;
+	private int removalCount;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (10), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
-	 * 
-	 * @param worldRadius The horizontal radius, in pixels, of the game world
-	 * @param healthCap The maximum value for a player's health
-	 * @param playerSnapshots A concatenation of strings containing snapshots of players in the game world
-	 * @param address The IP address of the server that sent this packet
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet10ServerSnapshot() {
+		super(10, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (10) and its Internet destination address.
+	 * Initializes all class fields. Neither snapshot may be modified until the packet has been sent.
+	 *
+	 * @param snapshot The snapshot to send
+	 * @param baseline The snapshot last acknowledged by the client, against which to encode the delta (null to send
+	 * the full snapshot)
+	 * @param address The IP address of the client the snapshot is sent to
 	 * @param port The port on the above address
 	 */
-	public Packet10ServerSnapshot(int worldRadius, int healthCap, String playerSnapshots, InetAddress address, int port) {
-		super(10, (worldRadius > -1 ? worldRadius + " " : "") + (healthCap > -1 ? healthCap + " ": "") +
-				playerSnapshots, address, port);
-		this.worldRadius = worldRadius;
-		this.healthCap = healthCap;
-		playerInfoStrings = playerSnapshots.trim().split("\\s+");
+	public Packet10ServerSnapshot(WorldSnapshot snapshot, WorldSnapshot baseline, InetAddress address, int port) {
+		super(10, address, port);
+		this.snapshot = snapshot;
+		this.baseline = baseline;
+		tick = snapshot.getTick();
+		baselineTick = baseline == null ? -1 : baseline.getTick();
+		worldRadius = baseline != null && baseline.getWorldRadius() == snapshot.getWorldRadius() ? -1 :
+				snapshot.getWorldRadius();
+		healthCap = baseline != null && baseline.getHealthCap() == snapshot.getHealthCap() ? -1 :
+				snapshot.getHealthCap();
+	}
+
+	/**
+	 * Layout: tick (int), baseline tick (int, -1 for a full snapshot), world radius (int, -1 if unchanged), health cap
+	 * (int, -1 if unchanged), number of changed players (unsigned byte), changed players (each written by
+	 * {@link PlayerSnapshot#write(ByteBuffer, int)}), number of removed players (unsigned byte), removed players' IDs
+	 * (unsigned bytes)
+	 */
+	protected void write(ByteBuffer buffer) {
+		buffer.putInt(tick);
+		buffer.putInt(baselineTick);
+		buffer.putInt(worldRadius);
+		buffer.putInt(healthCap);
+
+		int countPosition = buffer.position();
+		int count = 0;
+		buffer.put((byte) 0); // Count placeholder
+		for (int i = 0; i < snapshot.getPlayerCount(); i++) {
+			PlayerSnapshot player = snapshot.getPlayer(i);
+			int mask = player.getChangedFields(baseline == null ? null : baseline.findPlayer(player.getPlayerID()));
+			if (mask != 0) {
+				player.write(buffer, mask);
+				count++;
+			}
+		}
+		buffer.put(countPosition, (byte) count);
+
+		countPosition = buffer.position();
+		count = 0;
+		buffer.put((byte) 0); // Count placeholder
+		if (baseline != null)
+			for (int i = 0; i < baseline.getPlayerCount(); i++) {
+				int playerID = baseline.getPlayer(i).getPlayerID();
+				if (snapshot.indexOf(playerID) < 0) {
+					PacketCodec.writePlayerID(buffer, playerID);
+					count++;
+				}
+			}
+		buffer.put(countPosition, (byte) count);
+	}
+
+	protected void read(ByteBuffer buffer) {
+		tick = buffer.getInt();
+		baselineTick = buffer.getInt();
+		worldRadius = buffer.getInt();
+		healthCap = buffer.getInt();
+
+		changeCount = buffer.get() & 0xFF;
+		if (changes.length < changeCount) {
+			PlayerSnapshot[] grown = new PlayerSnapshot[changeCount];
+			System.arraycopy(changes, 0, grown, 0, changes.length);
+			for (int i = changes.length; i < changeCount; i++)
+				grown[i] = new PlayerSnapshot();
+			changes = grown;
+			changeMasks = new int[changeCount];
+		}
+		for (int i = 0; i < changeCount; i++) {
+			changeMasks[i] = changes[i].read(buffer);
+			if (changes[i].getPlayerID() == PacketCodec.NO_PLAYER)
+				throw new IllegalArgumentException("Snapshot entry without a player ID");
+		}
+
+		removalCount = buffer.get() & 0xFF;
+		if (removals.length < removalCount)
+			removals = new int[removalCount];
+		for (int i = 0; i < removalCount; i++)
+			removals[i] = PacketCodec.readPlayerID(buffer);
+	}
+
+	/**
+	 * Reconstructs the complete snapshot carried by this (received) packet
+	 *
+	 * @param baseline The snapshot of the {@link #baselineTick} (null for a full snapshot)
+	 * @param result The snapshot to write the result into (may be the baseline itself)
+	 */
+	public void applyTo(WorldSnapshot baseline, WorldSnapshot result) {
+		if (baseline == null)
+			result.reset(tick, 0, 0);
+		else if (result != baseline)
+			result.copyFrom(baseline);
+		result.setTick(tick);
+		if (worldRadius > -1)
+			result.setWorldRadius(worldRadius);
+		if (healthCap > -1)
+			result.setHealthCap(healthCap);
+		for (int i = 0; i < removalCount; i++) {
+			int index = result.indexOf(removals[i]);
+			if (index >= 0)
+				result.removePlayer(index);
+		}
+		for (int i = 0; i < changeCount; i++) {
+			PlayerSnapshot player = result.findPlayer(changes[i].getPlayerID());
+			if (player == null)
+				player = result.addPlayer(changes[i].getPlayerID());
+			player.applyDelta(changes[i], changeMasks[i]);
+		}
 	}
 
 	public void handle() {
 		// TODO
 	}
 
+	/**
+	 * @return The server {@link #tick} at which the snapshot was taken
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return The {@link #baselineTick} the snapshot is a delta against (-1 for a full snapshot)
+	 */
+	public int getBaselineTick() {
+		return baselineTick;
+	}
+
 	/**
 	 * @return The server's {@link #worldRadius}
 	 */
@@ -65,11 +240,4 @@ public class Packet10ServerSnapshot extends BBPacket {
 	public int getHealthCap() {
 		return healthCap;
 	}
-
-	/**
-	 * @return {@link #playerInfoStrings player info strings}
-	 */
-	public String[] getPlayerSnapshots() {
-		return playerInfoStrings;
-	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+
+/**
+ * This packet is sent by the client after it has reconstructed a {@link Packet10ServerSnapshot}, and informs the
+ * server of the newest snapshot the client holds. The server sends every later snapshot as a delta against the newest
+ * acknowledged one (see {@link SnapshotHistory}).<p>
+ *
+ * This packet is only ever sent by the client.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class Packet11SnapshotAck extends BBPacket {
+
+	/**
+	 * The server tick of the snapshot being acknowledged
+	 */
+	private int tick;
+
+	/**
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet11SnapshotAck() {
+		super(11, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (11) and its Internet destination address.
+	 * Initializes all class fields.
+	 *
+	 * @param tick The {@link #tick} of the snapshot being acknowledged
+	 * @param address The IP address of the server that sent the snapshot
+	 * @param port The port on the above address
+	 */
+	public Packet11SnapshotAck(int tick, InetAddress address, int port) {
+		super(11, address, port);
+		this.tick = tick;
+	}
+
+	/**
+	 * Layout: tick (int)
+	 */
+	protected void write(ByteBuffer buffer) {
+		buffer.putInt(tick);
+	}
+
+	protected void read(ByteBuffer buffer) {
+		tick = buffer.getInt();
+	}
+
+	/**
+	 * This packet is never received by the client, so it is not handled.
+	 */
+	public void handle() { }
+
+	/**
+	 * @return The {@link #tick} of the acknowledged snapshot
+	 */
+	public int getTick() {
+		return tick;
+	}
+}
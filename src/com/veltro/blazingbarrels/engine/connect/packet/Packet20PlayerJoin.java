@@ -1,6 +1,7 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * This packet is sent from the client after receiving a positive {@link Packet01AuthResponse} and serves to inform the
@@ -16,9 +17,9 @@ import java.net.InetAddress;
 public class Packet20PlayerJoin extends BBPacket {
 
 	/**
-	 * The username of the player joining the server
+	 * The ID of the player joining the server, as assigned in the {@link Packet01AuthResponse}
 	 */
-	private String username;
+	private int playerID;
 
 	/**
 	 * Whether the player is connecting as a spectator (if so, the player will be flagged as invisible, in flymode, and
@@ -27,16 +28,38 @@ public class Packet20PlayerJoin extends BBPacket {
 	private boolean isSpectator;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (20), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet20PlayerJoin() {
+		super(20, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (20) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
-	 * @param username The username of the player joining the server
-	 * @param spectator See {@link #isSpectator}
+	 * @param playerID The {@link #playerID} of the player joining the server
+	 * @param isSpectator See {@link #isSpectator}
 	 * @param address The IP address of the server that the client is joining
 	 * @param port The port on the above address
 	 */
-	public Packet20PlayerJoin(String username, boolean isSpectator, InetAddress address, int port) {
-		super(20, username + (isSpectator ? " s" : ""), address, port);
+	public Packet20PlayerJoin(int playerID, boolean isSpectator, InetAddress address, int port) {
+		super(20, address, port);
+		this.playerID = playerID;
+		this.isSpectator = isSpectator;
+	}
+
+	/**
+	 * Layout: player ID (unsigned byte), spectator flag (byte, 1 if joining as a spectator)
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writePlayerID(buffer, playerID);
+		buffer.put((byte) (isSpectator ? 1 : 0));
+	}
+
+	protected void read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
+		isSpectator = buffer.get() != 0;
 	}
 
 	/**
@@ -45,10 +68,10 @@ public class Packet20PlayerJoin extends BBPacket {
 	public void handle() { }
 
 	/**
-	 * @return The username of the connecting player
+	 * @return The {@link #playerID} of the connecting player
 	 */
-	public String getUsername() {
-		return username;
+	public int getPlayerID() {
+		return playerID;
 	}
 
 	/**
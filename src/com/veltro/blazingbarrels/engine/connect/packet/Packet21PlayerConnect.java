@@ -1,13 +1,15 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 import com.veltro.blazingbarrels.game.location.Location3D;
 
 /**
  * This packet is sent by the server upon receipt of a {@link Packet20PlayerJoin}, and is used to inform all connected
  * clients of the attributes of the player that has joined (name, location, etc.) so that the clients can update their
- * game worlds.<p>
+ * game worlds. It pairs the player's username with the ID the server assigned to the player, by which every later
+ * packet (and snapshot) refers to the player, so clients can keep their players in an array indexed by ID.<p>
  * 
  * This packet is only ever received by the client.
  * 
@@ -16,6 +18,11 @@ import com.veltro.blazingbarrels.game.location.Location3D;
  */
 public class Packet21PlayerConnect extends BBPacket {
 
+	/**
+	 * The ID assigned to the player connecting to the server
+	 */
+	private int playerID;
+
 	/**
 	 * The username of the player connecting to the server
 	 */
@@ -48,9 +55,17 @@ public class Packet21PlayerConnect extends BBPacket {
 	private boolean vanished;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (21), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet21PlayerConnect() {
+		super(21, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (21) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
+	 * @param playerID The player's {@link #playerID}
 	 * @param username The player's name
 	 * @param spawnLocation The player's starting {@link #location}
 	 * @param health The player's starting {@link #health}
@@ -60,21 +75,56 @@ public class Packet21PlayerConnect extends BBPacket {
 	 * @param address The IP address of the server that sent this packet
 	 * @param port The port on the above address
 	 */
-	public Packet21PlayerConnect(String username, Location3D spawnLocation, int health, boolean isAdmin,
-			boolean isInGodMode, boolean isVanished, InetAddress address, int port) {
-		super(21, username + " " + (spawnLocation == null ? "." : spawnLocation.toString()) + " " + health + " " +
-			(isAdmin ? "1 " : "0 ") + (isVanished ? "1" : "0"), address, port);
+	public Packet21PlayerConnect(int playerID, String username, Location3D spawnLocation, int health,
+			boolean isAdmin, boolean isInGodMode, boolean isVanished, InetAddress address, int port) {
+		super(21, address, port);
+		this.playerID = playerID;
 		this.username = username;
 		location = spawnLocation;
 		this.health = health;
 		admin = isAdmin;
+		godMode = isInGodMode;
 		vanished = isVanished;
 	}
 
+	/**
+	 * Layout: player ID (unsigned byte), username (String), flags (byte - bit 0: location sent, bit 1: {@link #admin},
+	 * bit 2: {@link #godMode}, bit 3: {@link #vanished}), health (short), spawn location (only if the location flag is
+	 * set)
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writePlayerID(buffer, playerID);
+		PacketCodec.writeString(buffer, username);
+		buffer.put((byte) ((location != null ? 1 : 0) | (admin ? 2 : 0) | (godMode ? 4 : 0) | (vanished ? 8 : 0)));
+		buffer.putShort((short) health);
+		if (location != null)
+			PacketCodec.writeLocation(buffer, location);
+	}
+
+	protected void read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
+		if (playerID == PacketCodec.NO_PLAYER)
+			throw new IllegalArgumentException("Player introduction without a player ID");
+		username = PacketCodec.readString(buffer, username);
+		int flags = buffer.get();
+		admin = (flags & 2) != 0;
+		godMode = (flags & 4) != 0;
+		vanished = (flags & 8) != 0;
+		health = buffer.getShort();
+		location = (flags & 1) != 0 ? PacketCodec.readLocation(buffer, location) : null;
+	}
+
 	public void handle() {
 		// TODO
 	}
 
+	/**
+	 * @return The {@link #playerID} assigned to the player connecting to the server
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
 	/**
 	 * @return The username of the player connecting to the server
 	 */
@@ -1,6 +1,7 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 /**
  * This packet is sent by a client upon voluntarily disconnecting from a server, or from a server to notify clients
@@ -14,9 +15,9 @@ import java.net.InetAddress;
 public class Packet22PlayerDisconnect extends BBPacket {
 
 	/**
-	 * The name of the player who is disconnecting (or being disconnected) from the server 
+	 * The ID of the player who is disconnecting (or being disconnected) from the server
 	 */
-	private String username;
+	private int playerID;
 
 	/**
 	 * An integer ID representing the reason for the player's disconnect. If the player voluntarily disconnected, the
@@ -26,29 +27,49 @@ public class Packet22PlayerDisconnect extends BBPacket {
 	private int reasonID;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (22), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet22PlayerDisconnect() {
+		super(22, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (22) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
-	 * @param username The username of the player disconnecting from the server
+	 * @param playerID The {@link #playerID} of the player disconnecting from the server
 	 * @param reason The {@link #reasonID} of the disconnect
 	 * @param address The IP address of the server that sent this packet
 	 * @param port The port on the above address
 	 */
-	public Packet22PlayerDisconnect(String username, int reasonID, InetAddress address, int port) {
-		super(22, username + " " + reasonID, address, port);
-		this.username = username;
+	public Packet22PlayerDisconnect(int playerID, int reasonID, InetAddress address, int port) {
+		super(22, address, port);
+		this.playerID = playerID;
 		this.reasonID = reasonID;
 	}
 
+	/**
+	 * Layout: player ID (unsigned byte), reason ID (byte)
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writePlayerID(buffer, playerID);
+		buffer.put((byte) reasonID);
+	}
+
+	protected void read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
+		reasonID = buffer.get();
+	}
+
 	public void handle() {
 		// TODO
 	}
 
 	/**
-	 * @return The name of the player disconnecting from the server
+	 * @return The {@link #playerID} of the player disconnecting from the server
 	 */
-	public String getUsername() {
-		return username;
+	public int getPlayerID() {
+		return playerID;
 	}
 
 	/**
@@ -1,7 +1,9 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
+import com.veltro.blazingbarrels.game.location.InputCommand;
 import com.veltro.blazingbarrels.game.location.Location3D;
 
 /**
@@ -19,9 +21,9 @@ import com.veltro.blazingbarrels.game.location.Location3D;
 public class Packet30PlayerUpdate extends BBPacket {
 
 	/**
-	 * The name of the player whose attributes are being updated
+	 * The ID of the player whose attributes are being updated
 	 */
-	private String username;
+	private int playerID;
 
 	/**
 	 * The player's new location (null if it has not changed)
@@ -54,21 +56,43 @@ public class Packet30PlayerUpdate extends BBPacket {
 	private boolean toggleVisibility;
 
 	/**
-	 * Default constructor, intended to be followed up with various calls to specify the packet's data and address.
-	 * This constructor calls the {@link #Packet30PlayerUpdate(String, Location3D, int, boolean, boolean, boolean,
-	 * boolean, InetAddress, int) complete constructor}, passing null/default values.
+	 * The sequence number of the newest movement input reflected in the {@link #location} (-1 if none is attached).
+	 * Clients attach the number of the last input they applied; the server echoes back the number of the last input
+	 * it processed, so that the client can {@link com.veltro.blazingbarrels.game.location.MovementPredictor#reconcile(
+	 * int, Location3D, Location3D) reconcile} its prediction.
+	 */
+	private int inputSequence;
+
+	/**
+	 * The movement input the client applied to reach the {@link #location} (null if none is attached). When a client
+	 * attaches its input, the server moves the player by simulating the input from the player's current location, and
+	 * takes only the rotation from the location.
+	 */
+	private InputCommand input;
+
+	/**
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet30PlayerUpdate() {
+		this(PacketCodec.NO_PLAYER);
+	}
+
+	/**
+	 * Simplified constructor, intended to be followed up with various calls to specify the packet's data and address.
+	 * This constructor calls the {@link #Packet30PlayerUpdate(int, Location3D, int, boolean, boolean, boolean, boolean,
+	 * InetAddress, int) complete constructor}, passing null/default values.
 	 * 
-	 * @param username The name of the player whose data is being updated
+	 * @param playerID The ID of the player whose data is being updated
 	 */
-	public Packet30PlayerUpdate(String username) {
-		this(username, null, -1, false, false, false, false, null, 0);
+	public Packet30PlayerUpdate(int playerID) {
+		this(playerID, null, -1, false, false, false, false, null, 0);
 	}
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (30), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (30) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
-	 * @param username The name of the player whose data is being updated
+	 * @param playerID The ID of the player whose data is being updated
 	 * @param newLocation The player's new {@link Location3D location} (null if it has not changed)
 	 * @param newHealth The player's new health level (-1 if it has not changed)
 	 * @param toggleAdmin Whether the player's administrator status should be toggled
@@ -78,18 +102,64 @@ public class Packet30PlayerUpdate extends BBPacket {
 	 * @param address The source/destination IP address of the packet
 	 * @param port The port on the above address
 	 */
-	public Packet30PlayerUpdate(String username, Location3D newLocation, int newHealth, boolean toggleAdmin,
+	public Packet30PlayerUpdate(int playerID, Location3D newLocation, int newHealth, boolean toggleAdmin,
 			boolean toggleFlyMode, boolean toggleGodMode, boolean toggleVisibility, InetAddress address, int port) {
-		super(30, username + (newLocation != null ? " l" + newLocation.toString() : "") + (newHealth > -1 ? " h" +
-			newHealth : "") + (toggleAdmin ? " a" : "") + (toggleFlyMode ? " f" : "") + (toggleGodMode ? " g" : "") +
-			(toggleVisibility ? " v" : ""), address, port);
-		this.username = username;
+		super(30, address, port);
+		this.playerID = playerID;
 		location = newLocation;
 		health = newHealth;
 		this.toggleAdmin = toggleAdmin;
 		this.toggleFlyMode = toggleFlyMode;
 		this.toggleGodMode = toggleGodMode;
 		this.toggleVisibility = toggleVisibility;
+		inputSequence = -1;
+	}
+
+	/**
+	 * Layout: player ID (unsigned byte), flags (byte - bit 0: location sent, bit 1: health sent, bits 2-5: the admin,
+	 * fly mode, god mode, and visibility toggles, bit 6: input sequence sent, bit 7: input sent), location (only if
+	 * its flag is set), health (short, only if its flag is set), input sequence (unsigned short, only if its flag is
+	 * set), input (only if its flag is set: the forward, sideways and vertical inputs plus one in bits 0-1, 2-3 and 4-5
+	 * of a byte, then the yaw (float), the duration (unsigned short) and the speed (float))
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writePlayerID(buffer, playerID);
+		buffer.put((byte) ((location != null ? 1 : 0) | (health > -1 ? 2 : 0) | (toggleAdmin ? 4 : 0) |
+				(toggleFlyMode ? 8 : 0) | (toggleGodMode ? 16 : 0) | (toggleVisibility ? 32 : 0) |
+				(inputSequence > -1 ? 64 : 0) | (input != null ? 128 : 0)));
+		if (location != null)
+			PacketCodec.writeLocation(buffer, location);
+		if (health > -1)
+			buffer.putShort((short) health);
+		if (inputSequence > -1)
+			buffer.putShort((short) inputSequence);
+		if (input != null) {
+			buffer.put((byte) (input.getForward() + 1 | input.getSideways() + 1 << 2 | input.getVertical() + 1 << 4));
+			buffer.putFloat(input.getYaw());
+			buffer.putShort((short) Math.min(input.getDuration(), 0xFFFF));
+			buffer.putFloat(input.getSpeed());
+		}
+	}
+
+	protected void read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
+		int flags = buffer.get();
+		toggleAdmin = (flags & 4) != 0;
+		toggleFlyMode = (flags & 8) != 0;
+		toggleGodMode = (flags & 16) != 0;
+		toggleVisibility = (flags & 32) != 0;
+		location = (flags & 1) != 0 ? PacketCodec.readLocation(buffer, location) : null;
+		health = (flags & 2) != 0 ? buffer.getShort() : -1;
+		inputSequence = (flags & 64) != 0 ? buffer.getShort() & 0xFFFF : -1;
+		if ((flags & 128) != 0) {
+			int movement = buffer.get();
+			if (input == null)
+				input = new InputCommand();
+			input.set(Math.min((movement & 3) - 1, 1), Math.min((movement >> 2 & 3) - 1, 1),
+					Math.min((movement >> 4 & 3) - 1, 1), buffer.getFloat(), buffer.getShort() & 0xFFFF,
+					buffer.getFloat());
+		} else
+			input = null;
 	}
 
 	public void handle() {
@@ -97,20 +167,31 @@ public class Packet30PlayerUpdate extends BBPacket {
 	}
 
 	/**
-	 * This method should be called after updating fields in this class in order to refresh the contents of the
-	 * {@link BBPacket#data} string.
+	 * Folds a later update for the same player into this one, so that sending this packet alone has the same effect
+	 * as sending both in order: the later location, health and input sequence number replace the earlier ones (where
+	 * set), and toggles that appear in both updates cancel out. Updates carrying an {@link #input} must not be merged,
+	 * as the server needs every input to simulate the player's movement.
+	 *
+	 * @param later The later update, which is not to be sent
 	 */
-	public void updateData() {
-		data = username + (location != null ? " l" + location.toString() : "") + (health > -1 ? " h" +
-				health : "") + (toggleAdmin ? " a" : "") + (toggleFlyMode ? " f" : "") + (toggleGodMode ? " g" : "") +
-				(toggleVisibility ? " v" : "");
+	public void merge(Packet30PlayerUpdate later) {
+		if (later.location != null)
+			location = later.location;
+		if (later.health > -1)
+			health = later.health;
+		if (later.inputSequence > -1)
+			inputSequence = later.inputSequence;
+		toggleAdmin ^= later.toggleAdmin;
+		toggleFlyMode ^= later.toggleFlyMode;
+		toggleGodMode ^= later.toggleGodMode;
+		toggleVisibility ^= later.toggleVisibility;
 	}
 
 	/**
-	 * @return The username of the player whose status is being updated
+	 * @return The ID of the player whose status is being updated
 	 */
-	public String getUsername() {
-		return username;
+	public int getPlayerID() {
+		return playerID;
 	}
 
 	/**
@@ -145,6 +226,39 @@ public class Packet30PlayerUpdate extends BBPacket {
 		health = newHealth;
 	}
 
+	/**
+	 * @return The {@link #inputSequence} (-1 if none is attached)
+	 */
+	public int getInputSequence() {
+		return inputSequence;
+	}
+
+	/**
+	 * Attaches the sequence number of the newest movement input reflected in the packet's location
+	 * 
+	 * @param inputSequence The {@link #inputSequence} (0-65535, or -1 for none)
+	 */
+	public void setInputSequence(int inputSequence) {
+		this.inputSequence = inputSequence;
+	}
+
+	/**
+	 * @return The movement {@link #input} attached (null if none is)
+	 */
+	public InputCommand getInput() {
+		return input;
+	}
+
+	/**
+	 * Attaches the movement input the client applied to reach the packet's location, so that the server simulates
+	 * the input rather than taking the location
+	 *
+	 * @param input The {@link #input} (null for none)
+	 */
+	public void setInput(InputCommand input) {
+		this.input = input;
+	}
+
 	/**
 	 * @return The {@link #toggleAdmin} value
 	 */
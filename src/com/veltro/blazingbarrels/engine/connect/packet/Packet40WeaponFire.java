@@ -1,6 +1,7 @@
 package com.veltro.blazingbarrels.engine.connect.packet;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 import com.veltro.blazingbarrels.game.location.Location3D;
 
@@ -10,7 +11,7 @@ import com.veltro.blazingbarrels.game.location.Location3D;
  * contains the starting point and direction of the shot's trajectory and the type of weapon being used.<p>
  * 
  * If the server determines that the shot being fired hits a player, that player will be damaged. If the player is then
- * killed, the server will broadcast the occurrence along with the name of the player that fired the fatal shot.<p>
+ * killed, the server will broadcast the occurrence along with the ID of the player that fired the fatal shot.<p>
  * 
  * This packet is both sent and received by the server.
  * 
@@ -20,9 +21,9 @@ import com.veltro.blazingbarrels.game.location.Location3D;
 public class Packet40WeaponFire extends BBPacket {
 
 	/**
-	 * The name of the player that fired the shot
+	 * The ID of the player that fired the shot
 	 */
-	private String username;
+	private int playerID;
 
 	/**
 	 * The trajectory of the shot that was fired, represented as a ray starting at the location of the player firing
@@ -36,31 +37,53 @@ public class Packet40WeaponFire extends BBPacket {
 	private WeaponType type;
 
 	/**
-	 * Constructs the {@link BBPacket} superclass with the ID of this packet (30), its data rendered as a string, and
-	 * its Internet destination address. Initializes all class fields.
+	 * Constructs an empty packet to be filled in by {@link #read(ByteBuffer)} (used by the {@link PacketCodec})
+	 */
+	Packet40WeaponFire() {
+		super(40, null, 0);
+	}
+
+	/**
+	 * Constructs the {@link BBPacket} superclass with the ID of this packet (40) and its Internet destination address.
+	 * Initializes all class fields.
 	 * 
-	 * @param username The name of the player that fired the shot
+	 * @param playerID The ID of the player that fired the shot
 	 * @param trajectory The shot's {@link #trajectoryRay}
 	 * @param type The {@link WeaponType type} of the weapon being fired
 	 * @param address The packet's source/destination IP address
 	 * @param port The port on the above address
 	 */
-	public Packet40WeaponFire(String username, Location3D trajectory, WeaponType type, InetAddress address, int port) {
-		super(40, (username == null ? "" : username + " ") + trajectory.toString() + " " + type.ID, address, port);
-		this.username = username;
+	public Packet40WeaponFire(int playerID, Location3D trajectory, WeaponType type, InetAddress address, int port) {
+		super(40, address, port);
+		this.playerID = playerID;
 		trajectoryRay = trajectory;
 		this.type = type;
 	}
 
+	/**
+	 * Layout: player ID (unsigned byte), weapon type ID (byte), trajectory ray (location)
+	 */
+	protected void write(ByteBuffer buffer) {
+		PacketCodec.writePlayerID(buffer, playerID);
+		buffer.put((byte) type.ID);
+		PacketCodec.writeLocation(buffer, trajectoryRay);
+	}
+
+	protected void read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
+		type = WeaponType.getByID(buffer.get());
+		trajectoryRay = PacketCodec.readLocation(buffer, trajectoryRay);
+	}
+
 	public void handle() {
 		// TODO
 	}
 
 	/**
-	 * @return The name of the player that fired the shot
+	 * @return The ID of the player that fired the shot
 	 */
-	public String getUsername() {
-		return username;
+	public int getPlayerID() {
+		return playerID;
 	}
 
 	/**
@@ -0,0 +1,463 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * Converts {@link BBPacket packets} to and from their binary wire format. Every packet is written as a frame: a single
+ * unsigned byte containing its ID and an unsigned short containing the length of its payload, followed by the payload
+ * itself (the fields of the packet in the fixed order given by its {@link BBPacket#write(ByteBuffer) write} method).
+ * Since each frame carries its own length, several packets can be packed back to back into one datagram. All
+ * multi-byte values are big-endian (the ByteBuffer default).<p>
+ *
+ * Strings are written as an unsigned byte length followed by that many bytes of UTF-8, {@link Location3D locations}
+ * in the fixed-point form of the configured {@link LocationQuantizer}, and players by the single-byte ID the server
+ * assigned them when they authenticated (see {@link #writePlayerID(ByteBuffer, int)}) rather than by their username,
+ * which is sent only in the authentication packets and the {@link Packet21PlayerConnect} introducing the player.<p>
+ *
+ * A packet whose frame is too large for a single datagram is sent as a series of fragment frames (see
+ * {@link #encodeFragment(ByteBuffer, int, int, int, int, ByteBuffer)}), each carrying a slice of the packet's complete
+ * frame, which the receiver reassembles before decoding the packet. Likewise, a {@link #isReliable(int) reliable}
+ * packet is wrapped in a reliable frame that adds its message sequence number (see
+ * {@link #encodeReliable(OutgoingPacket, int, ByteBuffer)}), and the frame of a
+ * {@link #isCompressible(int) compressible} packet may be replaced by a compressed frame (see
+ * {@link PacketCompressor}).
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public final class PacketCodec {
+
+	/**
+	 * The maximum size, in bytes, of an encoded packet (including its frame header). Packets larger than a datagram
+	 * are fragmented, so this bounds the memory needed to reassemble one rather than the size of a datagram.
+	 */
+	public static final int MAX_PACKET_SIZE = 16384;
+
+	/**
+	 * The size, in bytes, of the frame header preceding each packet's payload (ID and payload length)
+	 */
+	public static final int FRAME_HEADER_SIZE = 3;
+
+	/**
+	 * The reserved ID of fragment frames, which is never used by a packet type
+	 */
+	public static final int FRAGMENT_ID = 255;
+
+	/**
+	 * The reserved ID of reliable frames, which is never used by a packet type
+	 */
+	public static final int RELIABLE_ID = 254;
+
+	/**
+	 * The reserved ID of compressed frames, which is never used by a packet type
+	 */
+	public static final int COMPRESSED_ID = 253;
+
+	/**
+	 * The size, in bytes, of the headers preceding the compressed data in a compressed frame (the frame header,
+	 * followed by the length of the packet frame once decompressed)
+	 */
+	public static final int COMPRESSED_HEADER_SIZE = FRAME_HEADER_SIZE + 2;
+
+	/**
+	 * The size, in bytes, of the headers preceding the wrapped packet frame in a reliable frame (the frame header,
+	 * followed by the message sequence number)
+	 */
+	public static final int RELIABLE_HEADER_SIZE = FRAME_HEADER_SIZE + 2;
+
+	/**
+	 * The size, in bytes, of the headers preceding the data in a fragment frame (the frame header, followed by the
+	 * message ID, fragment index, fragment count and offset)
+	 */
+	public static final int FRAGMENT_HEADER_SIZE = FRAME_HEADER_SIZE + 6;
+
+	/**
+	 * The maximum length, in bytes, of an encoded String
+	 */
+	public static final int MAX_STRING_LENGTH = 255;
+
+	/**
+	 * The size, in bytes, of the largest reliable packet's frame: a {@link Packet00AuthRequest} whose username and
+	 * password are both of the {@link #MAX_STRING_LENGTH}. A datagram must be able to hold it, as reliable packets are
+	 * never fragmented.
+	 */
+	public static final int MAX_RELIABLE_PACKET_SIZE = FRAME_HEADER_SIZE + 2 * (1 + MAX_STRING_LENGTH) + 1;
+
+	/**
+	 * The number of player IDs (0 to MAX_PLAYERS - 1), and so the largest number of players a server can hold at once
+	 */
+	public static final int MAX_PLAYERS = 255;
+
+	/**
+	 * The player ID that refers to no player, written as the unsigned byte value {@link #MAX_PLAYERS}
+	 */
+	public static final int NO_PLAYER = -1;
+
+	/**
+	 * The character set used to encode Strings
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Whether each packet type is sent over the reliable channel, indexed by packet ID. Authentication and connection
+	 * traffic must arrive; player updates, weapon fire and snapshots are superseded so quickly that retransmitting
+	 * them would only add latency.
+	 */
+	private static final boolean[] reliable = new boolean[256];
+
+	/**
+	 * Whether each packet type may be compressed, indexed by packet ID: snapshots and player introductions, which are
+	 * large and repeat the same names and values across players and ticks
+	 */
+	private static final boolean[] compressible = new boolean[256];
+
+	/**
+	 * Whether each packet type carries state that the next packet of the same type supersedes, indexed by packet ID:
+	 * snapshots and player updates, which are worth less the longer they wait, unlike events such as weapon fire
+	 */
+	private static final boolean[] state = new boolean[256];
+
+	static {
+		for (int id : new int[] {0, 1, 2, 20, 21, 22})
+			reliable[id] = true;
+		compressible[10] = compressible[21] = true;
+		state[10] = state[30] = true;
+	}
+
+	/**
+	 * The quantizer with which locations are encoded and decoded
+	 */
+	private static volatile LocationQuantizer locationQuantizer = new LocationQuantizer();
+
+	/**
+	 * Static utility class - not instantiable
+	 */
+	private PacketCodec() { }
+
+	/**
+	 * Writes the provided packet's frame (ID, payload length, and fields) into the buffer, starting at the buffer's
+	 * current position. The fields of an {@link EncodedPacket} are copied from its shared payload.
+	 *
+	 * @param packet The packet to encode
+	 * @param buffer The buffer into which to write the packet
+	 * @throws java.nio.BufferOverflowException If the buffer does not have enough space remaining for the packet
+	 */
+	public static void encode(OutgoingPacket packet, ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.put((byte) packet.getID());
+		buffer.putShort((short) 0); // Length placeholder, filled in once the payload has been written
+		if (packet instanceof EncodedPacket)
+			((EncodedPacket) packet).writePayload(buffer);
+		else
+			((BBPacket) packet).write(buffer);
+		buffer.putShort(start + 1, (short) (buffer.position() - start - FRAME_HEADER_SIZE));
+	}
+
+	/**
+	 * Writes a reliable frame wrapping the provided packet's frame. Layout: message sequence number (unsigned short),
+	 * packet frame.
+	 *
+	 * @param packet The reliable packet to encode
+	 * @param messageSequence The message sequence number (0-65535)
+	 * @param buffer The buffer into which to write the frame
+	 * @throws java.nio.BufferOverflowException If the buffer does not have enough space remaining for the frame
+	 */
+	public static void encodeReliable(OutgoingPacket packet, int messageSequence, ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.put((byte) RELIABLE_ID);
+		buffer.putShort((short) 0); // Length placeholder
+		buffer.putShort((short) messageSequence);
+		encode(packet, buffer);
+		buffer.putShort(start + 1, (short) (buffer.position() - start - FRAME_HEADER_SIZE));
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return Whether packets of the type are sent over the reliable channel, retransmitted until acknowledged and
+	 * delivered in order
+	 */
+	public static boolean isReliable(int id) {
+		return reliable[id];
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return Whether packets of the type may be sent in a compressed frame, to peers that have agreed to receive them
+	 */
+	public static boolean isCompressible(int id) {
+		return compressible[id];
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return Whether packets of the type carry state that the next packet of the type supersedes (so that a waiting
+	 * one is the first to be dropped when a send queue overflows)
+	 */
+	public static boolean isState(int id) {
+		return state[id];
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return Whether the ID is reserved for frames that wrap other frames ({@link #RELIABLE_ID}, {@link #FRAGMENT_ID},
+	 * {@link #COMPRESSED_ID})
+	 */
+	public static boolean isReserved(int id) {
+		return id == RELIABLE_ID || id == FRAGMENT_ID || id == COMPRESSED_ID;
+	}
+
+	/**
+	 * Writes a fragment frame carrying the next slice of an encoded packet's frame. Layout: message ID (unsigned short,
+	 * shared by all the fragments of one packet), fragment index (unsigned byte), fragment count (unsigned byte), offset
+	 * of the slice within the packet's frame (unsigned short), slice data.
+	 *
+	 * @param frame The buffer holding the encoded packet, positioned at the start of the slice (its position is
+	 * advanced past the slice)
+	 * @param messageID The message ID of the packet (0-65535)
+	 * @param index The index of this fragment
+	 * @param count The total number of fragments the packet is split into (1-255)
+	 * @param length The length of the slice, in bytes
+	 * @param buffer The buffer into which to write the fragment frame
+	 * @throws java.nio.BufferOverflowException If the buffer does not have enough space remaining for the fragment
+	 */
+	public static void encodeFragment(ByteBuffer frame, int messageID, int index, int count, int length,
+			ByteBuffer buffer) {
+		buffer.put((byte) FRAGMENT_ID);
+		buffer.putShort((short) (FRAGMENT_HEADER_SIZE - FRAME_HEADER_SIZE + length));
+		buffer.putShort((short) messageID);
+		buffer.put((byte) index);
+		buffer.put((byte) count);
+		buffer.putShort((short) frame.position());
+		int limit = frame.limit();
+		frame.limit(frame.position() + length);
+		buffer.put(frame);
+		frame.limit(limit);
+	}
+
+	/**
+	 * Reads a packet frame from the buffer, starting at its current position. Unless the frame header itself is
+	 * truncated, the buffer is always left positioned at the start of the next frame, so that the packets in a datagram
+	 * can be decoded by calling this method until the buffer has no remaining bytes.
+	 *
+	 * @param buffer The buffer containing the encoded packet
+	 * @param address The IP address from which the packet was received
+	 * @param port The port on the above address
+	 * @param registry The registry holding the decoder for each packet ID
+	 * @return The decoded packet, or null if the packet ID is not registered or the data is truncated or malformed
+	 */
+	public static BBPacket decode(ByteBuffer buffer, InetAddress address, int port, PacketRegistry registry) {
+		if (buffer.remaining() < FRAME_HEADER_SIZE) { // Not even a header left - discard the rest of the datagram
+			buffer.position(buffer.limit());
+			return null;
+		}
+		int id = buffer.get() & 0xFF;
+		int length = buffer.getShort() & 0xFFFF;
+		if (length > buffer.remaining()) { // Truncated frame - discard the rest of the datagram
+			buffer.position(buffer.limit());
+			return null;
+		}
+		int limit = buffer.limit();
+		int end = buffer.position() + length;
+		buffer.limit(end);
+		BBPacket packet = registry.decode(id, buffer);
+		buffer.limit(limit);
+		buffer.position(end);
+		if (packet != null) {
+			packet.setAddress(address);
+			packet.setPort(port);
+		}
+		return packet;
+	}
+
+	/**
+	 * Constructs an empty packet of the type given by the ID, to be filled in by {@link BBPacket#read(ByteBuffer)}. Used
+	 * by the {@link PacketPool} when a pool runs dry.
+	 *
+	 * @param id A packet ID
+	 * @return The new packet, or null if the ID does not belong to a known packet type
+	 */
+	static BBPacket newPacket(int id) {
+		switch (id) {
+			case 0:
+				return new Packet00AuthRequest();
+			case 1:
+				return new Packet01AuthResponse();
+			case 2:
+				return new Packet02DeauthWarning();
+			case 10:
+				return new Packet10ServerSnapshot();
+			case 11:
+				return new Packet11SnapshotAck();
+			case 20:
+				return new Packet20PlayerJoin();
+			case 21:
+				return new Packet21PlayerConnect();
+			case 22:
+				return new Packet22PlayerDisconnect();
+			case 30:
+				return new Packet30PlayerUpdate();
+			case 40:
+				return new Packet40WeaponFire();
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Writes a String as an unsigned byte length followed by its UTF-8 bytes. A null String is written as an empty one.
+	 *
+	 * @param buffer The buffer to write into
+	 * @param string The String to write
+	 * @throws IllegalArgumentException If the encoded String is longer than {@link #MAX_STRING_LENGTH} bytes
+	 */
+	public static void writeString(ByteBuffer buffer, String string) {
+		if (string == null || string.isEmpty()) {
+			buffer.put((byte) 0);
+			return;
+		}
+		byte[] bytes = string.getBytes(UTF8);
+		if (bytes.length > MAX_STRING_LENGTH)
+			throw new IllegalArgumentException("Strings sent over the network cannot exceed " + MAX_STRING_LENGTH +
+					" bytes");
+		buffer.put((byte) bytes.length);
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Reads a String written by {@link #writeString(ByteBuffer, String)}
+	 *
+	 * @param buffer The buffer to read from
+	 * @return The String (empty if a null or empty String was written)
+	 */
+	public static String readString(ByteBuffer buffer) {
+		return readString(buffer, null);
+	}
+
+	/**
+	 * Reads a String written by {@link #writeString(ByteBuffer, String)}, returning the provided previous value
+	 * instead of allocating a new String if the encoded String is an ASCII String equal to it. Pooled packets pass in
+	 * the value of the field being read, which is usually the same as it was the last time the packet was used (the
+	 * same username, for example).
+	 *
+	 * @param buffer The buffer to read from
+	 * @param previous The String to return if it matches the encoded String (may be null)
+	 * @return The String (empty if a null or empty String was written)
+	 */
+	public static String readString(ByteBuffer buffer, String previous) {
+		int length = buffer.get() & 0xFF;
+		if (length == 0)
+			return "";
+		if (length > buffer.remaining())
+			throw new BufferUnderflowException();
+		if (previous != null && matchesASCII(buffer, length, previous)) {
+			buffer.position(buffer.position() + length);
+			return previous;
+		}
+		if (!buffer.hasArray()) {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return new String(bytes, UTF8);
+		}
+		String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+		buffer.position(buffer.position() + length);
+		return string;
+	}
+
+	/**
+	 * Writes a player ID as an unsigned byte. {@link #NO_PLAYER} is written as {@link #MAX_PLAYERS}.
+	 *
+	 * @param buffer The buffer to write into
+	 * @param playerID The player ID (0 to {@link #MAX_PLAYERS} - 1, or {@link #NO_PLAYER})
+	 * @throws IllegalArgumentException If the ID is out of range
+	 */
+	public static void writePlayerID(ByteBuffer buffer, int playerID) {
+		if (playerID < NO_PLAYER || playerID >= MAX_PLAYERS)
+			throw new IllegalArgumentException("Player IDs must be between 0 and " + (MAX_PLAYERS - 1));
+		buffer.put((byte) (playerID == NO_PLAYER ? MAX_PLAYERS : playerID));
+	}
+
+	/**
+	 * Reads a player ID written by {@link #writePlayerID(ByteBuffer, int)}
+	 *
+	 * @param buffer The buffer to read from
+	 * @return The player ID (0 to {@link #MAX_PLAYERS} - 1, or {@link #NO_PLAYER})
+	 */
+	public static int readPlayerID(ByteBuffer buffer) {
+		int playerID = buffer.get() & 0xFF;
+		return playerID == MAX_PLAYERS ? NO_PLAYER : playerID;
+	}
+
+	/**
+	 * Compares the next bytes of the buffer to an ASCII String, without moving the buffer's position
+	 *
+	 * @param buffer The buffer to read from
+	 * @param length The number of bytes to compare
+	 * @param string The String to compare the bytes to
+	 * @return Whether the bytes are the ASCII encoding of the String
+	 */
+	private static boolean matchesASCII(ByteBuffer buffer, int length, String string) {
+		if (string.length() != length)
+			return false;
+		int position = buffer.position();
+		for (int i = 0; i < length; i++) {
+			byte b = buffer.get(position + i);
+			if (b < 0 || b != string.charAt(i)) // Non-ASCII bytes never match, as they encode multi-byte characters
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the position and rotation of a {@link Location3D} with the configured {@link #locationQuantizer}
+	 *
+	 * @param buffer The buffer to write into
+	 * @param location The location to encode
+	 */
+	public static void writeLocation(ByteBuffer buffer, Location3D location) {
+		locationQuantizer.write(buffer, location);
+	}
+
+	/**
+	 * Reads a {@link Location3D} written by {@link #writeLocation(ByteBuffer, Location3D)}
+	 *
+	 * @param buffer The buffer to read from
+	 * @return The resulting location
+	 */
+	public static Location3D readLocation(ByteBuffer buffer) {
+		return readLocation(buffer, null);
+	}
+
+	/**
+	 * Reads a {@link Location3D} written by {@link #writeLocation(ByteBuffer, Location3D)} into an existing location
+	 * object, if one is provided
+	 *
+	 * @param buffer The buffer to read from
+	 * @param location The location to overwrite (null to construct a new one)
+	 * @return The location that was read (the provided one, unless it was null)
+	 */
+	public static Location3D readLocation(ByteBuffer buffer, Location3D location) {
+		return locationQuantizer.read(buffer, location);
+	}
+
+	/**
+	 * Replaces the quantizer with which locations are encoded and decoded. The client and the server must use
+	 * identically configured quantizers, so this should be called before any packets are sent or received.
+	 *
+	 * @param quantizer The new {@link #locationQuantizer}
+	 */
+	public static void setLocationQuantizer(LocationQuantizer quantizer) {
+		locationQuantizer = quantizer;
+	}
+
+	/**
+	 * @return The {@link #locationQuantizer} with which locations are encoded and decoded
+	 */
+	public static LocationQuantizer getLocationQuantizer() {
+		return locationQuantizer;
+	}
+}
@@ -0,0 +1,305 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses packet frames, for the {@link PacketCodec#isCompressible(int) compressible} packet types
+ * sent to peers that have agreed to receive them. A frame is compressed with raw DEFLATE, primed with a preset
+ * {@link #DICTIONARY} trained from the snapshots and player introductions of captured traffic, so that the field
+ * layouts, usernames and typical values of a small packet can be found in the dictionary instead of having to appear
+ * once in the packet before they can be referred to. The gain is modest, as most of a snapshot is quantized locations
+ * that change every tick: on captures the dictionary was not trained from, those packets compressed to about 90% of
+ * their size when the players flew scripted paths, and 96% when they flew random ones.<p>
+ *
+ * A compressed frame replaces the packet's frame, and is only sent if it is smaller. Layout: frame ID
+ * ({@link PacketCodec#COMPRESSED_ID}), frame length (unsigned short), length of the packet frame once decompressed
+ * (unsigned short), compressed packet frame. It can itself be wrapped in a reliable frame or split into fragments,
+ * like any packet frame.<p>
+ *
+ * The dictionary is part of the protocol: the sender and the receiver must use the same one. It is therefore frozen as
+ * a literal, identified by its {@link #DICTIONARY_VERSION}, rather than derived from the packets' current layouts,
+ * which would silently change it whenever a packet changed. The version is exchanged during authorization (see
+ * {@link Packet00AuthRequest}), and compression is only enabled when both sides have the same one; to change the
+ * dictionary, replace the literal and increment the version. Each compressor holds its own native zlib streams and
+ * scratch buffers, created on first use, and is not thread-safe.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class PacketCompressor {
+
+	/**
+	 * The version of the {@link #DICTIONARY}, exchanged during authorization (never 0, which stands for no
+	 * compression)
+	 */
+	public static final int DICTIONARY_VERSION = 2;
+
+	/**
+	 * The preset dictionary both sides prime their streams with, in hexadecimal. Version 2 was trained with the
+	 * {@code DictionaryTrainer} bench tool from the snapshots and player introductions a server sent to simulated
+	 * players, some flying random paths and some scripted ones: it is 4 KB of whole frames taken at even intervals
+	 * across the captures, in the order they were sent.
+	 */
+	private static final String DICTIONARY_HEX =
+			"1500150004626f74310100642000040102000000000000001500160f05626f7431360100642000040102000000000000" +
+			"000a01460000005a00000059ffffffffffffffff1611011fc2843ad1f4cf0f2816500010011ef33404b9fd080c720120" +
+			"0008011df6547d11e9450d8d0f300007011ffc647299d4630ffd0cd00006011d4fc410d9e87c0d4601a00015011ff494" +
+			"03b200b60a020d200013011fb50404e205cb09bc02a0000d011eb6347a62077a0b1d18b0000c011fba9440ea1b530867" +
+			"0b70000b011e254406fa0e920ad600f0000a011fe474481a231e08200a100001011c9db45a2222520a900700000e0121" +
+			"55b41cc9f6ea02fa06100009012040642f91d92d0043060000040122fd1444f9e53502b306400002012304948e39dd96" +
+			"026c0bd00014012012a402ba0419074c0210001201203f240fb209bd07050710000f0120ff4408720c7605b001e00005" +
+			"0122bf143f221b37056a061000030122bd34fa7214f5052317400000012040245402435a07d9063000000a0170000000" +
+			"6900000068ffffffffffffffff191a011fefd40261ffb50cb906a00011011f7b947d89e7e40f2816500010011df73408" +
+			"31fa400c7201200008011d32a4ab99e0bf0d8d0f300007011ffb149a39c52c0ffd0cd00006011c6f441609e0d00d4601" +
+			"a00015011f48442c4a0b680a020d200013011f14540d2a123409bc02a0000d011df044c33a0bf70b1d18b0000c011f94" +
+			"04646a2a8208670b70000b011d3f8409e215a00ad600f0000a011fa044637a2f730ad007800001011bc8b470122ac30a" +
+			"9007000018012056541001fb3102260a600016012092c412f1f5d801df06a0000e01223ea42fb9f0b802fa0610000901" +
+			"205a844271c96f00430600001901204064022a016a04dc016000170120a36410c2026104950790001401205864093a13" +
+			"79074c0210001201209dd425ba185907050710000f0121c8d40e4a164d05b001e00005012396445222238c056a061000" +
+			"030121d914f17a0dc70d30fd20000001204f346772532407d9063000000a01c40000007500000074ffffffffffffffff" +
+			"1f1d011ff84402e1fbc40fb60240001c011f93040a91fd2f0cff0690001b011fdae40e99f5ba0f6f0680001a011f2dc4" +
+			"12e9fc2d0cb906a00011011f42d4b2e9dd8f0f2816500010011d2d940af9f8060c7201200008011c9624d0d1d9ed0d8d" +
+			"0f300007011ffa14b9e9b9000ffd0cd00006011bbbb41a29daae0d4601a00015011ebe744cc213f60a020d200013011e" +
+			"93c413ca1c2209bc02a0000d011da564ed3a10c0060301e0000c011f752480d236a708670b70000b011c87b40c321b44" +
+			"0ad600f0000a011eec64763a351b0ad007800001011b758475e227600fcffe7000180120ea6429c1f2f402260a600016" +
+			"01211a442379ec7901df06a0000e0122f9143ee1ebc402fa0610000901206f645191bcd700430600000401248a546849" +
+			"d74c02b30640000201246c44cff9cd90026c0bd0001e012002a4042a00fa07930f6000190121018405b205a604dc0160" +
+			"00170121676423aa053d049507900014012090340e721fc5074c021000120120e994375a240907050710000f01226a14" +
+			"13021e2b05b001e0000501244274615a2a36056a06100003012122a4ea5208090d30fd20000001205b4477025fc507d9" +
+			"063000000a01d60000008600000085ffffffffffffffff201d011fd7440af9e9b30fb60240001c031e893421f1f6520c" +
+			"ff06900000441b011f9b8425d1e4310f6f0680001a011e19b42a71f7260cb906a00011011ef224fed9cedc0f28165000" +
+			"10011c0ec40ef1f4dc0c7201200008011bb77505c9d0390d8d0f300007011ff8a4e701a7af0ffd0cd0001f031f469413" +
+			"ca093f0a49066000005e15011dfa647af220220a020d200013011ddcd41d3a2a4309bc02a0000d011e7254f3fa1dab06" +
+			"0301e0000c011f4934a93a47ef08670b70000b011b82440f82234a0ad600f0000a011dec7490ea3d260ad00780000101" +
+			"1b5fa4706a153a0fcffe7000180121bcf44e59e73a02260a6000160121db043b09df2201df06a0000e012402345471e4" +
+			"b602fa0610000901208d146709aaec004306000004012585947e99ce7f02b30640000301201f04e019ffde0d30fd2000" +
+			"0201254fa4f989c36f026c0bd0001e01202ff439d211ac07930f600019012214540ab20bad04dc0160001701227e443e" +
+			"92094d0495079000140120dfa415d23145074c0210001201215564506a34a907050710000f01234f8419aa295e05b001" +
+			"e000050125377476fa33b2056a0610000001206c548d2a71bd07d906300006011abc442011d1f30d4601a000000a0180" +
+			"0000009900000098ffffffffffffffff1a1d011fb2b413e9d5ad0fb60240001c011d62843bd1eeb60cff0690001b011f" +
+			"55343f89d0c00f6f0680001a011ce7a44489f1950cb906a00011011ff2d50739d0640485ff800003011eff34d4c1f6cf" +
+			"0d30fd20001f011e4d342d1215af0a4906600015011d2104ae2a2d9f0a020d200013011d121427b239ec09bc02a0000d" +
+			"011f5594fb7a2bfc060301e0000c011f1884d60a5b1708670b70000b011a606413222c300ad600f0000a011cd0c4ae7a" +
+			"46100ad007800001011b47546a52011c0fcffe7000180322539466a9d8a90f74fb3000001c160122b0a45521d05901df" +
+			"06a0000e012528346c59dce502fa0610001e012062247552242d07930f600019012344e4103a125c04dc016000170123" +
+			"b3745c620dcf049507900014012137b41e0a44aa074c021000120121ccd46c32471807050710000f01244dd4211235c8" +
+			"05b001e00005012647048efa3e35056a0610000001207f54a5b285a807d906300007011ff7051901947d0ffd0cd00000" +
+			"0a00c8000000ac000000abffffffffffffffff0d0c011ee7a503026e5208670b70000e01264a9483f9d52d02fa061000" +
+			"1e01209484b11236c007930f600019012476b415ca191104dc016000170124e9d47a5212550495079000140121901426" +
+			"425823074c02100012012244c4881a599907050710000f01254d242882423e05b001e0000d012039b502fa3a5c060301" +
+			"e000050126d924a18a3eee0f3d026000000120ced4b5fa9415032dfc400008011b3de4cf61f639087df8d0001c011c3a" +
+			"b455d1e7120cff069000000a011c000000bf000000beffffffffffffffff131c011b12e46fd1df6f0cff0690001a011a" +
+			"812478e9e6660cb906a00010011852641c21ea4d0c7201200003011cbd64be09e4a00d30fd200001011b16945e21d8b9" +
+			"0fcffe70001f011c58845fd22ea70a4906600015011b6c9514fa48b60a020d200013011b7af43cb2595d09bc02a0000c" +
+			"011eb2c52c527f760eeffb20000b01181a641a7a3e0d0ad600f0000a011bbd14d302498b01c7fdf00008011b0144b302" +
+			"09d0087df8d0001e0120c6f4ecca495407930f6000140121e8742e7a6b9c074c02100012012297649e4268810e03f9d0" +
+			"000d01211dc50a8248bb060301e00000012200e4a7028daa032dfc4000090120f024aeb16f2f00430600001d011f6934" +
+			"25d9ad770fb6024000000a00e4000000d2000000d1ffffffffffffffff0f1601253424a3c1a3d301df06a000110123ab" +
+			"450149dcbe0485ff80000e0123d0347a69dd7f0b79fed0001e012104a514fa4faf00b3fff000190126da4420ea267c04" +
+			"dc016000170126e0149cb2297d05df03900014012240e436ba7f15074c021000120121b59485ca5a480e03f9d0000f01" +
+			"274bb4375a5b2a05b001e0000d012201e5120a571b060301e0000501261a24b48218440f3d0260000001233304980a87" +
+			"3f032dfc4000040129c154e011a8f809cc00f0000201285b64fef1deb0069ff9f0000a011c8d64cad23a0b01c7fdf000" +
+			"000a00d6000000e5000000e4ffffffffffffffff0e0c011dacf5058a5ab20eeffb20001e01215c9514da3c2d00b3fff0" +
+			"00170127cfe4aae2370305df039000120120d3c46d4a4c100e03f9d0000d0122e605198a657b060301e000050125baa4" +
+			"be0204ef0f3d02600014012299443ef2928e074c0210000001246524890a80d4032dfc40001901280c04267a2d3104dc" +
+			"0160000f01284b043eca67a005b001e00001011ae5d451e9b0550fcffe70000b01196754302a324602ba03400015011c" +
+			"c8750f3a567e0496fa70001f011a63d49292479f0a49066000000a012a000000f7000000f6ffffffffffffffff141a01" +
+			"16f794c611d5eb0cb906a0001001168174a00213cb09170d70001d011efcf4405172350fb60240001c011b8614a141db" +
+			"3a04790250001b011e4a74a7218bc407a1fde000060118f8c43351d6b30631ffb00003011969d49c89c9d50d30fd2000" +
+			"01011acec44c219d330fcffe70001f011976a4aa9a53730a4906600012011ffde4561a3e970e03f9d0000c011d30e4f3" +
+			"2a49480eeffb20000b011a74043c52291802ba0340000a011e2314bada1bdd01c7fdf00008011d79049a22176603daff" +
+			"d000180120c1747b5193f704ab01e0000e012166747119e59a0b79fed0000701216334f8f1ab6c06cefb70001e0121af" +
+			"e514b229b200b3fff0000d0123be1520aa7319060301e000170128b314b85a43d305df039000001500150404626f7435" +
+			"0100642000040102000000000000000a00740000004a00000049ffffffffffffffff070b0117e8444c6210ba0c360000" +
+			"0008011e86d53519e31301040000000d011b9ad5014234e405b50000000a011ccc3459022c2e081200000001011b6f84" +
+			"45e25eca040b000000030121ae551309e6eb0b1a000000060113eb845161b9e30785000000000a00820000005d000000" +
+			"5cffffffffffffffff08140120ab84211a7e2709fd000000120125b294bc3a7370007e0000000501251ba4b14a6c0405" +
+			"a90000000c01204bd52f9aaa7c02a10000000001236754e68aa79800f70000000f012ac5e42a2a48790dc50000000701" +
+			"20c00544c961f30ca9000000110120ae84faf9a4e10d93000000000a00900000007300000072ffffffffffffffff0915" +
+			"011df2950c6243150f560000000c011eead4fc3ab15303d70000000301245034f819eadd0d60000000170122ea94b5ba" +
+			"31110665000000140121e624623a72080b3300000005012432d4cf225a1406df0000001201251844ce3a886e01b30000" +
+			"000001229184d472ba6f022d0000000f012ba23414025b050efb000000000a00ac0000008c0000008bffffffffffffff" +
+			"ff0b100117c4845029b7880c060000000d011adf64ba11f577095d0000000a011f88f48cb9fcd20bbb00000008011ae7" +
+			"94e371ff6404ac00000015011dedf5551a5d6b00b80000000b011ab6b4142a3f080fde00000001011871f48922338507" +
+			"b3000000110121f7b51279d016002a00000017012256a4932a186807c700000000012115048db2c5c103900000001401" +
+			"238b246baa70e30c95000000000a0090000000a5000000a4ffffffffffffffff09130115dc143ed281ee089b0000000d" +
+			"011c1014f0f9e3440ac00000000801197d352c41f1f2060f00000015011d10254e7273d2021a0000000b011a5ab44db2" +
+			"58bc0141000000010118b29447f2197e09160000000c011c1b555f4299d4069d00000005012484146fca279709a40000" +
+			"000f012b2e246eba8d3d01c0000000000a009e000000be000000bdffffffffffffffff0a170123bc347f09ead60a8b00" +
+			"0000160123e6e4f619ad300659000000";
+
+	/**
+	 * The preset {@link #DICTIONARY_HEX dictionary}, decoded
+	 */
+	private static final byte[] DICTIONARY = decodeDictionary();
+
+	/**
+	 * Cached on an {@link EncodedPacket}'s payload when compressing it did not save a byte
+	 */
+	private static final byte[] NOT_COMPRESSED = new byte[0];
+
+	/**
+	 * Compresses frames (created on first use)
+	 */
+	private Deflater deflater;
+
+	/**
+	 * Decompresses frames (created on first use)
+	 */
+	private Inflater inflater;
+
+	/**
+	 * The buffer into which frames are compressed, and from which compressed frames are decompressed
+	 */
+	private byte[] scratch;
+
+	/**
+	 * The buffer into which compressed frames are decompressed
+	 */
+	private ByteBuffer inflated;
+
+	/**
+	 * Compresses the packet frame at the end of a buffer, replacing it with a compressed frame if that is smaller
+	 *
+	 * @param buffer A heap buffer holding the packet frame between the provided start and its position. If the frame
+	 * is compressed, the compressed frame is written over it and the position is moved to its end.
+	 * @param start The index at which the packet frame starts
+	 * @return Whether the frame was compressed
+	 */
+	public boolean compress(ByteBuffer buffer, int start) {
+		int length = buffer.position() - start;
+		int budget = length - PacketCodec.COMPRESSED_HEADER_SIZE - 1; // Stop as soon as it would not save a byte
+		if (budget <= 0)
+			return false;
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			scratch = new byte[PacketCodec.MAX_PACKET_SIZE];
+		}
+		deflater.reset();
+		deflater.setDictionary(DICTIONARY);
+		deflater.setInput(buffer.array(), buffer.arrayOffset() + start, length);
+		deflater.finish();
+		int size = 0;
+		while (!deflater.finished() && size < budget)
+			size += deflater.deflate(scratch, size, budget - size);
+		if (!deflater.finished())
+			return false;
+		buffer.position(start);
+		buffer.put((byte) PacketCodec.COMPRESSED_ID);
+		buffer.putShort((short) (size + PacketCodec.COMPRESSED_HEADER_SIZE - PacketCodec.FRAME_HEADER_SIZE));
+		buffer.putShort((short) length);
+		buffer.put(scratch, 0, size);
+		return true;
+	}
+
+	/**
+	 * Compresses the frame of a copy of an {@link EncodedPacket}, exactly like {@link #compress(ByteBuffer, int)},
+	 * except that the outcome is cached on the payload the copy shares with the others: the first copy is compressed,
+	 * and every later one has the cached compressed frame copied in (or is left as it is, if compressing did not save
+	 * a byte)
+	 *
+	 * @param buffer A heap buffer holding the packet frame of the copy between the provided start and its position
+	 * @param start The index at which the packet frame starts
+	 * @param packet The copy whose frame the buffer holds
+	 * @return Whether the frame was compressed
+	 */
+	public boolean compress(ByteBuffer buffer, int start, EncodedPacket packet) {
+		EncodedPacket.Payload payload = packet.getSharedPayload();
+		byte[] cached = payload.compressedFrame;
+		if (cached == null) {
+			if (compress(buffer, start)) {
+				cached = new byte[buffer.position() - start];
+				System.arraycopy(buffer.array(), buffer.arrayOffset() + start, cached, 0, cached.length);
+			} else
+				cached = NOT_COMPRESSED;
+			payload.compressedFrame = cached;
+			return cached != NOT_COMPRESSED;
+		}
+		if (cached == NOT_COMPRESSED)
+			return false;
+		buffer.position(start);
+		buffer.put(cached);
+		return true;
+	}
+
+	/**
+	 * Decompresses the compressed frame at a buffer's position
+	 *
+	 * @param buffer The buffer, positioned at a compressed frame. Unless the frame header itself is truncated, the
+	 * position is advanced past the frame.
+	 * @return A buffer holding the decompressed packet frame between its position and limit (reused by the next
+	 * call), or null if the frame is truncated or malformed
+	 */
+	public ByteBuffer decompress(ByteBuffer buffer) {
+		if (buffer.remaining() < PacketCodec.COMPRESSED_HEADER_SIZE) {
+			buffer.position(buffer.limit());
+			return null;
+		}
+		buffer.get(); // Compressed frame ID
+		int length = buffer.getShort() & 0xFFFF;
+		if (length > buffer.remaining()
+				|| length < PacketCodec.COMPRESSED_HEADER_SIZE - PacketCodec.FRAME_HEADER_SIZE) {
+			buffer.position(buffer.limit());
+			return null;
+		}
+		int originalLength = buffer.getShort() & 0xFFFF;
+		int size = length - (PacketCodec.COMPRESSED_HEADER_SIZE - PacketCodec.FRAME_HEADER_SIZE);
+		if (inflater == null) {
+			inflater = new Inflater(true);
+			inflated = ByteBuffer.allocate(PacketCodec.MAX_PACKET_SIZE);
+			if (scratch == null)
+				scratch = new byte[PacketCodec.MAX_PACKET_SIZE];
+		}
+		buffer.get(scratch, 0, size);
+		if (originalLength > inflated.capacity() || originalLength < PacketCodec.FRAME_HEADER_SIZE)
+			return null;
+		inflater.reset();
+		inflater.setDictionary(DICTIONARY);
+		inflater.setInput(scratch, 0, size);
+		int inflatedLength = 0;
+		try {
+			while (inflatedLength < originalLength) {
+				int count = inflater.inflate(inflated.array(), inflatedLength, originalLength - inflatedLength);
+				if (count == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+				inflatedLength += count;
+			}
+		} catch (DataFormatException e) {
+			return null;
+		}
+		if (inflatedLength != originalLength)
+			return null;
+		inflated.clear();
+		inflated.limit(originalLength);
+		return inflated;
+	}
+
+	/**
+	 * Releases the native zlib streams. The compressor can still be used afterwards, and will create new ones.
+	 */
+	public void end() {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+
+	/**
+	 * Decodes the {@link #DICTIONARY_HEX preset dictionary}
+	 *
+	 * @return The dictionary
+	 */
+	private static byte[] decodeDictionary() {
+		byte[] dictionary = new byte[DICTIONARY_HEX.length() / 2];
+		for (int i = 0; i < dictionary.length; i++)
+			dictionary[i] = (byte) Integer.parseInt(DICTIONARY_HEX.substring(i * 2, i * 2 + 2), 16);
+		return dictionary;
+	}
+}
@@ -0,0 +1,21 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns the payload of a received packet frame into a {@link BBPacket}. Decoders are registered by packet ID in a
+ * {@link PacketRegistry}.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public interface PacketDecoder {
+
+	/**
+	 * Decodes a packet payload
+	 *
+	 * @param payload The buffer, positioned at the start of the payload and limited to its end
+	 * @return The decoded packet, or null if the payload is truncated or malformed
+	 */
+	public BBPacket decode(ByteBuffer payload);
+}
@@ -0,0 +1,19 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+/**
+ * Acts on a received {@link BBPacket}. Handlers are registered by packet ID in a {@link PacketRegistry}, which lets the
+ * client and the server respond differently to the same packet type.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public interface PacketHandler {
+
+	/**
+	 * Handles a received packet. The packet may be returned to the {@link PacketPool} as soon as this method returns,
+	 * so it must not be kept.
+	 *
+	 * @param packet The received packet, whose ID is the one the handler was registered under
+	 */
+	public void handle(BBPacket packet);
+}
@@ -0,0 +1,73 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles the {@link BBPacket} objects produced by the {@link PacketCodec} so that the receive path does not allocate
+ * a new packet (and new field objects) for every datagram. Each packet type has its own bounded pool; decoding takes
+ * a packet from the pool for its ID, and {@link PacketRegistry#handleAll(java.util.Queue)} returns each packet to its
+ * pool once it has been handled.<p>
+ *
+ * Because pooled packets are overwritten when they are reused, neither a released packet nor any object returned by
+ * its getters (such as its location) may be kept after the packet's handle() method returns - copy whatever needs to
+ * outlive the packet (eg. with {@link com.veltro.blazingbarrels.game.location.Location3D#clone()}).
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public final class PacketPool {
+
+	/**
+	 * The number of idle packets kept per packet type. Packets released while their pool is full are left to the
+	 * garbage collector.
+	 */
+	private static final int POOL_SIZE = 128;
+
+	/**
+	 * The pools, indexed by packet ID. The pools are bounded array-backed queues, which (unlike linked queues) do not
+	 * allocate when packets are added or removed, and are safe to use from the network thread (which acquires packets)
+	 * and the game thread (which releases them) at the same time.
+	 */
+	private static final ArrayBlockingQueue<?>[] pools = new ArrayBlockingQueue<?>[256];
+
+	static {
+		for (int id = 0; id < pools.length; id++)
+			if (PacketCodec.newPacket(id) != null)
+				pools[id] = new ArrayBlockingQueue<BBPacket>(POOL_SIZE);
+	}
+
+	/**
+	 * Static utility class - not instantiable
+	 */
+	private PacketPool() { }
+
+	/**
+	 * Takes an idle packet of the provided type from its pool, or constructs a new one if the pool is empty
+	 *
+	 * @param id A packet ID
+	 * @return A pooled packet whose fields are to be overwritten, or null if the ID does not belong to a known packet
+	 * type
+	 */
+	public static BBPacket acquire(int id) {
+		if (id < 0 || id >= pools.length || pools[id] == null)
+			return null;
+		BBPacket packet = (BBPacket) pools[id].poll();
+		if (packet == null) {
+			packet = PacketCodec.newPacket(id);
+			packet.pooled = true;
+		}
+		return packet;
+	}
+
+	/**
+	 * Returns a packet to the pool for its type. Packets that did not come from the pool (ie. were constructed to be
+	 * sent) are ignored.
+	 *
+	 * @param packet The packet to release, which must no longer be referenced by the caller
+	 */
+	@SuppressWarnings("unchecked")
+	public static void release(BBPacket packet) {
+		if (packet.pooled)
+			((ArrayBlockingQueue<BBPacket>) pools[packet.getID()]).offer(packet);
+	}
+}
@@ -0,0 +1,228 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
+/**
+ * Maps packet IDs to the {@link PacketDecoder} that turns a received payload into a {@link BBPacket} and the
+ * {@link PacketHandler} that acts on the result. Both are kept in flat arrays indexed by ID, so decoding or
+ * dispatching a packet is a single array load followed by an interface call - there is no switch to extend when a
+ * packet type is added, no reflection, and no boxing of IDs.<p>
+ *
+ * The client and the server each build their own registry ({@link #createClientRegistry()},
+ * {@link #createServerRegistry()}) containing only the packet types they should receive; datagrams containing any
+ * other ID are discarded. Handlers default to the packet's own {@link BBPacket#handle()} method and can be replaced
+ * with {@link #setHandler(int, PacketHandler)}.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class PacketRegistry {
+
+	/**
+	 * The number of possible packet IDs (IDs are written as an unsigned byte)
+	 */
+	public static final int MAX_PACKET_TYPES = 256;
+
+	/**
+	 * The handler used for packets registered without a custom handler - calls the packet's {@link BBPacket#handle()}
+	 * method
+	 */
+	public static final PacketHandler DEFAULT_HANDLER = new PacketHandler() {
+		public void handle(BBPacket packet) {
+			packet.handle();
+		}
+	};
+
+	/**
+	 * The IDs of the packets the client receives
+	 */
+	private static final int[] CLIENT_PACKET_IDS = {1, 2, 10, 21, 22, 30, 40};
+
+	/**
+	 * The IDs of the packets the server receives
+	 */
+	private static final int[] SERVER_PACKET_IDS = {0, 11, 20, 22, 30, 40};
+
+	/**
+	 * The registered decoders, indexed by packet ID (null for unregistered IDs)
+	 */
+	private final PacketDecoder[] decoders = new PacketDecoder[MAX_PACKET_TYPES];
+
+	/**
+	 * The registered handlers, indexed by packet ID (null for unregistered IDs)
+	 */
+	private final PacketHandler[] handlers = new PacketHandler[MAX_PACKET_TYPES];
+
+	/**
+	 * @return A registry containing every packet type the client receives, decoded into pooled packets
+	 */
+	public static PacketRegistry createClientRegistry() {
+		return createPooledRegistry(CLIENT_PACKET_IDS);
+	}
+
+	/**
+	 * @return A registry containing every packet type the server receives, decoded into pooled packets
+	 */
+	public static PacketRegistry createServerRegistry() {
+		return createPooledRegistry(SERVER_PACKET_IDS);
+	}
+
+	/**
+	 * @return A registry containing every known packet type, decoded into pooled packets
+	 */
+	public static PacketRegistry createDefaultRegistry() {
+		PacketRegistry registry = new PacketRegistry();
+		for (int id = 0; id < MAX_PACKET_TYPES; id++)
+			if (PacketCodec.newPacket(id) != null)
+				registry.register(id, new PooledDecoder(id), DEFAULT_HANDLER);
+		return registry;
+	}
+
+	/**
+	 * Creates a registry containing the provided packet types, each decoded into pooled packets and handled by the
+	 * {@link #DEFAULT_HANDLER}
+	 *
+	 * @param ids The IDs to register
+	 * @return The new registry
+	 */
+	private static PacketRegistry createPooledRegistry(int[] ids) {
+		PacketRegistry registry = new PacketRegistry();
+		for (int id : ids)
+			registry.register(id, new PooledDecoder(id), DEFAULT_HANDLER);
+		return registry;
+	}
+
+	/**
+	 * Registers a packet type, replacing any decoder and handler previously registered for its ID
+	 *
+	 * @param id The packet ID
+	 * @param decoder The decoder for the packet type's payload
+	 * @param handler The handler for the decoded packets
+	 * @throws IllegalArgumentException If the ID is out of range or {@link PacketCodec#isReserved(int) reserved}
+	 */
+	public void register(int id, PacketDecoder decoder, PacketHandler handler) {
+		checkID(id);
+		if (PacketCodec.isReserved(id))
+			throw new IllegalArgumentException("The ID " + id + " is reserved for reliable and fragment frames");
+		decoders[id] = decoder;
+		handlers[id] = handler;
+	}
+
+	/**
+	 * Replaces the handler of a registered packet type
+	 *
+	 * @param id The packet ID
+	 * @param handler The new handler
+	 * @throws IllegalStateException If no packet type is registered under the ID
+	 */
+	public void setHandler(int id, PacketHandler handler) {
+		checkID(id);
+		if (decoders[id] == null)
+			throw new IllegalStateException("No packet type is registered under the ID " + id);
+		handlers[id] = handler;
+	}
+
+	/**
+	 * Removes a packet type from the registry, so that packets with its ID are discarded
+	 *
+	 * @param id The packet ID
+	 */
+	public void unregister(int id) {
+		checkID(id);
+		decoders[id] = null;
+		handlers[id] = null;
+	}
+
+	/**
+	 * @param id A packet ID
+	 * @return Whether a packet type is registered under the ID
+	 */
+	public boolean isRegistered(int id) {
+		return id >= 0 && id < MAX_PACKET_TYPES && decoders[id] != null;
+	}
+
+	/**
+	 * Decodes a packet payload with the decoder registered for its ID
+	 *
+	 * @param id The packet ID (0-255)
+	 * @param payload The buffer, positioned at the start of the payload and limited to its end
+	 * @return The decoded packet, or null if the ID is not registered or the payload is malformed
+	 */
+	public BBPacket decode(int id, ByteBuffer payload) {
+		PacketDecoder decoder = decoders[id];
+		return decoder == null ? null : decoder.decode(payload);
+	}
+
+	/**
+	 * Passes a packet to the handler registered for its ID
+	 *
+	 * @param packet A packet decoded by this registry
+	 */
+	public void dispatch(BBPacket packet) {
+		handlers[packet.getID()].handle(packet);
+	}
+
+	/**
+	 * Removes every packet from the provided queue, {@link #dispatch(BBPacket) dispatches} it, and returns it to the
+	 * {@link PacketPool}. This is how the game thread consumes a network thread's incoming packet queue.
+	 *
+	 * @param incomingPacketQueue The queue of packets received and decoded with this registry
+	 */
+	public void handleAll(Queue<BBPacket> incomingPacketQueue) {
+		BBPacket packet;
+		while ((packet = incomingPacketQueue.poll()) != null) {
+			try {
+				dispatch(packet);
+			} finally {
+				PacketPool.release(packet);
+			}
+		}
+	}
+
+	/**
+	 * Ensures that the provided ID is within the range of packet IDs
+	 *
+	 * @param id A packet ID
+	 */
+	private static void checkID(int id) {
+		if (id < 0 || id >= MAX_PACKET_TYPES)
+			throw new IllegalArgumentException("Packet IDs must be between 0 and " + (MAX_PACKET_TYPES - 1));
+	}
+
+	/**
+	 * The decoder used for the built-in packet types - takes a packet from the {@link PacketPool} and has it
+	 * {@link BBPacket#read(ByteBuffer) read} its fields from the payload
+	 */
+	private static class PooledDecoder implements PacketDecoder {
+
+		/**
+		 * The ID of the packets decoded
+		 */
+		private final int id;
+
+		/**
+		 * Constructor
+		 *
+		 * @param id The {@link #id} of the packets decoded
+		 */
+		PooledDecoder(int id) {
+			this.id = id;
+		}
+
+		public BBPacket decode(ByteBuffer payload) {
+			BBPacket packet = PacketPool.acquire(id);
+			try {
+				packet.read(payload);
+			} catch (BufferUnderflowException e) { // Truncated packet - discard it
+				PacketPool.release(packet);
+				return null;
+			} catch (IllegalArgumentException e) { // A field contained an invalid value - discard the packet
+				PacketPool.release(packet);
+				return null;
+			}
+			return packet;
+		}
+	}
+}
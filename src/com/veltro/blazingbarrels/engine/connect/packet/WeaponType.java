@@ -0,0 +1,63 @@
+package com.veltro.blazingbarrels.engine.connect.packet;
+
+/**
+ * An enum containing the weapons that can be fired by players. Each weapon has a unique {@link #ID}, which is used to
+ * identify the weapon in a {@link Packet40WeaponFire}.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public enum WeaponType {
+
+	/**
+	 * A short-range energy weapon
+	 */
+	LASER_CANNON(0),
+
+	/**
+	 * A hitscan weapon that fires a single, high-damage shot
+	 */
+	RAIL_GUN(1),
+
+	/**
+	 * A hitscan weapon with a high rate of fire
+	 */
+	MINI_GUN(2),
+
+	/**
+	 * Fires explosive projectiles
+	 */
+	ROCKET_LAUNCHER(3);
+
+	/**
+	 * The weapon's unique ID, used to identify it over the network
+	 */
+	public final int ID;
+
+	/**
+	 * The weapon types indexed by their {@link #ID IDs}, used by {@link #getByID(int)}
+	 */
+	private static final WeaponType[] byID = values();
+
+	/**
+	 * Enum constant constructor
+	 *
+	 * @param id The weapon's {@link #ID}
+	 */
+	WeaponType(int id) {
+		ID = id;
+	}
+
+	/**
+	 * Finds the weapon with the provided ID
+	 *
+	 * @param id A weapon {@link #ID}
+	 * @return The weapon type with that ID
+	 * @throws IllegalArgumentException If no weapon has the provided ID
+	 */
+	public static WeaponType getByID(int id) {
+		if (id >= 0 && id < byID.length && byID[id].ID == id)
+			return byID[id];
+		throw new IllegalArgumentException("No weapon type has the ID " + id);
+	}
+}
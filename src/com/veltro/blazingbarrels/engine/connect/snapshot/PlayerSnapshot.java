@@ -0,0 +1,284 @@
+package com.veltro.blazingbarrels.engine.connect.snapshot;
+
+import java.nio.ByteBuffer;
+
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * The state of a single player at the time a {@link WorldSnapshot} was taken. Snapshots are sent as deltas: only the
+ * groups of fields that differ from the player's state in the client's baseline snapshot are written, as indicated by
+ * a bit mask of the {@link #LOCATION}, {@link #HEALTH}, and {@link #FLAGS} bits.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class PlayerSnapshot {
+
+	/**
+	 * Field mask bit - the player's {@link #location} has changed
+	 */
+	public static final int LOCATION = 1;
+
+	/**
+	 * Field mask bit - the player's {@link #health} has changed
+	 */
+	public static final int HEALTH = 2;
+
+	/**
+	 * Field mask bit - at least one of the player's status flags (admin, fly mode, god mode, vanished) has changed
+	 */
+	public static final int FLAGS = 4;
+
+	/**
+	 * The field mask of a player that is not in the baseline snapshot, whose every field must be sent
+	 */
+	public static final int ALL_FIELDS = LOCATION | HEALTH | FLAGS;
+
+	/**
+	 * The ID of the player
+	 */
+	private int playerID;
+
+	/**
+	 * The player's location
+	 */
+	private final Location3D location = new Location3D();
+
+	/**
+	 * The player's health level
+	 */
+	private int health;
+
+	/**
+	 * Whether the player has administrator privileges
+	 */
+	private boolean admin;
+
+	/**
+	 * Whether the player is in fly mode
+	 */
+	private boolean flyMode;
+
+	/**
+	 * Whether the player is in god mode
+	 */
+	private boolean godMode;
+
+	/**
+	 * Whether the player is invisible to other players
+	 */
+	private boolean vanished;
+
+	/**
+	 * Sets every field of this snapshot but the player ID to the corresponding field of another snapshot
+	 *
+	 * @param other The snapshot to copy
+	 */
+	public void copyFrom(PlayerSnapshot other) {
+		setLocation(other.location);
+		health = other.health;
+		admin = other.admin;
+		flyMode = other.flyMode;
+		godMode = other.godMode;
+		vanished = other.vanished;
+	}
+
+	/**
+	 * Compares this snapshot to the same player's snapshot in a baseline
+	 *
+	 * @param baseline The player's snapshot in the baseline, or null if the player is not in the baseline
+	 * @return The field mask of the groups of fields that differ ({@link #ALL_FIELDS} if there is no baseline)
+	 */
+	public int getChangedFields(PlayerSnapshot baseline) {
+		if (baseline == null)
+			return ALL_FIELDS;
+		int mask = 0;
+		Location3D base = baseline.location;
+		if (location.getX() != base.getX() || location.getY() != base.getY() || location.getZ() != base.getZ() ||
+				location.getYaw() != base.getYaw() || location.getPitch() != base.getPitch() ||
+				location.getRoll() != base.getRoll())
+			mask |= LOCATION;
+		if (health != baseline.health)
+			mask |= HEALTH;
+		if (getFlags() != baseline.getFlags())
+			mask |= FLAGS;
+		return mask;
+	}
+
+	/**
+	 * Writes the player's ID, the field mask, and the groups of fields set in the mask
+	 *
+	 * @param buffer The buffer to write into
+	 * @param mask The field mask
+	 */
+	public void write(ByteBuffer buffer, int mask) {
+		PacketCodec.writePlayerID(buffer, playerID);
+		buffer.put((byte) mask);
+		if ((mask & LOCATION) != 0)
+			PacketCodec.writeLocation(buffer, location);
+		if ((mask & HEALTH) != 0)
+			buffer.putShort((short) health);
+		if ((mask & FLAGS) != 0)
+			buffer.put((byte) getFlags());
+	}
+
+	/**
+	 * Reads a player delta written by {@link #write(ByteBuffer, int)} into this snapshot. Fields whose group is not in
+	 * the mask are left untouched.
+	 *
+	 * @param buffer The buffer to read from
+	 * @return The field mask that was read
+	 */
+	public int read(ByteBuffer buffer) {
+		playerID = PacketCodec.readPlayerID(buffer);
+		int mask = buffer.get();
+		if ((mask & LOCATION) != 0)
+			PacketCodec.readLocation(buffer, location);
+		if ((mask & HEALTH) != 0)
+			health = buffer.getShort();
+		if ((mask & FLAGS) != 0)
+			setFlags(buffer.get());
+		return mask;
+	}
+
+	/**
+	 * Copies the groups of fields set in the mask from a delta read by {@link #read(ByteBuffer)}
+	 *
+	 * @param delta The player delta
+	 * @param mask The field mask of the delta
+	 */
+	public void applyDelta(PlayerSnapshot delta, int mask) {
+		if ((mask & LOCATION) != 0)
+			setLocation(delta.location);
+		if ((mask & HEALTH) != 0)
+			health = delta.health;
+		if ((mask & FLAGS) != 0)
+			setFlags(delta.getFlags());
+	}
+
+	/**
+	 * @return The status flags packed into the low four bits of an int (admin, fly mode, god mode, vanished)
+	 */
+	private int getFlags() {
+		return (admin ? 1 : 0) | (flyMode ? 2 : 0) | (godMode ? 4 : 0) | (vanished ? 8 : 0);
+	}
+
+	/**
+	 * Unpacks status flags packed by {@link #getFlags()}
+	 *
+	 * @param flags The packed flags
+	 */
+	private void setFlags(int flags) {
+		admin = (flags & 1) != 0;
+		flyMode = (flags & 2) != 0;
+		godMode = (flags & 4) != 0;
+		vanished = (flags & 8) != 0;
+	}
+
+	/**
+	 * @return The ID of the player
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * Sets the ID of the player (done by the {@link WorldSnapshot} the snapshot is {@link WorldSnapshot#addPlayer(int)
+	 * added} to)
+	 *
+	 * @param playerID The ID of the player
+	 */
+	void setPlayerID(int playerID) {
+		this.playerID = playerID;
+	}
+
+	/**
+	 * @return The player's {@link #location} (owned by this snapshot - copy it to keep it)
+	 */
+	public Location3D getLocation() {
+		return location;
+	}
+
+	/**
+	 * Copies the provided location into this snapshot's {@link #location}
+	 *
+	 * @param location The player's location
+	 */
+	public void setLocation(Location3D location) {
+		this.location.setX(location.getX());
+		this.location.setY(location.getY());
+		this.location.setZ(location.getZ());
+		this.location.setRotation(location.getYaw(), location.getPitch(), location.getRoll());
+	}
+
+	/**
+	 * @return The player's {@link #health}
+	 */
+	public int getHealth() {
+		return health;
+	}
+
+	/**
+	 * @param health The player's {@link #health}
+	 */
+	public void setHealth(int health) {
+		this.health = health;
+	}
+
+	/**
+	 * @return Whether the player is an {@link #admin}
+	 */
+	public boolean isAdmin() {
+		return admin;
+	}
+
+	/**
+	 * @param admin Whether the player is an {@link #admin}
+	 */
+	public void setAdmin(boolean admin) {
+		this.admin = admin;
+	}
+
+	/**
+	 * @return Whether the player is in {@link #flyMode}
+	 */
+	public boolean isInFlyMode() {
+		return flyMode;
+	}
+
+	/**
+	 * @param flyMode Whether the player is in {@link #flyMode}
+	 */
+	public void setFlyMode(boolean flyMode) {
+		this.flyMode = flyMode;
+	}
+
+	/**
+	 * @return Whether the player is in {@link #godMode}
+	 */
+	public boolean isInGodMode() {
+		return godMode;
+	}
+
+	/**
+	 * @param godMode Whether the player is in {@link #godMode}
+	 */
+	public void setGodMode(boolean godMode) {
+		this.godMode = godMode;
+	}
+
+	/**
+	 * @return Whether the player is {@link #vanished}
+	 */
+	public boolean isVanished() {
+		return vanished;
+	}
+
+	/**
+	 * @param vanished Whether the player is {@link #vanished}
+	 */
+	public void setVanished(boolean vanished) {
+		this.vanished = vanished;
+	}
+}
@@ -0,0 +1,171 @@
+package com.veltro.blazingbarrels.engine.connect.snapshot;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import com.veltro.blazingbarrels.engine.connect.packet.EncodedPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot;
+
+/**
+ * A short ring of past {@link WorldSnapshot world snapshots}, indexed by tick. The server keeps one history per client,
+ * recording every snapshot sent to that client along with the newest tick the client has acknowledged, so that each
+ * new snapshot can be sent as a delta against the acknowledged one. The client keeps one history of the snapshots it
+ * has reconstructed, from which it looks up the baseline each delta was made against.<p>
+ *
+ * If the acknowledged snapshot has been pushed out of the ring (because the client has not acknowledged anything for
+ * more than {@link #getCapacity()} ticks), the server falls back to sending a full snapshot. A client or server
+ * recording a demo periodically saves the history as a {@link #createKeyframe(InetAddress, int) keyframe}, from which
+ * the deltas that follow can be reconstructed.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class SnapshotHistory {
+
+	/**
+	 * The default number of snapshots kept - a little over a second at the server's default tick rate
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	/**
+	 * The stored snapshots, each at the index given by its tick modulo the capacity
+	 */
+	private final WorldSnapshot[] snapshots;
+
+	/**
+	 * The newest tick acknowledged by the client (-1 if none has been)
+	 */
+	private int acknowledgedTick = -1;
+
+	/**
+	 * The newest tick stored in the history (-1 if none has been)
+	 */
+	private int newestTick = -1;
+
+	/**
+	 * Simplified constructor - calls the {@link #SnapshotHistory(int) complete constructor} passing the
+	 * {@link #DEFAULT_CAPACITY}
+	 */
+	public SnapshotHistory() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Complete constructor
+	 *
+	 * @param capacity The number of snapshots to keep
+	 */
+	public SnapshotHistory(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("A snapshot history must hold at least one snapshot");
+		snapshots = new WorldSnapshot[capacity];
+		for (int i = 0; i < capacity; i++)
+			snapshots[i] = new WorldSnapshot();
+	}
+
+	/**
+	 * Server side - copies a snapshot into the history and builds the packet that sends it to the client as a delta
+	 * against the newest acknowledged snapshot (or in full if that snapshot is no longer in the history). The delta is
+	 * encoded there and then: the packet may wait in the send scheduler for many ticks, while the ring slots of both
+	 * snapshots are overwritten as the ticks go by.
+	 *
+	 * @param current The snapshot of the current tick
+	 * @param address The client's IP address
+	 * @param port The port on the above address
+	 * @return The encoded snapshot packet
+	 */
+	public EncodedPacket createSnapshotPacket(WorldSnapshot current, InetAddress address, int port) {
+		WorldSnapshot stored = slot(current.getTick());
+		stored.copyFrom(current);
+		newestTick = current.getTick();
+		return EncodedPacket.encode(new Packet10ServerSnapshot(stored, get(acknowledgedTick), address, port));
+	}
+
+	/**
+	 * Server side - records that the client has received the snapshot of the provided tick. Acknowledgments older than
+	 * the newest one received are ignored, as they arrived out of order.
+	 *
+	 * @param tick The acknowledged tick
+	 */
+	public void acknowledge(int tick) {
+		if (tick > acknowledgedTick && tick <= newestTick)
+			acknowledgedTick = tick;
+	}
+
+	/**
+	 * Client side - reconstructs the snapshot carried by a received packet by applying its delta to the baseline it
+	 * was made against, and stores the result
+	 *
+	 * @param packet The received snapshot packet
+	 * @return The reconstructed snapshot, or null if the packet is older than the newest stored snapshot or its
+	 * baseline is no longer in the history (in which case it should not be acknowledged)
+	 */
+	public WorldSnapshot receive(Packet10ServerSnapshot packet) {
+		if (packet.getTick() <= newestTick)
+			return null;
+		WorldSnapshot baseline = null;
+		if (packet.getBaselineTick() >= 0 && (baseline = get(packet.getBaselineTick())) == null)
+			return null;
+		WorldSnapshot result = slot(packet.getTick());
+		packet.applyTo(baseline, result);
+		newestTick = packet.getTick();
+		return result;
+	}
+
+	/**
+	 * Builds a {@link com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder demo} keyframe: a full snapshot packet
+	 * for every snapshot in the history that a later delta may be made against, oldest first, which a client starting
+	 * from an empty history receives into a history holding the same snapshots. On the server, deltas are only ever
+	 * made against the acknowledged snapshot or a newer one, so the older snapshots are left out. The packets refer to
+	 * the stored snapshots, so they must be encoded before the next snapshot is stored.
+	 *
+	 * @param address The IP address of the server the snapshots were received from, or of the client they were sent to
+	 * @param port The port on the above address
+	 * @return The snapshot packets
+	 */
+	public Packet10ServerSnapshot[] createKeyframe(InetAddress address, int port) {
+		int oldest = Math.max(newestTick - snapshots.length + 1, Math.max(acknowledgedTick, 0)), count = 0;
+		Packet10ServerSnapshot[] packets = new Packet10ServerSnapshot[newestTick < 0 ? 0 : newestTick - oldest + 1];
+		for (int tick = oldest; tick <= newestTick; tick++) {
+			WorldSnapshot snapshot = get(tick);
+			if (snapshot != null)
+				packets[count++] = new Packet10ServerSnapshot(snapshot, null, address, port);
+		}
+		return count == packets.length ? packets : Arrays.copyOf(packets, count);
+	}
+
+	/**
+	 * Looks up a stored snapshot
+	 *
+	 * @param tick The tick of the snapshot
+	 * @return The snapshot, or null if it is not (or no longer) in the history
+	 */
+	public WorldSnapshot get(int tick) {
+		if (tick < 0)
+			return null;
+		WorldSnapshot snapshot = slot(tick);
+		return snapshot.getTick() == tick ? snapshot : null;
+	}
+
+	/**
+	 * @return The newest tick acknowledged by the client (-1 if none has been)
+	 */
+	public int getAcknowledgedTick() {
+		return acknowledgedTick;
+	}
+
+	/**
+	 * @return The number of snapshots kept
+	 */
+	public int getCapacity() {
+		return snapshots.length;
+	}
+
+	/**
+	 * @param tick A tick number
+	 * @return The ring slot in which the snapshot of the tick is stored
+	 */
+	private WorldSnapshot slot(int tick) {
+		return snapshots[tick % snapshots.length];
+	}
+}
@@ -0,0 +1,196 @@
+package com.veltro.blazingbarrels.engine.connect.snapshot;
+
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+
+/**
+ * The state of the game world at a given server tick: the world's settings and a {@link PlayerSnapshot} for every
+ * player. The server takes one snapshot per tick and sends each client the difference between it and the last
+ * snapshot the client acknowledged (see {@link SnapshotHistory}). Players are identified by the ID the server assigned
+ * them, and found by it with a single array lookup.<p>
+ *
+ * Player snapshot objects are owned by the world snapshot and reused when it is overwritten, so that taking a snapshot
+ * every tick does not allocate once the player count has stabilized.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class WorldSnapshot {
+
+	/**
+	 * The server tick at which the snapshot was taken (-1 if the snapshot is empty)
+	 */
+	private int tick = -1;
+
+	/**
+	 * The horizontal radius, in pixels, of the game world
+	 */
+	private int worldRadius;
+
+	/**
+	 * The maximum value for a player's health
+	 */
+	private int healthCap;
+
+	/**
+	 * The player snapshots - the first {@link #playerCount} are in use, the rest are kept for reuse
+	 */
+	private PlayerSnapshot[] players = new PlayerSnapshot[16];
+
+	/**
+	 * The number of players in the snapshot
+	 */
+	private int playerCount;
+
+	/**
+	 * The index of each player in the snapshot, plus one, indexed by player ID (0 if the player is not in the snapshot)
+	 */
+	private final int[] indexByID = new int[PacketCodec.MAX_PLAYERS];
+
+	/**
+	 * Empties the snapshot and sets its tick and world settings, in preparation for {@link #addPlayer(int) adding}
+	 * players
+	 *
+	 * @param tick The server tick at which the snapshot is being taken
+	 * @param worldRadius The horizontal radius, in pixels, of the game world
+	 * @param healthCap The maximum value for a player's health
+	 */
+	public void reset(int tick, int worldRadius, int healthCap) {
+		this.tick = tick;
+		this.worldRadius = worldRadius;
+		this.healthCap = healthCap;
+		for (int i = 0; i < playerCount; i++)
+			indexByID[players[i].getPlayerID()] = 0;
+		playerCount = 0;
+	}
+
+	/**
+	 * Adds a player to the snapshot
+	 *
+	 * @param playerID The ID of the player (0 to {@link PacketCodec#MAX_PLAYERS} - 1)
+	 * @return The new player's snapshot, to be filled in by the caller
+	 * @throws IllegalArgumentException If the player is already in the snapshot
+	 */
+	public PlayerSnapshot addPlayer(int playerID) {
+		if (indexByID[playerID] != 0)
+			throw new IllegalArgumentException("Player " + playerID + " is already in the snapshot");
+		if (playerCount == players.length) {
+			PlayerSnapshot[] grown = new PlayerSnapshot[players.length * 2];
+			System.arraycopy(players, 0, grown, 0, players.length);
+			players = grown;
+		}
+		if (players[playerCount] == null)
+			players[playerCount] = new PlayerSnapshot();
+		PlayerSnapshot player = players[playerCount++];
+		player.setPlayerID(playerID);
+		indexByID[playerID] = playerCount;
+		return player;
+	}
+
+	/**
+	 * Removes a player from the snapshot
+	 *
+	 * @param index The index of the player to remove
+	 */
+	public void removePlayer(int index) {
+		if (index < 0 || index >= playerCount)
+			throw new IndexOutOfBoundsException("No player at index " + index);
+		PlayerSnapshot removed = players[index];
+		players[index] = players[--playerCount];
+		players[playerCount] = removed; // Keep the object for reuse
+		indexByID[players[index].getPlayerID()] = index + 1;
+		indexByID[removed.getPlayerID()] = 0;
+	}
+
+	/**
+	 * Makes this snapshot an exact copy of another snapshot
+	 *
+	 * @param other The snapshot to copy
+	 */
+	public void copyFrom(WorldSnapshot other) {
+		reset(other.tick, other.worldRadius, other.healthCap);
+		for (int i = 0; i < other.playerCount; i++)
+			addPlayer(other.players[i].getPlayerID()).copyFrom(other.players[i]);
+	}
+
+	/**
+	 * Finds the index of a player in the snapshot
+	 *
+	 * @param playerID The ID of the player
+	 * @return The player's index, or -1 if the player is not in the snapshot
+	 */
+	public int indexOf(int playerID) {
+		return playerID < 0 || playerID >= PacketCodec.MAX_PLAYERS ? -1 : indexByID[playerID] - 1;
+	}
+
+	/**
+	 * Finds a player in the snapshot
+	 *
+	 * @param playerID The ID of the player
+	 * @return The player's snapshot, or null if the player is not in the snapshot
+	 */
+	public PlayerSnapshot findPlayer(int playerID) {
+		int index = indexOf(playerID);
+		return index < 0 ? null : players[index];
+	}
+
+	/**
+	 * @param index A player index, less than the {@link #getPlayerCount() player count}
+	 * @return The snapshot of the player at that index
+	 */
+	public PlayerSnapshot getPlayer(int index) {
+		if (index < 0 || index >= playerCount)
+			throw new IndexOutOfBoundsException("No player at index " + index);
+		return players[index];
+	}
+
+	/**
+	 * @return The number of players in the snapshot
+	 */
+	public int getPlayerCount() {
+		return playerCount;
+	}
+
+	/**
+	 * @return The server {@link #tick} at which the snapshot was taken
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Sets the server {@link #tick} at which the snapshot was taken
+	 *
+	 * @param tick A tick number
+	 */
+	public void setTick(int tick) {
+		this.tick = tick;
+	}
+
+	/**
+	 * @return The {@link #worldRadius}
+	 */
+	public int getWorldRadius() {
+		return worldRadius;
+	}
+
+	/**
+	 * @param worldRadius The {@link #worldRadius}
+	 */
+	public void setWorldRadius(int worldRadius) {
+		this.worldRadius = worldRadius;
+	}
+
+	/**
+	 * @return The {@link #healthCap}
+	 */
+	public int getHealthCap() {
+		return healthCap;
+	}
+
+	/**
+	 * @param healthCap The {@link #healthCap}
+	 */
+	public void setHealthCap(int healthCap) {
+		this.healthCap = healthCap;
+	}
+}
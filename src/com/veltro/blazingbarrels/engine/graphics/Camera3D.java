@@ -9,7 +9,9 @@ import org.lwjgl.opengl.GLContext;
 import org.lwjgl.util.glu.GLU;
 
 import com.veltro.blazingbarrels.BlazingBarrels;
+import com.veltro.blazingbarrels.game.location.InputCommand;
 import com.veltro.blazingbarrels.game.location.Location3D;
+import com.veltro.blazingbarrels.game.location.MovementPredictor;
 
 /**
  * A {@link Camera} implementation used for viewing three-dimensional space. The camera's position/rotation is managed
@@ -23,21 +25,6 @@ import com.veltro.blazingbarrels.game.location.Location3D;
  */
 public class Camera3D implements Camera<Location3D> {
 
-	/**
-	 * The change in the camera's x displacement
-	 */
-	private float dx;
-
-	/**
-	 * The change in the camera's y displacement
-	 */
-	private float dy;
-
-	/**
-	 * The change in the camera's z displacement
-	 */
-	private float dz;
-
 	/**
 	 * The change in the camera's angle of yaw
 	 */
@@ -79,6 +66,21 @@ public class Camera3D implements Camera<Location3D> {
 	 */
 	private Location3D location;
 
+	/**
+	 * The movement input of the current frame (reused every frame)
+	 */
+	private final InputCommand input = new InputCommand();
+
+	/**
+	 * The predictor through which keyboard movement is applied when playing online (null when playing offline)
+	 */
+	private MovementPredictor predictor;
+
+	/**
+	 * The sequence number the {@link #predictor} gave to the last movement input (-1 if there is none)
+	 */
+	private int lastInputSequence = -1;
+
 	/**
 	 * Simplest constructor - passes default values for fov, aspectRatio, zNear, zFar, and location to the
 	 * {@link #Camera3D(float, float, float, float, Location3D) complete constructor}
@@ -209,44 +211,35 @@ public class Camera3D implements Camera<Location3D> {
 	}
 
 	/**
-	 * Updates the camera's position based on the input from the keyboard and the camera's current rotation
+	 * Updates the camera's position based on the input from the keyboard and the camera's current rotation. The input
+	 * is captured as an {@link InputCommand}, which is passed through the {@link #predictor} if there is one.
 	 */
 	public void handleKeyboardInput(float speed) {
-		float dSideways = 0, dForward = 0; // Used to incorporate rotation into the horizontal movement calculation
-		dx = 0;
-		dy = 0;
-		dz = 0;
+		int forward = 0, sideways = 0, vertical = 0;
 
 		// Forward/backward movement
 		if (Keyboard.isKeyDown(Keyboard.KEY_W))
-			dForward += speed * BlazingBarrels.getDelta() / 1000.0;
+			forward++;
 		if (Keyboard.isKeyDown(Keyboard.KEY_S))
-			dForward -= speed * BlazingBarrels.getDelta() / 1000.0;
+			forward--;
 
 		// Side-to-side movement
 		if (Keyboard.isKeyDown(Keyboard.KEY_D))
-			dSideways += speed * BlazingBarrels.getDelta() / 1000.0;
+			sideways++;
 		if (Keyboard.isKeyDown(Keyboard.KEY_A))
-			dSideways -= speed * BlazingBarrels.getDelta() / 1000.0;
-
-		// Apply speed cap if necessary
-		if (dForward != 0 && dSideways != 0) {
-			dForward /= Math.sqrt(2);
-			dSideways /= Math.sqrt(2);
-		}
-
-		 // Handle direction in which the camera is looking
-		dz += dForward * (float) Math.cos(location.getYaw() * Math.PI / 180.0);
-		dx += dForward * (float) Math.sin(-location.getYaw() * Math.PI / 180.0);
-		dz += dSideways * (float) Math.sin(location.getYaw() * Math.PI / 180.0);
-		dx += dSideways * (float) Math.cos(location.getYaw() * Math.PI / 180.0);
+			sideways--;
 
 		// Vertical movement (not affected by the rotation of the camera's viewing window)
 		if (Keyboard.isKeyDown(Keyboard.KEY_SPACE))
-			dy += speed * BlazingBarrels.getDelta() / 1000.0;
+			vertical++;
 		if (Keyboard.isKeyDown(Keyboard.KEY_LSHIFT))
-			dy -= speed * BlazingBarrels.getDelta() / 1000.0;
-		location.translate(dx, dy, dz);
+			vertical--;
+
+		input.set(forward, sideways, vertical, location.getYaw(), BlazingBarrels.getDelta(), speed);
+		if (predictor != null)
+			lastInputSequence = predictor.predict(input, location);
+		else
+			input.applyTo(location);
 	}
 
 	public void draw() {
@@ -317,4 +310,37 @@ public class Camera3D implements Camera<Location3D> {
 	public void setLocation(Location3D location) {
 		this.location = location;
 	}
+
+	/**
+	 * @return The camera's movement {@link #predictor} (null if there is none)
+	 */
+	public MovementPredictor getPredictor() {
+		return predictor;
+	}
+
+	/**
+	 * Specifies the {@link #predictor} through which keyboard movement is applied, so that it can be reconciled with
+	 * the server's view of the camera's location
+	 * 
+	 * @param predictor A {@link MovementPredictor} (null to move the camera directly)
+	 */
+	public void setPredictor(MovementPredictor predictor) {
+		this.predictor = predictor;
+		lastInputSequence = -1;
+	}
+
+	/**
+	 * @return The movement {@link #input} of the last frame (reused every frame, so it should be copied to be kept)
+	 */
+	public InputCommand getInput() {
+		return input;
+	}
+
+	/**
+	 * @return The sequence number of the last movement input applied through the {@link #predictor}, to be attached to
+	 * the camera's location when it is sent to the server (-1 if there is none)
+	 */
+	public int getLastInputSequence() {
+		return lastInputSequence;
+	}
 }
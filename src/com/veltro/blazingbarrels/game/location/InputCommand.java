@@ -0,0 +1,189 @@
+package com.veltro.blazingbarrels.game.location;
+
+/**
+ * One frame's worth of movement input for the local player: which way the player is pushing along each axis, the yaw
+ * the player was facing, and how long the frame lasted. Applying the same command to the same {@link Location3D
+ * location} always produces the same result, which is what allows the {@link MovementPredictor} to replay commands
+ * after a correction from the server.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class InputCommand {
+
+	/**
+	 * The command's sequence number (0-65535), assigned by the {@link MovementPredictor}
+	 */
+	private int sequence;
+
+	/**
+	 * The forward (1) or backward (-1) movement input, or 0 for none
+	 */
+	private int forward;
+
+	/**
+	 * The rightward (1) or leftward (-1) movement input, or 0 for none
+	 */
+	private int sideways;
+
+	/**
+	 * The upward (1) or downward (-1) movement input, or 0 for none
+	 */
+	private int vertical;
+
+	/**
+	 * The yaw, in degrees, the player was facing when the input was given
+	 */
+	private float yaw;
+
+	/**
+	 * The duration, in milliseconds, of the frame over which the input was held
+	 */
+	private int duration;
+
+	/**
+	 * The movement speed, in pixels per second
+	 */
+	private float speed;
+
+	/**
+	 * Simplified constructor - constructs an empty command, to be filled in by {@link #set(int, int, int, float, int,
+	 * float)}
+	 */
+	public InputCommand() {
+		this(0, 0, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Complete constructor
+	 *
+	 * @param forward The {@link #forward} input (-1, 0 or 1)
+	 * @param sideways The {@link #sideways} input (-1, 0 or 1)
+	 * @param vertical The {@link #vertical} input (-1, 0 or 1)
+	 * @param yaw The {@link #yaw} the player was facing
+	 * @param duration The {@link #duration} of the frame, in milliseconds
+	 * @param speed The movement {@link #speed}, in pixels per second
+	 */
+	public InputCommand(int forward, int sideways, int vertical, float yaw, int duration, float speed) {
+		set(forward, sideways, vertical, yaw, duration, speed);
+	}
+
+	/**
+	 * Overwrites the command's input (its sequence number is left unchanged)
+	 *
+	 * @param forward The {@link #forward} input (-1, 0 or 1)
+	 * @param sideways The {@link #sideways} input (-1, 0 or 1)
+	 * @param vertical The {@link #vertical} input (-1, 0 or 1)
+	 * @param yaw The {@link #yaw} the player was facing
+	 * @param duration The {@link #duration} of the frame, in milliseconds
+	 * @param speed The movement {@link #speed}, in pixels per second
+	 */
+	public void set(int forward, int sideways, int vertical, float yaw, int duration, float speed) {
+		this.forward = forward;
+		this.sideways = sideways;
+		this.vertical = vertical;
+		this.yaw = yaw;
+		this.duration = duration;
+		this.speed = speed;
+	}
+
+	/**
+	 * Copies the input and sequence number of another command into this one
+	 *
+	 * @param command The command to copy
+	 */
+	public void copy(InputCommand command) {
+		set(command.forward, command.sideways, command.vertical, command.yaw, command.duration, command.speed);
+		sequence = command.sequence;
+	}
+
+	/**
+	 * Moves the provided location as the input dictates. Horizontal movement is relative to the command's {@link #yaw}
+	 * (and is capped so that moving diagonally is no faster than moving straight); vertical movement is not. The
+	 * location's rotation is left untouched.
+	 *
+	 * @param location The location to move
+	 */
+	public void applyTo(Location3D location) {
+		float distance = (float) (speed * duration / 1000.0);
+		float dForward = forward * distance, dSideways = sideways * distance;
+
+		// Apply speed cap if necessary
+		if (dForward != 0 && dSideways != 0) {
+			dForward /= Math.sqrt(2);
+			dSideways /= Math.sqrt(2);
+		}
+
+		// Handle direction in which the player is looking
+		float dz = dForward * (float) Math.cos(yaw * Math.PI / 180.0);
+		float dx = dForward * (float) Math.sin(-yaw * Math.PI / 180.0);
+		dz += dSideways * (float) Math.sin(yaw * Math.PI / 180.0);
+		dx += dSideways * (float) Math.cos(yaw * Math.PI / 180.0);
+		location.translate(dx, vertical * distance, dz);
+	}
+
+	/**
+	 * @return Whether the command moves the player at all
+	 */
+	public boolean isIdle() {
+		return forward == 0 && sideways == 0 && vertical == 0;
+	}
+
+	/**
+	 * @return The command's {@link #sequence} number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Specifies the command's {@link #sequence} number (used by the {@link MovementPredictor})
+	 *
+	 * @param sequence The sequence number (0-65535)
+	 */
+	void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return The {@link #forward} input
+	 */
+	public int getForward() {
+		return forward;
+	}
+
+	/**
+	 * @return The {@link #sideways} input
+	 */
+	public int getSideways() {
+		return sideways;
+	}
+
+	/**
+	 * @return The {@link #vertical} input
+	 */
+	public int getVertical() {
+		return vertical;
+	}
+
+	/**
+	 * @return The {@link #yaw} the player was facing
+	 */
+	public float getYaw() {
+		return yaw;
+	}
+
+	/**
+	 * @return The {@link #duration}, in milliseconds
+	 */
+	public int getDuration() {
+		return duration;
+	}
+
+	/**
+	 * @return The movement {@link #speed}, in pixels per second
+	 */
+	public float getSpeed() {
+		return speed;
+	}
+}
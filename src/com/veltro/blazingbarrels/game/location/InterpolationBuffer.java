@@ -0,0 +1,303 @@
+package com.veltro.blazingbarrels.game.location;
+
+/**
+ * Smooths the motion of a remote player on the client. Each {@link Location3D location} received for the player (from
+ * a {@link com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot snapshot}) is {@link #addSample(int, long,
+ * Location3D) added} with the server tick it was taken at, and the player is rendered at the location it had a fixed
+ * {@link #delay} in the past, interpolated between the two samples either side of that moment. As long as snapshots
+ * arrive at least once per delay, jitter and the occasional lost snapshot are hidden; when no newer sample has arrived
+ * in time, the player's last known velocity is extrapolated for up to {@link #maxExtrapolation} before the player is
+ * frozen in place.<p>
+ *
+ * Samples are placed on the server's tick timeline rather than at the time they happened to arrive, so network jitter
+ * does not distort the spacing between them. The only use of the local clock is to estimate which tick the server is
+ * at now: every sample's arrival time yields an estimate of the offset between the two clocks, of which the buffer
+ * follows the earliest arrivals (the least delayed) and drifts slowly towards later ones, so that a lasting change in
+ * latency is picked up while a single late snapshot is not.<p>
+ *
+ * Local times are in milliseconds, as given by {@link com.veltro.blazingbarrels.BlazingBarrels#getTime()}. Samples are
+ * kept in a fixed ring of preallocated locations, so adding and sampling allocates nothing. One buffer is needed per
+ * remote player; the {@link com.veltro.blazingbarrels.client.ClientSession ClientSession} keeps one for each player
+ * it receives snapshots of.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class InterpolationBuffer {
+
+	/**
+	 * The default {@link #delay}, in milliseconds
+	 */
+	public static final int DEFAULT_DELAY = 100;
+
+	/**
+	 * The default {@link #maxExtrapolation}, in milliseconds
+	 */
+	public static final int DEFAULT_MAX_EXTRAPOLATION = 200;
+
+	/**
+	 * The default number of samples kept
+	 */
+	public static final int DEFAULT_CAPACITY = 32;
+
+	/**
+	 * The fraction of the way towards a later-arriving sample's clock offset estimate that the {@link #clockOffset}
+	 * moves per sample (earlier-arriving samples are adopted at once)
+	 */
+	private static final double CLOCK_DRIFT = 0.01;
+
+	/**
+	 * The length, in milliseconds, of a server tick
+	 */
+	private final double tickPeriod;
+
+	/**
+	 * The time, in milliseconds, by which the rendered location trails the newest samples
+	 */
+	private volatile int delay;
+
+	/**
+	 * The longest time, in milliseconds, past the newest sample for which motion is extrapolated
+	 */
+	private volatile int maxExtrapolation;
+
+	/**
+	 * The server ticks at which the samples were taken, in the order they were added (a ring, starting at
+	 * {@link #oldest})
+	 */
+	private final int[] ticks;
+
+	/**
+	 * The locations of the samples, matching the {@link #ticks}
+	 */
+	private final Location3D[] samples;
+
+	/**
+	 * The index of the oldest sample in the ring
+	 */
+	private int oldest;
+
+	/**
+	 * The number of samples in the ring
+	 */
+	private int count;
+
+	/**
+	 * The estimated server time minus the local time, in milliseconds, with which the server tick being rendered is
+	 * worked out from the local clock (see the class description)
+	 */
+	private double clockOffset;
+
+	/**
+	 * Simplified constructor - calls the {@link #InterpolationBuffer(int, int, int, int) complete constructor} passing
+	 * the {@link #DEFAULT_DELAY}, the {@link #DEFAULT_MAX_EXTRAPOLATION} and the {@link #DEFAULT_CAPACITY}
+	 *
+	 * @param tickRate The number of ticks per second the server runs at
+	 */
+	public InterpolationBuffer(int tickRate) {
+		this(tickRate, DEFAULT_DELAY, DEFAULT_MAX_EXTRAPOLATION, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Complete constructor - preallocates the samples
+	 *
+	 * @param tickRate The number of ticks per second the server runs at
+	 * @param delay The {@link #delay}, in milliseconds
+	 * @param maxExtrapolation The {@link #maxExtrapolation}, in milliseconds
+	 * @param capacity The number of samples to keep (at least 2), which should cover the delay at the server's tick
+	 * rate
+	 */
+	public InterpolationBuffer(int tickRate, int delay, int maxExtrapolation, int capacity) {
+		if (tickRate < 1)
+			throw new IllegalArgumentException("The tick rate must be positive");
+		if (capacity < 2)
+			throw new IllegalArgumentException("At least two samples are needed to interpolate between");
+		tickPeriod = 1000.0 / tickRate;
+		setDelay(delay);
+		setMaxExtrapolation(maxExtrapolation);
+		ticks = new int[capacity];
+		samples = new Location3D[capacity];
+		for (int i = 0; i < capacity; i++)
+			samples[i] = new Location3D();
+	}
+
+	/**
+	 * Records a location of the player, overwriting the oldest sample if the buffer is full. Samples received out of
+	 * order (no newer than the newest sample) are ignored.
+	 *
+	 * @param tick The server tick at which the location was taken
+	 * @param receiveTime The local time at which the location was received
+	 * @param location The location (copied, so it may be reused by the caller)
+	 */
+	public synchronized void addSample(int tick, long receiveTime, Location3D location) {
+		if (count > 0 && tick <= ticks[index(count - 1)])
+			return;
+		double offset = tick * tickPeriod - receiveTime;
+		if (count == 0 || offset > clockOffset) // The first sample, or the least delayed one yet
+			clockOffset = offset;
+		else
+			clockOffset += (offset - clockOffset) * CLOCK_DRIFT;
+		int index;
+		if (count == ticks.length) {
+			index = oldest;
+			oldest = (oldest + 1) % ticks.length;
+		} else
+			index = index(count++);
+		ticks[index] = tick;
+		Location3D sample = samples[index];
+		sample.setCoordinates(location.getX(), location.getY(), location.getZ());
+		sample.setRotation(location.getYaw(), location.getPitch(), location.getRoll());
+	}
+
+	/**
+	 * Works out where to render the player at the provided time: {@link #delay} milliseconds behind the server's
+	 * estimated current tick, interpolated between the samples either side of that moment, or extrapolated from the
+	 * newest two samples if there is no newer sample yet
+	 *
+	 * @param now The current local time
+	 * @param result The location into which to write the result
+	 * @return Whether there was any sample to work from (if not, the result is left untouched)
+	 */
+	public synchronized boolean getLocation(long now, Location3D result) {
+		if (count == 0)
+			return false;
+		double renderTick = (now + clockOffset - delay) / tickPeriod;
+		int newest = index(count - 1);
+		if (count == 1 || renderTick <= ticks[oldest]) {
+			copy(samples[renderTick <= ticks[oldest] ? oldest : newest], result);
+			return true;
+		}
+
+		if (renderTick >= ticks[newest]) {
+			int previous = index(count - 2);
+			int interval = ticks[newest] - ticks[previous];
+			double ahead = Math.min(renderTick - ticks[newest], maxExtrapolation / tickPeriod);
+			if (ahead <= 0)
+				copy(samples[newest], result);
+			else
+				blend(samples[previous], samples[newest], 1 + (float) (ahead / interval), result);
+			return true;
+		}
+
+		int i = count - 2;
+		while (ticks[index(i)] > renderTick) // Samples are in tick order; the oldest is known to be earlier
+			i--;
+		int before = index(i), after = index(i + 1);
+		blend(samples[before], samples[after], (float) ((renderTick - ticks[before]) / (ticks[after] - ticks[before])),
+				result);
+		return true;
+	}
+
+	/**
+	 * @param location A location
+	 * @return Whether the location is exactly that of the newest sample, position and rotation (false if there is no
+	 * sample)
+	 */
+	public synchronized boolean isNewest(Location3D location) {
+		if (count == 0)
+			return false;
+		Location3D newest = samples[index(count - 1)];
+		return newest.getX() == location.getX() && newest.getY() == location.getY() &&
+				newest.getZ() == location.getZ() && newest.getYaw() == location.getYaw() &&
+				newest.getPitch() == location.getPitch() && newest.getRoll() == location.getRoll();
+	}
+
+	/**
+	 * Discards every sample (eg. when the player respawns, so that it is not interpolated across the map)
+	 */
+	public synchronized void clear() {
+		oldest = 0;
+		count = 0;
+	}
+
+	/**
+	 * @return The {@link #delay}, in milliseconds
+	 */
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Changes the {@link #delay}. A longer delay hides more loss and jitter at the cost of showing the player further
+	 * in the past.
+	 *
+	 * @param delay The new delay, in milliseconds
+	 */
+	public void setDelay(int delay) {
+		if (delay < 0)
+			throw new IllegalArgumentException("The delay cannot be negative");
+		this.delay = delay;
+	}
+
+	/**
+	 * @return The {@link #maxExtrapolation}, in milliseconds
+	 */
+	public int getMaxExtrapolation() {
+		return maxExtrapolation;
+	}
+
+	/**
+	 * Changes the {@link #maxExtrapolation}
+	 *
+	 * @param maxExtrapolation The new maximum, in milliseconds (0 to freeze the player as soon as samples run out)
+	 */
+	public void setMaxExtrapolation(int maxExtrapolation) {
+		if (maxExtrapolation < 0)
+			throw new IllegalArgumentException("The extrapolation limit cannot be negative");
+		this.maxExtrapolation = maxExtrapolation;
+	}
+
+	/**
+	 * @param i The position of a sample, counting from the oldest
+	 * @return The index of the sample in the ring
+	 */
+	private int index(int i) {
+		return (oldest + i) % ticks.length;
+	}
+
+	/**
+	 * Copies the position and rotation of one location into another
+	 *
+	 * @param source The location to copy
+	 * @param result The location to overwrite
+	 */
+	private static void copy(Location3D source, Location3D result) {
+		result.setCoordinates(source.getX(), source.getY(), source.getZ());
+		result.setRotation(source.getYaw(), source.getPitch(), source.getRoll());
+	}
+
+	/**
+	 * Blends two locations linearly, turning each angle the short way around. A fraction above 1 extrapolates past
+	 * the second location.
+	 *
+	 * @param from The location at fraction 0
+	 * @param to The location at fraction 1
+	 * @param fraction How far from the first location to the second the result lies
+	 * @param result The location to overwrite
+	 */
+	private static void blend(Location3D from, Location3D to, float fraction, Location3D result) {
+		result.setCoordinates(from.getX() + (to.getX() - from.getX()) * fraction,
+				from.getY() + (to.getY() - from.getY()) * fraction, from.getZ() + (to.getZ() - from.getZ()) * fraction);
+		result.setRotation(blendAngle(from.getYaw(), to.getYaw(), fraction),
+				blendAngle(from.getPitch(), to.getPitch(), fraction),
+				blendAngle(from.getRoll(), to.getRoll(), fraction));
+	}
+
+	/**
+	 * Blends two angles along the shorter arc between them
+	 *
+	 * @param from The angle at fraction 0, in degrees
+	 * @param to The angle at fraction 1, in degrees
+	 * @param fraction How far from the first angle to the second the result lies
+	 * @return The blended angle, on the domain [0, 360)
+	 */
+	private static float blendAngle(float from, float to, float fraction) {
+		float difference = (to - from) % 360;
+		if (difference > 180)
+			difference -= 360;
+		else if (difference < -180)
+			difference += 360;
+		float angle = (from + difference * fraction) % 360;
+		return angle < 0 ? angle + 360 : angle;
+	}
+}
@@ -2,10 +2,6 @@ package com.veltro.blazingbarrels.game.location;
 
 import java.util.Arrays;
 
-import org.lwjgl.util.vector.Vector3f;
-
-import com.sun.org.apache.bcel.internal.generic.NEW;
-
 /**
  * A more complex {@link Location} subclass, Location3D objects represent three-dimensional locations that factor in
  * rotation (yaw, pitch, and roll). NOTE: the 'up and down' dimension is the y dimension, as is the convention for
@@ -149,22 +145,6 @@ public class Location3D extends Location {
 		return new Location3D(coordinates[0], coordinates[1], coordinates[2], yaw, pitch, roll);
 	}
 
-	/**
-	 * @return The pixel coordinates of the location, wrapped as a Vector3f object (a 3-D vector)
-	 */
-	public Vector3f getCoordinatesAsVector() {
-		return new Vector3f(coordinates[0], coordinates[1], coordinates[2]);
-	}
-
-	/**
-	 * Sets the {@link Location#coordinates} to the values specified in the provided Vector3f object (a 3-D vector)
-	 * 
-	 * @param coordinateVector A Vector3f object
-	 */
-	public void setCoordinates(Vector3f coordinateVector) {
-		setCoordinates(coordinateVector.x, coordinateVector.y, coordinateVector.z);
-	}
-
 	/**
 	 * Sets the {@link Location#coordinates} to the provided floating point values by calling the method with the same
 	 * name in the {@link Location superclass}
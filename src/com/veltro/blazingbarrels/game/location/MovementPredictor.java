@@ -0,0 +1,137 @@
+package com.veltro.blazingbarrels.game.location;
+
+/**
+ * Predicts the movement of the local player on the client and reconciles it with the server. Every frame's
+ * {@link InputCommand input} is {@link #predict(InputCommand, Location3D) applied} to the player's location at once, so
+ * that movement feels immediate, and is remembered under a sequence number that is sent to the server along with the
+ * resulting location. When the server's authoritative location arrives, tagged with the sequence number of the last
+ * input the server had processed, the player is {@link #reconcile(int, Location3D, Location3D) rewound} to that
+ * location and the inputs the server has yet to see are replayed on top of it. As long as the server agrees with the
+ * client, the replayed location equals the predicted one and the player does not move; if it disagrees (eg. because
+ * the player was blocked), the player is corrected without losing the input given since.<p>
+ *
+ * Inputs are kept in a fixed ring of preallocated commands. If more inputs than the ring holds go unacknowledged, the
+ * oldest are forgotten and a later correction can no longer replay them.<p>
+ *
+ * A live {@link com.veltro.blazingbarrels.client.ClientSession ClientSession} installs its predictor on the
+ * {@link com.veltro.blazingbarrels.engine.graphics.Camera3D camera}, and reconciles it with the server's confirmations.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class MovementPredictor {
+
+	/**
+	 * The default number of unacknowledged inputs remembered (about two seconds' worth at 60 frames per second)
+	 */
+	public static final int DEFAULT_CAPACITY = 128;
+
+	/**
+	 * The unacknowledged inputs, oldest first (a ring, starting at {@link #oldest})
+	 */
+	private final InputCommand[] history;
+
+	/**
+	 * The index of the oldest remembered input in the {@link #history}
+	 */
+	private int oldest;
+
+	/**
+	 * The number of remembered inputs
+	 */
+	private int count;
+
+	/**
+	 * The sequence number given to the next input (wraps around at 65536)
+	 */
+	private int nextSequence;
+
+	/**
+	 * Simplified constructor - calls the {@link #MovementPredictor(int) complete constructor} passing the
+	 * {@link #DEFAULT_CAPACITY}
+	 */
+	public MovementPredictor() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Complete constructor - preallocates the input history
+	 *
+	 * @param capacity The number of unacknowledged inputs to remember
+	 */
+	public MovementPredictor(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("At least one input must be remembered");
+		history = new InputCommand[capacity];
+		for (int i = 0; i < capacity; i++)
+			history[i] = new InputCommand();
+	}
+
+	/**
+	 * Numbers an input, remembers it, and applies it to the player's location. Idle inputs are numbered but not
+	 * remembered, as replaying them would have no effect.
+	 *
+	 * @param command The input (copied, so it may be reused by the caller)
+	 * @param location The player's location, which is moved
+	 * @return The input's sequence number, to be sent to the server with the resulting location
+	 */
+	public synchronized int predict(InputCommand command, Location3D location) {
+		int sequence = nextSequence;
+		nextSequence = (nextSequence + 1) & 0xFFFF;
+		if (!command.isIdle()) {
+			int index;
+			if (count == history.length) {
+				index = oldest;
+				oldest = (oldest + 1) % history.length;
+			} else
+				index = (oldest + count++) % history.length;
+			history[index].copy(command);
+			history[index].setSequence(sequence);
+		}
+		command.applyTo(location);
+		return sequence;
+	}
+
+	/**
+	 * Rewinds the player to the location the server has confirmed, forgets the inputs the server has processed, and
+	 * replays the rest. The player's rotation, which is not predicted, is left untouched.
+	 *
+	 * @param acknowledgedSequence The sequence number of the last input the server had processed when it sent the
+	 * location
+	 * @param authoritative The location the server has confirmed
+	 * @param location The player's location, which is overwritten with the corrected prediction
+	 */
+	public synchronized void reconcile(int acknowledgedSequence, Location3D authoritative, Location3D location) {
+		while (count > 0 && sequenceDistance(history[oldest].getSequence(), acknowledgedSequence) <= 0) {
+			oldest = (oldest + 1) % history.length;
+			count--;
+		}
+		location.setCoordinates(authoritative.getX(), authoritative.getY(), authoritative.getZ());
+		for (int i = 0; i < count; i++)
+			history[(oldest + i) % history.length].applyTo(location);
+	}
+
+	/**
+	 * Forgets every remembered input (eg. when the player respawns)
+	 */
+	public synchronized void clear() {
+		oldest = 0;
+		count = 0;
+	}
+
+	/**
+	 * @return The number of inputs the server has yet to acknowledge
+	 */
+	public synchronized int getUnacknowledgedInputCount() {
+		return count;
+	}
+
+	/**
+	 * @param a A sequence number
+	 * @param b Another sequence number
+	 * @return The signed distance from b to a, accounting for wrap-around (positive if a is newer)
+	 */
+	private static int sequenceDistance(int a, int b) {
+		return (short) (a - b);
+	}
+}
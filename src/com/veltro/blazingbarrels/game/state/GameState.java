@@ -1,21 +1,61 @@
 package com.veltro.blazingbarrels.game.state;
 
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.input.Keyboard;
+
+import com.veltro.blazingbarrels.BlazingBarrels;
+import com.veltro.blazingbarrels.client.ClientSession;
+import com.veltro.blazingbarrels.engine.connect.snapshot.PlayerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot;
 import com.veltro.blazingbarrels.engine.graphics.Camera3D;
+import com.veltro.blazingbarrels.engine.graphics.RenderBot3D;
+import com.veltro.blazingbarrels.game.location.Location3D;
 
 /**
  * The GameState contains all of the input handling and logic for the game itself,
  * a 3-D, multiplayer first person shooter.
- * 
+ *
+ * <p>When connected to a server (see {@link BlazingBarrels#getSession()}), the camera is the client's own player: it
+ * moves through the session's movement predictor, every frame's input is sent to the server, and the other players
+ * in the newest snapshot received are drawn where the session interpolates them.
+ *
+ * <p>When a demo is being played back, the state draws the players in the newest snapshot of the demo, and the camera
+ * follows the player whose view was recorded (or flies freely if that player is not known), all interpolated on the
+ * clock of the recording. The left and right arrow
+ * keys seek {@link #SEEK_STEP} seconds back or forward, and 'P' pauses and resumes playback.
+ *
  * @author LinearLogic
  * @since 0.0.3
  */
 public class GameState extends State {
 
+	/**
+	 * The number of seconds the arrow keys seek by during demo playback
+	 */
+	private static final int SEEK_STEP = 10;
+
+	/**
+	 * The radius, in pixels, of the sphere drawn for each player
+	 */
+	private static final float PLAYER_RADIUS = 16;
+
 	/**
 	 * The {@link Camera3D camera} used to view the game world
 	 */
 	private Camera3D camera;
-	
+
+	/**
+	 * Whether one of the playback keys (the arrow keys and 'P') was down during the last frame, so that holding one
+	 * down acts only once
+	 */
+	private boolean playbackKeyDown;
+
+	/**
+	 * The location at which a player is drawn (reused for every player)
+	 */
+	private final Location3D displayLocation = new Location3D();
+
 	/**
 	 * Constructor - calls the {@link State} superclass constructor with the {@link StateType#GAME} type.
 	 */
@@ -28,6 +68,11 @@ public class GameState extends State {
 	public void initialize() 
 	{
 		camera = new Camera3D();
+		ClientSession session = BlazingBarrels.getSession();
+		if (session != null && !session.isDemo()) { // The camera is the client's own player
+			camera.setLocation(session.getLocation());
+			camera.setPredictor(session.getPredictor());
+		}
 		camera.useView();
 		keyDown = true;
 	}
@@ -35,12 +80,59 @@ public class GameState extends State {
 	@Override
 	public void handleInput() {
 		checkKeyStates();
+		ClientSession session = BlazingBarrels.getSession();
+		if (session != null && !session.isDemo()) {
+			session.update(BlazingBarrels.getTime()); // Reconciles the prediction before this frame's input is applied
+			if (session.isRejected()) {
+				BlazingBarrels.exitGameLoop(false);
+				return;
+			}
+			camera.handleMouseInput();
+			camera.handleKeyboardInput();
+			session.sendMovement(camera.getInput(), camera.getLastInputSequence());
+			return;
+		}
+		if (session != null) {
+			handlePlaybackInput(session);
+			session.update(BlazingBarrels.getTime());
+			PlayerSnapshot viewer = session.getWorld() == null ? null :
+					session.getWorld().findPlayer(session.getPlayerID());
+			if (viewer != null && session.getDisplayLocation(viewer.getPlayerID(), camera.getLocation()))
+				return; // Follows the recorded player's view
+		}
 		camera.handleMouseInput();
 		camera.handleKeyboardInput();
 	}
 
+	/**
+	 * Seeks through or pauses the demo being played back, in response to the arrow keys and 'P'
+	 *
+	 * @param session The session playing back the demo
+	 */
+	private void handlePlaybackInput(ClientSession session) {
+		boolean left = Keyboard.isKeyDown(Keyboard.KEY_LEFT), right = Keyboard.isKeyDown(Keyboard.KEY_RIGHT);
+		boolean pause = Keyboard.isKeyDown(Keyboard.KEY_P);
+		if (!playbackKeyDown) {
+			if (left || right)
+				session.seek(session.getDemoTime() + TimeUnit.SECONDS.toNanos(right ? SEEK_STEP : -SEEK_STEP));
+			else if (pause)
+				session.setSpeed(session.getSpeed() == 0 ? 1 : 0);
+		}
+		playbackKeyDown = left || right || pause;
+	}
+
 	@Override
 	public void draw() {
 		camera.draw();
+		ClientSession session = BlazingBarrels.getSession();
+		WorldSnapshot world = session == null ? null : session.getWorld();
+		if (world == null)
+			return;
+		for (int i = 0; i < world.getPlayerCount(); i++) {
+			PlayerSnapshot player = world.getPlayer(i);
+			if (player.getPlayerID() != session.getPlayerID() && !player.isVanished() &&
+					session.getDisplayLocation(player.getPlayerID(), displayLocation))
+				RenderBot3D.renderColoredSphere(PLAYER_RADIUS, 16, 16, displayLocation, 1, 0.5f, 0, 1);
+		}
 	}
 }
@@ -0,0 +1,1032 @@
+package com.veltro.blazingbarrels.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+
+import com.veltro.blazingbarrels.engine.connect.Connection;
+import com.veltro.blazingbarrels.engine.connect.EndpointMap;
+import com.veltro.blazingbarrels.engine.connect.NetworkEngine;
+import com.veltro.blazingbarrels.engine.connect.ReceiveLimiter;
+import com.veltro.blazingbarrels.engine.connect.demo.DemoRecorder;
+import com.veltro.blazingbarrels.engine.connect.packet.BBPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.EncodedPacket;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet00AuthRequest;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet01AuthResponse;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet11SnapshotAck;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet20PlayerJoin;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet21PlayerConnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet22PlayerDisconnect;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet30PlayerUpdate;
+import com.veltro.blazingbarrels.engine.connect.packet.Packet40WeaponFire;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketCodec;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketHandler;
+import com.veltro.blazingbarrels.engine.connect.packet.PacketRegistry;
+import com.veltro.blazingbarrels.engine.connect.snapshot.PlayerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+import com.veltro.blazingbarrels.engine.connect.snapshot.WorldSnapshot;
+import com.veltro.blazingbarrels.game.location.InterpolationBuffer;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * The headless dedicated server, and the launch point ({@link #main(String[])}) for hosting a match without a display.
+ * The server depends only on the networking engine and the location types, none of which use LWJGL, so it runs on
+ * machines without a GPU and needs no LWJGL libraries on its classpath.<p>
+ *
+ * The server is authoritative and advances the game in fixed-rate ticks. Each tick drains the packets received by the
+ * {@link NetworkEngine} and handles them (authentication, joins, disconnects, movement, weapon fire), drops players
+ * whose clients have gone silent, and broadcasts the state of the world: a delta-compressed
+ * {@link com.veltro.blazingbarrels.engine.connect.packet.Packet10ServerSnapshot snapshot} to every player, and a
+ * {@link Packet30PlayerUpdate} confirming the location of each player that reported movement.<p>
+ *
+ * Snapshots and weapon fire are filtered by area of interest: the joined players are put in an {@link InterestGrid}
+ * every tick, and each client is sent the current state of the players within the {@link #interestRadius} of its own
+ * player, plus a low-rate trickle of the players further away (each far player is refreshed once every
+ * {@link #trickleInterval} ticks, and in between is left as the client last acknowledged it, which costs nothing in a
+ * delta). The bytes sent per tick thus grow with the number of players times the number of players near each, rather
+ * than with the square of the player count.<p>
+ *
+ * The server has the last word on movement: clients predict their players' movement and report the input behind each
+ * step, which the {@link MovementValidator} simulates from the player's current location (a client that reports only
+ * locations has them accepted as far as the player could have moved), at no more than the
+ * {@link MovementValidator#getMaxSpeed() maximum speed} and without leaving the world. The server confirms the
+ * location it settled on to the client, along with the last input it reflects.<p>
+ *
+ * Hits are decided by the server, with lag compensation: every joined player's position is recorded each tick in a
+ * {@link PositionHistory}, and each hitscan shot is checked by the {@link HitValidator} against the targets as they
+ * were at the moment the shooter was seeing when firing, estimated from the shooter's round trip time and the
+ * clients' interpolation delay.<p>
+ *
+ * A packet sent to many players (a shot relayed to the players near the shooter, a player joining or leaving) is
+ * encoded once into an {@link EncodedPacket}, whose copies share the encoded payload and differ only in their
+ * destination. Snapshots and player introductions are also {@link
+ * com.veltro.blazingbarrels.engine.connect.packet.PacketCompressor compressed} for the clients that accept it, unless
+ * {@link #compressionEnabled compression} is turned off. The traffic of the whole server can be recorded into a
+ * {@link DemoRecorder demo file}, in which each client's view of the game can be played back; every
+ * {@link DemoRecorder#DEFAULT_KEYFRAME_INTERVAL keyframe interval}, a tick supplies the demo with a keyframe view for
+ * each client, so that playback can seek into the demo.<p>
+ *
+ * Ticks are scheduled against absolute deadlines, so a slow tick delays the next one without shifting the rest of the
+ * schedule; if the server falls more than {@link #MAX_CATCH_UP_TICKS} ticks behind, the missed ticks are skipped. The
+ * duration and punctuality of every tick are recorded in the server's {@link TickStats}, which are logged every
+ * {@link #STATS_INTERVAL} seconds along with the shot validation statistics and a summary of the network traffic from
+ * the engine's {@link com.veltro.blazingbarrels.engine.connect.NetworkMonitor NetworkMonitor}, which is also registered
+ * with JMX.<p>
+ *
+ * By default, each host may send the server {@link ReceiveLimiter#DEFAULT_BYTES_PER_SECOND} bytes per second (see
+ * {@link NetworkEngine#getReceiveLimiter()}); datagrams beyond that are dropped before they are decoded, so a client
+ * flooding the server cannot push the ticks over their budget. Each host may also hold at most
+ * {@link ReceiveLimiter#DEFAULT_MAX_CONNECTIONS_PER_HOST} connections, so cycling through source ports gains it
+ * nothing.<p>
+ *
+ * Each player is assigned a small numeric ID when its client authenticates, and is kept in an array indexed by it.
+ * Packets and snapshots refer to players by that ID alone; the username is sent only in the introduction of the
+ * player, and freed IDs are handed out again in the order they were freed.<p>
+ *
+ * All game state is owned by the tick thread; the network engine runs on its own thread and the two communicate only
+ * through the engine's packet queues.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class BBServer {
+
+	/**
+	 * The default port the server listens on
+	 */
+	public static final int DEFAULT_PORT = 7331;
+
+	/**
+	 * The default number of ticks per second
+	 */
+	public static final int DEFAULT_TICK_RATE = 30;
+
+	/**
+	 * The default maximum number of players
+	 */
+	public static final int DEFAULT_MAX_PLAYERS = 32;
+
+	/**
+	 * The largest allowed number of ticks per second
+	 */
+	public static final int MAX_TICK_RATE = 1000;
+
+	/**
+	 * The number of ticks the server may fall behind its schedule before the missed ticks are skipped rather than run
+	 * back to back
+	 */
+	public static final int MAX_CATCH_UP_TICKS = 5;
+
+	/**
+	 * The interval, in seconds, at which the {@link #stats} are logged
+	 */
+	public static final int STATS_INTERVAL = 10;
+
+	/**
+	 * The default {@link #interestRadius}, in pixels
+	 */
+	public static final float DEFAULT_INTEREST_RADIUS = 1024;
+
+	/**
+	 * The default {@link #trickleInterval}, in ticks
+	 */
+	public static final int DEFAULT_TRICKLE_INTERVAL = 10;
+
+	/**
+	 * The time, in seconds, the shutdown hook waits for the networking engine to stop before closing the demo being
+	 * recorded
+	 */
+	private static final int SHUTDOWN_TIMEOUT = 5;
+
+	/**
+	 * The time after which a client that has sent nothing is disconnected
+	 */
+	private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+	/**
+	 * The horizontal radius, in pixels, of the game world
+	 */
+	private static final int WORLD_RADIUS = 4096;
+
+	/**
+	 * The largest distance, in pixels, a player may be above or below the game world's origin (that of the default
+	 * {@link com.veltro.blazingbarrels.engine.connect.packet.LocationQuantizer LocationQuantizer})
+	 */
+	private static final int WORLD_HEIGHT = 1024;
+
+	/**
+	 * The maximum value for a player's health
+	 */
+	private static final int HEALTH_CAP = 100;
+
+	/**
+	 * The authorization verdicts sent in {@link Packet01AuthResponse} packets
+	 */
+	private static final int SERVER_FULL = 0, USERNAME_TAKEN = 1, WRONG_PASSWORD = 2, AUTHORIZED = 3;
+
+	/**
+	 * The disconnect reasons sent in {@link Packet22PlayerDisconnect} packets
+	 */
+	private static final int QUIT = 0, TIMED_OUT = 1;
+
+	/**
+	 * The networking engine over which all packets are sent and received
+	 */
+	private final NetworkEngine engine;
+
+	/**
+	 * Decodes the packet types the server receives and dispatches them to the server's handlers
+	 */
+	private final PacketRegistry registry;
+
+	/**
+	 * The number of ticks per second
+	 */
+	private final int tickRate;
+
+	/**
+	 * The length, in nanoseconds, of a tick
+	 */
+	private final long tickPeriod;
+
+	/**
+	 * The maximum number of players
+	 */
+	private final int maxPlayers;
+
+	/**
+	 * The password clients must provide to authenticate (null if the server is open to everyone)
+	 */
+	private final String password;
+
+	/**
+	 * The timing statistics of the ticks run since they were last logged
+	 */
+	private final TickStats stats;
+
+	/**
+	 * Decides which player each hitscan shot hit, and times the decisions
+	 */
+	private final HitValidator validator = new HitValidator();
+
+	/**
+	 * Decides where each movement update moves its player, and counts the updates corrected
+	 */
+	private final MovementValidator movementValidator = new MovementValidator(WORLD_RADIUS, WORLD_HEIGHT);
+
+	/**
+	 * The location a movement update moves its player to, as decided by the {@link #movementValidator} (reused for
+	 * every update)
+	 */
+	private final Location3D validatedLocation = new Location3D();
+
+	/**
+	 * The number of positions kept in each player's {@link PositionHistory}: enough to rewind by the validator's
+	 * {@link HitValidator#MAX_REWIND maximum}
+	 */
+	private final int historyCapacity;
+
+	/**
+	 * The authenticated players, by the address and port of their client
+	 */
+	private final EndpointMap<ServerPlayer> playersByAddress = new EndpointMap<ServerPlayer>();
+
+	/**
+	 * The authenticated players, by username (only used to check the names of authenticating clients)
+	 */
+	private final HashMap<String, ServerPlayer> playersByName = new HashMap<String, ServerPlayer>();
+
+	/**
+	 * The authenticated players, indexed by the ID assigned to them (null where an ID is free)
+	 */
+	private final ServerPlayer[] playersByID;
+
+	/**
+	 * The free player IDs, in the order they were freed: a ring buffer starting at {@link #freeIDStart}, holding
+	 * {@link #freeIDCount} IDs. IDs are handed out from the front and returned to the back, so an ID is reused as late
+	 * as possible, giving the packets still in flight that refer to its previous owner time to be received.
+	 */
+	private final int[] freeIDs;
+
+	/**
+	 * The index of the first of the {@link #freeIDs}
+	 */
+	private int freeIDStart;
+
+	/**
+	 * The number of {@link #freeIDs}
+	 */
+	private int freeIDCount;
+
+	/**
+	 * The authenticated players, in the order they authenticated
+	 */
+	private final ArrayList<ServerPlayer> players = new ArrayList<ServerPlayer>();
+
+	/**
+	 * The snapshot of the world taken each tick (reused every tick)
+	 */
+	private final WorldSnapshot snapshot = new WorldSnapshot();
+
+	/**
+	 * The grid of the joined players' locations, rebuilt every tick. Entries are identified by their index in the
+	 * {@link #players} list.
+	 */
+	private final InterestGrid grid;
+
+	/**
+	 * The distance, in pixels, within which a client is sent every change to other players
+	 */
+	private volatile float interestRadius = DEFAULT_INTEREST_RADIUS;
+
+	/**
+	 * The number of ticks between refreshes of the players outside a client's {@link #interestRadius}
+	 */
+	private volatile int trickleInterval = DEFAULT_TRICKLE_INTERVAL;
+
+	/**
+	 * Whether clients that accept compression are sent compressible packets compressed (applies to the clients that
+	 * authenticate afterwards)
+	 */
+	private volatile boolean compressionEnabled = true;
+
+	/**
+	 * The indices of the players found by a grid query (reused by every query)
+	 */
+	private int[] nearby = new int[0];
+
+	/**
+	 * The indices of the players due to be refreshed for distant clients this tick
+	 */
+	private int[] trickled = new int[0];
+
+	/**
+	 * The shots fired this tick, addressed to no one yet
+	 */
+	private final ArrayList<Packet40WeaponFire> shots = new ArrayList<Packet40WeaponFire>();
+
+	/**
+	 * The players who fired the {@link #shots}, in the same order
+	 */
+	private final ArrayList<ServerPlayer> shooters = new ArrayList<ServerPlayer>();
+
+	/**
+	 * Incremented for each snapshot built, to mark the players already added to it
+	 */
+	private int snapshotStamp;
+
+	/**
+	 * The number of the current tick
+	 */
+	private int tick;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the current tick started
+	 */
+	private long tickTime;
+
+	/**
+	 * Status flag for the tick loop. If set to false, causes the {@link #run()} method to return.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Constructor - binds the networking engine and registers the server's packet handlers
+	 *
+	 * @param port The port to listen on
+	 * @param tickRate The {@link #tickRate}
+	 * @param maxPlayers The {@link #maxPlayers}
+	 * @param password The {@link #password} (null or empty for none)
+	 * @throws IOException If the networking engine could not be bound to the port
+	 */
+	public BBServer(int port, int tickRate, int maxPlayers, String password) throws IOException {
+		if (tickRate < 1 || tickRate > MAX_TICK_RATE)
+			throw new IllegalArgumentException("The tick rate must be between 1 and " + MAX_TICK_RATE);
+		if (maxPlayers < 1 || maxPlayers > PacketCodec.MAX_PLAYERS)
+			throw new IllegalArgumentException("The server must allow between 1 and " + PacketCodec.MAX_PLAYERS +
+					" players");
+		this.tickRate = tickRate;
+		this.maxPlayers = maxPlayers;
+		playersByID = new ServerPlayer[maxPlayers];
+		freeIDs = new int[maxPlayers];
+		for (int i = 0; i < maxPlayers; i++)
+			freeIDs[i] = i;
+		freeIDCount = maxPlayers;
+		this.password = password == null || password.isEmpty() ? null : password;
+		tickPeriod = TimeUnit.SECONDS.toNanos(1) / tickRate;
+		stats = new TickStats(tickPeriod);
+		historyCapacity = (int) (HitValidator.MAX_REWIND / tickPeriod) + 2;
+		grid = new InterestGrid(DEFAULT_INTEREST_RADIUS, maxPlayers);
+		registry = PacketRegistry.createServerRegistry();
+		registerHandlers();
+		engine = new NetworkEngine(new InetSocketAddress(port), registry);
+		engine.getReceiveLimiter().setBytesPerSecond(ReceiveLimiter.DEFAULT_BYTES_PER_SECOND);
+		engine.getReceiveLimiter().setMaxConnectionsPerHost(ReceiveLimiter.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+		engine.setIdleTimeout(TIMEOUT);
+	}
+
+	/**
+	 * Starts the networking engine and runs the tick loop until {@link #shutdown()} is called
+	 */
+	public void run() {
+		running = true;
+		engine.start();
+		try {
+			engine.getMonitor().register();
+		} catch (JMException e) {
+			System.err.println("Could not register the network monitor with JMX: " + e.getMessage());
+		}
+		long statsInterval = TimeUnit.SECONDS.toNanos(STATS_INTERVAL);
+		long nextTick = System.nanoTime();
+		long nextReport = nextTick + statsInterval;
+		while (running) {
+			long start = System.nanoTime();
+			tick();
+			long end = System.nanoTime();
+			stats.record(end - start, start - nextTick);
+
+			nextTick += tickPeriod;
+			long behind = end - nextTick;
+			if (behind > MAX_CATCH_UP_TICKS * tickPeriod) {
+				int skipped = (int) (behind / tickPeriod);
+				stats.recordSkipped(skipped);
+				nextTick += skipped * tickPeriod;
+			}
+			if (end - nextReport >= 0) {
+				System.out.println("[" + players.size() + " players] " + stats +
+						(validator.getShotCount() > 0 ? "; " + validator : "") +
+						(movementValidator.getCorrectedCount() > 0 ? "; " + movementValidator : ""));
+				System.out.println(engine.getMonitor().createLogLine());
+				stats.reset();
+				validator.resetStats();
+				movementValidator.resetStats();
+				nextReport = end + statsInterval;
+			}
+			long wait;
+			while (running && (wait = nextTick - System.nanoTime()) > 0)
+				LockSupport.parkNanos(wait);
+		}
+		engine.getMonitor().unregister();
+		engine.terminate();
+	}
+
+	/**
+	 * Causes the tick loop to exit once the current tick is complete, and stops the networking engine. May be called
+	 * from any thread.
+	 */
+	public void shutdown() {
+		running = false;
+	}
+
+	/**
+	 * Runs one tick: handles the received packets, disconnects silent clients, broadcasts the world state, and
+	 * supplies the demo being recorded with a keyframe if one is due
+	 */
+	private void tick() {
+		tick++;
+		tickTime = System.nanoTime();
+		registry.handleAll(engine.incomingPacketQueue);
+		disconnectSilentPlayers();
+		broadcast();
+		recordKeyframe();
+	}
+
+	/**
+	 * Records the position of every joined player, resolves the shots fired this tick, then sends every joined player
+	 * a snapshot of the world as it appears from the player's location, and confirms the location of every player that
+	 * has reported movement input since the last tick (so that the player's client can reconcile its prediction)
+	 */
+	private void broadcast() {
+		int count = players.size();
+		if (nearby.length < count) {
+			nearby = new int[count * 2];
+			trickled = new int[count * 2];
+		}
+		grid.clear();
+		int trickledCount = 0, interval = trickleInterval;
+		for (int i = 0; i < count; i++) {
+			ServerPlayer player = players.get(i);
+			if (!player.hasJoined())
+				continue;
+			Location3D location = player.getLocation();
+			player.getPositionHistory().record(tickTime, location);
+			grid.add(i, location.getX(), location.getY(), location.getZ());
+			if (((tick + player.getPlayerID()) & Integer.MAX_VALUE) % interval == 0)
+				trickled[trickledCount++] = i;
+		}
+		relayShots();
+
+		float radius = interestRadius;
+		for (int i = 0; i < count; i++) {
+			ServerPlayer player = players.get(i);
+			if (!player.hasJoined())
+				continue;
+			int stamp = ++snapshotStamp;
+			snapshot.reset(tick, WORLD_RADIUS, HEALTH_CAP);
+			Location3D location = player.getLocation();
+			int nearbyCount = grid.query(location.getX(), location.getY(), location.getZ(), radius, nearby);
+			for (int j = 0; j < nearbyCount; j++)
+				addToSnapshot(players.get(nearby[j]), stamp);
+			for (int j = 0; j < trickledCount; j++)
+				addToSnapshot(players.get(trickled[j]), stamp);
+
+			// Leave the remaining players the client knows about as it last acknowledged them (unless the ID they had
+			// in the baseline has since passed to a player who joined later):
+			SnapshotHistory history = player.getSnapshotHistory();
+			WorldSnapshot baseline = history.get(history.getAcknowledgedTick());
+			if (baseline != null)
+				for (int j = 0; j < baseline.getPlayerCount(); j++) {
+					PlayerSnapshot known = baseline.getPlayer(j);
+					ServerPlayer other = playersByID[known.getPlayerID()];
+					if (other != null && other.hasJoined() && !other.isSpectator() &&
+							other.getJoinTick() <= baseline.getTick() && other.getSnapshotStamp() != stamp) {
+						snapshot.addPlayer(known.getPlayerID()).copyFrom(known);
+						other.setSnapshotStamp(stamp);
+					}
+				}
+
+			engine.sendPacket(history.createSnapshotPacket(snapshot, player.getAddress(), player.getPort()));
+			if (player.takeInputPending()) {
+				Packet30PlayerUpdate update = new Packet30PlayerUpdate(player.getPlayerID(),
+						player.getLocation().clone(), -1, false, false, false, false, player.getAddress(),
+						player.getPort());
+				update.setInputSequence(player.getInputSequence());
+				engine.sendPacket(update);
+			}
+		}
+	}
+
+	/**
+	 * Supplies the demo being recorded (if any) with a keyframe, if one is due: a view for the client of every joined
+	 * player, holding what a client that had just connected would need to follow the snapshots sent to it from then
+	 * on - the authentication response that tells it its player ID, the introductions of the players in the game, and
+	 * the snapshots its deltas may be made against
+	 */
+	private void recordKeyframe() {
+		DemoRecorder recorder = engine.getConnectionTable().getRecorder();
+		if (recorder == null || !recorder.isKeyframeDue(tickTime))
+			return;
+		ArrayList<BBPacket> introductions = new ArrayList<BBPacket>();
+		for (int i = 0; i < players.size(); i++)
+			if (players.get(i).hasJoined())
+				introductions.add(createConnectPacket(players.get(i)));
+		BBPacket[][] views = new BBPacket[introductions.size()][];
+		InetAddress[] addresses = new InetAddress[views.length];
+		int[] ports = new int[views.length];
+		int count = 0;
+		for (int i = 0; i < players.size(); i++) {
+			ServerPlayer player = players.get(i);
+			if (!player.hasJoined())
+				continue;
+			Connection connection = engine.getConnectionTable().find(player.getAddress(), player.getPort());
+			ArrayList<BBPacket> view = new ArrayList<BBPacket>(introductions);
+			view.add(0, new Packet01AuthResponse(player.getUsername(), AUTHORIZED, player.getPlayerID(),
+					connection != null && connection.isCompressionEnabled(), null, 0));
+			for (BBPacket packet : player.getSnapshotHistory().createKeyframe(null, 0))
+				view.add(packet);
+			views[count] = view.toArray(new BBPacket[view.size()]);
+			addresses[count] = player.getAddress();
+			ports[count++] = player.getPort();
+		}
+		try {
+			recorder.recordKeyframe(views, addresses, ports);
+		} catch (BufferOverflowException e) {
+			System.err.println("The demo keyframe does not fit in a segment of the demo file, and was left out");
+		}
+	}
+
+	/**
+	 * Adds a player's current state to the {@link #snapshot} being built, unless the player is a spectator or has
+	 * already been added
+	 *
+	 * @param player The player
+	 * @param stamp The {@link #snapshotStamp} of the snapshot being built
+	 */
+	private void addToSnapshot(ServerPlayer player, int stamp) {
+		if (player.isSpectator() || player.getSnapshotStamp() == stamp)
+			return;
+		player.writeSnapshot(snapshot.addPlayer(player.getPlayerID()));
+		player.setSnapshotStamp(stamp);
+	}
+
+	/**
+	 * Disconnects every player whose client has sent nothing for longer than the {@link #TIMEOUT}, or whose connection
+	 * the engine has already evicted for the same reason
+	 */
+	private void disconnectSilentPlayers() {
+		long now = System.nanoTime();
+		for (int i = players.size() - 1; i >= 0; i--) {
+			ServerPlayer player = players.get(i);
+			Connection connection = engine.getConnectionTable().find(player.getAddress(), player.getPort());
+			if (connection == null || now - connection.getLastReceiveTime() > TIMEOUT) {
+				disconnect(player, TIMED_OUT);
+				engine.getConnectionTable().remove(player.getAddress(), player.getPort());
+			}
+		}
+	}
+
+	/**
+	 * Removes a player, freeing the player's ID, and, if the player had joined the game, tells every other player
+	 *
+	 * @param player The player to remove
+	 * @param reason The reason ID sent in the {@link Packet22PlayerDisconnect} packets
+	 */
+	private void disconnect(ServerPlayer player, int reason) {
+		players.remove(player);
+		playersByName.remove(player.getUsername());
+		playersByAddress.remove(player.getAddress(), player.getPort());
+		playersByID[player.getPlayerID()] = null;
+		freeIDs[(freeIDStart + freeIDCount++) % freeIDs.length] = player.getPlayerID();
+		if (player.hasJoined()) {
+			EncodedPacket announcement = EncodedPacket.encode(new Packet22PlayerDisconnect(player.getPlayerID(), reason,
+					null, 0));
+			for (int i = 0; i < players.size(); i++)
+				if (players.get(i).hasJoined())
+					send(announcement, players.get(i));
+		}
+		System.out.println(player.getUsername() + " left the game" + (reason == TIMED_OUT ? " (timed out)" : ""));
+	}
+
+	/**
+	 * Handles an authentication request, authenticating the client and assigning its player the least recently freed
+	 * ID, unless the server is full, the username is in use, or the password is wrong
+	 *
+	 * @param request The request
+	 */
+	private void authenticate(Packet00AuthRequest request) {
+		String username = request.getUsername();
+		ServerPlayer existing = playersByName.get(username);
+		int verdict, playerID = PacketCodec.NO_PLAYER;
+		if (existing != null) {
+			verdict = existing.getAddress().equals(request.getAddress()) && existing.getPort() == request.getPort() ?
+					AUTHORIZED : USERNAME_TAKEN; // A repeated request from the same client is answered again
+			if (verdict == AUTHORIZED)
+				playerID = existing.getPlayerID();
+		}
+		else if (password != null && !password.equals(request.getPassword()))
+			verdict = WRONG_PASSWORD;
+		else if (players.size() >= maxPlayers)
+			verdict = SERVER_FULL;
+		else if (getPlayer(request) != null) // The client is already authenticated under another name
+			verdict = USERNAME_TAKEN;
+		else {
+			verdict = AUTHORIZED;
+			playerID = freeIDs[freeIDStart];
+			freeIDStart = (freeIDStart + 1) % freeIDs.length;
+			freeIDCount--;
+			ServerPlayer player = new ServerPlayer(username, playerID, request.getAddress(), request.getPort(),
+					HEALTH_CAP, historyCapacity);
+			players.add(player);
+			playersByName.put(username, player);
+			playersByID[playerID] = player;
+			playersByAddress.put(request.getAddress(), request.getPort(), player);
+		}
+		boolean compress = verdict == AUTHORIZED && compressionEnabled && request.isCompressionAccepted();
+		if (verdict == AUTHORIZED)
+			engine.getConnectionTable().get(request.getAddress(), request.getPort()).setCompressionEnabled(compress);
+		engine.sendPacket(new Packet01AuthResponse(username, verdict, playerID, compress, request.getAddress(),
+				request.getPort()));
+	}
+
+	/**
+	 * Handles a join request from an authenticated client: spawns the player, introduces the player to everyone in
+	 * the game, and introduces everyone in the game to the player
+	 *
+	 * @param request The request
+	 */
+	private void join(Packet20PlayerJoin request) {
+		ServerPlayer player = getPlayer(request);
+		if (player == null || player.hasJoined() || player.getPlayerID() != request.getPlayerID())
+			return;
+		player.join(request.isJoiningAsSpectator(), tick, tickTime);
+		player.getLocation().setCoordinates(0, 1, 0);
+		EncodedPacket announcement = EncodedPacket.encode(createConnectPacket(player));
+		for (int i = 0; i < players.size(); i++) {
+			ServerPlayer other = players.get(i);
+			if (!other.hasJoined())
+				continue;
+			send(announcement, other);
+			if (other != player)
+				send(createConnectPacket(other), player);
+		}
+		System.out.println(player.getUsername() + " joined the game" + (player.isSpectator() ? " as a spectator" : ""));
+	}
+
+	/**
+	 * Handles a movement update from a client, moving the client's player by simulating the reported input, or if
+	 * there is none to the reported location, as far as the {@link #movementValidator} allows
+	 *
+	 * @param update The update
+	 */
+	private void move(Packet30PlayerUpdate update) {
+		ServerPlayer player = getPlayer(update);
+		if (player == null || !player.hasJoined())
+			return;
+		boolean accepted;
+		if (update.getInput() != null)
+			accepted = movementValidator.simulate(player, update.getInput(), update.getLocation(), tickTime,
+					validatedLocation);
+		else if (update.getLocation() != null)
+			accepted = movementValidator.validate(player, update.getLocation(), tickTime, validatedLocation);
+		else
+			return;
+		player.move(validatedLocation, update.getInputSequence(), !accepted);
+	}
+
+	/**
+	 * Handles a shot fired by a client's player, queuing it to be relayed once the tick's {@link #grid} is built
+	 *
+	 * @param shot The shot
+	 */
+	private void fire(Packet40WeaponFire shot) {
+		ServerPlayer shooter = getPlayer(shot);
+		if (shooter == null || !shooter.hasJoined() || shooter.isSpectator() || shot.getTrajectoryRay() == null)
+			return;
+		shooters.add(shooter);
+		shots.add(new Packet40WeaponFire(shooter.getPlayerID(), shot.getTrajectoryRay().clone(), shot.getWeaponType(),
+				null, 0));
+	}
+
+	/**
+	 * Resolves each shot fired this tick, damaging the player hit (if any), and relays it to every other player within
+	 * the {@link #interestRadius} of the shooter
+	 */
+	private void relayShots() {
+		for (int i = 0; i < shots.size(); i++) {
+			ServerPlayer shooter = shooters.get(i);
+			if (playersByID[shooter.getPlayerID()] != shooter) // Disconnected after firing
+				continue;
+			resolveHit(shooter, shots.get(i));
+			Location3D location = shooter.getLocation();
+			int count = grid.query(location.getX(), location.getY(), location.getZ(), interestRadius, nearby);
+			EncodedPacket relayed = null;
+			for (int j = 0; j < count; j++) {
+				ServerPlayer other = players.get(nearby[j]);
+				if (other != shooter) {
+					if (relayed == null)
+						relayed = EncodedPacket.encode(shots.get(i));
+					send(relayed, other);
+				}
+			}
+		}
+		shots.clear();
+		shooters.clear();
+	}
+
+	/**
+	 * Validates a hitscan shot against the targets as the shooter saw them, and damages the player hit (if any). The
+	 * shot was received about half a round trip after it was fired, and when it was fired the shooter's view of the
+	 * other players was another half a round trip old, plus the interpolation delay at which clients render other
+	 * players. Projectiles are only relayed, so they are neither validated nor counted in the validation statistics,
+	 * and neither are the shots of a player whose connection has already been dropped (as its round trip time is no
+	 * longer known).
+	 *
+	 * @param shooter The player who fired the shot
+	 * @param shot The shot
+	 */
+	private void resolveHit(ServerPlayer shooter, Packet40WeaponFire shot) {
+		if (!HitValidator.isHitscan(shot.getWeaponType()))
+			return;
+		Connection connection = engine.getConnectionTable().find(shooter.getAddress(), shooter.getPort());
+		if (connection == null)
+			return;
+		long viewTime = tickTime - Math.max(connection.getRoundTripTime(), 0) -
+				TimeUnit.MILLISECONDS.toNanos(InterpolationBuffer.DEFAULT_DELAY);
+		ServerPlayer target = validator.validate(shooter, shot.getTrajectoryRay(), shot.getWeaponType(), viewTime,
+				players);
+		if (target == null || target.isInGodMode() || target.getHealth() <= 0)
+			return;
+		target.setHealth(Math.max(target.getHealth() - HitValidator.getDamage(shot.getWeaponType()), 0));
+		if (target.getHealth() == 0)
+			System.out.println(target.getUsername() + " was destroyed by " + shooter.getUsername() + String.format(
+					" (hit validated in %.1f us)", validator.getLastValidationTime() / 1e3));
+	}
+
+	/**
+	 * @param player A joined player
+	 * @return A packet introducing the player
+	 */
+	private Packet21PlayerConnect createConnectPacket(ServerPlayer player) {
+		return new Packet21PlayerConnect(player.getPlayerID(), player.getUsername(), player.getLocation().clone(),
+				player.getHealth(), player.isAdmin(), player.isInGodMode(), player.isVanished(), null, 0);
+	}
+
+	/**
+	 * Addresses a packet to a player's client and queues it for sending
+	 *
+	 * @param packet The packet
+	 * @param player The player
+	 */
+	private void send(BBPacket packet, ServerPlayer player) {
+		packet.setAddress(player.getAddress());
+		packet.setPort(player.getPort());
+		engine.sendPacket(packet);
+	}
+
+	/**
+	 * Queues a copy of an encoded packet, addressed to a player's client, for sending. The payload is shared with
+	 * every other copy, so a packet sent to many players is encoded only once.
+	 *
+	 * @param packet The encoded packet
+	 * @param player The player
+	 */
+	private void send(EncodedPacket packet, ServerPlayer player) {
+		engine.sendPacket(packet.addressedTo(player.getAddress(), player.getPort()));
+	}
+
+	/**
+	 * @param packet A received packet
+	 * @return The player authenticated from the packet's source address and port (null if there is none)
+	 */
+	private ServerPlayer getPlayer(BBPacket packet) {
+		return playersByAddress.get(packet.getAddress(), packet.getPort());
+	}
+
+	/**
+	 * Replaces the default handlers of the received packet types with the server's own
+	 */
+	private void registerHandlers() {
+		registry.setHandler(0, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				authenticate((Packet00AuthRequest) packet);
+			}
+		});
+		registry.setHandler(11, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				ServerPlayer player = getPlayer(packet);
+				if (player != null)
+					player.getSnapshotHistory().acknowledge(((Packet11SnapshotAck) packet).getTick());
+			}
+		});
+		registry.setHandler(20, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				join((Packet20PlayerJoin) packet);
+			}
+		});
+		registry.setHandler(22, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				ServerPlayer player = getPlayer(packet);
+				if (player != null)
+					disconnect(player, QUIT);
+			}
+		});
+		registry.setHandler(30, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				move((Packet30PlayerUpdate) packet);
+			}
+		});
+		registry.setHandler(40, new PacketHandler() {
+			public void handle(BBPacket packet) {
+				fire((Packet40WeaponFire) packet);
+			}
+		});
+	}
+
+	/**
+	 * @return The number of ticks per second
+	 */
+	public int getTickRate() {
+		return tickRate;
+	}
+
+	/**
+	 * @return The number of the current tick
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return The {@link #interestRadius}, in pixels
+	 */
+	public float getInterestRadius() {
+		return interestRadius;
+	}
+
+	/**
+	 * Changes the {@link #interestRadius}. May be called from any thread.
+	 *
+	 * @param interestRadius The new radius, in pixels
+	 */
+	public void setInterestRadius(float interestRadius) {
+		if (interestRadius <= 0)
+			throw new IllegalArgumentException("The interest radius must be positive");
+		this.interestRadius = interestRadius;
+	}
+
+	/**
+	 * @return The {@link #trickleInterval}, in ticks
+	 */
+	public int getTrickleInterval() {
+		return trickleInterval;
+	}
+
+	/**
+	 * Changes the {@link #trickleInterval}. May be called from any thread.
+	 *
+	 * @param trickleInterval The new interval, in ticks (1 to send every player to every client every tick)
+	 */
+	public void setTrickleInterval(int trickleInterval) {
+		if (trickleInterval < 1)
+			throw new IllegalArgumentException("The trickle interval must be at least one tick");
+		this.trickleInterval = trickleInterval;
+	}
+
+	/**
+	 * @return Whether {@link #compressionEnabled compression is enabled}
+	 */
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * Turns {@link #compressionEnabled compression} on or off for the clients that authenticate from now on. May be
+	 * called from any thread.
+	 *
+	 * @param compressionEnabled Whether to compress the compressible packets sent to clients that accept it
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	/**
+	 * @return The timing statistics of the ticks run since they were last logged
+	 */
+	public TickStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * @return The validator that decides which player each shot hit, holding the shot validation statistics
+	 */
+	public HitValidator getHitValidator() {
+		return validator;
+	}
+
+	/**
+	 * @return The validator that decides where each movement update moves its player, holding the movement
+	 * validation statistics
+	 */
+	public MovementValidator getMovementValidator() {
+		return movementValidator;
+	}
+
+	/**
+	 * @return The networking engine over which the server communicates
+	 */
+	public NetworkEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Launch point for the dedicated server. Arguments (all optional): -port &lt;port&gt;, -tickrate &lt;ticks per
+	 * second&gt;, -maxplayers &lt;count&gt;, -password &lt;password&gt;, -interest &lt;radius in pixels&gt;, -trickle
+	 * &lt;ticks between refreshes of distant players&gt;, -compression &lt;on|off&gt;, -record &lt;demo file&gt;,
+	 * -ratelimit &lt;bytes per second per host, 0 for none&gt;, -maxperhost &lt;connections per host, 0 for
+	 * no limit&gt;, -maxspeed &lt;pixels per second&gt;
+	 *
+	 * @param args The command line arguments
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT, tickRate = DEFAULT_TICK_RATE, maxPlayers = DEFAULT_MAX_PLAYERS;
+		String password = null, demoFile = null;
+		float interestRadius = DEFAULT_INTEREST_RADIUS;
+		int trickleInterval = DEFAULT_TRICKLE_INTERVAL;
+		boolean compression = true;
+		int rateLimit = ReceiveLimiter.DEFAULT_BYTES_PER_SECOND;
+		int maxPerHost = ReceiveLimiter.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+		float maxSpeed = MovementValidator.DEFAULT_MAX_SPEED;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i].toLowerCase();
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Missing value for " + args[i]);
+				String value = args[++i];
+				if (option.equals("-port"))
+					port = Integer.parseInt(value);
+				else if (option.equals("-tickrate"))
+					tickRate = Integer.parseInt(value);
+				else if (option.equals("-maxplayers"))
+					maxPlayers = Integer.parseInt(value);
+				else if (option.equals("-password"))
+					password = value;
+				else if (option.equals("-interest"))
+					interestRadius = Float.parseFloat(value);
+				else if (option.equals("-trickle"))
+					trickleInterval = Integer.parseInt(value);
+				else if (option.equals("-compression")) {
+					if (!value.equalsIgnoreCase("on") && !value.equalsIgnoreCase("off"))
+						throw new IllegalArgumentException("The compression must be on or off");
+					compression = value.equalsIgnoreCase("on");
+				} else if (option.equals("-record"))
+					demoFile = value;
+				else if (option.equals("-ratelimit"))
+					rateLimit = Integer.parseInt(value);
+				else if (option.equals("-maxperhost"))
+					maxPerHost = Integer.parseInt(value);
+				else if (option.equals("-maxspeed"))
+					maxSpeed = Float.parseFloat(value);
+				else
+					throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+			}
+		} catch (IllegalArgumentException e) { // Includes NumberFormatException
+			System.err.println(e.getMessage());
+			System.err.println("Usage: BBServer [-port <port>] [-tickrate <ticks per second>] " +
+					"[-maxplayers <count>] [-password <password>] [-interest <radius>] [-trickle <ticks>] " +
+					"[-compression on|off] [-record <demo file>] [-ratelimit <bytes per second>] " +
+					"[-maxperhost <connections>] [-maxspeed <pixels per second>]");
+			System.exit(1);
+		}
+
+		final BBServer server;
+		try {
+			server = new BBServer(port, tickRate, maxPlayers, password);
+			server.setInterestRadius(interestRadius);
+			server.setTrickleInterval(trickleInterval);
+			server.setCompressionEnabled(compression);
+			server.getEngine().getReceiveLimiter().setBytesPerSecond(rateLimit);
+			server.getEngine().getReceiveLimiter().setMaxConnectionsPerHost(maxPerHost);
+			server.getMovementValidator().setMaxSpeed(maxSpeed);
+			if (demoFile != null)
+				server.getEngine().getConnectionTable().setRecorder(new DemoRecorder(new File(demoFile)));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.shutdown();
+				DemoRecorder recorder = server.getEngine().getConnectionTable().getRecorder();
+				if (recorder == null)
+					return;
+				// The engine may be recording a packet at this very moment, so it must stop before the demo is closed:
+				NetworkEngine engine = server.getEngine();
+				engine.terminate();
+				try {
+					engine.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				if (engine.isAlive())
+					System.err.println("The network engine did not stop in time; the end of the demo may be lost");
+				recorder.close();
+			}
+		});
+		System.out.println("BlazingBarrels server listening on port " + server.getEngine().getLocalPort() + " at " +
+				tickRate + " ticks per second");
+		server.run();
+	}
+}
@@ -0,0 +1,251 @@
+package com.veltro.blazingbarrels.server;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.veltro.blazingbarrels.engine.connect.packet.WeaponType;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * Decides on the server which player, if any, a hitscan shot hit, compensating for the shooter's latency. A client
+ * renders other players in the past (by half its round trip time, plus its
+ * {@link com.veltro.blazingbarrels.game.location.InterpolationBuffer interpolation} delay), and its shots reach the
+ * server another half a round trip later, so a shot aimed squarely at a player on the shooter's screen would miss the
+ * player's current position. The validator therefore rewinds every potential target to the moment the shooter saw,
+ * using the targets' {@link PositionHistory position histories}, and tests the shot's ray against a sphere around each
+ * rewound position. The nearest target hit within the weapon's range is the one hit.<p>
+ *
+ * Shots whose ray starts too far from the shooter's own (predicted, hence not rewound) position are rejected outright,
+ * so that a client cannot fire from wherever it likes. Only {@link #isHitscan(WeaponType) hitscan} shots are
+ * validated; projectiles are simulated elsewhere and are not counted here. Validation allocates nothing; the time each
+ * validation takes is recorded, and can be read for the last shot or as totals since the statistics were last
+ * {@link #resetStats() reset}.<p>
+ *
+ * A validator is used by the server's tick thread only, apart from its statistics getters.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class HitValidator {
+
+	/**
+	 * The radius, in pixels, of the sphere around a player's position that a shot must pass through to hit the player
+	 */
+	public static final float HIT_RADIUS = 32;
+
+	/**
+	 * The furthest, in pixels, that a shot's ray may start from the shooter's current position
+	 */
+	public static final float MAX_ORIGIN_ERROR = 128;
+
+	/**
+	 * The longest time by which targets are rewound, however high the shooter's latency (shooters with higher latency
+	 * must lead their targets)
+	 */
+	public static final long MAX_REWIND = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * The rewound location of the target being tested (reused for every target)
+	 */
+	private final Location3D rewound = new Location3D();
+
+	/**
+	 * The time, in nanoseconds, the last validation took
+	 */
+	private volatile long lastValidationTime;
+
+	/**
+	 * The number of shots validated since the statistics were reset
+	 */
+	private int shotCount;
+
+	/**
+	 * The number of validated shots that hit a player since the statistics were reset
+	 */
+	private int hitCount;
+
+	/**
+	 * The number of shots rejected since the statistics were reset
+	 */
+	private int rejectedCount;
+
+	/**
+	 * The total time, in nanoseconds, spent validating shots since the statistics were reset
+	 */
+	private long totalValidationTime;
+
+	/**
+	 * The longest time, in nanoseconds, a validation took since the statistics were reset
+	 */
+	private long maxValidationTime;
+
+	/**
+	 * Finds the player a shot hit
+	 *
+	 * @param shooter The player who fired the shot
+	 * @param ray The shot's trajectory ray, starting at the muzzle and pointing in the direction of its yaw and pitch
+	 * @param weapon The weapon fired (a {@link #isHitscan(WeaponType) hitscan} weapon)
+	 * @param viewTime The moment, as given by System.nanoTime(), that the shooter was seeing when firing (clamped to
+	 * the last {@link #MAX_REWIND})
+	 * @param players The players who could have been hit (the shooter and spectators are skipped)
+	 * @return The player hit, or null if the shot missed or was rejected
+	 * @throws IllegalArgumentException If the weapon is not a hitscan weapon
+	 */
+	public ServerPlayer validate(ServerPlayer shooter, Location3D ray, WeaponType weapon, long viewTime,
+			List<ServerPlayer> players) {
+		if (!isHitscan(weapon))
+			throw new IllegalArgumentException(weapon + " shots are projectiles, which cannot be validated as hitscan");
+		long start = System.nanoTime();
+		if (start - viewTime > MAX_REWIND)
+			viewTime = start - MAX_REWIND;
+		float range = getRange(weapon);
+		ServerPlayer hit = null;
+
+		Location3D origin = shooter.getLocation();
+		float dx = ray.getX() - origin.getX(), dy = ray.getY() - origin.getY(), dz = ray.getZ() - origin.getZ();
+		boolean rejected = dx * dx + dy * dy + dz * dz > MAX_ORIGIN_ERROR * MAX_ORIGIN_ERROR;
+		if (!rejected) {
+			// Direction of the ray, matching the movement convention of InputCommand (yaw 0 faces +z):
+			double yaw = Math.toRadians(ray.getYaw()), pitch = Math.toRadians(ray.getPitch());
+			float directionX = (float) (-Math.sin(yaw) * Math.cos(pitch));
+			float directionY = (float) Math.sin(pitch);
+			float directionZ = (float) (Math.cos(yaw) * Math.cos(pitch));
+
+			float nearest = range;
+			for (int i = 0; i < players.size(); i++) {
+				ServerPlayer target = players.get(i);
+				if (target == shooter || !target.hasJoined() || target.isSpectator() ||
+						!target.getPositionHistory().getPosition(viewTime, rewound))
+					continue;
+				float toX = rewound.getX() - ray.getX(), toY = rewound.getY() - ray.getY(),
+						toZ = rewound.getZ() - ray.getZ();
+				float along = toX * directionX + toY * directionY + toZ * directionZ; // Distance along the ray
+				if (along < 0 || along > nearest)
+					continue;
+				float missSquared = toX * toX + toY * toY + toZ * toZ - along * along;
+				if (missSquared <= HIT_RADIUS * HIT_RADIUS) {
+					nearest = along;
+					hit = target;
+				}
+			}
+		}
+
+		long duration = System.nanoTime() - start;
+		lastValidationTime = duration;
+		synchronized (this) {
+			shotCount++;
+			if (hit != null)
+				hitCount++;
+			if (rejected)
+				rejectedCount++;
+			totalValidationTime += duration;
+			if (duration > maxValidationTime)
+				maxValidationTime = duration;
+		}
+		return hit;
+	}
+
+	/**
+	 * @param weapon A weapon
+	 * @return The range, in pixels, of the weapon if it is a hitscan weapon, or 0 if its shots are projectiles (which
+	 * are not validated here)
+	 */
+	public static float getRange(WeaponType weapon) {
+		switch (weapon) {
+			case LASER_CANNON:
+				return 512;
+			case RAIL_GUN:
+				return 8192;
+			case MINI_GUN:
+				return 2048;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @param weapon A weapon
+	 * @return Whether the weapon's shots hit instantly along their ray, and so are resolved by
+	 * {@link #validate(ServerPlayer, Location3D, WeaponType, long, List) validate}
+	 */
+	public static boolean isHitscan(WeaponType weapon) {
+		return getRange(weapon) > 0;
+	}
+
+	/**
+	 * @param weapon A weapon
+	 * @return The damage a hit with the weapon deals
+	 */
+	public static int getDamage(WeaponType weapon) {
+		switch (weapon) {
+			case LASER_CANNON:
+				return 20;
+			case RAIL_GUN:
+				return 60;
+			case MINI_GUN:
+				return 6;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @return The time, in nanoseconds, the last validation took
+	 */
+	public long getLastValidationTime() {
+		return lastValidationTime;
+	}
+
+	/**
+	 * @return The number of shots validated since the statistics were reset
+	 */
+	public synchronized int getShotCount() {
+		return shotCount;
+	}
+
+	/**
+	 * @return The number of validated shots that hit a player since the statistics were reset
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return The number of shots rejected since the statistics were reset
+	 */
+	public synchronized int getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * @return The average time, in nanoseconds, a validation took since the statistics were reset (0 if no shot has
+	 * been validated)
+	 */
+	public synchronized long getAverageValidationTime() {
+		return shotCount == 0 ? 0 : totalValidationTime / shotCount;
+	}
+
+	/**
+	 * @return The longest time, in nanoseconds, a validation took since the statistics were reset
+	 */
+	public synchronized long getMaxValidationTime() {
+		return maxValidationTime;
+	}
+
+	/**
+	 * Clears the statistics
+	 */
+	public synchronized void resetStats() {
+		shotCount = 0;
+		hitCount = 0;
+		rejectedCount = 0;
+		totalValidationTime = 0;
+		maxValidationTime = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d shots, %d hits, %d rejected, validation avg %.1f us / max %.1f us", shotCount,
+				hitCount, rejectedCount, getAverageValidationTime() / 1e3, maxValidationTime / 1e3);
+	}
+}
@@ -0,0 +1,190 @@
+package com.veltro.blazingbarrels.server;
+
+import java.util.Arrays;
+
+/**
+ * A uniform spatial grid over the horizontal (x-z) plane, used by the server to find the players near a given point
+ * without testing every player. The grid is rebuilt every tick: it is {@link #clear() cleared}, every player is
+ * {@link #add(int, float, float, float) added} under an integer ID, and {@link #query(float, float, float, float,
+ * int[]) queries} then return the IDs of the players within a radius of a point, testing only the entries in the cells
+ * the radius overlaps.<p>
+ *
+ * Cells are hashed into a power-of-two table of chains threaded through flat arrays, so the grid covers an unbounded
+ * world and neither adding nor querying allocates (the arrays grow only when more entries are added than ever
+ * before). The cell size should be about the query radius, so that a query visits nine cells.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class InterestGrid {
+
+	/**
+	 * The width, in pixels, of a (square) cell
+	 */
+	private final float cellSize;
+
+	/**
+	 * The index of the first entry in each hash bucket's chain (-1 for an empty bucket)
+	 */
+	private int[] buckets;
+
+	/**
+	 * The index of the next entry in the same bucket's chain, per entry (-1 at the end of a chain)
+	 */
+	private int[] next;
+
+	/**
+	 * The ID of each entry
+	 */
+	private int[] ids;
+
+	/**
+	 * The column and row of the cell each entry is in (so that entries of different cells sharing a bucket can be told
+	 * apart)
+	 */
+	private int[] cellX, cellZ;
+
+	/**
+	 * The coordinates of each entry
+	 */
+	private float[] x, y, z;
+
+	/**
+	 * The number of entries in the grid
+	 */
+	private int size;
+
+	/**
+	 * Constructor
+	 *
+	 * @param cellSize The {@link #cellSize}, in pixels
+	 * @param capacity The number of entries to allocate room for up front
+	 */
+	public InterestGrid(float cellSize, int capacity) {
+		if (cellSize <= 0)
+			throw new IllegalArgumentException("The cell size must be positive");
+		this.cellSize = cellSize;
+		allocate(Math.max(capacity, 16));
+	}
+
+	/**
+	 * Removes every entry
+	 */
+	public void clear() {
+		Arrays.fill(buckets, -1);
+		size = 0;
+	}
+
+	/**
+	 * Adds an entry
+	 *
+	 * @param id The ID to return from queries that find the entry
+	 * @param px The entry's x-coordinate
+	 * @param py The entry's y-coordinate
+	 * @param pz The entry's z-coordinate
+	 */
+	public void add(int id, float px, float py, float pz) {
+		if (size == ids.length)
+			grow();
+		int cx = cell(px), cz = cell(pz);
+		int bucket = bucket(cx, cz);
+		ids[size] = id;
+		cellX[size] = cx;
+		cellZ[size] = cz;
+		x[size] = px;
+		y[size] = py;
+		z[size] = pz;
+		next[size] = buckets[bucket];
+		buckets[bucket] = size++;
+	}
+
+	/**
+	 * Finds the entries within a radius of a point
+	 *
+	 * @param px The point's x-coordinate
+	 * @param py The point's y-coordinate
+	 * @param pz The point's z-coordinate
+	 * @param radius The radius, in pixels
+	 * @param result The array into which to write the IDs of the entries found, which must be at least as long as the
+	 * grid's {@link #size()}
+	 * @return The number of entries found
+	 */
+	public int query(float px, float py, float pz, float radius, int[] result) {
+		int count = 0;
+		float radiusSquared = radius * radius;
+		int minX = cell(px - radius), maxX = cell(px + radius);
+		int minZ = cell(pz - radius), maxZ = cell(pz + radius);
+		for (int cx = minX; cx <= maxX; cx++)
+			for (int cz = minZ; cz <= maxZ; cz++)
+				for (int i = buckets[bucket(cx, cz)]; i >= 0; i = next[i]) {
+					if (cellX[i] != cx || cellZ[i] != cz)
+						continue;
+					float dx = x[i] - px, dy = y[i] - py, dz = z[i] - pz;
+					if (dx * dx + dy * dy + dz * dz <= radiusSquared)
+						result[count++] = ids[i];
+				}
+		return count;
+	}
+
+	/**
+	 * @return The number of entries in the grid
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The {@link #cellSize}, in pixels
+	 */
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * @param coordinate A coordinate, in pixels
+	 * @return The column or row of the cell containing the coordinate
+	 */
+	private int cell(float coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	/**
+	 * @param cx The column of a cell
+	 * @param cz The row of the cell
+	 * @return The hash bucket the cell's entries are chained in
+	 */
+	private int bucket(int cx, int cz) {
+		int hash = cx * 0x9E3779B1 ^ cz * 0x85EBCA77;
+		return (hash ^ hash >>> 16) & (buckets.length - 1);
+	}
+
+	/**
+	 * Allocates the arrays, with two buckets per entry
+	 *
+	 * @param capacity The number of entries to allocate room for
+	 */
+	private void allocate(int capacity) {
+		buckets = new int[Integer.highestOneBit(capacity - 1) << 2];
+		next = new int[capacity];
+		ids = new int[capacity];
+		cellX = new int[capacity];
+		cellZ = new int[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+		Arrays.fill(buckets, -1);
+	}
+
+	/**
+	 * Doubles the capacity of the grid, re-adding the existing entries
+	 */
+	private void grow() {
+		int[] oldIDs = ids;
+		float[] oldX = x, oldY = y, oldZ = z;
+		int oldSize = size;
+		allocate(ids.length * 2);
+		size = 0;
+		for (int i = 0; i < oldSize; i++)
+			add(oldIDs[i], oldX[i], oldY[i], oldZ[i]);
+	}
+}
@@ -0,0 +1,227 @@
+package com.veltro.blazingbarrels.server;
+
+import java.util.concurrent.TimeUnit;
+
+import com.veltro.blazingbarrels.game.location.InputCommand;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * Decides on the server where a player actually moves to when the player's client reports movement, so that a client
+ * cannot teleport its player, move it faster than the game allows, or take it out of the world. The game client
+ * predicts its own movement and reports the {@link InputCommand input} behind every step, which the server
+ * {@link #simulate(ServerPlayer, InputCommand, Location3D, long, Location3D) simulates} from the player's current
+ * location, so that the position comes from the server rather than from the client. Clients that report only a
+ * location (such as the bench's bots) have it {@link #validate(ServerPlayer, Location3D, long, Location3D)
+ * validated} instead, and the server accepts it only if the player could have got there.<p>
+ *
+ * Either way, each player has a movement allowance, which grows at the {@link #maxSpeed} with the time since the last
+ * update and is spent by the distance each update moves the player. Saving up is capped at the
+ * {@link #MAX_BURST_TIME}'s worth of movement, enough to absorb updates that arrive bunched together, but not to let a
+ * player that stood still cover a long distance in one jump (or a client claim an input lasted longer than it did).
+ * Simulated inputs are also held to the maximum speed.<p>
+ *
+ * A reported location that is not a number, or that lies outside the world (further than the world radius from its
+ * vertical axis, or further than the world height above or below its origin), is first brought back within it. A
+ * location further away than the allowance permits is then replaced by the point the allowance reaches along the way.
+ * Either way, the update is counted as corrected, and the server confirms the location it chose to the client, whose
+ * {@link com.veltro.blazingbarrels.game.location.MovementPredictor MovementPredictor} then reconciles with it.
+ * The reported rotation is always accepted.<p>
+ *
+ * A validator is used by the server's tick thread only, apart from its statistics getters and its speed setting.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class MovementValidator {
+
+	/**
+	 * The default {@link #maxSpeed}: with room to spare over the fastest movement a client produces (the bench bots
+	 * fly at 256 pixels per second, and curve up and down while they do)
+	 */
+	public static final float DEFAULT_MAX_SPEED = 512;
+
+	/**
+	 * The longest time whose worth of movement a player can save up while standing still or while its updates are
+	 * delayed
+	 */
+	public static final long MAX_BURST_TIME = TimeUnit.MILLISECONDS.toNanos(500);
+
+	/**
+	 * The horizontal radius, in pixels, of the world
+	 */
+	private final float worldRadius;
+
+	/**
+	 * The largest distance, in pixels, a player may be above or below the world's origin
+	 */
+	private final float worldHeight;
+
+	/**
+	 * The speed, in pixels per second, at which players may move
+	 */
+	private volatile float maxSpeed = DEFAULT_MAX_SPEED;
+
+	/**
+	 * The number of updates validated since the statistics were reset
+	 */
+	private int updateCount;
+
+	/**
+	 * The number of updates whose location was corrected since the statistics were reset
+	 */
+	private int correctedCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param worldRadius The horizontal {@link #worldRadius}, in pixels
+	 * @param worldHeight The {@link #worldHeight}, in pixels
+	 */
+	public MovementValidator(float worldRadius, float worldHeight) {
+		this.worldRadius = worldRadius;
+		this.worldHeight = worldHeight;
+	}
+
+	/**
+	 * Decides where a player moves to, given the movement input the player's client applied: the input is applied to
+	 * the player's current location (at no more than the {@link #maxSpeed}), and the result is
+	 * {@link #validate(ServerPlayer, Location3D, long, Location3D) validated} like a reported location. The player
+	 * itself is not moved.
+	 *
+	 * @param player The player
+	 * @param input The input reported by the client (its speed may be lowered)
+	 * @param reported The location reported by the client along with the input, from which only the rotation is taken
+	 * (null to keep the player's rotation)
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param result The location in which to store the location the player moves to
+	 * @return Whether the player moved as the client predicted (false if the input was corrected)
+	 */
+	public boolean simulate(ServerPlayer player, InputCommand input, Location3D reported, long now, Location3D result) {
+		Location3D current = player.getLocation();
+		result.setCoordinates(current.getX(), current.getY(), current.getZ());
+		Location3D rotation = reported != null ? reported : current;
+		result.setRotation(rotation.getYaw(), rotation.getPitch(), rotation.getRoll());
+		boolean corrected = false;
+		float speed = maxSpeed;
+		if (!(input.getSpeed() <= speed)) { // Includes NaN
+			input.set(input.getForward(), input.getSideways(), input.getVertical(), input.getYaw(),
+					input.getDuration(), speed);
+			corrected = true;
+		}
+		input.applyTo(result);
+		return validate(player, result, now, result) && !corrected;
+	}
+
+	/**
+	 * Decides where a player moves to, given the location the player's client reported, and spends the player's
+	 * movement allowance accordingly. The player itself is not moved.
+	 *
+	 * @param player The player
+	 * @param reported The location reported by the client
+	 * @param now The current time, as given by System.nanoTime()
+	 * @param result The location in which to store the location the player moves to
+	 * @return Whether the reported location was accepted as it is (false if it was corrected)
+	 */
+	public boolean validate(ServerPlayer player, Location3D reported, long now, Location3D result) {
+		Location3D current = player.getLocation();
+		float x = reported.getX(), y = reported.getY(), z = reported.getZ();
+		boolean corrected = false;
+		if (!isFinite(x) || !isFinite(y) || !isFinite(z)) {
+			x = current.getX();
+			y = current.getY();
+			z = current.getZ();
+			corrected = true;
+		}
+
+		// Keep the player inside the world:
+		float horizontal = (float) Math.sqrt(x * x + z * z);
+		if (horizontal > worldRadius) {
+			x *= worldRadius / horizontal;
+			z *= worldRadius / horizontal;
+			corrected = true;
+		}
+		if (Math.abs(y) > worldHeight) {
+			y = Math.signum(y) * worldHeight;
+			corrected = true;
+		}
+
+		// Keep the player under the speed limit:
+		float speed = maxSpeed;
+		float allowance = player.getMovementAllowance() + speed * Math.max(now - player.getLastMoveTime(), 0) / 1e9f;
+		allowance = Math.min(allowance, speed * MAX_BURST_TIME / 1e9f);
+		float dx = x - current.getX(), dy = y - current.getY(), dz = z - current.getZ();
+		float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (distance > allowance) {
+			float scale = allowance / distance;
+			x = current.getX() + dx * scale;
+			y = current.getY() + dy * scale;
+			z = current.getZ() + dz * scale;
+			allowance = 0;
+			corrected = true;
+		} else
+			allowance -= distance;
+		player.setMovementAllowance(allowance, now);
+
+		result.setCoordinates(x, y, z);
+		result.setRotation(reported.getYaw(), reported.getPitch(), reported.getRoll());
+		synchronized (this) {
+			updateCount++;
+			if (corrected)
+				correctedCount++;
+		}
+		return !corrected;
+	}
+
+	/**
+	 * @param value A coordinate
+	 * @return Whether the coordinate is neither infinite nor NaN
+	 */
+	private static boolean isFinite(float value) {
+		return !Float.isNaN(value) && !Float.isInfinite(value);
+	}
+
+	/**
+	 * @return The {@link #maxSpeed}, in pixels per second
+	 */
+	public float getMaxSpeed() {
+		return maxSpeed;
+	}
+
+	/**
+	 * Changes the speed at which players may move. May be called from any thread.
+	 *
+	 * @param maxSpeed The new {@link #maxSpeed}, in pixels per second
+	 */
+	public void setMaxSpeed(float maxSpeed) {
+		if (maxSpeed <= 0)
+			throw new IllegalArgumentException("The maximum speed must be positive");
+		this.maxSpeed = maxSpeed;
+	}
+
+	/**
+	 * @return The number of updates validated since the statistics were reset
+	 */
+	public synchronized int getUpdateCount() {
+		return updateCount;
+	}
+
+	/**
+	 * @return The number of updates whose location was corrected since the statistics were reset
+	 */
+	public synchronized int getCorrectedCount() {
+		return correctedCount;
+	}
+
+	/**
+	 * Resets the statistics
+	 */
+	public synchronized void resetStats() {
+		updateCount = 0;
+		correctedCount = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d moves, %d corrected", updateCount, correctedCount);
+	}
+}
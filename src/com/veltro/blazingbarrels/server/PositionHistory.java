@@ -0,0 +1,123 @@
+package com.veltro.blazingbarrels.server;
+
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * A ring of a player's recent positions, recorded by the server once per tick, from which the position the player had
+ * at any moment of the last second or so can be {@link #getPosition(long, Location3D) recovered}. This is what lets
+ * the server judge a shot against the world as the shooter saw it. The ring is preallocated, so recording and
+ * rewinding allocate nothing.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class PositionHistory {
+
+	/**
+	 * The times, as given by System.nanoTime(), at which the positions were recorded (a ring, starting at
+	 * {@link #oldest})
+	 */
+	private final long[] times;
+
+	/**
+	 * The recorded coordinates, matching the {@link #times}
+	 */
+	private final float[] x, y, z;
+
+	/**
+	 * The index of the oldest recorded position
+	 */
+	private int oldest;
+
+	/**
+	 * The number of recorded positions
+	 */
+	private int count;
+
+	/**
+	 * Constructor - preallocates the ring
+	 *
+	 * @param capacity The number of positions to keep (eg. one second's worth of ticks)
+	 */
+	public PositionHistory(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("A position history must hold at least one position");
+		times = new long[capacity];
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+	}
+
+	/**
+	 * Records a position, overwriting the oldest one if the ring is full
+	 *
+	 * @param time The current time, as given by System.nanoTime()
+	 * @param location The player's location
+	 */
+	public void record(long time, Location3D location) {
+		int index;
+		if (count == times.length) {
+			index = oldest;
+			oldest = (oldest + 1) % times.length;
+		} else
+			index = (oldest + count++) % times.length;
+		times[index] = time;
+		x[index] = location.getX();
+		y[index] = location.getY();
+		z[index] = location.getZ();
+	}
+
+	/**
+	 * Works out where the player was at a past moment, interpolating between the positions recorded either side of it.
+	 * Moments before the oldest recorded position give the oldest position, and moments after the newest give the
+	 * newest.
+	 *
+	 * @param time The moment, as given by System.nanoTime()
+	 * @param result The location whose coordinates to overwrite with the position (its rotation is left untouched)
+	 * @return Whether any position has been recorded (if not, the result is left untouched)
+	 */
+	public boolean getPosition(long time, Location3D result) {
+		if (count == 0)
+			return false;
+		int newest = index(count - 1);
+		if (time - times[newest] >= 0) {
+			result.setCoordinates(x[newest], y[newest], z[newest]);
+			return true;
+		}
+		if (time - times[oldest] <= 0) {
+			result.setCoordinates(x[oldest], y[oldest], z[oldest]);
+			return true;
+		}
+
+		// Binary search for the last position recorded at or before the moment:
+		int low = 0, high = count - 1;
+		while (high - low > 1) {
+			int middle = (low + high) >>> 1;
+			if (times[index(middle)] - time <= 0)
+				low = middle;
+			else
+				high = middle;
+		}
+		int before = index(low), after = index(high);
+		float fraction = (float) (time - times[before]) / (times[after] - times[before]);
+		result.setCoordinates(x[before] + (x[after] - x[before]) * fraction,
+				y[before] + (y[after] - y[before]) * fraction, z[before] + (z[after] - z[before]) * fraction);
+		return true;
+	}
+
+	/**
+	 * Forgets every recorded position (eg. when the player respawns, so that the player is not rewound across the map)
+	 */
+	public void clear() {
+		oldest = 0;
+		count = 0;
+	}
+
+	/**
+	 * @param i The position of an entry, counting from the oldest
+	 * @return The index of the entry in the ring
+	 */
+	private int index(int i) {
+		return (oldest + i) % times.length;
+	}
+}
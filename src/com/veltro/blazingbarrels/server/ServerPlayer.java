@@ -0,0 +1,371 @@
+package com.veltro.blazingbarrels.server;
+
+import java.net.InetAddress;
+
+import com.veltro.blazingbarrels.engine.connect.snapshot.PlayerSnapshot;
+import com.veltro.blazingbarrels.engine.connect.snapshot.SnapshotHistory;
+import com.veltro.blazingbarrels.game.location.Location3D;
+
+/**
+ * The server's authoritative copy of a connected player, along with the state the server keeps about the player's
+ * client (its address, the snapshots it has been sent, the last movement input it has reported, and how far it may
+ * still move). A player is created once its client has authenticated, when it is assigned the ID by which packets
+ * refer to it, and enters the game once the client has sent a join request.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class ServerPlayer {
+
+	/**
+	 * The name of the player
+	 */
+	private final String username;
+
+	/**
+	 * The ID assigned to the player by the server, unique among the connected players
+	 */
+	private final int playerID;
+
+	/**
+	 * The IP address of the player's client
+	 */
+	private final InetAddress address;
+
+	/**
+	 * The port on the above address
+	 */
+	private final int port;
+
+	/**
+	 * The player's location
+	 */
+	private final Location3D location = new Location3D();
+
+	/**
+	 * The player's health level
+	 */
+	private int health;
+
+	/**
+	 * Whether the player has administrator privileges
+	 */
+	private boolean admin;
+
+	/**
+	 * Whether the player is in fly mode
+	 */
+	private boolean flyMode;
+
+	/**
+	 * Whether the player is in god mode
+	 */
+	private boolean godMode;
+
+	/**
+	 * Whether the player is invisible to other players
+	 */
+	private boolean vanished;
+
+	/**
+	 * Whether the player has joined the game (rather than having only authenticated)
+	 */
+	private boolean joined;
+
+	/**
+	 * Whether the player joined as a spectator
+	 */
+	private boolean spectator;
+
+	/**
+	 * The server tick at which the player joined the game (-1 if the player has not joined). Snapshots taken before
+	 * then may hold another player that had the same ID.
+	 */
+	private int joinTick = -1;
+
+	/**
+	 * The sequence number of the last movement input the player's client reported (-1 if none has been)
+	 */
+	private int inputSequence = -1;
+
+	/**
+	 * Whether the client has reported movement input (or been moved somewhere other than it reported) since the
+	 * server last confirmed the player's location
+	 */
+	private boolean inputPending;
+
+	/**
+	 * The distance, in pixels, the player could still move as of the {@link #lastMoveTime} (see
+	 * {@link MovementValidator})
+	 */
+	private float movementAllowance;
+
+	/**
+	 * The time, as given by System.nanoTime(), of the last movement update validated (or at which the player joined)
+	 */
+	private long lastMoveTime;
+
+	/**
+	 * The snapshots sent to the player's client, against which new snapshots are sent as deltas
+	 */
+	private final SnapshotHistory snapshotHistory = new SnapshotHistory();
+
+	/**
+	 * The player's recent positions, against which shots are validated
+	 */
+	private final PositionHistory positionHistory;
+
+	/**
+	 * The stamp of the last snapshot the player was added to, so that a player found more than once while a snapshot
+	 * is being built is added only once
+	 */
+	private int snapshotStamp;
+
+	/**
+	 * Constructor
+	 *
+	 * @param username The player's {@link #username}
+	 * @param playerID The player's {@link #playerID}
+	 * @param address The IP address of the player's client
+	 * @param port The port on the above address
+	 * @param health The player's starting {@link #health}
+	 * @param historyCapacity The number of positions the player's {@link #positionHistory} keeps
+	 */
+	public ServerPlayer(String username, int playerID, InetAddress address, int port, int health,
+			int historyCapacity) {
+		this.username = username;
+		this.playerID = playerID;
+		this.address = address;
+		this.port = port;
+		this.health = health;
+		positionHistory = new PositionHistory(historyCapacity);
+	}
+
+	/**
+	 * Copies the player's state into a snapshot
+	 *
+	 * @param snapshot The player's entry in a world snapshot (added under the player's {@link #playerID})
+	 */
+	public void writeSnapshot(PlayerSnapshot snapshot) {
+		snapshot.setLocation(location);
+		snapshot.setHealth(health);
+		snapshot.setAdmin(admin);
+		snapshot.setFlyMode(flyMode);
+		snapshot.setGodMode(godMode);
+		snapshot.setVanished(vanished);
+	}
+
+	/**
+	 * Moves the player to a location the server has simulated or validated (see {@link MovementValidator})
+	 *
+	 * @param newLocation The new location (copied, so it may be reused)
+	 * @param newInputSequence The sequence number of the last movement input the location reflects (-1 if the client
+	 * reported none)
+	 * @param corrected Whether the location differs from the one the client reported, in which case the client is
+	 * sent the player's location at the end of the tick even if it reported no input sequence
+	 */
+	public void move(Location3D newLocation, int newInputSequence, boolean corrected) {
+		location.setCoordinates(newLocation.getX(), newLocation.getY(), newLocation.getZ());
+		location.setRotation(newLocation.getYaw(), newLocation.getPitch(), newLocation.getRoll());
+		if (newInputSequence > -1)
+			inputSequence = newInputSequence;
+		if (newInputSequence > -1 || corrected)
+			inputPending = true;
+	}
+
+	/**
+	 * @return Whether the client has reported movement input (or been moved somewhere other than it reported) since
+	 * the last call, clearing the flag
+	 */
+	public boolean takeInputPending() {
+		boolean pending = inputPending;
+		inputPending = false;
+		return pending;
+	}
+
+	/**
+	 * @return The {@link #username} of the player
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	/**
+	 * @return The {@link #playerID} of the player
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * @return The IP address of the player's client
+	 */
+	public InetAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * @return The port on the client's IP address
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * @return The player's {@link #location}
+	 */
+	public Location3D getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return The player's {@link #health} level
+	 */
+	public int getHealth() {
+		return health;
+	}
+
+	/**
+	 * Specifies the player's {@link #health}
+	 *
+	 * @param health A whole number
+	 */
+	public void setHealth(int health) {
+		this.health = health;
+	}
+
+	/**
+	 * @return Whether the player has {@link #admin administrator} privileges
+	 */
+	public boolean isAdmin() {
+		return admin;
+	}
+
+	/**
+	 * Specifies whether the player has {@link #admin administrator} privileges
+	 *
+	 * @param admin The new status
+	 */
+	public void setAdmin(boolean admin) {
+		this.admin = admin;
+	}
+
+	/**
+	 * @return Whether the player is in {@link #flyMode}
+	 */
+	public boolean isInFlyMode() {
+		return flyMode;
+	}
+
+	/**
+	 * @return Whether the player is in {@link #godMode}
+	 */
+	public boolean isInGodMode() {
+		return godMode;
+	}
+
+	/**
+	 * @return Whether the player is {@link #vanished}
+	 */
+	public boolean isVanished() {
+		return vanished;
+	}
+
+	/**
+	 * @return Whether the player has {@link #joined} the game
+	 */
+	public boolean hasJoined() {
+		return joined;
+	}
+
+	/**
+	 * Marks the player as having {@link #joined} the game, with no movement saved up
+	 *
+	 * @param spectator Whether the player joined as a {@link #spectator}
+	 * @param tick The current server tick (the {@link #joinTick})
+	 * @param now The current time, as given by System.nanoTime()
+	 */
+	public void join(boolean spectator, int tick, long now) {
+		joined = true;
+		this.spectator = spectator;
+		joinTick = tick;
+		movementAllowance = 0;
+		lastMoveTime = now;
+	}
+
+	/**
+	 * @return The server tick at which the player joined the game (-1 if the player has not joined)
+	 */
+	public int getJoinTick() {
+		return joinTick;
+	}
+
+	/**
+	 * @return Whether the player joined as a {@link #spectator}
+	 */
+	public boolean isSpectator() {
+		return spectator;
+	}
+
+	/**
+	 * @return The sequence number of the last movement input the client reported (-1 if none has been)
+	 */
+	public int getInputSequence() {
+		return inputSequence;
+	}
+
+	/**
+	 * @return The {@link #snapshotHistory} of the player's client
+	 */
+	public SnapshotHistory getSnapshotHistory() {
+		return snapshotHistory;
+	}
+
+	/**
+	 * @return The player's {@link #positionHistory}
+	 */
+	public PositionHistory getPositionHistory() {
+		return positionHistory;
+	}
+
+	/**
+	 * @return The {@link #movementAllowance}, in pixels, as of the {@link #lastMoveTime}
+	 */
+	float getMovementAllowance() {
+		return movementAllowance;
+	}
+
+	/**
+	 * @return The {@link #lastMoveTime}, as given by System.nanoTime()
+	 */
+	long getLastMoveTime() {
+		return lastMoveTime;
+	}
+
+	/**
+	 * Records what is left of the player's movement allowance after a movement update
+	 *
+	 * @param movementAllowance The new {@link #movementAllowance}, in pixels
+	 * @param now The time of the update (the new {@link #lastMoveTime})
+	 */
+	void setMovementAllowance(float movementAllowance, long now) {
+		this.movementAllowance = movementAllowance;
+		lastMoveTime = now;
+	}
+
+	/**
+	 * @return The {@link #snapshotStamp} of the last snapshot the player was added to
+	 */
+	int getSnapshotStamp() {
+		return snapshotStamp;
+	}
+
+	/**
+	 * Records that the player has been added to a snapshot
+	 *
+	 * @param snapshotStamp The {@link #snapshotStamp} of the snapshot
+	 */
+	void setSnapshotStamp(int snapshotStamp) {
+		this.snapshotStamp = snapshotStamp;
+	}
+}
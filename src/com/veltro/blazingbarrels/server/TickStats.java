@@ -0,0 +1,175 @@
+package com.veltro.blazingbarrels.server;
+
+/**
+ * Timing statistics for the ticks run by a {@link BBServer} over a reporting window: how long ticks took to run, how
+ * late they started, how many overran the tick period, and how many were skipped because the server fell too far
+ * behind. The server records every tick and periodically reports and {@link #reset()}s the statistics. Recording and
+ * reading are synchronized, so the statistics may be read from any thread.
+ *
+ * @author LinearLogic
+ * @since 0.5.9
+ */
+public class TickStats {
+
+	/**
+	 * The length, in nanoseconds, of a tick period
+	 */
+	private final long tickPeriod;
+
+	/**
+	 * The number of ticks run in the window
+	 */
+	private int tickCount;
+
+	/**
+	 * The total time, in nanoseconds, spent running ticks in the window
+	 */
+	private long totalDuration;
+
+	/**
+	 * The shortest time, in nanoseconds, a tick took to run in the window
+	 */
+	private long minDuration;
+
+	/**
+	 * The longest time, in nanoseconds, a tick took to run in the window
+	 */
+	private long maxDuration;
+
+	/**
+	 * The longest time, in nanoseconds, a tick started after it was due in the window
+	 */
+	private long maxLateness;
+
+	/**
+	 * The number of ticks in the window that took longer than the {@link #tickPeriod} to run
+	 */
+	private int overrunCount;
+
+	/**
+	 * The number of ticks skipped in the window because the server fell too far behind
+	 */
+	private int skippedCount;
+
+	/**
+	 * The time, as given by System.nanoTime(), at which the window started
+	 */
+	private long windowStart;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tickPeriod The {@link #tickPeriod}, in nanoseconds
+	 */
+	public TickStats(long tickPeriod) {
+		this.tickPeriod = tickPeriod;
+		reset();
+	}
+
+	/**
+	 * Records a tick
+	 *
+	 * @param duration The time, in nanoseconds, the tick took to run
+	 * @param lateness The time, in nanoseconds, by which the tick started after it was due
+	 */
+	public synchronized void record(long duration, long lateness) {
+		tickCount++;
+		totalDuration += duration;
+		if (duration < minDuration)
+			minDuration = duration;
+		if (duration > maxDuration)
+			maxDuration = duration;
+		if (lateness > maxLateness)
+			maxLateness = lateness;
+		if (duration > tickPeriod)
+			overrunCount++;
+	}
+
+	/**
+	 * Records ticks that were skipped because the server fell too far behind
+	 *
+	 * @param count The number of ticks skipped
+	 */
+	public synchronized void recordSkipped(int count) {
+		skippedCount += count;
+	}
+
+	/**
+	 * Starts a new reporting window, clearing the statistics
+	 */
+	public synchronized void reset() {
+		tickCount = 0;
+		totalDuration = 0;
+		minDuration = Long.MAX_VALUE;
+		maxDuration = 0;
+		maxLateness = 0;
+		overrunCount = 0;
+		skippedCount = 0;
+		windowStart = System.nanoTime();
+	}
+
+	/**
+	 * @return The number of ticks run in the window
+	 */
+	public synchronized int getTickCount() {
+		return tickCount;
+	}
+
+	/**
+	 * @return The average time, in nanoseconds, a tick took to run in the window (0 if no tick has been run)
+	 */
+	public synchronized long getAverageDuration() {
+		return tickCount == 0 ? 0 : totalDuration / tickCount;
+	}
+
+	/**
+	 * @return The shortest time, in nanoseconds, a tick took to run in the window (0 if no tick has been run)
+	 */
+	public synchronized long getMinDuration() {
+		return tickCount == 0 ? 0 : minDuration;
+	}
+
+	/**
+	 * @return The longest time, in nanoseconds, a tick took to run in the window
+	 */
+	public synchronized long getMaxDuration() {
+		return maxDuration;
+	}
+
+	/**
+	 * @return The longest time, in nanoseconds, a tick started after it was due in the window
+	 */
+	public synchronized long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * @return The number of ticks in the window that took longer than a tick period to run
+	 */
+	public synchronized int getOverrunCount() {
+		return overrunCount;
+	}
+
+	/**
+	 * @return The number of ticks skipped in the window
+	 */
+	public synchronized int getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * @return The share of the window's wall-clock time spent running ticks (0.0 - 1.0)
+	 */
+	public synchronized double getLoad() {
+		long elapsed = System.nanoTime() - windowStart;
+		return elapsed <= 0 ? 0 : (double) totalDuration / elapsed;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d ticks, tick time avg %.2f ms / min %.2f ms / max %.2f ms, max lateness %.2f ms, " +
+				"%d overruns, %d skipped, load %.1f%%", tickCount, getAverageDuration() / 1e6,
+				getMinDuration() / 1e6, maxDuration / 1e6, maxLateness / 1e6, overrunCount, skippedCount,
+				getLoad() * 100);
+	}
+}